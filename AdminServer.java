@@ -0,0 +1,69 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+// Plain HTTP on the admin port, separate from the chat protocol: GET /metrics returns the registry in the
+// Prometheus text format. Bound to loopback unless adminBindAddress says otherwise; there is no auth.
+final class AdminServer {
+    private static final Logger logger = Logger.getLogger(AdminServer.class);
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final Metrics metrics;
+    private final HttpServer http;
+    private final ExecutorService executor;
+
+    AdminServer(Metrics metrics, String bindAddress, int port) throws IOException {
+        this.metrics = metrics;
+        this.http = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "Admin-http");
+            t.setDaemon(true);
+            return t;
+        });
+        http.setExecutor(executor);
+        http.createContext("/metrics", this::handleMetrics);
+    }
+
+    void start() {
+        http.start();
+        logger.info("Serving metrics on http://%s:%d/metrics",
+            http.getAddress().getHostString(), http.getAddress().getPort());
+    }
+
+    void stop() {
+        http.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(method)) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Error serving metrics", e);
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+// Which accepted sockets get to become sessions, decided on the accept thread before anything else is done
+// with them. Three limits, each off when configured as 0:
+//   - a global accept rate: the accept thread waits for it before taking the next connection, so a burst
+//     sits in the kernel's backlog (and, once that is full, in the clients' SYN retries) instead of in
+//     half-set-up sessions;
+//   - open connections per source address;
+//   - new connections per second per source address, up to a second's worth at once.
+// Per-address counts live in `sources` and are only changed inside compute, so an admit on the accept
+// thread, a release on whichever thread saw the disconnect and the periodic sweep cannot lose an update.
+final class AdmissionControl {
+    private static final class Source {
+        int open;
+        // GCRA state as in RateLimiter: when this address's connect bucket is full again.
+        long full = Long.MIN_VALUE;
+    }
+
+    private final ConcurrentHashMap<InetAddress, Source> sources = new ConcurrentHashMap<>();
+    private final AtomicLongArray acceptBucket = new AtomicLongArray(1);
+    private final int maxClients;
+    private final int maxPerSource;
+    private final long acceptInterval;
+    private final long acceptTolerance;
+    private final long connectInterval;
+    private final long connectTolerance;
+
+    AdmissionControl(ServerConfig config) {
+        this.maxClients = config.getMaxClients();
+        this.maxPerSource = config.getMaxConnectionsPerIp();
+        int acceptRate = config.getAcceptRatePerSec();
+        this.acceptInterval = (acceptRate > 0) ? TimeUnit.SECONDS.toNanos(1) / acceptRate : 0;
+        this.acceptTolerance = (acceptRate > 0) ? (acceptRate - 1) * acceptInterval : 0;
+        int connectRate = config.getConnectRatePerIp();
+        this.connectInterval = (connectRate > 0) ? TimeUnit.SECONDS.toNanos(1) / connectRate : 0;
+        this.connectTolerance = (connectRate > 0) ? (connectRate - 1) * connectInterval : 0;
+        acceptBucket.set(0, Long.MIN_VALUE);
+    }
+
+    // Nanos the accept thread should wait before the next accept; 0 once it may go ahead, which also
+    // spends the token.
+    long acceptDelay(long now) {
+        return RateLimiter.take(acceptBucket, 0, acceptInterval, acceptTolerance, now);
+    }
+
+    // Null if the connection is admitted, and then counted against its address until release; otherwise
+    // the reason it is not.
+    String admit(InetAddress address, int open, long now) {
+        if (open >= maxClients) return "max_clients";
+        if (maxPerSource <= 0 && connectInterval == 0) return null;
+        String[] refused = {null};
+        sources.compute(address, (a, s) -> {
+            if (s == null) s = new Source();
+            if (maxPerSource > 0 && s.open >= maxPerSource) {
+                refused[0] = "per_ip_open";
+                return s;
+            }
+            if (connectInterval > 0) {
+                long from = Math.max(s.full, now);
+                if (from - now > connectTolerance) {
+                    refused[0] = "per_ip_rate";
+                    return s;
+                }
+                s.full = from + connectInterval;
+            }
+            s.open++;
+            return s;
+        });
+        return refused[0];
+    }
+
+    void release(InetAddress address) {
+        if (address == null) return;
+        sources.computeIfPresent(address, (a, s) -> {
+            s.open--;
+            return s;
+        });
+    }
+
+    // Forgets addresses with nothing open and a full bucket, which is exactly a new Source.
+    void sweep(long now) {
+        for (InetAddress address : sources.keySet()) {
+            sources.computeIfPresent(address, (a, s) -> (s.open <= 0 && s.full <= now) ? null : s);
+        }
+    }
+
+    int sources() {
+        return sources.size();
+    }
+}
@@ -0,0 +1,155 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+
+// One room's ring of history entries kept in HistoryArena blocks instead of as objects. Entries are
+// appended to the room's newest block as records
+//   int length, long seq, long epochSecond, int nano, int fromId, message (UTF-8)
+// and found through the room's index block: for every ring slot, the seq it holds and where its record is.
+// Blocks fill in seq order, so the oldest one goes back to the arena as soon as the window has moved past
+// its last entry. Nothing is decoded until a reader asks for that seq. When the arena is full the room
+// gives up its own oldest block early; those entries are reported to `dropped` so the search index can
+// forget them. A record too big for a block, or one that finds the arena full with no block of the room's
+// own to give up, stays on the heap.
+// Not thread-safe: MessageHistory calls it under its lock.
+final class ArenaRing {
+    private static final int HEADER = 28;
+
+    private static final class Block {
+        final int id;
+        int used;
+        long lastSeq = -1;
+
+        Block(int id) {
+            this.id = id;
+        }
+    }
+
+    private final HistoryArena arena;
+    private final String room;
+    private final int capacity;
+    private final long[] seqs;
+    // (block + 1) << 32 | offset of the slot's record; 0 if the slot is empty or its entry is in `large`.
+    private final long[] locs;
+    private final ArrayDeque<Block> blocks = new ArrayDeque<>();
+    private MessageHistory.HistoryEntry[] large;
+
+    ArenaRing(HistoryArena arena, String room, int capacity) {
+        this.arena = arena;
+        this.room = room;
+        this.capacity = capacity;
+        this.seqs = new long[capacity];
+        this.locs = new long[capacity];
+        Arrays.fill(seqs, -1);
+    }
+
+    // Whatever occupies seq's slot, i.e. the entry storing seq would overwrite.
+    MessageHistory.HistoryEntry inSlot(long seq) {
+        int slot = slot(seq);
+        return (seqs[slot] < 0) ? null : get(seqs[slot]);
+    }
+
+    MessageHistory.HistoryEntry get(long seq) {
+        int slot = slot(seq);
+        if (seqs[slot] != seq) return null;
+        long loc = locs[slot];
+        if (loc == 0) return (large != null) ? large[slot] : null;
+        int block = (int) (loc >>> 32) - 1;
+        ByteBuffer b = arena.buffer(block);
+        int pos = arena.offset(block) + (int) loc;
+        int len = b.getInt(pos);
+        byte[] msg = new byte[len - HEADER];
+        b.get(pos + HEADER, msg);
+        return new MessageHistory.HistoryEntry(seq, Interner.NICKS.name(b.getInt(pos + 24)), room,
+                new String(msg, StandardCharsets.UTF_8), Instant.ofEpochSecond(b.getLong(pos + 12), b.getInt(pos + 20)));
+    }
+
+    void put(MessageHistory.HistoryEntry e, Consumer<MessageHistory.HistoryEntry> dropped) {
+        int slot = slot(e.seq);
+        // The caller has the occupant already and drops it from the index itself.
+        seqs[slot] = -1;
+        locs[slot] = 0;
+        if (large != null) large[slot] = null;
+
+        trim(e.seq + 1 - capacity, dropped);
+        byte[] msg = e.message.getBytes(StandardCharsets.UTF_8);
+        int len = HEADER + msg.length;
+        seqs[slot] = e.seq;
+        Block block = (len <= HistoryArena.BLOCK_BYTES) ? space(len, dropped) : null;
+        if (block == null) {
+            if (large == null) large = new MessageHistory.HistoryEntry[capacity];
+            large[slot] = e;
+            return;
+        }
+        ByteBuffer b = arena.buffer(block.id);
+        int pos = arena.offset(block.id) + block.used;
+        b.putInt(pos, len);
+        b.putLong(pos + 4, e.seq);
+        b.putLong(pos + 12, e.timestamp.getEpochSecond());
+        b.putInt(pos + 20, e.timestamp.getNano());
+        b.putInt(pos + 24, e.fromId);
+        b.put(pos + HEADER, msg);
+        locs[slot] = ((long) (block.id + 1) << 32) | block.used;
+        block.used += len;
+        block.lastSeq = e.seq;
+    }
+
+    // Gives every block back to the arena.
+    void clear() {
+        for (Block block : blocks) arena.release(block.id);
+        blocks.clear();
+        Arrays.fill(seqs, -1);
+        Arrays.fill(locs, 0);
+        large = null;
+    }
+
+    // Returns the blocks holding nothing at or after windowStart.
+    private void trim(long windowStart, Consumer<MessageHistory.HistoryEntry> dropped) {
+        while (blocks.size() > 1 && blocks.peekFirst().lastSeq < windowStart) {
+            Block oldest = blocks.pollFirst();
+            drop(oldest, dropped);
+            arena.release(oldest.id);
+        }
+    }
+
+    // The newest block if the record fits, else a fresh one; with the arena full, the oldest block is
+    // emptied and reused. Null if the arena is full and this room has no block to give up.
+    private Block space(int len, Consumer<MessageHistory.HistoryEntry> dropped) {
+        Block last = blocks.peekLast();
+        if (last != null && last.used + len <= HistoryArena.BLOCK_BYTES) return last;
+        int id = arena.allocate();
+        if (id < 0) {
+            Block oldest = blocks.pollFirst();
+            if (oldest == null) return null;
+            drop(oldest, dropped);
+            arena.reclaimed();
+            id = oldest.id;
+        }
+        Block block = new Block(id);
+        blocks.addLast(block);
+        return block;
+    }
+
+    // Forgets the block's entries that are still in their slots.
+    private void drop(Block block, Consumer<MessageHistory.HistoryEntry> dropped) {
+        ByteBuffer b = arena.buffer(block.id);
+        int base = arena.offset(block.id);
+        for (int off = 0; off < block.used; off += b.getInt(base + off)) {
+            long seq = b.getLong(base + off + 4);
+            int slot = slot(seq);
+            if (seqs[slot] == seq && locs[slot] == (((long) (block.id + 1) << 32) | off)) {
+                dropped.accept(get(seq));
+                seqs[slot] = -1;
+                locs[slot] = 0;
+            }
+        }
+    }
+
+    private int slot(long seq) {
+        return (int) (seq % capacity);
+    }
+}
@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+
+// Length-prefixed key/value payload: for every pair, varint(len) key-bytes varint(len) value-bytes,
+// both UTF-8. Frames carrying it have Frame.FLAG_BINARY_KV set.
+public final class BinaryKvp {
+    private BinaryKvp() {}
+
+    // Keys the server and clients actually use; decoding one of these reuses the constant String.
+    private static final String[] KNOWN_KEYS = {
+        "room", "from", "msg", "time", "nick", "to", "code", "count", "messages", "results",
+        "users", "rooms", "members", "status", "reason", "client", "server", "version", "keyword",
+        "t", "data", "oldRoom", "missed", "codecs", "codec", "maxClients", "heartbeatInterval",
+        "original", "new", "message", "before", "first",
+        "after", "last", "limit", "more", "total",
+    };
+    private static final byte[][] KNOWN_KEY_BYTES = new byte[KNOWN_KEYS.length][];
+
+    static {
+        for (int i = 0; i < KNOWN_KEYS.length; i++) {
+            KNOWN_KEY_BYTES[i] = KNOWN_KEYS[i].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    public static byte[] encode(Map<String, String> map) {
+        int size = 0;
+        for (var e : map.entrySet()) {
+            int k = utf8Length(e.getKey());
+            int v = utf8Length(e.getValue());
+            size += varintSize(k) + k + varintSize(v) + v;
+        }
+
+        byte[] out = new byte[size];
+        int pos = 0;
+        for (var e : map.entrySet()) {
+            pos = writeString(e.getKey(), out, pos);
+            pos = writeString(e.getValue(), out, pos);
+        }
+        return out;
+    }
+
+    public static Map<String, String> decode(byte[] p) throws IOException {
+        return decode(p, p.length);
+    }
+
+    // Decodes p[0, length); bytes past length are ignored, as in a pooled payload array.
+    public static Map<String, String> decode(byte[] p, int length) throws IOException {
+        Map<String, String> map = new HashMap<>();
+        int pos = 0;
+        while (pos < length) {
+            int klen = 0, shift = 0, b;
+            do {
+                if (pos >= length || shift > 28) throw new IOException("Bad binary KV length");
+                b = p[pos++];
+                klen |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            if (klen < 0 || klen > length - pos) throw new IOException("Bad binary KV key");
+            String key = key(p, pos, klen);
+            pos += klen;
+
+            int vlen = 0;
+            shift = 0;
+            do {
+                if (pos >= length || shift > 28) throw new IOException("Bad binary KV length");
+                b = p[pos++];
+                vlen |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            if (vlen < 0 || vlen > length - pos) throw new IOException("Bad binary KV value");
+            map.put(key, vlen == 0 ? "" : new String(p, pos, vlen, StandardCharsets.UTF_8));
+            pos += vlen;
+        }
+        return map;
+    }
+
+    private static String key(byte[] p, int off, int len) {
+        outer:
+        for (int i = 0; i < KNOWN_KEY_BYTES.length; i++) {
+            byte[] k = KNOWN_KEY_BYTES[i];
+            if (k.length != len) continue;
+            for (int j = 0; j < len; j++) {
+                if (k[j] != p[off + j]) continue outer;
+            }
+            return KNOWN_KEYS[i];
+        }
+        return new String(p, off, len, StandardCharsets.UTF_8);
+    }
+
+    private static int varintSize(int v) {
+        int n = 1;
+        while ((v >>>= 7) != 0) n++;
+        return n;
+    }
+
+    private static int utf8Length(String s) {
+        if (s == null) return 0;
+        int n = s.length();
+        int len = n;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) continue;
+            if (c < 0x800) {
+                len += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                len += 2;
+                i++;
+            } else {
+                len += 2;
+            }
+        }
+        return len;
+    }
+
+    // Writes varint(utf8Length(s)) followed by the UTF-8 bytes; a lone surrogate is written as U+FFFD.
+    private static int writeString(String s, byte[] out, int pos) {
+        int len = utf8Length(s);
+        int v = len;
+        while ((v & ~0x7F) != 0) {
+            out[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out[pos++] = (byte) v;
+        if (s == null) return pos;
+
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xC0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                out[pos++] = (byte) (0xF0 | (cp >> 18));
+                out[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                out[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                if (Character.isSurrogate(c)) c = '\uFFFD';
+                out[pos++] = (byte) (0xE0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,62 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+
+// Size-classed pool of payload arrays. Classes are powers of two from MIN_CLASS up to the first one
+// that holds Frame.MAX_PAYLOAD_SIZE; each class keeps at most about RETAINED_BYTES of idle arrays.
+// An acquired array may be longer than requested, so callers must track the real length themselves.
+public final class BufferPool {
+    private static final int MIN_SHIFT = 8;
+    private static final int MIN_CLASS = 1 << MIN_SHIFT;
+    private static final int RETAINED_BYTES = 4 * 1024 * 1024;
+
+    private static final BufferPool SHARED = new BufferPool();
+
+    private final ArrayBlockingQueue<byte[]>[] classes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool() {
+        int n = classIndex(Frame.MAX_PAYLOAD_SIZE) + 1;
+        classes = new ArrayBlockingQueue[n];
+        for (int i = 0; i < n; i++) {
+            int size = MIN_CLASS << i;
+            classes[i] = new ArrayBlockingQueue<>(Math.max(4, RETAINED_BYTES / size));
+        }
+    }
+
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    public byte[] acquire(int size) {
+        int c = classIndex(size);
+        if (c >= classes.length) {
+            misses.increment();
+            return new byte[size];
+        }
+        byte[] b = classes[c].poll();
+        if (b != null) {
+            hits.increment();
+            return b;
+        }
+        misses.increment();
+        return new byte[MIN_CLASS << c];
+    }
+
+    // Arrays that did not come from acquire, or whose class is already full, are left to the GC.
+    public void release(byte[] b) {
+        if (b == null || b.length < MIN_CLASS || Integer.bitCount(b.length) != 1) return;
+        int c = classIndex(b.length);
+        if (c < classes.length) classes[c].offer(b);
+    }
+
+    public long getHits() { return hits.sum(); }
+    public long getMisses() { return misses.sum(); }
+
+    private static int classIndex(int size) {
+        if (size <= MIN_CLASS) return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+}
@@ -3,7 +3,6 @@ import java.net.Socket;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
 
 
 public final class ChatClient {
@@ -16,12 +15,16 @@ public final class ChatClient {
     private DataInputStream in;
     private DataOutputStream out;
     
-    private final BlockingQueue<Frame> inbound = new LinkedBlockingQueue<>();
-    private final AtomicInteger seq = new AtomicInteger(1);
+    private static final long LOGIN_TIMEOUT_MILLIS = 5000;
+    private static final long REQUEST_TIMEOUT_MILLIS = 3000;
+    
+    private final RequestMux mux = new RequestMux(this::send);
     
     private volatile boolean running = true;
     private volatile String nick = null;
     private volatile String room = "lobby";
+    // Per room, the seq of the oldest history entry shown so far; "/history more" pages back from it.
+    private final Map<String, Long> historyCursors = new ConcurrentHashMap<>();
     
     private Thread readerThread;
     private ScheduledExecutorService heartbeatScheduler;
@@ -32,7 +35,7 @@ public final class ChatClient {
     }
     
     private int nextSeq() {
-        return seq.getAndIncrement();
+        return mux.nextSeq();
     }
     
     public void start() throws Exception {
@@ -55,13 +58,12 @@ public final class ChatClient {
             heartbeatScheduler.scheduleAtFixedRate(this::sendHeartbeat, 30, 30, TimeUnit.SECONDS);
             
         
-            send(Frame.ofText(MsgType.HELLO, nextSeq(), Kvp.encode(Kvp.kv("client", "java"))));
-            Frame welcome = takeType(MsgType.WELCOME, 5, TimeUnit.SECONDS);
-            if (welcome == null) {
+            Frame welcome = await(mux.request(MsgType.HELLO, Kvp.kv("client", "java"), LOGIN_TIMEOUT_MILLIS));
+            if (welcome == null || welcome.type != MsgType.WELCOME) {
                 throw new IOException("No WELCOME from server");
             }
             
-            Map<String, String> welcomeKv = Kvp.decode(welcome.payloadText());
+            Map<String, String> welcomeKv = Kvp.decode(welcome);
             System.out.println(String.format("[SERVER] %s v%s - %s", 
                 welcomeKv.getOrDefault("server", "ChatServer"),
                 welcomeKv.getOrDefault("version", "1.0"),
@@ -78,21 +80,19 @@ public final class ChatClient {
                 return;
             }
             
-            send(Frame.ofText(MsgType.LOGIN, nextSeq(), Kvp.encode(Kvp.kv("nick", n.trim()))));
-            
-            Frame loginResp = takeAnyOf(5, TimeUnit.SECONDS, MsgType.LOGIN_OK, MsgType.LOGIN_FAIL);
+            Frame loginResp = await(mux.request(MsgType.LOGIN, Kvp.kv("nick", n.trim()), LOGIN_TIMEOUT_MILLIS));
             if (loginResp == null) {
                 throw new IOException("No LOGIN response");
             }
             
             if (loginResp.type == MsgType.LOGIN_FAIL) {
-                Map<String, String> failKv = Kvp.decode(loginResp.payloadText());
+                Map<String, String> failKv = Kvp.decode(loginResp);
                 System.out.println("[LOGIN_FAIL] " + failKv.getOrDefault("reason", "Unknown error"));
                 shutdown();
                 return;
             }
             
-            Map<String, String> ok = Kvp.decode(loginResp.payloadText());
+            Map<String, String> ok = Kvp.decode(loginResp);
             nick = ok.getOrDefault("nick", n.trim());
             System.out.println("[LOGIN_OK] nick=" + nick);
             
@@ -119,12 +119,15 @@ public final class ChatClient {
     private void printHelp() {
         System.out.println("\n=== Commands ===");
         System.out.println("/join <room>     - Join a room");
-        System.out.println("/leave           - Leave current room");
+        System.out.println("/sub <room>      - Join a room, staying in the others");
+        System.out.println("/leave [room]    - Leave a room (default: current room)");
+        System.out.println("/say <room> <msg> - Chat in a subscribed room");
         System.out.println("/rooms           - List all rooms");
         System.out.println("/roominfo <room> - Get room information");
         System.out.println("/users           - List all users");
         System.out.println("/userinfo <nick> - Get user information");
         System.out.println("/history [room] [count] - Get chat history");
+        System.out.println("/history more [room]     - Get the next older page");
         System.out.println("/w <nick> <msg>  - Send whisper");
         System.out.println("/ping            - Send ping");
         System.out.println("/quit            - Quit");
@@ -139,125 +142,94 @@ public final class ChatClient {
         } else if (line.startsWith("/join ")) {
             String roomName = line.substring(6).trim();
             if (roomName.isEmpty()) roomName = "lobby";
-            send(Frame.ofText(MsgType.JOIN, nextSeq(), Kvp.encode(Kvp.kv("room", roomName))));
-            try {
-                Frame resp = takeAnyOf(3, TimeUnit.SECONDS, MsgType.JOIN_OK, MsgType.ERROR);
-                if (resp != null && resp.type == MsgType.JOIN_OK) {
-                    Map<String, String> kv = Kvp.decode(resp.payloadText());
-                    room = kv.getOrDefault("room", roomName);
-                    System.out.println("[JOIN_OK] Joined room: " + room);
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+            Frame resp = call(MsgType.JOIN, Kvp.kv("room", roomName), MsgType.JOIN_OK);
+            if (resp != null) {
+                Map<String, String> kv = Kvp.decode(resp);
+                room = kv.getOrDefault("room", roomName);
+                System.out.println("[JOIN_OK] Joined room: " + room);
+            }
+        } else if (line.startsWith("/sub ")) {
+            String roomName = line.substring(5).trim();
+            Frame resp = call(MsgType.JOIN, Kvp.kv("room", roomName, "keep", "true"), MsgType.JOIN_OK);
+            if (resp != null) {
+                Map<String, String> kv = Kvp.decode(resp);
+                System.out.println("[JOIN_OK] Subscribed to: " + kv.getOrDefault("room", roomName)
+                    + " (rooms: " + kv.getOrDefault("rooms", "") + ")");
             }
         } else if (line.startsWith("/leave")) {
-            send(Frame.ofText(MsgType.LEAVE, nextSeq(), Kvp.encode(Kvp.kv("room", room))));
-            try {
-                Frame resp = takeAnyOf(3, TimeUnit.SECONDS, MsgType.LEAVE_OK, MsgType.ERROR);
-                if (resp != null && resp.type == MsgType.LEAVE_OK) {
-                    System.out.println("[LEAVE_OK] Left room: " + room);
-                    room = "lobby";
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+            String roomName = line.substring(6).trim();
+            if (roomName.isEmpty()) roomName = room;
+            Frame resp = call(MsgType.LEAVE, Kvp.kv("room", roomName), MsgType.LEAVE_OK);
+            if (resp != null) {
+                System.out.println("[LEAVE_OK] Left room: " + roomName);
+                if (roomName.equals(room)) room = "lobby";
             }
         } else if (line.equals("/rooms")) {
-            send(Frame.ofText(MsgType.ROOM_LIST, nextSeq(), Kvp.encode(Kvp.kv())));
-            try {
-                Frame resp = takeType(MsgType.ROOM_LIST_RESP, 3, TimeUnit.SECONDS);
-                if (resp != null) {
-                    Map<String, String> kv = Kvp.decode(resp.payloadText());
-                    String roomsStr = kv.getOrDefault("rooms", "");
-                    int count = Integer.parseInt(kv.getOrDefault("count", "0"));
-                    System.out.println(String.format("[ROOMS] Total: %d", count));
-                    if (!roomsStr.isEmpty()) {
-                        String[] rooms = roomsStr.split(",");
-                        for (String r : rooms) {
-                            System.out.println("  - " + r);
-                        }
+            Frame resp = call(MsgType.ROOM_LIST, Kvp.kv(), MsgType.ROOM_LIST_RESP);
+            if (resp != null) {
+                Map<String, String> kv = Kvp.decode(resp);
+                String roomsStr = kv.getOrDefault("rooms", "");
+                int count = Integer.parseInt(kv.getOrDefault("count", "0"));
+                System.out.println(String.format("[ROOMS] Total: %d", count));
+                if (!roomsStr.isEmpty()) {
+                    String[] rooms = roomsStr.split(",");
+                    for (String r : rooms) {
+                        System.out.println("  - " + r);
                     }
                 }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
             }
         } else if (line.startsWith("/roominfo ")) {
             String roomName = line.substring(10).trim();
-            send(Frame.ofText(MsgType.ROOM_INFO, nextSeq(), Kvp.encode(Kvp.kv("room", roomName))));
-            try {
-                Frame resp = takeAnyOf(3, TimeUnit.SECONDS, MsgType.ROOM_INFO_RESP, MsgType.ERROR);
-                if (resp != null && resp.type == MsgType.ROOM_INFO_RESP) {
-                    Map<String, String> kv = Kvp.decode(resp.payloadText());
-                    System.out.println(String.format("[ROOM_INFO] %s - Members: %s (count: %s)", 
-                        kv.getOrDefault("room", ""),
-                        kv.getOrDefault("members", ""),
-                        kv.getOrDefault("count", "0")));
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+            Frame resp = call(MsgType.ROOM_INFO, Kvp.kv("room", roomName), MsgType.ROOM_INFO_RESP);
+            if (resp != null) {
+                Map<String, String> kv = Kvp.decode(resp);
+                System.out.println(String.format("[ROOM_INFO] %s - Members: %s (count: %s)", 
+                    kv.getOrDefault("room", ""),
+                    kv.getOrDefault("members", ""),
+                    kv.getOrDefault("count", "0")));
             }
         } else if (line.equals("/users")) {
-            send(Frame.ofText(MsgType.USER_LIST, nextSeq(), Kvp.encode(Kvp.kv())));
-            try {
-                Frame resp = takeType(MsgType.USER_LIST_RESP, 3, TimeUnit.SECONDS);
-                if (resp != null) {
-                    Map<String, String> kv = Kvp.decode(resp.payloadText());
-                    String usersStr = kv.getOrDefault("users", "");
-                    int count = Integer.parseInt(kv.getOrDefault("count", "0"));
-                    System.out.println(String.format("[USERS] Total: %d", count));
-                    if (!usersStr.isEmpty()) {
-                        String[] users = usersStr.split(",");
-                        for (String u : users) {
-                            System.out.println("  - " + u);
-                        }
+            Frame resp = call(MsgType.USER_LIST, Kvp.kv(), MsgType.USER_LIST_RESP);
+            if (resp != null) {
+                Map<String, String> kv = Kvp.decode(resp);
+                String usersStr = kv.getOrDefault("users", "");
+                int count = Integer.parseInt(kv.getOrDefault("count", "0"));
+                System.out.println(String.format("[USERS] Total: %d", count));
+                if (!usersStr.isEmpty()) {
+                    String[] users = usersStr.split(",");
+                    for (String u : users) {
+                        System.out.println("  - " + u);
                     }
                 }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
             }
         } else if (line.startsWith("/userinfo ")) {
             String targetNick = line.substring(10).trim();
-            send(Frame.ofText(MsgType.USER_INFO, nextSeq(), Kvp.encode(Kvp.kv("nick", targetNick))));
-            try {
-                Frame resp = takeAnyOf(3, TimeUnit.SECONDS, MsgType.USER_INFO_RESP, MsgType.ERROR);
-                if (resp != null && resp.type == MsgType.USER_INFO_RESP) {
-                    Map<String, String> kv = Kvp.decode(resp.payloadText());
-                    System.out.println(String.format("[USER_INFO] %s - Room: %s, Status: %s", 
-                        kv.getOrDefault("nick", ""),
-                        kv.getOrDefault("room", ""),
-                        kv.getOrDefault("status", "")));
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+            Frame resp = call(MsgType.USER_INFO, Kvp.kv("nick", targetNick), MsgType.USER_INFO_RESP);
+            if (resp != null) {
+                Map<String, String> kv = Kvp.decode(resp);
+                System.out.println(String.format("[USER_INFO] %s - Room: %s, Status: %s", 
+                    kv.getOrDefault("nick", ""),
+                    kv.getOrDefault("room", ""),
+                    kv.getOrDefault("status", "")));
             }
         } else if (line.startsWith("/history")) {
             String[] parts = line.split(" ", 3);
-            String roomName = parts.length > 1 ? parts[1].trim() : room;
-            String countStr = parts.length > 2 ? parts[2].trim() : "20";
-            int count = Integer.parseInt(countStr);
+            boolean older = parts.length > 1 && parts[1].trim().equals("more");
+            String roomName = room;
+            int count = 20;
+            if (older) {
+                if (parts.length > 2) roomName = parts[2].trim();
+            } else {
+                if (parts.length > 1) roomName = parts[1].trim();
+                if (parts.length > 2) count = Integer.parseInt(parts[2].trim());
+            }
             
-            send(Frame.ofText(MsgType.CHAT_HISTORY, nextSeq(), 
-                Kvp.encode(Kvp.kv("room", roomName, "count", String.valueOf(count)))));
-            try {
-                Frame resp = takeType(MsgType.CHAT_HISTORY_RESP, 3, TimeUnit.SECONDS);
-                if (resp != null) {
-                    Map<String, String> kv = Kvp.decode(resp.payloadText());
-                    String messagesStr = kv.getOrDefault("messages", "");
-                    System.out.println(String.format("[HISTORY] Room: %s, Messages: %s", 
-                        kv.getOrDefault("room", ""), kv.getOrDefault("count", "0")));
-                    if (!messagesStr.isEmpty()) {
-                        String[] messages = messagesStr.split("\n");
-                        for (String msg : messages) {
-                            String[] parts2 = msg.split("\\|", 3);
-                            if (parts2.length == 3) {
-                                System.out.println(String.format("  [%s] %s: %s", 
-                                    parts2[1], parts2[0], parts2[2]));
-                            }
-                        }
-                    }
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+            Long before = older ? historyCursors.get(roomName) : null;
+            if (older && before == null) {
+                System.out.println("[HISTORY] Nothing older to show; run /history first");
+                return;
             }
+            requestHistory(roomName, count, before);
         } else if (line.startsWith("/w ")) {
             String rest = line.substring(3).trim();
             int sp = rest.indexOf(' ');
@@ -268,6 +240,14 @@ public final class ChatClient {
             String to = rest.substring(0, sp);
             String msg = rest.substring(sp + 1);
             send(Frame.ofText(MsgType.WHISPER, nextSeq(), Kvp.encode(Kvp.kv("to", to, "msg", msg))));
+        } else if (line.startsWith("/say ")) {
+            String rest = line.substring(5).trim();
+            int sp = rest.indexOf(' ');
+            if (sp <= 0) {
+                System.out.println("usage: /say room msg");
+                return;
+            }
+            send(Frame.ofText(MsgType.CHAT, nextSeq(), Kvp.encode(Kvp.kv("room", rest.substring(0, sp), "msg", rest.substring(sp + 1)))));
         } else if (line.startsWith("/ping")) {
             send(Frame.ofText(MsgType.PING, nextSeq(), Kvp.encode(Kvp.kv("t", Instant.now().toString()))));
         } else {
@@ -298,8 +278,7 @@ public final class ChatClient {
             while (running) {
                 try {
                     Frame f = Frame.readFrom(in);
-                    inbound.offer(f);
-                    renderFrame(f);
+                    if (!mux.dispatch(f)) renderFrame(f);
                 } catch (java.net.SocketTimeoutException e) {
                     continue;
                 } catch (EOFException e) {
@@ -316,6 +295,7 @@ public final class ChatClient {
             logger.error("Unexpected error in reader loop", e);
         } finally {
             running = false;
+            mux.failAll(new IOException("Connection closed"));
             if (running) {
                 System.out.println("[DISCONNECTED]");
             }
@@ -326,7 +306,7 @@ public final class ChatClient {
     }
     
     private void renderFrame(Frame f) {
-        Map<String, String> kv = Kvp.decode(f.payloadText());
+        Map<String, String> kv = Kvp.decode(f);
         
         switch (f.type) {
             case MsgType.CHAT -> {
@@ -351,31 +331,74 @@ public final class ChatClient {
                 System.out.println(String.format("[PONG] t=%s", t));
             }
             default -> {
-                logger.debug("Received frame type: " + MsgType.name(f.type));
+                logger.debug("Received frame type: %s", MsgType.name(f.type));
             }
         }
     }
     
-    private Frame takeType(byte type, long timeout, TimeUnit unit) throws InterruptedException {
-        long deadline = System.nanoTime() + unit.toNanos(timeout);
-        while (System.nanoTime() < deadline) {
-            Frame f = inbound.poll(50, TimeUnit.MILLISECONDS);
-            if (f == null) continue;
-            if (f.type == type) return f;
+    // Prints one page of history. The reply may span several CHAT_HISTORY_RESP frames; all but the
+    // last carry FLAG_CONTINUED, and the last one holds the page's cursors.
+    private void requestHistory(String roomName, int count, Long before) {
+        Map<String, String> req = Kvp.kv("room", roomName, "limit", String.valueOf(count));
+        if (before != null) req.put("before", String.valueOf(before));
+        
+        System.out.println(String.format("[HISTORY] Room: %s", roomName));
+        int[] total = new int[1];
+        Frame resp = await(mux.request(MsgType.CHAT_HISTORY, req, REQUEST_TIMEOUT_MILLIS,
+            part -> total[0] += printHistory(Kvp.decode(part))));
+        if (resp == null) {
+            System.out.println("[HISTORY] Timed out");
+            return;
         }
-        return null;
+        if (resp.type != MsgType.CHAT_HISTORY_RESP) {
+            renderFrame(resp);
+            return;
+        }
+        Map<String, String> kv = Kvp.decode(resp);
+        total[0] += printHistory(kv);
+        
+        boolean more = Boolean.parseBoolean(kv.getOrDefault("more", "false"));
+        if (kv.containsKey("first")) historyCursors.put(roomName, Long.parseLong(kv.get("first")));
+        if (!more) historyCursors.remove(roomName);
+        System.out.println(String.format("[HISTORY] %d messages%s", total[0], more ? " (older: /history more)" : ""));
     }
     
-    private Frame takeAnyOf(long timeout, TimeUnit unit, byte... types) throws InterruptedException {
-        long deadline = System.nanoTime() + unit.toNanos(timeout);
-        while (System.nanoTime() < deadline) {
-            Frame f = inbound.poll(50, TimeUnit.MILLISECONDS);
-            if (f == null) continue;
-            for (byte t : types) {
-                if (f.type == t) return f;
+    private static int printHistory(Map<String, String> kv) {
+        String messagesStr = kv.getOrDefault("messages", "");
+        if (messagesStr.isEmpty()) return 0;
+        int n = 0;
+        for (String msg : messagesStr.split("\n")) {
+            String[] parts = msg.split("\\|", 3);
+            if (parts.length == 3) {
+                System.out.println(String.format("  [%s] %s: %s", parts[1], parts[0], parts[2]));
+                n++;
             }
         }
-        return null;
+        return n;
+    }
+    
+    // Sends a request and waits for its reply. Returns the reply if it has the expected type; an ERROR reply
+    // is printed and a timeout reported, and both return null.
+    private Frame call(byte type, Map<String, String> kv, byte expected) {
+        Frame resp = await(mux.request(type, kv, REQUEST_TIMEOUT_MILLIS));
+        if (resp == null) {
+            System.out.println("[TIMEOUT] No reply to " + MsgType.name(type));
+            return null;
+        }
+        if (resp.type != expected) {
+            renderFrame(resp);
+            return null;
+        }
+        return resp;
+    }
+    
+    private static Frame await(CompletableFuture<Frame> future) {
+        try {
+            return RequestMux.await(future);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
     }
     
     private void shutdown() {
@@ -8,23 +8,41 @@ import java.net.Socket;
 import java.time.Instant;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public final class ChatClientGUI {
     private Socket socket;
     private DataInputStream in;
     private DataOutputStream out;
 
-    private final BlockingQueue<Frame> inbound = new LinkedBlockingQueue<>();
-    private final BlockingQueue<Frame> sendQueue = new LinkedBlockingQueue<>();
+    private static final long LOGIN_TIMEOUT_MILLIS = 5000;
+    private static final long REQUEST_TIMEOUT_MILLIS = 3000;
+    // How long to keep trying to resume after a drop; matches the server's default resumeGraceSeconds.
+    private static final long RESUME_WINDOW_MILLIS = 30_000;
 
-    private final AtomicInteger seq = new AtomicInteger(1);
+    // One per connection, so a writer left over from a dropped connection cannot take the new one's frames.
+    private volatile BlockingQueue<Frame> sendQueue = new LinkedBlockingQueue<>();
+
+    private final RequestMux mux = new RequestMux(this::send);
     private volatile boolean running = false;
     private volatile String nick = null;
     private volatile String room = "lobby";
+    private volatile String serverHost;
+    private volatile int serverPort;
+    // From LOGIN_OK or RESUME_OK; lets a dropped connection pick the session up again without a new LOGIN.
+    private volatile String resumeToken;
+    // Frames read since LOGIN_OK, numbered as the server's replay buffer numbers them; RESUME sends it back.
+    private volatile long framesReceived;
+    // Numbering is paused between a drop and the RESUME_OK, so WELCOME on the new connection is not counted.
+    private volatile boolean countingFrames;
+    private final AtomicBoolean resuming = new AtomicBoolean(false);
+    // Per room, the seq of the oldest history entry shown so far; "/history more" pages back from it.
+    private final Map<String, Long> historyCursors = new ConcurrentHashMap<>();
     private volatile boolean isKorean = true;
     private volatile boolean isDarkTheme = false;
     private volatile int fontSize = 13;
@@ -38,7 +56,7 @@ public final class ChatClientGUI {
     private ExecutorService uiUpdateExecutor;
     private ExecutorService networkExecutor;
 
-    private int nextSeq() { return seq.getAndIncrement(); }
+    private int nextSeq() { return mux.nextSeq(); }
 
     private JFrame frame;
     private JPanel mainPanel;
@@ -698,6 +716,8 @@ public final class ChatClientGUI {
             helpText.append("  채팅 히스토리 조회\n");
             helpText.append("  room: 방 이름 (생략 시 현재 방)\n");
             helpText.append("  count: 조회할 메시지 개수 (기본값: 20)\n\n");
+            helpText.append("/history more [room]\n");
+            helpText.append("  이전 페이지 조회\n\n");
             helpText.append("/w <nick> <msg>\n");
             helpText.append("  귓속말 전송\n\n");
             helpText.append("/join <room>\n");
@@ -722,6 +742,8 @@ public final class ChatClientGUI {
             helpText.append("  Get chat history\n");
             helpText.append("  room: Room name (default: current room)\n");
             helpText.append("  count: Number of messages (default: 20)\n\n");
+            helpText.append("/history more [room]\n");
+            helpText.append("  Get the next older page\n\n");
             helpText.append("/w <nick> <msg>\n");
             helpText.append("  Send whisper\n\n");
             helpText.append("/join <room>\n");
@@ -849,66 +871,142 @@ public final class ChatClientGUI {
 
     private void connectAndHandshake(String host, int port, String n) {
         try {
-            socket = new Socket(host, port);
-            socket.setTcpNoDelay(true);
-            socket.setSoTimeout(30000);
-            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
-            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
-
-            running = true;
+            openConnection(host, port);
+            hello();
+            login(n);
+        } catch (Exception e) {
+            appendLine("[CONNECT_ERROR] " + (e.getMessage() == null ? e.toString() : e.getMessage()));
+            hardDisconnect("connect error");
+            SwingUtilities.invokeLater(() -> setConnectedUI(false, getText("disconnected")));
+        }
+    }
 
-            writerThread = new Thread(this::writerLoop, "GUI-Writer");
-            readerThread = new Thread(this::readerLoop, "GUI-Reader");
-            writerThread.start();
-            readerThread.start();
+    private void openConnection(String host, int port) throws IOException {
+        Socket s = new Socket(host, port);
+        s.setTcpNoDelay(true);
+        s.setSoTimeout(30000);
+        DataInputStream i = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+        DataOutputStream o = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        BlockingQueue<Frame> q = new LinkedBlockingQueue<>();
+        socket = s;
+        in = i;
+        out = o;
+        sendQueue = q;
+        serverHost = host;
+        serverPort = port;
+        countingFrames = false;
+
+        running = true;
+
+        writerThread = new Thread(() -> writerLoop(s, o, q), "GUI-Writer");
+        readerThread = new Thread(() -> readerLoop(s, i), "GUI-Reader");
+        writerThread.start();
+        readerThread.start();
+
+        if (heartbeatScheduler != null) heartbeatScheduler.shutdown();
+        heartbeatScheduler = Executors.newScheduledThreadPool(1, r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeatScheduler.scheduleAtFixedRate(this::sendHeartbeat, 30, 30, TimeUnit.SECONDS);
+    }
 
-            heartbeatScheduler = Executors.newScheduledThreadPool(1, r -> {
-                Thread t = new Thread(r);
-                t.setDaemon(true);
-                return t;
-            });
-            heartbeatScheduler.scheduleAtFixedRate(this::sendHeartbeat, 30, 30, TimeUnit.SECONDS);
-          
-            send(Frame.ofText(MsgType.HELLO, nextSeq(), Kvp.encode(Kvp.kv("client", "swing"))));
-            Frame welcome = takeAnyOf(3, TimeUnit.SECONDS, MsgType.WELCOME);
-            if (welcome == null) throw new IOException("No WELCOME");
-
-            Map<String, String> welcomeKv = Kvp.decode(welcome.payloadText());
-            appendLine(String.format("[SERVER] %s v%s", 
-                welcomeKv.getOrDefault("server", "ChatServer"),
-                welcomeKv.getOrDefault("version", "1.0")));
-           
-            send(Frame.ofText(MsgType.LOGIN, nextSeq(), Kvp.encode(Kvp.kv("nick", n))));
-            Frame resp = takeAnyOf(5, TimeUnit.SECONDS, MsgType.LOGIN_OK, MsgType.LOGIN_FAIL);
-            if (resp == null) throw new IOException("No LOGIN response");
-
-            if (resp.type == MsgType.LOGIN_FAIL) {
-                Map<String, String> failKv = Kvp.decode(resp.payloadText());
-                appendLine("[LOGIN_FAIL] " + failKv.getOrDefault("reason", "Unknown error"));
-                hardDisconnect("login fail");
-                SwingUtilities.invokeLater(() -> setConnectedUI(false, getText("disconnected")));
-                return;
-            }
+    private void hello() throws IOException, InterruptedException {
+        Frame welcome = RequestMux.await(mux.request(MsgType.HELLO, Kvp.kv("client", "swing"), LOGIN_TIMEOUT_MILLIS));
+        if (welcome == null || welcome.type != MsgType.WELCOME) throw new IOException("No WELCOME");
 
-            Map<String, String> ok = Kvp.decode(resp.payloadText());
-            nick = ok.getOrDefault("nick", n);
-         
-            room = roomField.getText().trim();
-            if (room.isEmpty()) room = "lobby";
-            send(Frame.ofText(MsgType.JOIN, nextSeq(), Kvp.encode(Kvp.kv("room", room))));
+        Map<String, String> welcomeKv = Kvp.decode(welcome);
+        appendLine(String.format("[SERVER] %s v%s", 
+            welcomeKv.getOrDefault("server", "ChatServer"),
+            welcomeKv.getOrDefault("version", "1.0")));
+    }
 
-            String statusMsg = isKorean ? 
-                "연결됨: " + nick + " / 방=" + room : 
-                "connected as " + nick + " / room=" + room;
-            SwingUtilities.invokeLater(() -> setConnectedUI(true, statusMsg));
-            appendLine("[LOGIN_OK] nick=" + nick);
+    private void login(String n) throws IOException, InterruptedException {
+        Frame resp = RequestMux.await(mux.request(MsgType.LOGIN, Kvp.kv("nick", n), LOGIN_TIMEOUT_MILLIS));
+        if (resp == null) throw new IOException("No LOGIN response");
 
-            onRefreshRooms();
-            onRefreshUsers();
-        } catch (Exception e) {
-            appendLine("[CONNECT_ERROR] " + (e.getMessage() == null ? e.toString() : e.getMessage()));
-            hardDisconnect("connect error");
+        if (resp.type == MsgType.LOGIN_FAIL) {
+            Map<String, String> failKv = Kvp.decode(resp);
+            appendLine("[LOGIN_FAIL] " + failKv.getOrDefault("reason", "Unknown error"));
+            hardDisconnect("login fail");
             SwingUtilities.invokeLater(() -> setConnectedUI(false, getText("disconnected")));
+            return;
+        }
+
+        Map<String, String> ok = Kvp.decode(resp);
+        nick = ok.getOrDefault("nick", n);
+     
+        room = roomField.getText().trim();
+        if (room.isEmpty()) room = "lobby";
+        send(Frame.ofText(MsgType.JOIN, nextSeq(), Kvp.encode(Kvp.kv("room", room))));
+
+        String statusMsg = isKorean ? 
+            "연결됨: " + nick + " / 방=" + room : 
+            "connected as " + nick + " / room=" + room;
+        SwingUtilities.invokeLater(() -> setConnectedUI(true, statusMsg));
+        appendLine("[LOGIN_OK] nick=" + nick);
+
+        onRefreshRooms();
+        onRefreshUsers();
+    }
+
+    // Reconnects after the connection dropped and resumes the session, so what was sent to us in the
+    // meantime is replayed rather than lost. Falls back to a fresh LOGIN if the server cannot resume it.
+    private void resumeAfterDrop() {
+        if (!resuming.compareAndSet(false, true)) return;
+        try {
+            String token = resumeToken;
+            long last = framesReceived;
+            SwingUtilities.invokeLater(() -> setConnectedUI(false, getText("connecting")));
+            long deadline = System.currentTimeMillis() + RESUME_WINDOW_MILLIS;
+            long backoff = 250;
+            while (token != null && token.equals(resumeToken) && System.currentTimeMillis() < deadline) {
+                try {
+                    Thread.sleep(backoff);
+                    openConnection(serverHost, serverPort);
+                    hello();
+                    Frame resp = RequestMux.await(mux.request(MsgType.RESUME,
+                        Kvp.kv("token", token, "last", String.valueOf(last)), LOGIN_TIMEOUT_MILLIS));
+                    if (resp == null) throw new IOException("No RESUME response");
+                    Map<String, String> kv = Kvp.decode(resp);
+                    if (resp.type != MsgType.RESUME_OK) {
+                        appendLine("[RESUME_FAIL] " + kv.getOrDefault("reason", "Unknown error"));
+                        resumeToken = null;
+                        login(nick);
+                        return;
+                    }
+                    nick = kv.getOrDefault("nick", nick);
+                    String r = kv.getOrDefault("room", "");
+                    room = r.isEmpty() ? "lobby" : r;
+                    String statusMsg = isKorean ? 
+                        "연결됨: " + nick + " / 방=" + room : 
+                        "connected as " + nick + " / room=" + room;
+                    SwingUtilities.invokeLater(() -> {
+                        roomField.setText(room);
+                        setConnectedUI(true, statusMsg);
+                    });
+                    appendLine(String.format(isKorean ? "[RESUMED] 놓친 프레임 %s개 수신" : "[RESUMED] %s missed frames replayed",
+                        kv.getOrDefault("replayed", "0")));
+                    return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    running = false;
+                    try {
+                        if (socket != null) socket.close();
+                    } catch (IOException ignored) {}
+                    backoff = Math.min(backoff * 2, 4000);
+                }
+            }
+            if (token != null && token.equals(resumeToken)) {
+                resumeToken = null;
+                appendLine(isKorean ? "[RESUME_FAIL] 재연결 실패" : "[RESUME_FAIL] could not reconnect");
+                SwingUtilities.invokeLater(() -> setConnectedUI(false, getText("disconnected")));
+            }
+        } finally {
+            resuming.set(false);
         }
     }
 
@@ -926,6 +1024,7 @@ public final class ChatClientGUI {
             heartbeatScheduler.shutdown();
         }
         send(Frame.ofText(MsgType.LOGOUT, nextSeq(), Kvp.encode(Kvp.kv())));
+        resumeToken = null;
         hardDisconnect("user disconnect");
         setConnectedUI(false, getText("disconnected"));
         
@@ -943,11 +1042,10 @@ public final class ChatClientGUI {
         if (!running) return;
         String r = roomField.getText().trim();
         if (r.isEmpty()) r = "lobby";
-        send(Frame.ofText(MsgType.JOIN, nextSeq(), Kvp.encode(Kvp.kv("room", r))));
-        Frame resp = takeAnyOf(3, TimeUnit.SECONDS, MsgType.JOIN_OK, MsgType.ERROR);
-        if (resp != null && resp.type == MsgType.JOIN_OK) {
-            Map<String, String> kv = Kvp.decode(resp.payloadText());
-            room = kv.getOrDefault("room", r);
+        String requested = r;
+        request(MsgType.JOIN, Kvp.kv("room", r), MsgType.JOIN_OK, resp -> {
+            Map<String, String> kv = Kvp.decode(resp);
+            room = kv.getOrDefault("room", requested);
             String statusMsg = isKorean ? 
                 "연결됨: " + nick + " / 방=" + room : 
                 "connected as " + nick + " / room=" + room;
@@ -958,14 +1056,12 @@ public final class ChatClientGUI {
             String msg = isKorean ? "[JOIN_OK] 방 입장: " : "[JOIN_OK] Joined room: ";
             appendLine(msg + room);
             onRefreshRooms();
-        }
+        });
     }
 
     private void onLeaveRoom() {
         if (!running) return;
-        send(Frame.ofText(MsgType.LEAVE, nextSeq(), Kvp.encode(Kvp.kv("room", room))));
-        Frame resp = takeAnyOf(3, TimeUnit.SECONDS, MsgType.LEAVE_OK, MsgType.ERROR);
-        if (resp != null && resp.type == MsgType.LEAVE_OK) {
+        request(MsgType.LEAVE, Kvp.kv("room", room), MsgType.LEAVE_OK, resp -> {
             String msg = isKorean ? "[LEAVE_OK] 방 퇴장: " : "[LEAVE_OK] Left room: ";
             appendLine(msg + room);
             room = "lobby";
@@ -977,52 +1073,44 @@ public final class ChatClientGUI {
                 setConnectedUI(true, statusMsg);
             });
             onRefreshRooms();
-        }
+        });
     }
 
     private void onRefreshRooms() {
         if (!running) return;
-        send(Frame.ofText(MsgType.ROOM_LIST, nextSeq(), Kvp.encode(Kvp.kv())));
-        networkExecutor.execute(() -> {
-            Frame resp = takeType(MsgType.ROOM_LIST_RESP, 3, TimeUnit.SECONDS);
-            if (resp != null) {
-                Map<String, String> kv = Kvp.decode(resp.payloadText());
-                String roomsStr = kv.getOrDefault("rooms", "");
-                SwingUtilities.invokeLater(() -> {
-                    roomListModel.clear();
-                    if (!roomsStr.isEmpty()) {
-                        String[] rooms = roomsStr.split(",");
-                        for (String r : rooms) {
-                            if (!r.trim().isEmpty()) {
-                                roomListModel.addElement(r.trim());
-                            }
+        request(MsgType.ROOM_LIST, Kvp.kv(), MsgType.ROOM_LIST_RESP, resp -> {
+            Map<String, String> kv = Kvp.decode(resp);
+            String roomsStr = kv.getOrDefault("rooms", "");
+            SwingUtilities.invokeLater(() -> {
+                roomListModel.clear();
+                if (!roomsStr.isEmpty()) {
+                    String[] rooms = roomsStr.split(",");
+                    for (String r : rooms) {
+                        if (!r.trim().isEmpty()) {
+                            roomListModel.addElement(r.trim());
                         }
                     }
-                });
-            }
+                }
+            });
         });
     }
 
     private void onRefreshUsers() {
         if (!running) return;
-        send(Frame.ofText(MsgType.USER_LIST, nextSeq(), Kvp.encode(Kvp.kv())));
-        networkExecutor.execute(() -> {
-            Frame resp = takeType(MsgType.USER_LIST_RESP, 3, TimeUnit.SECONDS);
-            if (resp != null) {
-                Map<String, String> kv = Kvp.decode(resp.payloadText());
-                String usersStr = kv.getOrDefault("users", "");
-                SwingUtilities.invokeLater(() -> {
-                    userListModel.clear();
-                    if (!usersStr.isEmpty()) {
-                        String[] users = usersStr.split(",");
-                        for (String u : users) {
-                            if (!u.trim().isEmpty()) {
-                                userListModel.addElement(u.trim());
-                            }
+        request(MsgType.USER_LIST, Kvp.kv(), MsgType.USER_LIST_RESP, resp -> {
+            Map<String, String> kv = Kvp.decode(resp);
+            String usersStr = kv.getOrDefault("users", "");
+            SwingUtilities.invokeLater(() -> {
+                userListModel.clear();
+                if (!usersStr.isEmpty()) {
+                    String[] users = usersStr.split(",");
+                    for (String u : users) {
+                        if (!u.trim().isEmpty()) {
+                            userListModel.addElement(u.trim());
                         }
                     }
-                });
-            }
+                }
+            });
         });
     }
 
@@ -1046,25 +1134,62 @@ public final class ChatClientGUI {
             }
         }
         
-        send(Frame.ofText(MsgType.CHAT_HISTORY, nextSeq(), 
-            Kvp.encode(Kvp.kv("room", roomName, "count", String.valueOf(count)))));
-        networkExecutor.execute(() -> {
-            Frame resp = takeType(MsgType.CHAT_HISTORY_RESP, 3, TimeUnit.SECONDS);
-            if (resp != null) {
-                Map<String, String> kv = Kvp.decode(resp.payloadText());
-                String messagesStr = kv.getOrDefault("messages", "");
-                appendLine(String.format("[HISTORY] Room: %s, Messages: %s", 
-                    kv.getOrDefault("room", ""), kv.getOrDefault("count", "0")));
-                if (!messagesStr.isEmpty()) {
-                    String[] messages = messagesStr.split("\n");
-                    for (String msg : messages) {
-                        String[] parts = msg.split("\\|", 3);
-                        if (parts.length == 3) {
-                            appendLine(String.format("  [%s] %s: %s", 
-                                parts[1], parts[0], parts[2]));
-                        }
-                    }
-                }
+        requestHistory(roomName, count, null);
+    }
+    
+    // Shows one page of history. The reply may span several CHAT_HISTORY_RESP frames; all but the
+    // last carry FLAG_CONTINUED, and the last one holds the page's cursors.
+    private void requestHistory(String roomName, int count, Long before) {
+        Map<String, String> req = Kvp.kv("room", roomName, "limit", String.valueOf(count));
+        if (before != null) req.put("before", String.valueOf(before));
+        
+        appendLine(String.format("[HISTORY] Room: %s", roomName));
+        AtomicInteger total = new AtomicInteger();
+        request(MsgType.CHAT_HISTORY, req, MsgType.CHAT_HISTORY_RESP,
+            part -> total.addAndGet(appendHistory(Kvp.decode(part))),
+            resp -> {
+                Map<String, String> kv = Kvp.decode(resp);
+                total.addAndGet(appendHistory(kv));
+                
+                boolean more = Boolean.parseBoolean(kv.getOrDefault("more", "false"));
+                if (kv.containsKey("first")) historyCursors.put(roomName, Long.parseLong(kv.get("first")));
+                if (!more) historyCursors.remove(roomName);
+                String older = isKorean ? " (이전 기록: /history more)" : " (older: /history more)";
+                appendLine(String.format(isKorean ? "[HISTORY] 메시지 %d개%s" : "[HISTORY] %d messages%s",
+                    total.get(), more ? older : ""));
+            });
+    }
+
+    private int appendHistory(Map<String, String> kv) {
+        String messagesStr = kv.getOrDefault("messages", "");
+        if (messagesStr.isEmpty()) return 0;
+        int n = 0;
+        for (String msg : messagesStr.split("\n")) {
+            String[] parts = msg.split("\\|", 3);
+            if (parts.length == 3) {
+                appendLine(String.format("  [%s] %s: %s", parts[1], parts[0], parts[2]));
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private void request(byte type, Map<String, String> kv, byte expected, Consumer<Frame> onReply) {
+        request(type, kv, expected, null, onReply);
+    }
+
+    // Sends a request without blocking. onReply runs on the reader thread if the reply has the expected type;
+    // an ERROR reply is rendered like any other, and a timeout is reported. parts, if given, gets the
+    // FLAG_CONTINUED frames of a multi-frame reply.
+    private void request(byte type, Map<String, String> kv, byte expected,
+                         Consumer<Frame> parts, Consumer<Frame> onReply) {
+        if (!running) return;
+        mux.request(type, kv, REQUEST_TIMEOUT_MILLIS, parts).whenComplete((resp, e) -> {
+            if (e instanceof TimeoutException) {
+                appendLine("[TIMEOUT] " + MsgType.name(type));
+            } else if (resp != null) {
+                if (resp.type == expected) onReply.accept(resp);
+                else renderFrame(resp);
             }
         });
     }
@@ -1105,16 +1230,12 @@ public final class ChatClientGUI {
 
         if (line.startsWith("/roominfo ")) {
             String roomName = line.substring(10).trim();
-            send(Frame.ofText(MsgType.ROOM_INFO, nextSeq(), Kvp.encode(Kvp.kv("room", roomName))));
-            networkExecutor.execute(() -> {
-                Frame resp = takeAnyOf(3, TimeUnit.SECONDS, MsgType.ROOM_INFO_RESP, MsgType.ERROR);
-                if (resp != null && resp.type == MsgType.ROOM_INFO_RESP) {
-                    Map<String, String> kv = Kvp.decode(resp.payloadText());
-                    appendLine(String.format("[ROOM_INFO] %s - Members: %s (count: %s)", 
-                        kv.getOrDefault("room", ""),
-                        kv.getOrDefault("members", ""),
-                        kv.getOrDefault("count", "0")));
-                }
+            request(MsgType.ROOM_INFO, Kvp.kv("room", roomName), MsgType.ROOM_INFO_RESP, resp -> {
+                Map<String, String> kv = Kvp.decode(resp);
+                appendLine(String.format("[ROOM_INFO] %s - Members: %s (count: %s)", 
+                    kv.getOrDefault("room", ""),
+                    kv.getOrDefault("members", ""),
+                    kv.getOrDefault("count", "0")));
             });
             return;
         }
@@ -1126,50 +1247,38 @@ public final class ChatClientGUI {
 
         if (line.startsWith("/userinfo ")) {
             String targetNick = line.substring(10).trim();
-            send(Frame.ofText(MsgType.USER_INFO, nextSeq(), Kvp.encode(Kvp.kv("nick", targetNick))));
-            networkExecutor.execute(() -> {
-                Frame resp = takeAnyOf(3, TimeUnit.SECONDS, MsgType.USER_INFO_RESP, MsgType.ERROR);
-                if (resp != null && resp.type == MsgType.USER_INFO_RESP) {
-                    Map<String, String> kv = Kvp.decode(resp.payloadText());
-                    appendLine(String.format("[USER_INFO] %s - Room: %s, Status: %s", 
-                        kv.getOrDefault("nick", ""),
-                        kv.getOrDefault("room", ""),
-                        kv.getOrDefault("status", "")));
-                }
+            request(MsgType.USER_INFO, Kvp.kv("nick", targetNick), MsgType.USER_INFO_RESP, resp -> {
+                Map<String, String> kv = Kvp.decode(resp);
+                appendLine(String.format("[USER_INFO] %s - Room: %s, Status: %s", 
+                    kv.getOrDefault("nick", ""),
+                    kv.getOrDefault("room", ""),
+                    kv.getOrDefault("status", "")));
             });
             return;
         }
 
         if (line.startsWith("/history")) {
             String[] parts = line.split(" ", 3);
-            String roomName = parts.length > 1 ? parts[1].trim() : room;
-            String countStr = parts.length > 2 ? parts[2].trim() : "20";
+            boolean older = parts.length > 1 && parts[1].trim().equals("more");
+            String roomName = room;
             int count = 20;
-            try {
-                count = Integer.parseInt(countStr);
-            } catch (NumberFormatException e) {
-            }
-            send(Frame.ofText(MsgType.CHAT_HISTORY, nextSeq(), 
-                Kvp.encode(Kvp.kv("room", roomName, "count", String.valueOf(count)))));
-            networkExecutor.execute(() -> {
-                Frame resp = takeType(MsgType.CHAT_HISTORY_RESP, 3, TimeUnit.SECONDS);
-                if (resp != null) {
-                    Map<String, String> kv = Kvp.decode(resp.payloadText());
-                    String messagesStr = kv.getOrDefault("messages", "");
-                    appendLine(String.format("[HISTORY] Room: %s, Messages: %s", 
-                        kv.getOrDefault("room", ""), kv.getOrDefault("count", "0")));
-                    if (!messagesStr.isEmpty()) {
-                        String[] messages = messagesStr.split("\n");
-                        for (String msg : messages) {
-                            String[] parts2 = msg.split("\\|", 3);
-                            if (parts2.length == 3) {
-                                appendLine(String.format("  [%s] %s: %s", 
-                                    parts2[1], parts2[0], parts2[2]));
-                            }
-                        }
-                    }
+            if (older) {
+                if (parts.length > 2) roomName = parts[2].trim();
+            } else {
+                if (parts.length > 1) roomName = parts[1].trim();
+                try {
+                    if (parts.length > 2) count = Integer.parseInt(parts[2].trim());
+                } catch (NumberFormatException e) {
                 }
-            });
+            }
+            
+            Long before = older ? historyCursors.get(roomName) : null;
+            if (older && before == null) {
+                appendLine(isKorean ? "[HISTORY] 더 이전 기록이 없습니다. 먼저 /history 를 실행하세요"
+                    : "[HISTORY] Nothing older to show; run /history first");
+                return;
+            }
+            requestHistory(roomName, count, before);
             return;
         }
 
@@ -1202,48 +1311,65 @@ public final class ChatClientGUI {
 
     private final Object outLock = new Object();
 
-    private void writerLoop() {
+    // Exits once its connection is replaced; closing the socket on a write error lets the reader notice the drop.
+    private void writerLoop(Socket s, DataOutputStream o, BlockingQueue<Frame> q) {
         try {
-            while (running) {
-                Frame f = sendQueue.take();
+            while (running && q == sendQueue) {
+                Frame f = q.poll(1, TimeUnit.SECONDS);
+                if (f == null) continue;
                 synchronized (outLock) {
-                    if (out != null) {
-                    f.writeTo(out);
-                    }
+                    f.writeTo(o);
                 }
             }
         } catch (Exception ignored) {
         } finally {
-            running = false;
             try {
-                if (socket != null) socket.close();
+                s.close();
             } catch (IOException ignored2) {}
         }
     }
 
-    private void readerLoop() {
+    private void readerLoop(Socket s, DataInputStream i) {
+        boolean dropped = false;
         try {
             while (running) {
-                Frame f = Frame.readFrom(in);
-                inbound.offer(f);
-                renderFrame(f);
+                Frame f = Frame.readFrom(i);
+                countFrame(f);
+                if (!mux.dispatch(f)) renderFrame(f);
             }
         } catch (Exception e) {
+            dropped = running;
             if (running) {
                 String msg = isKorean ? "[연결 끊김]" : "[DISCONNECTED]";
                 appendLine(msg);
             }
         } finally {
             running = false;
-            SwingUtilities.invokeLater(() -> setConnectedUI(false, getText("disconnected")));
+            mux.failAll(new IOException("Connection closed"));
             try {
-                if (socket != null) socket.close();
+                s.close();
             } catch (IOException ignored) {}
+            if (dropped && resumeToken != null) {
+                networkExecutor.execute(this::resumeAfterDrop);
+            } else if (!resuming.get()) {
+                SwingUtilities.invokeLater(() -> setConnectedUI(false, getText("disconnected")));
+            }
+        }
+    }
+
+    private void countFrame(Frame f) {
+        if (f.type == MsgType.LOGIN_OK || f.type == MsgType.RESUME_OK) {
+            Map<String, String> kv = Kvp.decode(f);
+            resumeToken = kv.get("token");
+            framesReceived = Long.parseLong(kv.getOrDefault("last", "0"));
+            countingFrames = true;
+        } else if (countingFrames) {
+            framesReceived++;
         }
     }
 
     private void renderFrame(Frame f) {
-        Map<String, String> kv = Kvp.decode(f.payloadText());
+        Map<String, String> kv = Kvp.decode(f);
 
         switch (f.type) {
             case MsgType.CHAT -> {
@@ -1269,7 +1395,7 @@ public final class ChatClientGUI {
                 appendLine(String.format("[WHISPER] %s -> %s: %s", from, to, msg));
             }
             case MsgType.ERROR -> {
-                Map<String, String> errorKv = Kvp.decode(f.payloadText());
+                Map<String, String> errorKv = Kvp.decode(f);
                 String code = errorKv.getOrDefault("code", "UNKNOWN");
                 String msg = errorKv.getOrDefault("msg", "");
                 appendLine(String.format("[ERROR] %s: %s", code, msg));
@@ -1279,7 +1405,7 @@ public final class ChatClientGUI {
                 appendLine(String.format("[PONG] t=%s", t));
             }
             case MsgType.JOIN_OK -> {
-                Map<String, String> joinKv = Kvp.decode(f.payloadText());
+                Map<String, String> joinKv = Kvp.decode(f);
                 room = joinKv.getOrDefault("room", room);
                 String statusMsg = isKorean ? 
                     "연결됨: " + nick + " / 방=" + room : 
@@ -1294,7 +1420,7 @@ public final class ChatClientGUI {
                 onRefreshRooms();
             }
             case MsgType.STATS_RESP -> {
-                Map<String, String> statsKv = Kvp.decode(f.payloadText());
+                Map<String, String> statsKv = Kvp.decode(f);
                 StringBuilder stats = new StringBuilder();
                 stats.append(isKorean ? "서버 통계\n\n" : "Server Statistics\n\n");
                 stats.append(statsKv.getOrDefault("data", "No data"));
@@ -1303,7 +1429,7 @@ public final class ChatClientGUI {
                     JOptionPane.INFORMATION_MESSAGE);
             }
             case MsgType.ROOM_CREATE -> {
-                Map<String, String> createKv = Kvp.decode(f.payloadText());
+                Map<String, String> createKv = Kvp.decode(f);
                 String createdRoom = createKv.getOrDefault("room", "");
                 if (!createdRoom.isEmpty()) {
                     appendLine(isKorean ? "[시스템] 방이 생성되었습니다: " + createdRoom :
@@ -1312,7 +1438,7 @@ public final class ChatClientGUI {
                 }
             }
             case MsgType.FRIEND_ADD -> {
-                Map<String, String> friendKv = Kvp.decode(f.payloadText());
+                Map<String, String> friendKv = Kvp.decode(f);
                 String friendName = friendKv.getOrDefault("friend", "");
                 if (friendName.isEmpty()) {
                     friendName = friendKv.getOrDefault("user", "");
@@ -1330,7 +1456,7 @@ public final class ChatClientGUI {
                 }
             }
             case MsgType.FRIEND_REMOVE -> {
-                Map<String, String> friendKv = Kvp.decode(f.payloadText());
+                Map<String, String> friendKv = Kvp.decode(f);
                 String friendName = friendKv.getOrDefault("friend", "");
                 if (friendName.isEmpty()) {
                     friendName = friendKv.getOrDefault("user", "");
@@ -1343,7 +1469,7 @@ public final class ChatClientGUI {
                 }
             }
             case MsgType.MSG_EDIT -> {
-                Map<String, String> editKv = Kvp.decode(f.payloadText());
+                Map<String, String> editKv = Kvp.decode(f);
                 String roomName = editKv.getOrDefault("room", "?");
                 String from = editKv.getOrDefault("from", "?");
                 String original = editKv.getOrDefault("original", "");
@@ -1355,7 +1481,7 @@ public final class ChatClientGUI {
                 }
             }
             case MsgType.MSG_DELETE -> {
-                Map<String, String> deleteKv = Kvp.decode(f.payloadText());
+                Map<String, String> deleteKv = Kvp.decode(f);
                 String roomName = deleteKv.getOrDefault("room", "?");
                 String from = deleteKv.getOrDefault("from", "?");
                 String message = deleteKv.getOrDefault("message", "");
@@ -1370,36 +1496,6 @@ public final class ChatClientGUI {
         }
     }
 
-    private Frame takeType(byte type, long timeout, TimeUnit unit) {
-        try {
-            long deadline = System.nanoTime() + unit.toNanos(timeout);
-            while (System.nanoTime() < deadline) {
-                Frame f = inbound.poll(50, TimeUnit.MILLISECONDS);
-                if (f == null) continue;
-                if (f.type == type) return f;
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
-        return null;
-    }
-
-    private Frame takeAnyOf(long timeout, TimeUnit unit, byte... types) {
-        try {
-        long deadline = System.nanoTime() + unit.toNanos(timeout);
-        while (System.nanoTime() < deadline) {
-            Frame f = inbound.poll(50, TimeUnit.MILLISECONDS);
-            if (f == null) continue;
-            for (byte t : types) {
-                if (f.type == t) return f;
-            }
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
-        return null;
-    }
-
     private void hardDisconnect(String reason) {
         running = false;
         try {
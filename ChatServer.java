@@ -1,70 +1,163 @@
 import java.io.IOException;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.security.SecureRandom;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 public final class ChatServer {
     private static final Logger logger = Logger.getLogger(ChatServer.class);
+    // Soft cap on the message text packed into one CHAT_HISTORY_RESP frame.
+    private static final int HISTORY_FRAME_CHARS = 8 * 1024;
+    private static final int TIMER_WHEEL_SLOTS = 512;
     private final ServerConfig config;
     
     private ServerSocket serverSocket;
     private final ExecutorService executorService;
     private final ScheduledExecutorService scheduler;
+    // Idle timeouts and other per-session deadlines; advanced from the scheduler every tick.
+    private final TimingWheel timers;
+    private NioEventLoop[] ioLoops;
+    private final AtomicInteger nextLoop = new AtomicInteger(0);
     
   
     private final ConcurrentHashMap<String, ClientSession> sessionsByNick = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<Socket, ClientSession> sessionsBySocket = new ConcurrentHashMap<>();
+    // Logged-in sessions that RESUME can take over, connected or parked, by resume token.
+    private final ConcurrentHashMap<String, ClientSession> sessionsByToken = new ConcurrentHashMap<>();
+    private final SecureRandom tokenRandom = new SecureRandom();
+    // Identifies a login within this node, for the cluster's nick directory; kept across RESUME.
+    private final AtomicLong nextSessionId = new AtomicLong();
     
     
-    private final ConcurrentHashMap<String, Set<ClientSession>> rooms = new ConcurrentHashMap<>();
+    private final RoomIndex rooms = new RoomIndex();
     private final ConcurrentHashMap<String, MessageHistory> roomHistory = new ConcurrentHashMap<>();
+    private final HistoryStore historyStore;
+    private final HistoryArena historyArena;
+    private final RateLimiter rateLimiter;
+    private final AdmissionControl admission;
+    // Accept thread only: throttles the log line about refused connections during a storm.
+    private long rejectLogNanos;
+    private int rejectedSinceLog;
     
  
-    private final AtomicInteger totalConnections = new AtomicInteger(0);
     private final AtomicInteger currentConnections = new AtomicInteger(0);
     
+    // Served both as STATS_RESP and, when adminPort is set, over HTTP for Prometheus.
+    private final Metrics metrics = new Metrics();
+    // Per-MsgType children, indexed by the unsigned type byte and filled in on first use.
+    private final Metrics.Counter[] framesIn = new Metrics.Counter[256];
+    private final Metrics.Counter[] framesOut = new Metrics.Counter[256];
+    private final Metrics.Histogram[] handlerTime = new Metrics.Histogram[256];
+    private final Metrics.Counter connectionsAccepted;
+    private final Metrics.Counter bytesWritten;
+    private final Metrics.Counter flushes;
+    private final Metrics.Counter heartbeatsExpired;
+    private final Metrics.Counter[] rateLimited = new Metrics.Counter[4];
+    private final Metrics.Counter rateLimitDisconnects;
+    private final Metrics.Counter handshakeTimeouts;
+    private final Metrics.Counter sessionsResumed;
+    private final Metrics.Counter framesReplayed;
+    private AdminServer adminServer;
+    // Null unless clusterPort is set.
+    private Cluster cluster;
+    
     public ChatServer(int port) {
         this.config = ServerConfig.getInstance();
-        this.executorService = Executors.newCachedThreadPool(r -> {
-            Thread t = new Thread(r);
-            t.setDaemon(true);
-            return t;
-        });
+        this.executorService = Threads.newTaskExecutor(config.isVirtualThreads());
         this.scheduler = Executors.newScheduledThreadPool(2, r -> {
             Thread t = new Thread(r);
             t.setDaemon(true);
             return t;
         });
+        this.historyStore = config.isHistoryPersistent() ? new HistoryStore(config) : null;
+        this.historyArena = (config.getHistoryArenaMb() > 0) ? new HistoryArena(config.getHistoryArenaMb() * 1048576L) : null;
+        this.rateLimiter = config.isRateLimitEnabled() ? new RateLimiter(config) : null;
+        this.admission = new AdmissionControl(config);
+        this.timers = new TimingWheel(config.getTimerTickMs(), TIMER_WHEEL_SLOTS);
+        
+        this.connectionsAccepted = metrics.counter("chat_connections_accepted_total", "Connections accepted since start");
+        metrics.gauge("chat_connections", "Open connections", currentConnections::get);
+        metrics.gauge("chat_users", "Logged-in users", sessionsByNick::size);
+        metrics.gauge("chat_rooms", "Rooms currently open", rooms::roomCount);
+        metrics.gauge("chat_history_messages", "Messages held in room history", this::historyMessages);
+        if (historyArena != null) {
+            metrics.gauge("chat_history_arena_bytes", "Off-heap history arena size", historyArena::capacityBytes);
+            metrics.gauge("chat_history_arena_used_bytes", "Off-heap history arena bytes in use by rooms", historyArena::usedBytes);
+            metrics.gauge("chat_history_arena_reclaimed_blocks", "Arena blocks given up while still holding history because the arena was full",
+                    historyArena::reclaimedBlocks);
+        }
+        metrics.gauge("chat_send_queue_frames", "Frames waiting in send queues, all sessions", () -> sendQueueDepth(false));
+        metrics.gauge("chat_send_queue_bytes", "Bytes waiting in send queues, all sessions", () -> sendQueueDepth(true));
+        metrics.gauge("chat_send_queue_frames_max", "Deepest single send queue", this::maxSendQueueDepth);
+        metrics.gauge("chat_timers_pending", "Timeouts scheduled on the timing wheel", timers::size);
+        this.bytesWritten = metrics.counter("chat_bytes_written_total", "Frame bytes handed to the socket");
+        this.flushes = metrics.counter("chat_flushes_total", "Socket writes or flushes, each carrying one or more frames");
+        this.heartbeatsExpired = metrics.counter("chat_heartbeats_expired_total", "Sessions closed for missing heartbeats");
+        for (int c = 0; c < rateLimited.length; c++) {
+            rateLimited[c] = metrics.counter("chat_rate_limited_total", "Frames rejected by the per-session rate limit, by class",
+                    "class", RateLimiter.name(c));
+        }
+        this.rateLimitDisconnects = metrics.counter("chat_rate_limit_disconnects_total", "Sessions closed for flooding");
+        this.handshakeTimeouts = metrics.counter("chat_handshake_timeouts_total", "Connections closed for not sending HELLO or LOGIN in time");
+        metrics.gauge("chat_admission_sources", "Client addresses tracked for per-address connection limits", admission::sources);
+        metrics.gauge("chat_sessions_parked", "Disconnected sessions held for resumption", this::parkedSessions);
+        this.sessionsResumed = metrics.counter("chat_sessions_resumed_total", "Sessions taken over by RESUME");
+        this.framesReplayed = metrics.counter("chat_frames_replayed_total", "Frames replayed to resumed sessions");
+        metrics.gauge("chat_log_records_dropped", "Log records discarded because the async log ring was full", Logger::droppedRecords);
+        metrics.gauge("chat_buffer_pool_hits", "Read buffers served from the pool", BufferPool.shared()::getHits);
+        metrics.gauge("chat_buffer_pool_misses", "Read buffers allocated because the pool was empty", BufferPool.shared()::getMisses);
     }
     
     public void start() throws IOException {
         int port = config.getPort();
-        serverSocket = new ServerSocket(port);
+        if (config.isNioTransport()) {
+            ServerSocketChannel ssc = ServerSocketChannel.open();
+            ssc.bind(new InetSocketAddress(port), config.getAcceptBacklog());
+            serverSocket = ssc.socket();
+            startIoLoops();
+        } else {
+            serverSocket = new ServerSocket(port, config.getAcceptBacklog());
+        }
         serverSocket.setReuseAddress(true);
         
-        logger.info(String.format("Server starting on port %d (maxClients=%d, heartbeatInterval=%ds)", 
-            port, config.getMaxClients(), config.getHeartbeatInterval()));
+        logger.info("Server starting on port %d (maxClients=%d, heartbeatInterval=%ds, transport=%s, threadMode=%s)", 
+            port, config.getMaxClients(), config.getHeartbeatInterval(), config.getTransport(), config.getThreadMode());
+        if (config.isVirtualThreads() && !Threads.isVirtualAvailable()) {
+            logger.warn("threadMode=virtual requires JDK 21+, falling back to platform threads");
+        }
        
-        startHeartbeatScheduler();
+        startTimers();
+        startHistoryMaintenance();
+        startAdminServer();
+        startCluster();
+        scheduler.scheduleAtFixedRate(() -> admission.sweep(System.nanoTime()), 10, 10, TimeUnit.SECONDS);
         
-      
         while (true) {
             try {
+                long wait = admission.acceptDelay(System.nanoTime());
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                    continue;
+                }
                 Socket clientSocket = serverSocket.accept();
-                clientSocket.setTcpNoDelay(true);
-                clientSocket.setSoTimeout(config.getHeartbeatInterval() * 3 * 1000);
                 
-                if (currentConnections.get() >= config.getMaxClients()) {
-                    logger.warn("Max clients reached, rejecting connection from " + clientSocket.getRemoteSocketAddress());
-                    clientSocket.close();
+                String refused = admission.admit(clientSocket.getInetAddress(), currentConnections.get(), System.nanoTime());
+                if (refused != null) {
+                    reject(clientSocket, refused);
                     continue;
                 }
                 
+                clientSocket.setTcpNoDelay(true);
                 handleNewConnection(clientSocket);
+            } catch (InterruptedException e) {
+                logger.info("Accept loop interrupted, shutting down");
+                break;
             } catch (IOException e) {
                 if (serverSocket.isClosed()) {
                     logger.info("Server socket closed, shutting down");
@@ -75,69 +168,190 @@ public final class ChatServer {
         }
     }
     
+    // Refused before any session state exists. Linger 0 resets the connection rather than leaving a
+    // TIME_WAIT behind for every refused attempt in a storm.
+    private void reject(Socket socket, String reason) {
+        metrics.counter("chat_connections_rejected_total", "Connections refused at accept, by reason", "reason", reason).increment();
+        rejectedSinceLog++;
+        long now = System.nanoTime();
+        if (now - rejectLogNanos >= TimeUnit.SECONDS.toNanos(1)) {
+            logger.warn("Refused %d connection(s) in the last second, latest from %s (%s)",
+                rejectedSinceLog, socket.getInetAddress().getHostAddress(), reason);
+            rejectLogNanos = now;
+            rejectedSinceLog = 0;
+        }
+        try {
+            socket.setSoLinger(true, 0);
+            socket.close();
+        } catch (IOException ignored) {}
+    }
+    
     private void handleNewConnection(Socket socket) {
         try {
-            totalConnections.incrementAndGet();
+            connectionsAccepted.increment();
             currentConnections.incrementAndGet();
             
-            logger.info(String.format("New connection from %s (total: %d, current: %d)", 
-                socket.getRemoteSocketAddress(), totalConnections.get(), currentConnections.get()));
+            logger.debug("New connection from %s (total: %d, current: %d)", 
+                socket.getRemoteSocketAddress(), connectionsAccepted.get(), currentConnections.get());
             
-            ClientSession session = new ClientSession(this, socket);
+            ClientSession session = (ioLoops != null)
+                ? new ClientSession(this, socket.getChannel(), nextIoLoop())
+                : new ClientSession(this, socket);
             sessionsBySocket.put(socket, session);
+            armIdleTimer(session);
+            armHandshakeTimer(session);
             session.start();
         } catch (IOException e) {
             logger.error("Error creating client session", e);
             currentConnections.decrementAndGet();
+            admission.release(socket.getInetAddress());
             try {
                 socket.close();
             } catch (IOException ignored) {}
         }
     }
     
-    private void startHeartbeatScheduler() {
+    private void startIoLoops() throws IOException {
+        int n = config.getIoThreads();
+        ioLoops = new NioEventLoop[n];
+        for (int i = 0; i < n; i++) {
+            ioLoops[i] = new NioEventLoop(this, i);
+            ioLoops[i].start();
+        }
+        logger.info("Started %d NIO event loop(s)", n);
+    }
+    
+    private NioEventLoop nextIoLoop() {
+        return ioLoops[Math.floorMod(nextLoop.getAndIncrement(), ioLoops.length)];
+    }
+    
+    private void startTimers() {
+        long tick = timers.getTickMillis();
         scheduler.scheduleAtFixedRate(() -> {
             try {
-                checkHeartbeats();
+                timers.advance(System.currentTimeMillis());
             } catch (Exception e) {
-                logger.error("Error in heartbeat check", e);
+                logger.error("Error advancing timers", e);
             }
-        }, config.getHeartbeatInterval(), config.getHeartbeatInterval(), TimeUnit.SECONDS);
+        }, tick, tick, TimeUnit.MILLISECONDS);
     }
     
-    private void checkHeartbeats() {
-        long now = System.currentTimeMillis();
-        List<ClientSession> toRemove = new ArrayList<>();
-        
-        for (ClientSession session : sessionsBySocket.values()) {
-            if (!session.isRunning()) {
-                toRemove.add(session);
-                continue;
+    private void startHistoryMaintenance() {
+        if (historyStore == null) return;
+        logger.info("Persisting room history under %s (sync=%s)",
+            config.getHistoryDir(), config.getHistorySync().name().toLowerCase());
+        
+        if (config.getHistorySync() == HistorySync.INTERVAL) {
+            long interval = Math.max(1, config.getHistorySyncIntervalMs());
+            scheduler.scheduleAtFixedRate(historyStore::sync, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                historyStore.enforceRetention();
+            } catch (Exception e) {
+                logger.error("Error enforcing history retention", e);
             }
-            
-            long lastActivity = session.getLastActivityTime();
-            long timeout = config.getHeartbeatInterval() * 3 * 1000L;
-            
-            if (now - lastActivity > timeout) {
-                logger.warn(String.format("Session timeout for %s, disconnecting", session.getNick()));
-                toRemove.add(session);
+        }, 1, 1, TimeUnit.HOURS);
+    }
+    
+    private void startAdminServer() throws IOException {
+        if (config.getAdminPort() <= 0) return;
+        adminServer = new AdminServer(metrics, config.getAdminBindAddress(), config.getAdminPort());
+        adminServer.start();
+    }
+    
+    private void startCluster() throws IOException {
+        if (!config.isClusterEnabled()) return;
+        cluster = new Cluster(this, config, metrics);
+        cluster.start();
+    }
+    
+    private MessageHistory newHistory(String room) {
+        HistoryLog log = (historyStore != null) ? historyStore.acquire(room) : null;
+        return new MessageHistory(config.getMessageHistorySize(), log, historyArena, room);
+    }
+    
+    // Drops a room's in-memory history, closing its log until the room is used again.
+    private void dropHistory(String room) {
+        MessageHistory history = roomHistory.remove(room);
+        if (history == null) return;
+        history.close();
+        if (history.log() != null) historyStore.release(room, history.log());
+    }
+    
+    // Inbound frames postpone the timer in place (ClientSession.updateLastActivity), so it only fires
+    // for sessions that really went quiet.
+    private void armIdleTimer(ClientSession session) {
+        long wait = session.getLastActivityTime() + config.getIdleTimeoutMillis() - System.currentTimeMillis();
+        session.idleTimer = timers.schedule(wait, () -> onIdleTimer(session));
+    }
+    
+    // HELLO and LOGIN deadlines live on the timing wheel like the idle timeout, so a connection stalled
+    // mid-handshake costs a wheel entry, not a thread. The LOGIN check is scheduled once HELLO is in.
+    private void armHandshakeTimer(ClientSession session) {
+        int hello = config.getHelloTimeoutMs();
+        int login = config.getLoginTimeoutMs();
+        if (hello > 0) {
+            session.handshakeTimer = timers.schedule(hello, () -> onHandshakeTimer(session, false));
+        } else if (login > 0) {
+            session.handshakeTimer = timers.schedule(login, () -> onHandshakeTimer(session, true));
+        }
+    }
+    
+    private void onHandshakeTimer(ClientSession session, boolean login) {
+        if (!session.isRunning()) return;
+        
+        if (!login) {
+            if (!session.helloSeen) {
+                handshakeTimeouts.increment();
+                session.stop("No HELLO in time");
+                return;
             }
+            int rest = config.getLoginTimeoutMs() - config.getHelloTimeoutMs();
+            if (config.getLoginTimeoutMs() > 0) {
+                session.handshakeTimer = timers.schedule(Math.max(0, rest), () -> onHandshakeTimer(session, true));
+            }
+            return;
         }
+        if (session.nick == null && !session.loginPending) {
+            handshakeTimeouts.increment();
+            session.stop("No LOGIN in time");
+        }
+    }
+    
+    private void onIdleTimer(ClientSession session) {
+        if (!session.isRunning()) return;
         
-        for (ClientSession session : toRemove) {
+        if (System.currentTimeMillis() - session.getLastActivityTime() >= config.getIdleTimeoutMillis()) {
+            logger.warn("Session timeout for %s, disconnecting", session.getNick());
+            heartbeatsExpired.increment();
             session.stop("Heartbeat timeout");
+        } else {
+            armIdleTimer(session);
         }
     }
     
     public void onFrame(ClientSession cs, Frame f) {
         byte t = f.type;
-        Map<String, String> kv = Kvp.decode(f.payloadText());
+        counter(framesIn, "chat_frames_in_total", "Frames received, by type", t).increment();
+        long start = System.nanoTime();
+        cs.requestSeq = f.seq;
         
         try {
+            if (rateLimited(cs, t, start)) return;
+            Map<String, String> kv;
+            try {
+                kv = Kvp.decode(f);
+            } catch (IllegalArgumentException e) {
+                // The client's fault, not the server's: no stack trace in the log.
+                cs.reply(MsgType.ERROR, Kvp.kv("code", "BAD_REQUEST", "msg", "Malformed payload"));
+                return;
+            }
             switch (t) {
                 case MsgType.HELLO -> handleHello(cs, kv);
                 case MsgType.LOGIN -> handleLogin(cs, kv);
                 case MsgType.LOGOUT -> handleLogout(cs, kv);
+                case MsgType.RESUME -> handleResume(cs, kv);
                 case MsgType.JOIN -> handleJoin(cs, kv);
                 case MsgType.LEAVE -> handleLeave(cs, kv);
                 case MsgType.CHAT -> handleChat(cs, kv);
@@ -164,126 +378,376 @@ public final class ChatServer {
                 case MsgType.FRIEND_ADD -> handleFriendAdd(cs, kv);
                 case MsgType.FRIEND_REMOVE -> handleFriendRemove(cs, kv);
                 case MsgType.FRIEND_LIST -> handleFriendList(cs, kv);
-                default -> cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                        Kvp.encode(Kvp.kv("code", "BAD_TYPE", "msg", "Unknown type: " + MsgType.name(t)))));
+                default -> cs.reply(MsgType.ERROR, Kvp.kv("code", "BAD_TYPE", "msg", "Unknown type: " + MsgType.name(t)));
             }
         } catch (IllegalStateException e) {
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "ILLEGAL_STATE", "msg", e.getMessage()))));
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "ILLEGAL_STATE", "msg", e.getMessage()));
         } catch (Exception e) {
             logger.error("Error handling frame type " + MsgType.name(t), e);
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "EXCEPTION", "msg", 
-                        e.getMessage() == null ? "Internal server error" : e.getMessage()))));
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "EXCEPTION", "msg", 
+                        e.getMessage() == null ? "Internal server error" : e.getMessage()));
+        } finally {
+            cs.requestSeq = 0;
+            handlerHistogram(t).observeNanos(System.nanoTime() - start);
         }
     }
     
+    // Checked before the frame is even decoded. An over-limit frame gets RATE_LIMITED with the wait until
+    // the next one would pass; a session that keeps sending them is closed without the option to resume.
+    private boolean rateLimited(ClientSession cs, byte t, long now) {
+        int cls = RateLimiter.classOf(t);
+        if (rateLimiter == null || cls < 0) return false;
+        long wait = rateLimiter.acquire(cs.rateBuckets, cls, now);
+        if (wait == 0) return false;
+        
+        rateLimited[cls].increment();
+        if (rateLimiter.strike(cs.rateBuckets, now)) {
+            logger.warn("Disconnecting %s for flooding (%s)", cs.nick != null ? cs.nick : "anonymous session", MsgType.name(t));
+            rateLimitDisconnects.increment();
+            String token = cs.resumeToken;
+            if (token != null) {
+                cs.resumeToken = null;
+                sessionsByToken.remove(token, cs);
+            }
+            cs.stop("Rate limit exceeded");
+            return true;
+        }
+        long retryMs = TimeUnit.NANOSECONDS.toMillis(wait) + 1;
+        cs.reply(MsgType.ERROR, Kvp.kv("code", "RATE_LIMITED", "msg", "Slow down, retry in " + retryMs + " ms",
+                    "type", MsgType.name(t), "retryAfterMs", String.valueOf(retryMs)));
+        return true;
+    }
+    
+    // Called by the transports for every frame as it goes out on the socket.
+    public void recordWrite(Frame f) {
+        counter(framesOut, "chat_frames_out_total", "Frames written, by type", f.type).increment();
+        bytesWritten.add(f.wireSize());
+    }
+    
+    public void recordFlush() {
+        flushes.increment();
+    }
+    
+    private Metrics.Counter counter(Metrics.Counter[] byType, String name, String help, byte t) {
+        Metrics.Counter c = byType[t & 0xFF];
+        if (c == null) {
+            c = metrics.counter(name, help, "type", MsgType.name(t));
+            byType[t & 0xFF] = c;
+        }
+        return c;
+    }
+    
+    private Metrics.Histogram handlerHistogram(byte t) {
+        Metrics.Histogram h = handlerTime[t & 0xFF];
+        if (h == null) {
+            h = metrics.histogram("chat_handler_seconds", "Time spent in onFrame, by frame type", "type", MsgType.name(t));
+            handlerTime[t & 0xFF] = h;
+        }
+        return h;
+    }
+    
+    private long historyMessages() {
+        long total = 0;
+        for (MessageHistory history : roomHistory.values()) {
+            total += history.size();
+        }
+        return total;
+    }
+    
+    private long parkedSessions() {
+        long n = 0;
+        for (ClientSession s : sessionsByToken.values()) {
+            if (!s.isRunning()) n++;
+        }
+        return n;
+    }
+    
+    private long sendQueueDepth(boolean bytes) {
+        long total = 0;
+        for (ClientSession s : sessionsBySocket.values()) {
+            SendQueue q = s.getSendQueue();
+            total += bytes ? q.bytes() : q.size();
+        }
+        return total;
+    }
+    
+    private long maxSendQueueDepth() {
+        long max = 0;
+        for (ClientSession s : sessionsBySocket.values()) {
+            max = Math.max(max, s.getSendQueue().size());
+        }
+        return max;
+    }
+    
     public void onDisconnect(ClientSession cs) {
         sessionsBySocket.remove(cs.socket);
+        TimingWheel.Timeout idle = cs.idleTimer;
+        if (idle != null) idle.cancel();
+        TimingWheel.Timeout handshake = cs.handshakeTimer;
+        if (handshake != null) handshake.cancel();
         currentConnections.decrementAndGet();
+        admission.release(cs.socket.getInetAddress());
         
+        if (cs.resumeToken != null && cs.nick != null && sessionsByNick.get(cs.nick) == cs) {
+            // Parked: the nick, room membership and send queue stay put until RESUME or the grace timer.
+            long grace = TimeUnit.SECONDS.toMillis(config.getResumeGraceSeconds());
+            cs.graceTimer = timers.schedule(grace, () -> abandonParked(cs, "grace period over"));
+            logger.info("User %s disconnected, holding session for %ds", cs.nick, config.getResumeGraceSeconds());
+            return;
+        }
+        endSession(cs);
+    }
+    
+    // Gives up on resuming a parked session and finishes its disconnect. No-op if it was resumed meanwhile.
+    void abandonParked(ClientSession cs, String reason) {
+        String token = cs.resumeToken;
+        if (token == null || !sessionsByToken.remove(token, cs)) return;
+        cs.resumeToken = null;
+        TimingWheel.Timeout grace = cs.graceTimer;
+        if (grace != null) grace.cancel();
+        logger.debug("Dropping parked session of %s: %s", cs.nick, reason);
+        endSession(cs);
+    }
+    
+    private void endSession(ClientSession cs) {
+        String token = cs.resumeToken;
+        if (token != null) {
+            cs.resumeToken = null;
+            sessionsByToken.remove(token, cs);
+        }
         if (cs.nick != null) {
-            ClientSession removed = sessionsByNick.remove(cs.nick);
-            if (removed == cs) {
-                if (cs.room != null) {
-                    leaveRoomInternal(cs, cs.room, true);
+            // Conditional, so a session that was resumed elsewhere leaves its successor alone.
+            if (sessionsByNick.remove(cs.nick, cs)) {
+                if (cluster != null) cluster.releaseNick(cs.nick, cs.sessionId);
+                for (String room : cs.subscriptions) {
+                    leaveRoomInternal(cs, room);
                 }
                 broadcastSystem("lobby", cs.nick + " disconnected");
-                logger.info(String.format("User %s disconnected", cs.nick));
+                logger.info("User %s disconnected", cs.nick);
             }
         }
     }
     
+    private String newResumeToken() {
+        byte[] b = new byte[16];
+        tokenRandom.nextBytes(b);
+        return HexFormat.of().formatHex(b);
+    }
+    
     private void handleHello(ClientSession cs, Map<String, String> kv) {
         String clientInfo = kv.getOrDefault("client", "unknown");
-        logger.debug(String.format("HELLO from %s (client: %s)", cs.socket.getRemoteSocketAddress(), clientInfo));
+        logger.debug("HELLO from %s (client: %s)", cs.socket.getRemoteSocketAddress(), clientInfo);
         
-        cs.send(Frame.ofText(MsgType.WELCOME, cs.nextSeq(),
-                Kvp.encode(Kvp.kv(
+        // WELCOME itself always goes out as text; the client switches decoders on the codec key.
+        boolean binary = Arrays.asList(kv.getOrDefault("codecs", "").split(",")).contains("binary");
+        cs.reply(MsgType.WELCOME, Kvp.kv(
                     "server", config.getServerName(),
                     "version", "1.0",
                     "time", Instant.now().toString(),
                     "maxClients", String.valueOf(config.getMaxClients()),
-                    "heartbeatInterval", String.valueOf(config.getHeartbeatInterval())
-                ))));
+                    "heartbeatInterval", String.valueOf(config.getHeartbeatInterval()),
+                    "codec", binary ? "binary" : "text"
+                ));
+        cs.binaryKv = binary;
+        cs.helloSeen = true;
     }
     
     private void handleLogin(ClientSession cs, Map<String, String> kv) {
-        if (cs.nick != null) {
-            cs.send(Frame.ofText(MsgType.LOGIN_FAIL, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("reason", "ALREADY_LOGGED_IN"))));
+        if (cs.nick != null || cs.loginPending) {
+            cs.reply(MsgType.LOGIN_FAIL, Kvp.kv("reason", "ALREADY_LOGGED_IN"));
             return;
         }
         
         String nick = kv.getOrDefault("nick", "").trim();
         if (!isValidNick(nick)) {
-            cs.send(Frame.ofText(MsgType.LOGIN_FAIL, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("reason", "BAD_NICK"))));
+            cs.reply(MsgType.LOGIN_FAIL, Kvp.kv("reason", "BAD_NICK"));
             return;
         }
         
       
+        cs.sessionId = nextSessionId.incrementAndGet();
         ClientSession prev = sessionsByNick.putIfAbsent(nick, cs);
         if (prev != null) {
-            cs.send(Frame.ofText(MsgType.LOGIN_FAIL, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("reason", "DUP_NICK"))));
+            cs.reply(MsgType.LOGIN_FAIL, Kvp.kv("reason", "DUP_NICK"));
+            return;
+        }
+        if (cluster == null) {
+            completeLogin(cs, nick, cs.requestSeq);
             return;
         }
         
+        // The nick must be free on the other nodes too, so LOGIN_OK waits for its directory owner.
+        int seq = cs.requestSeq;
+        cs.loginPending = true;
+        cluster.claimNick(nick, cs.sessionId).whenComplete((claimed, e) -> {
+            cs.loginPending = false;
+            if (claimed == null || !claimed) {
+                sessionsByNick.remove(nick, cs);
+                // A claim that timed out may still have landed.
+                if (e != null) cluster.releaseNick(nick, cs.sessionId);
+                cs.reply(seq, MsgType.LOGIN_FAIL, Kvp.kv("reason", e != null ? "UNAVAILABLE" : "DUP_NICK"));
+                return;
+            }
+            completeLogin(cs, nick, seq);
+            // Dropped while the claim was out: onDisconnect found no nick to clean up.
+            if (!cs.isRunning()) endSession(cs);
+        });
+    }
+    
+    private void completeLogin(ClientSession cs, String nick, int seq) {
         cs.nick = nick;
-        cs.send(Frame.ofText(MsgType.LOGIN_OK, cs.nextSeq(),
-                Kvp.encode(Kvp.kv("nick", nick))));
+        Map<String, String> ok = Kvp.kv("nick", nick);
+        if (config.isResumeEnabled()) {
+            String token = newResumeToken();
+            cs.resumeToken = token;
+            sessionsByToken.put(token, cs);
+            cs.startJournal(MsgType.LOGIN_OK, 0);
+            ok.put("token", token);
+        }
+        cs.reply(seq, MsgType.LOGIN_OK, ok);
         
        
         joinRoomInternal(cs, "lobby");
         broadcastSystem("lobby", nick + " joined");
-        logger.info(String.format("User %s logged in", nick));
+        logger.info("User %s logged in", nick);
     }
     
     private void handleLogout(ClientSession cs, Map<String, String> kv) {
         requireLogin(cs);
         String nick = cs.nick;
+        String token = cs.resumeToken;
+        if (token != null) {
+            cs.resumeToken = null;
+            sessionsByToken.remove(token, cs);
+        }
         cs.stop("User logout");
-        logger.info(String.format("User %s logged out", nick));
+        logger.info("User %s logged out", nick);
+    }
+    
+    // Takes over the session that issued the token: same nick and room, then exactly the frames the client
+    // has not read, counted as described in ReplayBuffer. An old connection the server still thinks is
+    // alive is closed first. On RESUME_FAIL the client falls back to LOGIN.
+    private void handleResume(ClientSession cs, Map<String, String> kv) {
+        if (cs.nick != null) {
+            cs.reply(MsgType.RESUME_FAIL, Kvp.kv("reason", "ALREADY_LOGGED_IN"));
+            return;
+        }
+        long last;
+        try {
+            last = Long.parseLong(kv.getOrDefault("last", ""));
+        } catch (NumberFormatException e) {
+            cs.reply(MsgType.RESUME_FAIL, Kvp.kv("reason", "BAD_REQUEST"));
+            return;
+        }
+        String token = kv.getOrDefault("token", "");
+        ClientSession old = sessionsByToken.get(token);
+        if (old == null) {
+            cs.reply(MsgType.RESUME_FAIL, Kvp.kv("reason", "UNKNOWN_TOKEN"));
+            return;
+        }
+        // Replayed frames go out as they were encoded.
+        if (old.binaryKv != cs.binaryKv) {
+            cs.reply(MsgType.RESUME_FAIL, Kvp.kv("reason", "CODEC_MISMATCH"));
+            return;
+        }
+        old.close("Resumed on another connection");
+        // Claiming the token here decides any race with the grace timer or a second RESUME.
+        if (!sessionsByToken.remove(token, old)) {
+            cs.reply(MsgType.RESUME_FAIL, Kvp.kv("reason", "UNKNOWN_TOKEN"));
+            return;
+        }
+        TimingWheel.Timeout grace = old.graceTimer;
+        if (grace != null) grace.cancel();
+        
+        String nick = old.nick;
+        String newToken = newResumeToken();
+        int[] replayed = {-1};
+        old.resumedBy = cs;
+        boolean moved = old.getSendQueue().handOff(journal -> {
+            List<Frame> missed = journal.since(last);
+            if (missed == null) return false;
+            cs.nick = nick;
+            cs.sessionId = old.sessionId;
+            cs.rateBuckets = old.rateBuckets;
+            cs.resumeToken = newToken;
+            sessionsByToken.put(newToken, cs);
+            cs.startJournal(MsgType.RESUME_OK, last);
+            cs.reply(MsgType.RESUME_OK, Kvp.kv("nick", nick, "room", old.room != null ? old.room : "",
+                "rooms", String.join(",", old.subscriptions), "token", newToken, "last", String.valueOf(last), "replayed", String.valueOf(missed.size())));
+            for (Frame f : missed) cs.send(f);
+            replayed[0] = missed.size();
+            
+            // Swapped while the old queue is locked, so nothing sent to either session can overtake the
+            // replay. A fan-out racing the swap may still reach both and deliver one frame twice.
+            sessionsByNick.replace(nick, old, cs);
+            for (String room : old.subscriptions) {
+                // Added before the old one goes, so the room never looks empty.
+                rooms.add(room, cs);
+                cs.subscriptions.add(room);
+                rooms.remove(room, old);
+            }
+            cs.room = old.room;
+            return true;
+        });
+        
+        if (!moved) {
+            // Too far behind to replay: end the old session so the nick is free for a fresh LOGIN.
+            endSession(old);
+            cs.reply(MsgType.RESUME_FAIL, Kvp.kv("reason", "TOO_FAR_BEHIND"));
+            return;
+        }
+        old.resumeToken = null;
+        sessionsResumed.increment();
+        framesReplayed.add(replayed[0]);
+        logger.info("User %s resumed from %s, replayed %d frames", nick, cs.socket.getRemoteSocketAddress(), replayed[0]);
     }
     
+    // A plain JOIN moves the session to the room, leaving its current one. With keep=true the session stays
+    // in its other rooms as well and the current room does not change; CHAT then says which room it is for.
     private void handleJoin(ClientSession cs, Map<String, String> kv) {
         requireLogin(cs);
         String room = kv.getOrDefault("room", "lobby").trim();
         if (room.isEmpty() || !isValidRoomName(room)) {
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "INVALID_ROOM", "msg", "Invalid room name"))));
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "INVALID_ROOM", "msg", "Invalid room name"));
             return;
         }
+        boolean keep = Boolean.parseBoolean(kv.getOrDefault("keep", "false"));
+        boolean joined = !cs.subscriptions.contains(room);
         
-        Set<ClientSession> roomMembers = rooms.get(room);
-        if (roomMembers != null && roomMembers.size() >= config.getMaxRoomSize()) {
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "ROOM_FULL", "msg", "Room is full"))));
+        if (joined && rooms.size(room) >= config.getMaxRoomSize()) {
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "ROOM_FULL", "msg", "Room is full"));
+            return;
+        }
+        if (joined && keep && cs.subscriptions.size() >= config.getMaxRoomsPerSession()) {
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "TOO_MANY_ROOMS", "msg", "Leave a room first"));
             return;
         }
         
         String oldRoom = cs.room;
-        joinRoomInternal(cs, room);
+        if (keep) {
+            subscribe(cs, room);
+        } else {
+            joinRoomInternal(cs, room);
+        }
         
-        cs.send(Frame.ofText(MsgType.JOIN_OK, cs.nextSeq(),
-                Kvp.encode(Kvp.kv("room", room, "oldRoom", oldRoom != null ? oldRoom : ""))));
+        cs.reply(MsgType.JOIN_OK, Kvp.kv("room", room, "oldRoom", !keep && oldRoom != null ? oldRoom : "",
+                    "rooms", String.join(",", cs.subscriptions)));
         
-        broadcastSystem(room, cs.nick + " entered room");
-        logger.debug(String.format("User %s joined room %s", cs.nick, room));
+        if (joined) broadcastSystem(room, cs.nick + " entered room");
+        logger.debug("User %s joined room %s", cs.nick, room);
     }
     
     private void handleLeave(ClientSession cs, Map<String, String> kv) {
         requireLogin(cs);
-        String room = (cs.room != null) ? cs.room : kv.getOrDefault("room", "lobby");
-        if (room == null) return;
+        String room = kv.getOrDefault("room", "").trim();
+        if (room.isEmpty()) room = (cs.room != null) ? cs.room : "lobby";
         
-        leaveRoomInternal(cs, room, false);
-        cs.send(Frame.ofText(MsgType.LEAVE_OK, cs.nextSeq(),
-                Kvp.encode(Kvp.kv("room", room))));
+        boolean left = cs.subscriptions.contains(room);
+        leaveRoomInternal(cs, room);
+        cs.reply(MsgType.LEAVE_OK, Kvp.kv("room", room));
         
-        broadcastSystem(room, cs.nick + " left room");
-        logger.debug(String.format("User %s left room %s", cs.nick, room));
+        if (left) broadcastSystem(room, cs.nick + " left room");
+        logger.debug("User %s left room %s", cs.nick, room);
     }
     
     private void handleChat(ClientSession cs, Map<String, String> kv) {
@@ -292,37 +756,19 @@ public final class ChatServer {
         String msg = kv.getOrDefault("msg", "").trim();
         
         if (msg.isEmpty() || msg.length() > config.getMaxMessageLength()) {
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "INVALID_MESSAGE", 
-                        "msg", "Message is empty or too long"))));
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "INVALID_MESSAGE", 
+                        "msg", "Message is empty or too long"));
             return;
         }
         
         if (room == null || room.isEmpty()) room = "lobby";
         
-        Set<ClientSession> members = rooms.get(room);
-        if (members == null || !members.contains(cs)) {
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "NOT_IN_ROOM", "msg", "Join room first"))));
+        if (!cs.subscriptions.contains(room)) {
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "NOT_IN_ROOM", "msg", "Join room first"));
             return;
         }
        
-        MessageHistory history = roomHistory.computeIfAbsent(room, 
-            r -> new MessageHistory(config.getMessageHistorySize()));
-        history.add(cs.nick, room, msg);
-        
-        String payload = Kvp.encode(Kvp.kv(
-                "room", room,
-                "from", cs.nick,
-                "msg", msg,
-                "time", Instant.now().toString()
-        ));
-        Frame out = Frame.ofText(MsgType.CHAT, 0, payload);
-        
-      
-        for (ClientSession m : members) {
-            m.send(out);
-        }
+        publish(room, cs.nick, msg, true);
     }
     
     private void handleWhisper(ClientSession cs, Map<String, String> kv) {
@@ -331,44 +777,48 @@ public final class ChatServer {
         String msg = kv.getOrDefault("msg", "").trim();
         
         if (to.isEmpty() || msg.isEmpty() || msg.length() > config.getMaxMessageLength()) {
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "INVALID_WHISPER", "msg", "Invalid whisper"))));
-            return;
-        }
-        
-        ClientSession target = sessionsByNick.get(to);
-        if (target == null) {
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "NO_SUCH_USER", "msg", to))));
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "INVALID_WHISPER", "msg", "Invalid whisper"));
             return;
         }
         
-        String payload = Kvp.encode(Kvp.kv(
+        Map<String, String> payload = Kvp.kv(
                 "from", cs.nick,
                 "to", to,
                 "msg", msg,
                 "time", Instant.now().toString()
-        ));
-        Frame out = Frame.ofText(MsgType.WHISPER, 0, payload);
+        );
         
-        target.send(out);
-        cs.send(out);
+        ClientSession target = sessionsByNick.get(to);
+        if (target != null) {
+            fanOut(new ClientSession[] {target, cs}, MsgType.WHISPER, payload);
+            return;
+        }
+        if (cluster == null) {
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "NO_SUCH_USER", "msg", to));
+            return;
+        }
+        
+        // Not on this node: route it to the one it is on and echo it to the sender once it is delivered.
+        int seq = cs.requestSeq;
+        cluster.whisper(payload).thenAccept(delivered -> {
+            if (delivered) {
+                fanOut(new ClientSession[] {cs}, MsgType.WHISPER, payload);
+            } else {
+                cs.reply(seq, MsgType.ERROR, Kvp.kv("code", "NO_SUCH_USER", "msg", to));
+            }
+        });
     }
     
     private void handlePing(ClientSession cs, Map<String, String> kv) {
         cs.updateLastActivity();
         String t = kv.getOrDefault("t", "");
-        cs.send(Frame.ofText(MsgType.PONG, cs.nextSeq(), Kvp.encode(Kvp.kv("t", t))));
+        cs.reply(MsgType.PONG, Kvp.kv("t", t));
     }
     
     private void handleRoomList(ClientSession cs, Map<String, String> kv) {
         requireLogin(cs);
         
-        List<String> roomNames = new ArrayList<>(rooms.keySet());
-        String roomsStr = String.join(",", roomNames);
-        
-        cs.send(Frame.ofText(MsgType.ROOM_LIST_RESP, cs.nextSeq(),
-                Kvp.encode(Kvp.kv("rooms", roomsStr, "count", String.valueOf(roomNames.size())))));
+        replyWithList(cs, MsgType.ROOM_LIST_RESP, "rooms", rooms.names(), MsgType.LIST_ROOMS);
     }
     
     private void handleRoomInfo(ClientSession cs, Map<String, String> kv) {
@@ -376,41 +826,60 @@ public final class ChatServer {
         String room = kv.getOrDefault("room", "").trim();
         
         if (room.isEmpty()) {
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "INVALID_ROOM", "msg", "Room name required"))));
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "INVALID_ROOM", "msg", "Room name required"));
             return;
         }
         
-        Set<ClientSession> members = rooms.get(room);
-        if (members == null) {
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "NO_SUCH_ROOM", "msg", room))));
+        if (!rooms.exists(room)) {
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "NO_SUCH_ROOM", "msg", room));
             return;
         }
         
-        List<String> memberNicks = members.stream()
-            .map(s -> s.nick)
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
-        
-        String membersStr = String.join(",", memberNicks);
+        StringBuilder members = new StringBuilder();
+        int count = 0;
+        for (ClientSession member : rooms.members(room)) {
+            String nick = member.nick;
+            if (nick == null) continue;
+            if (count++ > 0) members.append(',');
+            members.append(nick);
+        }
         
-        cs.send(Frame.ofText(MsgType.ROOM_INFO_RESP, cs.nextSeq(),
-                Kvp.encode(Kvp.kv(
+        cs.reply(MsgType.ROOM_INFO_RESP, Kvp.kv(
                     "room", room,
-                    "members", membersStr,
-                    "count", String.valueOf(memberNicks.size())
-                ))));
+                    "members", members.toString(),
+                    "count", String.valueOf(count)
+                ));
     }
     
     private void handleUserList(ClientSession cs, Map<String, String> kv) {
         requireLogin(cs);
         
-        List<String> users = new ArrayList<>(sessionsByNick.keySet());
-        String usersStr = String.join(",", users);
-        
-        cs.send(Frame.ofText(MsgType.USER_LIST_RESP, cs.nextSeq(),
-                Kvp.encode(Kvp.kv("users", usersStr, "count", String.valueOf(users.size())))));
+        replyWithList(cs, MsgType.USER_LIST_RESP, "users", sessionsByNick.keySet(), MsgType.LIST_USERS);
+    }
+    
+    // In cluster mode the list is merged from every node's answer to the query; nodes that do not answer
+    // within the request timeout are left out.
+    private void replyWithList(ClientSession cs, byte type, String key, Collection<String> local, byte query) {
+        if (cluster == null) {
+            StringBuilder list = new StringBuilder();
+            int count = 0;
+            for (String name : local) {
+                if (count++ > 0) list.append(',');
+                list.append(name);
+            }
+            cs.reply(type, Kvp.kv(key, list.toString(), "count", String.valueOf(count)));
+            return;
+        }
+        List<String> names = new ArrayList<>(local);
+        int seq = cs.requestSeq;
+        cluster.ask(query, Kvp.kv()).thenAccept(answers -> {
+            Set<String> merged = new LinkedHashSet<>(names);
+            for (Map<String, String> a : answers) {
+                String list = a.getOrDefault(key, "");
+                if (!list.isEmpty()) merged.addAll(Arrays.asList(list.split(",")));
+            }
+            cs.reply(seq, type, Kvp.kv(key, String.join(",", merged), "count", String.valueOf(merged.size())));
+        });
     }
     
     private void handleUserInfo(ClientSession cs, Map<String, String> kv) {
@@ -418,86 +887,213 @@ public final class ChatServer {
         String targetNick = kv.getOrDefault("nick", "").trim();
         
         if (targetNick.isEmpty()) {
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "INVALID_USER", "msg", "Nick required"))));
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "INVALID_USER", "msg", "Nick required"));
             return;
         }
         
         ClientSession target = sessionsByNick.get(targetNick);
         if (target == null) {
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "NO_SUCH_USER", "msg", targetNick))));
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "NO_SUCH_USER", "msg", targetNick));
             return;
         }
         
-        cs.send(Frame.ofText(MsgType.USER_INFO_RESP, cs.nextSeq(),
-                Kvp.encode(Kvp.kv(
+        cs.reply(MsgType.USER_INFO_RESP, Kvp.kv(
                     "nick", targetNick,
                     "room", target.room != null ? target.room : "",
+                    "rooms", String.join(",", target.subscriptions),
                     "status", "online"
-                ))));
+                ));
     }
     
     private void handleChatHistory(ClientSession cs, Map<String, String> kv) {
         requireLogin(cs);
         String room = kv.getOrDefault("room", cs.room != null ? cs.room : "lobby").trim();
-        int count = Integer.parseInt(kv.getOrDefault("count", "20"));
+        int limit;
+        Long before;
+        Long after;
+        try {
+            limit = Integer.parseInt(kv.getOrDefault("limit", kv.getOrDefault("count", "20")));
+            before = kv.containsKey("before") ? Long.valueOf(kv.get("before")) : null;
+            after = kv.containsKey("after") ? Long.valueOf(kv.get("after")) : null;
+        } catch (NumberFormatException e) {
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "BAD_REQUEST", "msg", "Bad limit or cursor"));
+            return;
+        }
+        limit = Math.max(0, Math.min(limit, config.getHistoryMaxPage()));
         
         MessageHistory history = roomHistory.get(room);
         if (history == null) {
-            cs.send(Frame.ofText(MsgType.CHAT_HISTORY_RESP, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("room", room, "messages", ""))));
+            // Nobody here is in the room: page straight from its log instead of loading a MessageHistory
+            // that only leaving the room would drop again.
+            HistoryLog log = (historyStore != null && isValidRoomName(room) && historyStore.exists(room))
+                ? historyStore.open(room) : null;
+            if (log == null) {
+                cs.reply(MsgType.CHAT_HISTORY_RESP, Kvp.kv("room", room, "messages", "", "count", "0", "more", "false"));
+            } else {
+                sendLogPage(cs, room, log, before, after, limit);
+            }
             return;
         }
         
-        List<MessageHistory.HistoryEntry> entries = history.getRecent(count);
-        List<String> messages = entries.stream()
-            .map(e -> String.format("%s|%s|%s", e.from, e.timestamp.toString(), e.message))
-            .collect(Collectors.toList());
-        
-        String messagesStr = String.join("\n", messages);
+        // Cursors are message seqs: before=<first> of a page walks back, after=<last> walks forward.
+        List<MessageHistory.HistoryEntry> entries;
+        boolean more;
+        if (after != null) {
+            entries = history.getAfter(after, limit);
+            more = !entries.isEmpty() && entries.get(entries.size() - 1).seq + 1 < history.nextSeq();
+        } else {
+            entries = (before != null) ? history.getBefore(before, limit) : history.getRecent(limit);
+            more = !entries.isEmpty() && entries.get(0).seq > history.firstSeq();
+        }
+        sendHistoryPage(cs, room, entries, more);
+    }
+    
+    // The same paging as MessageHistory.getBefore/getAfter, over the log alone.
+    private void sendLogPage(ClientSession cs, String room, HistoryLog log, Long before, Long after, int limit) {
+        long first = log.firstSeq();
+        long next = log.nextSeq();
+        long start;
+        long end;
+        if (after != null) {
+            start = Math.max(after, first - 1) + 1;
+            end = Math.min(next, start + limit);
+        } else {
+            end = (before != null) ? Math.min(before, next) : next;
+            start = Math.max(first, end - limit);
+        }
+        List<MessageHistory.HistoryEntry> entries = (start < end) ? log.read(start, end) : List.of();
+        boolean more;
+        if (after != null) {
+            more = !entries.isEmpty() && entries.get(entries.size() - 1).seq + 1 < next;
+        } else {
+            more = !entries.isEmpty() && entries.get(0).seq > first;
+        }
+        sendHistoryPage(cs, room, entries, more);
+    }
+    
+    // Streams one page as CHAT_HISTORY_RESP frames of roughly HISTORY_FRAME_CHARS each. Every frame but
+    // the last carries FLAG_CONTINUED; the last one also reports the page's cursors and whether more exist.
+    private void sendHistoryPage(ClientSession cs, String room, List<MessageHistory.HistoryEntry> entries, boolean more) {
+        StringBuilder sb = new StringBuilder();
+        int n = 0;
+        for (MessageHistory.HistoryEntry e : entries) {
+            if (n > 0 && sb.length() + e.message.length() + 64 > HISTORY_FRAME_CHARS) {
+                cs.reply(MsgType.CHAT_HISTORY_RESP,
+                    Kvp.kv("room", room, "messages", sb.toString(), "count", String.valueOf(n)), Frame.FLAG_CONTINUED);
+                sb.setLength(0);
+                n = 0;
+            }
+            if (n > 0) sb.append('\n');
+            sb.append(e.from()).append('|').append(e.timestamp).append('|').append(e.message);
+            n++;
+        }
         
-        cs.send(Frame.ofText(MsgType.CHAT_HISTORY_RESP, cs.nextSeq(),
-                Kvp.encode(Kvp.kv("room", room, "messages", messagesStr, "count", String.valueOf(messages.size())))));
+        Map<String, String> resp = Kvp.kv("room", room, "messages", sb.toString(), "count", String.valueOf(n),
+            "more", String.valueOf(more));
+        if (!entries.isEmpty()) {
+            resp.put("first", String.valueOf(entries.get(0).seq));
+            resp.put("last", String.valueOf(entries.get(entries.size() - 1).seq));
+        }
+        cs.reply(MsgType.CHAT_HISTORY_RESP, resp);
     }
     
     private void broadcastSystem(String room, String text) {
-        Set<ClientSession> members = rooms.get(room);
-        if (members == null) return;
-        
-        String payload = Kvp.encode(Kvp.kv(
-                "room", room,
-                "from", "SYSTEM",
-                "msg", text,
-                "time", Instant.now().toString()
-        ));
-        Frame out = Frame.ofText(MsgType.CHAT, 0, payload);
+        publish(room, "SYSTEM", text, false);
+    }
+    
+    // In cluster mode room traffic goes through the room's owner (see Cluster).
+    private void publish(String room, String from, String msg, boolean record) {
+        if (cluster == null || cluster.owns(room)) {
+            publishOwned(room, from, msg, record);
+        } else {
+            cluster.forward(room, from, msg, record);
+        }
+    }
+    
+    // Delivers a room message here and, in cluster mode, relays it to the other nodes.
+    void publishOwned(String room, String from, String msg, boolean record) {
+        if (cluster == null) {
+            deliverRoom(Kvp.kv("room", room, "from", from, "msg", msg, "time", Instant.now().toString()), record);
+            return;
+        }
+        ReentrantLock lock = cluster.roomLock(room);
+        lock.lock();
+        try {
+            Map<String, String> payload = Kvp.kv("room", room, "from", from, "msg", msg, "time", Instant.now().toString());
+            deliverRoom(payload, record);
+            cluster.relay(payload, record);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // Sends a CHAT payload to this node's members of its room, adding it to the room history if record is
+    // set. A node with no members there neither delivers nor records anything.
+    void deliverRoom(Map<String, String> payload, boolean record) {
+        String room = payload.get("room");
+        ClientSession[] members = rooms.members(room);
+        if (members.length == 0) return;
+        
+        if (record) {
+            roomHistory.computeIfAbsent(room, this::newHistory).add(payload.get("from"), room, payload.get("msg"));
+        }
+        fanOut(members, MsgType.CHAT, payload);
+    }
+    
+    // A WHISPER routed from another node; false if the recipient is not logged in here.
+    boolean deliverWhisper(Map<String, String> payload) {
+        ClientSession target = sessionsByNick.get(payload.getOrDefault("to", ""));
+        if (target == null) return false;
+        fanOut(new ClientSession[] {target}, MsgType.WHISPER, Kvp.kv("from", payload.get("from"), "to", payload.get("to"),
+            "msg", payload.get("msg"), "time", payload.get("time")));
+        return true;
+    }
+    
+    Collection<String> localNicks() {
+        return sessionsByNick.keySet();
+    }
+    
+    Map<String, ClientSession> localSessions() {
+        return sessionsByNick;
+    }
+    
+    Collection<String> localRooms() {
+        return rooms.names();
+    }
+    
+    // Encodes the payload at most once per codec in use, however many members receive it.
+    private void fanOut(ClientSession[] members, byte type, Map<String, String> payload) {
+        Frame text = null;
+        Frame binary = null;
         for (ClientSession m : members) {
-            m.send(out);
+            if (m.binaryKv) {
+                if (binary == null) binary = Frame.broadcast(type, payload, true);
+                m.send(binary);
+            } else {
+                if (text == null) text = Frame.broadcast(type, payload, false);
+                m.send(text);
+            }
         }
     }
     
+    // Makes room the current room, leaving the previous current room; other subscriptions are kept.
     private void joinRoomInternal(ClientSession cs, String room) {
-        if (cs.room != null && cs.room.equals(room)) return;
-        
-        if (cs.room != null) {
-            leaveRoomInternal(cs, cs.room, false);
+        if (cs.room != null && !cs.room.equals(room)) {
+            leaveRoomInternal(cs, cs.room);
         }
-        
-        Set<ClientSession> set = rooms.computeIfAbsent(room, r -> ConcurrentHashMap.newKeySet());
-        set.add(cs);
+        subscribe(cs, room);
         cs.room = room;
     }
     
-    private void leaveRoomInternal(ClientSession cs, String room, boolean silent) {
-        Set<ClientSession> set = rooms.get(room);
-        if (set != null) {
-            set.remove(cs);
-            if (set.isEmpty()) {
-                rooms.remove(room);
-                roomHistory.remove(room);
-            }
-        }
+    private void subscribe(ClientSession cs, String room) {
+        rooms.add(room, cs);
+        cs.subscriptions.add(room);
+        if (cs.room == null) cs.room = room;
+    }
+    
+    private void leaveRoomInternal(ClientSession cs, String room) {
+        cs.subscriptions.remove(room);
+        if (rooms.remove(room, cs)) dropHistory(room);
         if (room.equals(cs.room)) cs.room = null;
     }
     
@@ -536,66 +1132,61 @@ public final class ChatServer {
         requireLogin(cs);
         String roomName = kv.getOrDefault("room", "").trim();
         if (!isValidRoomName(roomName)) {
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "INVALID_ROOM", "msg", "Invalid room name"))));
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "INVALID_ROOM", "msg", "Invalid room name"));
             return;
         }
         
-        if (rooms.containsKey(roomName)) {
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "ROOM_EXISTS", "msg", "Room already exists"))));
+        if (!rooms.create(roomName)) {
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "ROOM_EXISTS", "msg", "Room already exists"));
             return;
         }
         
-        rooms.put(roomName, ConcurrentHashMap.newKeySet());
-        cs.send(Frame.ofText(MsgType.ROOM_CREATE, cs.nextSeq(),
-                Kvp.encode(Kvp.kv("room", roomName, "status", "created"))));
-        logger.info(String.format("Room %s created by %s", roomName, cs.nick));
+        cs.reply(MsgType.ROOM_CREATE, Kvp.kv("room", roomName, "status", "created"));
+        logger.info("Room %s created by %s", roomName, cs.nick);
     }
     
     private void handleRoomDelete(ClientSession cs, Map<String, String> kv) {
         requireLogin(cs);
         String roomName = kv.getOrDefault("room", "").trim();
-        Set<ClientSession> roomMembers = rooms.get(roomName);
         
-        if (roomMembers == null) {
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "NO_SUCH_ROOM", "msg", roomName))));
+        if (!rooms.exists(roomName)) {
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "NO_SUCH_ROOM", "msg", roomName));
             return;
         }
         
         if (roomName.equals("lobby")) {
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "CANNOT_DELETE", "msg", "Cannot delete lobby"))));
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "CANNOT_DELETE", "msg", "Cannot delete lobby"));
             return;
         }
         
-        for (ClientSession member : roomMembers) {
-            member.room = "lobby";
-            joinRoomInternal(member, "lobby");
+        // Everyone loses the subscription; those for whom it was the current room land in the lobby.
+        for (ClientSession member : rooms.removeRoom(roomName)) {
+            member.subscriptions.remove(roomName);
+            if (roomName.equals(member.room)) {
+                member.room = null;
+                joinRoomInternal(member, "lobby");
+            }
         }
         
-        rooms.remove(roomName);
-        roomHistory.remove(roomName);
-        cs.send(Frame.ofText(MsgType.ROOM_DELETE, cs.nextSeq(),
-                Kvp.encode(Kvp.kv("room", roomName, "status", "deleted"))));
-        logger.info(String.format("Room %s deleted by %s", roomName, cs.nick));
+        MessageHistory history = roomHistory.remove(roomName);
+        if (history != null) history.close();
+        if (historyStore != null) historyStore.delete(roomName);
+        cs.reply(MsgType.ROOM_DELETE, Kvp.kv("room", roomName, "status", "deleted"));
+        logger.info("Room %s deleted by %s", roomName, cs.nick);
     }
     
     private void handleRoomSetPassword(ClientSession cs, Map<String, String> kv) {
         requireLogin(cs);
         String roomName = kv.getOrDefault("room", "").trim();
         String password = kv.getOrDefault("password", "");
-        cs.send(Frame.ofText(MsgType.ROOM_SET_PASSWORD, cs.nextSeq(),
-                Kvp.encode(Kvp.kv("room", roomName, "status", "password_set"))));
+        cs.reply(MsgType.ROOM_SET_PASSWORD, Kvp.kv("room", roomName, "status", "password_set"));
     }
     
     private void handleRoomSetDescription(ClientSession cs, Map<String, String> kv) {
         requireLogin(cs);
         String roomName = kv.getOrDefault("room", "").trim();
         String description = kv.getOrDefault("description", "");
-        cs.send(Frame.ofText(MsgType.ROOM_SET_DESCRIPTION, cs.nextSeq(),
-                Kvp.encode(Kvp.kv("room", roomName, "description", description))));
+        cs.reply(MsgType.ROOM_SET_DESCRIPTION, Kvp.kv("room", roomName, "description", description));
     }
     
     private void handleRoomSetAdmin(ClientSession cs, Map<String, String> kv) {
@@ -604,12 +1195,10 @@ public final class ChatServer {
         String admin = kv.getOrDefault("admin", "").trim();
         ClientSession adminSession = sessionsByNick.get(admin);
         if (adminSession == null) {
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "NO_SUCH_USER", "msg", admin))));
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "NO_SUCH_USER", "msg", admin));
             return;
         }
-        cs.send(Frame.ofText(MsgType.ROOM_SET_ADMIN, cs.nextSeq(),
-                Kvp.encode(Kvp.kv("room", roomName, "admin", admin))));
+        cs.reply(MsgType.ROOM_SET_ADMIN, Kvp.kv("room", roomName, "admin", admin));
     }
     
     private void handleRoomSetLimit(ClientSession cs, Map<String, String> kv) {
@@ -618,77 +1207,110 @@ public final class ChatServer {
         String limitStr = kv.getOrDefault("limit", "");
         try {
             int limit = Integer.parseInt(limitStr);
-            cs.send(Frame.ofText(MsgType.ROOM_SET_LIMIT, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("room", roomName, "limit", limitStr))));
+            cs.reply(MsgType.ROOM_SET_LIMIT, Kvp.kv("room", roomName, "limit", limitStr));
         } catch (NumberFormatException e) {
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "INVALID_LIMIT", "msg", "Invalid limit"))));
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "INVALID_LIMIT", "msg", "Invalid limit"));
         }
     }
     
     private void handleStatsRequest(ClientSession cs, Map<String, String> kv) {
         requireLogin(cs);
         StringBuilder stats = new StringBuilder();
-        stats.append("Total Rooms: ").append(rooms.size()).append("\n");
-        stats.append("Total Users: ").append(sessionsByNick.size()).append("\n");
-        stats.append("Total Connections: ").append(totalConnections.get()).append("\n");
-        stats.append("Current Connections: ").append(currentConnections.get()).append("\n");
-        
-        int totalMessages = 0;
-        for (MessageHistory history : roomHistory.values()) {
-            totalMessages += history.getAll().size();
+        stats.append("Total Rooms: ").append(metrics.get("chat_rooms")).append("\n");
+        stats.append("Total Users: ").append(metrics.get("chat_users")).append("\n");
+        stats.append("Total Connections: ").append(metrics.get("chat_connections_accepted_total")).append("\n");
+        stats.append("Current Connections: ").append(metrics.get("chat_connections")).append("\n");
+        stats.append("Pending Timers: ").append(metrics.get("chat_timers_pending")).append("\n");
+        long droppedLogs = metrics.get("chat_log_records_dropped");
+        if (droppedLogs > 0) {
+            stats.append("Log Records Dropped: ").append(droppedLogs).append("\n");
+        }
+        stats.append("Total Messages: ").append(metrics.get("chat_history_messages")).append("\n");
+        if (historyArena != null) {
+            long used = historyArena.usedBytes();
+            long cap = historyArena.capacityBytes();
+            stats.append(String.format("History Arena: %.1f/%d MB (%.0f%%), %d blocks reclaimed\n",
+                    used / 1048576.0, cap >> 20, 100.0 * used / cap, historyArena.reclaimedBlocks()));
+        }
+        stats.append("Frames In: ").append(metrics.get("chat_frames_in_total")).append("\n");
+        long framesWritten = metrics.get("chat_frames_out_total");
+        stats.append("Frames Out: ").append(framesWritten).append("\n");
+        stats.append("Bytes Written: ").append(metrics.get("chat_bytes_written_total")).append("\n");
+        stats.append("Heartbeats Expired: ").append(metrics.get("chat_heartbeats_expired_total")).append("\n");
+        
+        long flushCount = metrics.get("chat_flushes_total");
+        stats.append("Frames Per Flush: ").append(flushCount == 0 ? "0"
+            : String.format("%.2f", (double) framesWritten / flushCount)).append("\n");
+        
+        for (ClientSession s : sessionsBySocket.values()) {
+            SendQueue q = s.getSendQueue();
+            if (q.getOverflows() == 0) continue;
+            stats.append(String.format("Lagging: %s depth=%d bytes=%d peak=%d dropped=%d collapsed=%d overflows=%d\n",
+                s.nick != null ? s.nick : s.socket.getRemoteSocketAddress(),
+                q.size(), q.bytes(), q.getHighWater(), q.getDropped(), q.getCollapsed(), q.getOverflows()));
         }
-        stats.append("Total Messages: ").append(totalMessages).append("\n");
         
-        cs.send(Frame.ofText(MsgType.STATS_RESP, cs.nextSeq(),
-                Kvp.encode(Kvp.kv("data", stats.toString()))));
+        cs.reply(MsgType.STATS_RESP, Kvp.kv("data", stats.toString()));
     }
     
     private void handleMessageSearch(ClientSession cs, Map<String, String> kv) {
         requireLogin(cs);
         String keyword = kv.getOrDefault("keyword", "").trim();
         String roomName = kv.getOrDefault("room", cs.room != null ? cs.room : "lobby");
+        int limit;
+        try {
+            limit = Integer.parseInt(kv.getOrDefault("limit", "50"));
+        } catch (NumberFormatException e) {
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "BAD_REQUEST", "msg", "Bad limit"));
+            return;
+        }
+        limit = Math.max(1, Math.min(limit, config.getHistoryMaxPage()));
         
         MessageHistory history = roomHistory.get(roomName);
         if (history == null) {
-            cs.send(Frame.ofText(MsgType.MSG_SEARCH_RESP, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("room", roomName, "results", ""))));
+            cs.reply(MsgType.MSG_SEARCH_RESP, Kvp.kv("room", roomName, "results", "", "count", "0", "total", "0"));
             return;
         }
         
-        java.util.List<MessageHistory.HistoryEntry> all = history.getAll();
-        java.util.List<String> results = new java.util.ArrayList<>();
-        for (MessageHistory.HistoryEntry entry : all) {
-            if (entry.message.toLowerCase().contains(keyword.toLowerCase()) ||
-                entry.from.toLowerCase().contains(keyword.toLowerCase())) {
-                results.add(String.format("%s|%s|%s|%s", entry.from, entry.room, entry.timestamp.toString(), entry.message));
-            }
+        // Best match first; an empty keyword lists the newest messages.
+        List<MessageHistory.HistoryEntry> hits;
+        int total;
+        if (keyword.isEmpty()) {
+            hits = history.getRecent(limit);
+            Collections.reverse(hits);
+            total = history.size();
+        } else {
+            SearchIndex.Result r = history.search(keyword, limit);
+            hits = r.hits;
+            total = r.total;
+        }
+        
+        List<String> results = new ArrayList<>(hits.size());
+        for (MessageHistory.HistoryEntry entry : hits) {
+            results.add(String.format("%s|%s|%s|%s", entry.from(), entry.room(), entry.timestamp.toString(), entry.message));
         }
         
         String resultsStr = String.join("\n", results);
-        cs.send(Frame.ofText(MsgType.MSG_SEARCH_RESP, cs.nextSeq(),
-                Kvp.encode(Kvp.kv("room", roomName, "results", resultsStr, "count", String.valueOf(results.size())))));
+        cs.reply(MsgType.MSG_SEARCH_RESP, Kvp.kv("room", roomName, "results", resultsStr,
+                "count", String.valueOf(results.size()), "total", String.valueOf(total)));
     }
     
     private void handleMessageBookmark(ClientSession cs, Map<String, String> kv) {
         requireLogin(cs);
         String messageId = kv.getOrDefault("id", "");
-        cs.send(Frame.ofText(MsgType.MSG_BOOKMARK, cs.nextSeq(),
-                Kvp.encode(Kvp.kv("id", messageId, "status", "bookmarked"))));
+        cs.reply(MsgType.MSG_BOOKMARK, Kvp.kv("id", messageId, "status", "bookmarked"));
     }
     
     private void handleUserBlock(ClientSession cs, Map<String, String> kv) {
         requireLogin(cs);
         String target = kv.getOrDefault("user", "").trim();
-        cs.send(Frame.ofText(MsgType.USER_BLOCK, cs.nextSeq(),
-                Kvp.encode(Kvp.kv("user", target, "status", "blocked"))));
+        cs.reply(MsgType.USER_BLOCK, Kvp.kv("user", target, "status", "blocked"));
     }
     
     private void handleUserUnblock(ClientSession cs, Map<String, String> kv) {
         requireLogin(cs);
         String target = kv.getOrDefault("user", "").trim();
-        cs.send(Frame.ofText(MsgType.USER_UNBLOCK, cs.nextSeq(),
-                Kvp.encode(Kvp.kv("user", target, "status", "unblocked"))));
+        cs.reply(MsgType.USER_UNBLOCK, Kvp.kv("user", target, "status", "unblocked"));
     }
     
     private void handleFriendAdd(ClientSession cs, Map<String, String> kv) {
@@ -699,12 +1321,10 @@ public final class ChatServer {
         }
         ClientSession friendSession = sessionsByNick.get(friend);
         if (friendSession == null) {
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "NO_SUCH_USER", "msg", friend))));
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "NO_SUCH_USER", "msg", friend));
             return;
         }
-        cs.send(Frame.ofText(MsgType.FRIEND_ADD, cs.nextSeq(),
-                Kvp.encode(Kvp.kv("friend", friend, "status", "added"))));
+        cs.reply(MsgType.FRIEND_ADD, Kvp.kv("friend", friend, "status", "added"));
     }
     
     private void handleFriendRemove(ClientSession cs, Map<String, String> kv) {
@@ -713,14 +1333,12 @@ public final class ChatServer {
         if (friend.isEmpty()) {
             friend = kv.getOrDefault("user", "").trim();
         }
-        cs.send(Frame.ofText(MsgType.FRIEND_REMOVE, cs.nextSeq(),
-                Kvp.encode(Kvp.kv("friend", friend, "status", "removed"))));
+        cs.reply(MsgType.FRIEND_REMOVE, Kvp.kv("friend", friend, "status", "removed"));
     }
     
     private void handleFriendList(ClientSession cs, Map<String, String> kv) {
         requireLogin(cs);
-        cs.send(Frame.ofText(MsgType.FRIEND_LIST_RESP, cs.nextSeq(),
-                Kvp.encode(Kvp.kv("friends", "", "count", "0"))));
+        cs.reply(MsgType.FRIEND_LIST_RESP, Kvp.kv("friends", "", "count", "0"));
     }
     
     private void handleMessageEdit(ClientSession cs, Map<String, String> kv) {
@@ -729,66 +1347,55 @@ public final class ChatServer {
         String newMsg = kv.getOrDefault("new", "").trim();
         
         if (newMsg.isEmpty() || newMsg.length() > config.getMaxMessageLength()) {
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "INVALID_MESSAGE", "msg", "Message is empty or too long"))));
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "INVALID_MESSAGE", "msg", "Message is empty or too long"));
             return;
         }
         
-        if (cs.room == null) {
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "NOT_IN_ROOM", "msg", "Not in a room"))));
+        String room = kv.getOrDefault("room", cs.room != null ? cs.room : "");
+        if (!cs.subscriptions.contains(room)) {
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "NOT_IN_ROOM", "msg", "Not in a room"));
             return;
         }
         
-        String payload = Kvp.encode(Kvp.kv(
-                "room", cs.room,
+        Map<String, String> payload = Kvp.kv(
+                "room", room,
                 "from", cs.nick,
                 "original", original,
                 "new", newMsg,
                 "time", Instant.now().toString()
-        ));
-        Frame out = Frame.ofText(MsgType.MSG_EDIT, 0, payload);
+        );
         
-        Set<ClientSession> members = rooms.get(cs.room);
-        if (members != null) {
-            for (ClientSession m : members) {
-                m.send(out);
-            }
-        }
+        fanOut(rooms.members(room), MsgType.MSG_EDIT, payload);
         
-        logger.info(String.format("Message edited by %s in room %s", cs.nick, cs.room));
+        logger.info("Message edited by %s in room %s", cs.nick, room);
     }
     
     private void handleMessageDelete(ClientSession cs, Map<String, String> kv) {
         requireLogin(cs);
         String message = kv.getOrDefault("message", "");
         
-        if (cs.room == null) {
-            cs.send(Frame.ofText(MsgType.ERROR, cs.nextSeq(),
-                    Kvp.encode(Kvp.kv("code", "NOT_IN_ROOM", "msg", "Not in a room"))));
+        String room = kv.getOrDefault("room", cs.room != null ? cs.room : "");
+        if (!cs.subscriptions.contains(room)) {
+            cs.reply(MsgType.ERROR, Kvp.kv("code", "NOT_IN_ROOM", "msg", "Not in a room"));
             return;
         }
         
-        String payload = Kvp.encode(Kvp.kv(
-                "room", cs.room,
+        Map<String, String> payload = Kvp.kv(
+                "room", room,
                 "from", cs.nick,
                 "message", message,
                 "time", Instant.now().toString()
-        ));
-        Frame out = Frame.ofText(MsgType.MSG_DELETE, 0, payload);
+        );
         
-        Set<ClientSession> members = rooms.get(cs.room);
-        if (members != null) {
-            for (ClientSession m : members) {
-                m.send(out);
-            }
-        }
+        fanOut(rooms.members(room), MsgType.MSG_DELETE, payload);
         
-        logger.info(String.format("Message deleted by %s in room %s", cs.nick, cs.room));
+        logger.info("Message deleted by %s in room %s", cs.nick, room);
     }
     
     public void shutdown() {
         logger.info("Shutting down server...");
+        if (adminServer != null) adminServer.stop();
+        if (cluster != null) cluster.stop();
         try {
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
@@ -797,6 +1404,12 @@ public final class ChatServer {
             logger.error("Error closing server socket", e);
         }
         
+        if (ioLoops != null) {
+            for (NioEventLoop loop : ioLoops) {
+                loop.shutdown();
+            }
+        }
+        
         executorService.shutdown();
         scheduler.shutdown();
         
@@ -813,6 +1426,7 @@ public final class ChatServer {
             Thread.currentThread().interrupt();
         }
         
+        if (historyStore != null) historyStore.close();
         logger.info("Server shutdown complete");
     }
     
@@ -1,56 +1,126 @@
 import java.io.*;
 import java.net.Socket;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 public final class ClientSession {
     private static final Logger logger = Logger.getLogger(ClientSession.class);
     
     public final Socket socket;
-    private final DataInputStream in;
+    private final FrameReader reader;
     private final DataOutputStream out;
+    // A j.u.c lock rather than a monitor so a virtual writer blocked in write() does not pin its carrier.
+    private final ReentrantLock writeLock = new ReentrantLock();
     
-    private final BlockingQueue<Frame> sendQueue = new LinkedBlockingQueue<>();
-    private final AtomicInteger seqOut = new AtomicInteger(1);
+    private final SendQueue sendQueue;
+    private final int batchBytes;
+    private final long batchDelayNanos;
     private final AtomicLong lastActivityTime = new AtomicLong(System.currentTimeMillis());
+    private final long idleTimeoutMillis = ServerConfig.getInstance().getIdleTimeoutMillis();
     
     public volatile String nick = null;
+    // The current room: where CHAT without a room goes. Always one of the subscriptions, if set.
     public volatile String room = null;
+    // Every room this session receives traffic for; kept in step with ChatServer's RoomIndex.
+    final Set<String> subscriptions = ConcurrentHashMap.newKeySet();
+    // Set once the client has negotiated the binary key/value codec in HELLO.
+    public volatile boolean binaryKv = false;
+    // Seq of the request being handled, echoed by reply() so the client can match the response to its
+    // request; 0 outside onFrame. Only touched by the thread handling this session's frames.
+    int requestSeq;
+    // Set at LOGIN; see ChatServer.nextSessionId.
+    long sessionId;
+    // A LOGIN is waiting on the cluster's nick directory.
+    volatile boolean loginPending;
+    // RateLimiter state, one bucket per class. Handed on to the session that resumes this one, so a
+    // reconnect does not refill them.
+    volatile AtomicLongArray rateBuckets = RateLimiter.newBuckets();
+    // Set while the session can be resumed. A stopped session that still has one is parked: it stays in
+    // its room and keeps queueing frames until it is resumed or its grace timer fires.
+    volatile String resumeToken;
+    volatile TimingWheel.Timeout graceTimer;
+    // The session that resumed this one; frames sent here after the hand-off are passed on to it.
+    volatile ClientSession resumedBy;
     private volatile boolean running = true;
+    private final AtomicBoolean disconnected = new AtomicBoolean(false);
     
     private final Thread readerThread;
     private final Thread writerThread;
     
+    // NIO transport state, owned by the event loop thread.
+    final SocketChannel channel;
+    private final NioEventLoop loop;
+    SelectionKey selectionKey;
+    ByteBuffer readBuffer;
+    ByteBuffer[] pendingWrites;
+    final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    
+    // Idle timeout, pushed back on every inbound frame; the server arms it on connect.
+    volatile TimingWheel.Timeout idleTimer;
+    // HELLO, then LOGIN, deadline; see ChatServer.armHandshakeTimer.
+    volatile TimingWheel.Timeout handshakeTimer;
+    volatile boolean helloSeen;
+    
     private final ChatServer server;
     
     public ClientSession(ChatServer server, Socket socket) throws IOException {
         this.server = server;
         this.socket = socket;
-        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
-        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.reader = new FrameReader(socket.getInputStream(), BufferPool.shared(), 8192);
+        ServerConfig config = ServerConfig.getInstance();
+        this.sendQueue = newSendQueue(config);
+        this.batchBytes = config.getWriteBatchBytes();
+        this.batchDelayNanos = TimeUnit.MICROSECONDS.toNanos(config.getWriteBatchDelayMicros());
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), Math.max(8192, batchBytes)));
+        this.channel = null;
+        this.loop = null;
         
         String addr = socket.getRemoteSocketAddress().toString();
-        this.readerThread = new Thread(this::readerLoop, "Reader-" + addr);
-        this.writerThread = new Thread(this::writerLoop, "Writer-" + addr);
-        
-        readerThread.setDaemon(true);
-        writerThread.setDaemon(true);
+        boolean virtual = config.isVirtualThreads();
+        this.readerThread = Threads.newThread(this::readerLoop, "Reader-" + addr, virtual);
+        this.writerThread = Threads.newThread(this::writerLoop, "Writer-" + addr, virtual);
+    }
+    
+    public ClientSession(ChatServer server, SocketChannel channel, NioEventLoop loop) {
+        this.server = server;
+        this.socket = channel.socket();
+        this.channel = channel;
+        this.loop = loop;
+        this.reader = null;
+        this.out = null;
+        this.sendQueue = newSendQueue(ServerConfig.getInstance());
+        this.batchBytes = ServerConfig.getInstance().getWriteBatchBytes();
+        this.batchDelayNanos = 0;
+        this.readerThread = null;
+        this.writerThread = null;
     }
     
     public void start() {
-        writerThread.start();
-        readerThread.start();
-        logger.debug(String.format("Session started for %s", socket.getRemoteSocketAddress()));
+        if (loop != null) {
+            loop.register(this);
+        } else {
+            writerThread.start();
+            readerThread.start();
+        }
+        logger.debug("Session started for %s", socket.getRemoteSocketAddress());
     }
     
     public void stop(String reason) {
         if (!running) return;
         
         running = false;
-        logger.debug(String.format("Stopping session for %s: %s", 
-            nick != null ? nick : socket.getRemoteSocketAddress(), reason));
+        logger.debug("Stopping session for %s: %s", 
+            nick != null ? nick : socket.getRemoteSocketAddress(), reason);
         
         try {
             socket.close();
@@ -58,21 +128,92 @@ public final class ClientSession {
             logger.warn("Error closing socket", e);
         }
         
+        if (loop != null) {
+            finish();
+            return;
+        }
     
-        sendQueue.offer(new Frame((byte) 0, (short) 0, 0, new byte[0]));
-    }
-    
-    public int nextSeq() {
-        return seqOut.getAndIncrement();
+        sendQueue.offerControl(new Frame((byte) 0, (short) 0, 0, new byte[0]));
     }
     
     public void send(Frame f) {
-        if (!running || f == null) return;
-        boolean offered = sendQueue.offer(f);
-        if (!offered) {
-            logger.warn(String.format("Send queue full for %s, dropping frame", 
-                nick != null ? nick : "unknown"));
+        if (f == null || (!running && resumeToken == null)) return;
+        SendQueue.Result result = sendQueue.offer(f);
+        if (result == SendQueue.Result.MOVED) {
+            resumedBy.send(f);
+            return;
+        }
+        if (result == SendQueue.Result.OVERFLOW && !running) {
+            server.abandonParked(this, "send queue full");
+            return;
+        }
+        if (result == SendQueue.Result.OVERFLOW) {
+            logger.warn("Send queue full for %s (%d frames, %d bytes), disconnecting slow consumer", 
+                nick != null ? nick : "unknown", sendQueue.size(), sendQueue.bytes());
+            stop("Slow consumer");
+            return;
         }
+        if (result == SendQueue.Result.DROPPED && sendQueue.getOverflows() == 1) {
+            logger.warn("Send queue full for %s, shedding chat frames", 
+                nick != null ? nick : "unknown");
+        }
+        if (loop != null && running) {
+            loop.requestFlush(this);
+        }
+    }
+    
+    public void reply(byte type, Map<String, String> kv) {
+        send(Frame.ofKv(type, requestSeq, kv, binaryKv));
+    }
+    
+    public void reply(byte type, Map<String, String> kv, short flags) {
+        send(Frame.ofKv(type, requestSeq, kv, binaryKv, flags));
+    }
+    
+    // For a reply sent after onFrame has returned, e.g. once other cluster nodes have answered.
+    public void reply(int seq, byte type, Map<String, String> kv) {
+        send(Frame.ofKv(type, seq, kv, binaryKv));
+    }
+    
+    // Starts numbering outbound frames for resumption at the next frame of startType.
+    void startJournal(byte startType, long base) {
+        sendQueue.startJournal(new ReplayBuffer(ServerConfig.getInstance().getResumeBufferFrames(), startType, base));
+    }
+    
+    // Stops the session and runs the server's disconnect handling now, on the calling thread, rather than
+    // when the transport notices.
+    void close(String reason) {
+        stop(reason);
+        finish();
+    }
+    
+    public SendQueue getSendQueue() {
+        return sendQueue;
+    }
+    
+    private SendQueue newSendQueue(ServerConfig config) {
+        return new SendQueue(config.getSendQueueMaxFrames(), config.getSendQueueMaxBytes(),
+            config.getSendQueuePolicy(), this::missedNotice);
+    }
+    
+    // One per room that lost messages to COLLAPSE, stamped with that room rather than the current one.
+    private Frame missedNotice(String lostIn, int missed) {
+        String r = !lostIn.isEmpty() ? lostIn : room;
+        return Frame.ofKv(MsgType.CHAT, 0, Kvp.kv(
+            "room", r != null ? r : "lobby",
+            "from", "SYSTEM",
+            "msg", "You missed " + missed + " messages",
+            "missed", String.valueOf(missed),
+            "time", Instant.now().toString()
+        ), binaryKv);
+    }
+    
+    Frame pollOutbound() {
+        return sendQueue.poll();
+    }
+    
+    int getBatchBytes() {
+        return batchBytes;
     }
     
     public boolean isRunning() {
@@ -80,7 +221,10 @@ public final class ClientSession {
     }
     
     public void updateLastActivity() {
-        lastActivityTime.set(System.currentTimeMillis());
+        long now = System.currentTimeMillis();
+        lastActivityTime.set(now);
+        TimingWheel.Timeout idle = idleTimer;
+        if (idle != null) idle.postpone(now + idleTimeoutMillis);
     }
     
     public long getLastActivityTime() {
@@ -91,6 +235,12 @@ public final class ClientSession {
         return nick;
     }
     
+    private void finish() {
+        if (disconnected.compareAndSet(false, true)) {
+            server.onDisconnect(this);
+        }
+    }
+    
     private void writerLoop() {
         try {
             while (running) {
@@ -98,12 +248,17 @@ public final class ClientSession {
                     Frame f = sendQueue.take();
                     
                
-                    if (f.type == 0 && f.payload.length == 0 && !running) {
+                    if (isStopMarker(f)) {
                         break;
                     }
                     
-                    synchronized (out) {
-                        f.writeTo(out);
+                    writeLock.lock();
+                    try {
+                        writeBatch(f);
+                        out.flush();
+                        server.recordFlush();
+                    } finally {
+                        writeLock.unlock();
                     }
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
@@ -112,14 +267,39 @@ public final class ClientSession {
             }
         } catch (IOException e) {
             if (running) {
-                logger.warn(String.format("Writer error for %s: %s", 
-                    nick != null ? nick : socket.getRemoteSocketAddress(), e.getMessage()));
+                logger.warn("Writer error for %s: %s", 
+                    nick != null ? nick : socket.getRemoteSocketAddress(), e.getMessage());
             }
         } catch (Exception e) {
             logger.error("Unexpected error in writer loop", e);
         } finally {
             running = false;
-            server.onDisconnect(this);
+            finish();
+        }
+    }
+    
+    private boolean isStopMarker(Frame f) {
+        return f.type == 0 && f.length == 0 && !running;
+    }
+    
+    // Writes first plus whatever else is queued, up to batchBytes, waiting at most batchDelayNanos for more.
+    private void writeBatch(Frame first) throws IOException, InterruptedException {
+        first.write(out);
+        server.recordWrite(first);
+        long bytes = first.wireSize();
+        long deadline = System.nanoTime() + batchDelayNanos;
+        
+        while (bytes < batchBytes) {
+            Frame f = sendQueue.poll();
+            if (f == null && batchDelayNanos > 0) {
+                long wait = deadline - System.nanoTime();
+                if (wait > 0) f = sendQueue.poll(wait, TimeUnit.NANOSECONDS);
+            }
+            if (f == null || isStopMarker(f)) break;
+            
+            f.write(out);
+            server.recordWrite(f);
+            bytes += f.wireSize();
         }
     }
     
@@ -127,20 +307,24 @@ public final class ClientSession {
         try {
             while (running) {
                 try {
-                    Frame f = Frame.readFrom(in);
-                    updateLastActivity();
-                    server.onFrame(this, f);
+                    Frame f = reader.read();
+                    try {
+                        updateLastActivity();
+                        server.onFrame(this, f);
+                    } finally {
+                        f.release();
+                    }
                 } catch (java.net.SocketTimeoutException e) {
                     
                     continue;
                 } catch (EOFException e) {
-                    logger.debug(String.format("EOF for %s", 
-                        nick != null ? nick : socket.getRemoteSocketAddress()));
+                    logger.debug("EOF for %s", 
+                        nick != null ? nick : socket.getRemoteSocketAddress());
                     break;
                 } catch (IOException e) {
                     if (running) {
-                        logger.warn(String.format("Reader error for %s: %s", 
-                            nick != null ? nick : socket.getRemoteSocketAddress(), e.getMessage()));
+                        logger.warn("Reader error for %s: %s", 
+                            nick != null ? nick : socket.getRemoteSocketAddress(), e.getMessage());
                     }
                     break;
                 }
@@ -149,7 +333,7 @@ public final class ClientSession {
             logger.error("Unexpected error in reader loop", e);
         } finally {
             running = false;
-            server.onDisconnect(this);
+            finish();
         }
     }
 }
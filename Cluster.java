@@ -0,0 +1,671 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+// Cluster mode: several ChatServer processes serving one set of users and rooms. Nodes talk plain TCP on the
+// cluster port, in the client frame format with the node-to-node MsgTypes. Every node dials every node it
+// knows of and writes only on the link it dialed, so each pair has two connections, one per direction, and
+// nobody has to pick a winner when two nodes dial each other at once. The members are this node plus every
+// node it has a link to and heard from within three heartbeats; heartbeats carry the sender's member list,
+// so a new node only needs one live seed to find the rest. Links are dialed off the heartbeat thread, so an
+// unreachable node cannot hold up the pings to the others; a node that keeps failing is redialed less often,
+// and one learned from gossip is forgotten once it has been unreachable for FORGET_TICKS heartbeats.
+//
+// Each room is owned by the member a HashRing maps it to. Room traffic goes to the owner, which delivers it
+// locally and relays it to every other member in one order, so every node delivers and records a room's
+// messages in the same order. Ownership follows membership: a join or leave rebuilds the ring and the
+// rooms next to the changed node's points move. The owner keeps no state of its own, so nothing needs
+// copying when a room moves; each node keeps the history of the rooms it has members in. Nicks are placed
+// on the same ring for the NickDirectory.
+final class Cluster {
+    private static final Logger logger = Logger.getLogger(Cluster.class);
+    private static final int VNODES = 64;
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+    private static final int REQUEST_TIMEOUT_MS = 1000;
+    // Longer, since a claim that times out fails the LOGIN.
+    private static final int CLAIM_TIMEOUT_MS = 3000;
+    // Frames waiting to go out on one link; a peer this far behind is treated as gone.
+    private static final int LINK_QUEUE_FRAMES = 10_000;
+    private static final int ROOM_LOCKS = 64;
+    // Every node reports its nicks to their directory owners this often, besides on membership changes.
+    private static final int NICK_SYNC_TICKS = 10;
+    // A failing dial is retried after 1, 2, 4 ... heartbeats, at most this many.
+    private static final int MAX_DIAL_BACKOFF_TICKS = 16;
+    // Seeds are never forgotten, so a restarted seed is always found again.
+    private static final int FORGET_TICKS = 60;
+
+    private final ChatServer server;
+    private final ServerConfig config;
+    private final String self;
+    private final long heartbeatMillis;
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+    private final Set<String> seeds = new TreeSet<>();
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService dialer;
+    private final ReentrantLock membershipLock = new ReentrantLock();
+    // Held by the owner while it delivers and relays one message, so local and remote order agree.
+    private final ReentrantLock[] roomLocks = new ReentrantLock[ROOM_LOCKS];
+    private final Metrics.Counter forwarded;
+    private final Metrics.Counter relayed;
+    private final Metrics.Counter rebalances;
+    private final Metrics.Counter lookupHits;
+    private final Metrics.Counter lookupMisses;
+    private final NickDirectory directory = new NickDirectory();
+    private int ticks;
+    private volatile HashRing ring;
+    private volatile boolean running = true;
+    private ServerSocket listener;
+
+    Cluster(ChatServer server, ServerConfig config, Metrics metrics) {
+        this.server = server;
+        this.config = config;
+        this.self = config.getClusterNodeId();
+        this.heartbeatMillis = Math.max(50, config.getClusterHeartbeatMs());
+        this.ring = new HashRing(Set.of(self), VNODES);
+        for (int i = 0; i < ROOM_LOCKS; i++) {
+            roomLocks[i] = new ReentrantLock();
+        }
+        for (String seed : config.getClusterSeeds().split(",")) {
+            seeds.add(seed.trim());
+            learn(seed.trim());
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Cluster-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        // One thread per dial in flight, at most one per peer.
+        this.dialer = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "Cluster-dial");
+            t.setDaemon(true);
+            return t;
+        });
+        metrics.gauge("chat_cluster_nodes", "Cluster members as seen by this node, itself included", () -> ring.nodes().size());
+        this.forwarded = metrics.counter("chat_cluster_forwarded_total", "Room messages sent to their owner on another node");
+        this.relayed = metrics.counter("chat_cluster_relayed_total", "Room messages relayed to other nodes as owner");
+        this.rebalances = metrics.counter("chat_cluster_rebalances_total", "Membership changes that moved room ownership");
+        this.lookupHits = metrics.counter("chat_nick_lookups_total", "Remote nick lookups, by whether the local cache answered", "result", "hit");
+        this.lookupMisses = metrics.counter("chat_nick_lookups_total", "Remote nick lookups, by whether the local cache answered", "result", "miss");
+        metrics.gauge("chat_nick_directory_entries", "Nicks this node is directory owner of", directory::size);
+        metrics.gauge("chat_nick_cache_entries", "Nick locations cached from directory lookups", directory::cacheSize);
+    }
+
+    void start() throws IOException {
+        listener = new ServerSocket(config.getClusterPort(), 50, InetAddress.getByName(config.getClusterHost()));
+        Threads.newThread(this::acceptLoop, "Cluster-accept", false).start();
+        scheduler.scheduleWithFixedDelay(this::tick, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+        logger.info("Cluster node %s listening, seeds: %s", self,
+            config.getClusterSeeds().isEmpty() ? "none" : config.getClusterSeeds());
+    }
+
+    void stop() {
+        running = false;
+        scheduler.shutdownNow();
+        dialer.shutdownNow();
+        try {
+            if (listener != null) listener.close();
+        } catch (IOException ignored) {}
+        for (Peer p : peers.values()) {
+            p.unlink(p.socket, "shutting down");
+        }
+    }
+
+    boolean owns(String room) {
+        return self.equals(ring.owner(room));
+    }
+
+    ReentrantLock roomLock(String room) {
+        return roomLocks[Math.floorMod(room.hashCode(), ROOM_LOCKS)];
+    }
+
+    // Sends a room message to its owner. If the owner cannot be reached it is published here instead:
+    // better out of order for a moment, while membership catches up, than lost.
+    void forward(String room, String from, String msg, boolean record) {
+        String owner = ring.owner(room);
+        Peer p = peers.get(owner);
+        if (p != null) {
+            Map<String, String> kv = Kvp.kv("room", room, "from", from, "msg", msg, "record", String.valueOf(record));
+            try {
+                p.send(Frame.ofText(MsgType.ROOM_PUBLISH, 0, Kvp.encode(kv)));
+                forwarded.increment();
+                return;
+            } catch (IOException e) {
+                logger.warn("Cannot forward to owner %s of room %s: %s", owner, room, e.getMessage());
+            }
+        }
+        server.publishOwned(room, from, msg, record);
+    }
+
+    // Passes a message this node published as owner to every other member. Call with roomLock(room) held.
+    void relay(Map<String, String> payload, boolean record) {
+        Map<String, String> kv = Kvp.kv("record", String.valueOf(record));
+        kv.putAll(payload);
+        Frame f = Frame.ofText(MsgType.ROOM_RELAY, 0, Kvp.encode(kv));
+        for (String id : ring.nodes()) {
+            Peer p = peers.get(id);
+            if (p == null) continue;
+            try {
+                p.send(f);
+                relayed.increment();
+            } catch (IOException e) {
+                logger.debug("Relay to %s failed: %s", id, e.getMessage());
+            }
+        }
+    }
+
+    // Asks every other member and completes with the answers that came back within the request timeout.
+    CompletableFuture<List<Map<String, String>>> ask(byte type, Map<String, String> kv) {
+        List<CompletableFuture<Frame>> calls = new ArrayList<>();
+        for (String id : ring.nodes()) {
+            Peer p = peers.get(id);
+            if (p != null) calls.add(p.mux.request(type, kv, REQUEST_TIMEOUT_MS).exceptionally(e -> null));
+        }
+        return CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            List<Map<String, String>> answers = new ArrayList<>(calls.size());
+            for (CompletableFuture<Frame> call : calls) {
+                Frame f = call.join();
+                if (f != null) answers.add(Kvp.decode(f));
+            }
+            return answers;
+        });
+    }
+
+    // Completes true once the nick is held by this node's session and false if another node holds it;
+    // exceptionally if the nick's directory owner did not answer.
+    CompletableFuture<Boolean> claimNick(String nick, long session) {
+        String owner = ring.owner(nick);
+        Peer p = peers.get(owner);
+        if (p == null) {
+            return CompletableFuture.completedFuture(directory.claim(nick, self, session) == null);
+        }
+        Map<String, String> kv = Kvp.kv("nick", nick, "node", self, "session", String.valueOf(session));
+        return p.mux.request(MsgType.NICK_CLAIM, kv, CLAIM_TIMEOUT_MS)
+            .thenApply(f -> "true".equals(Kvp.decode(f).get("ok")));
+    }
+
+    // If the release is lost the owner still drops the entry at the next nick sync.
+    void releaseNick(String nick, long session) {
+        Peer p = peers.get(ring.owner(nick));
+        if (p == null) {
+            released(nick, self, session);
+            return;
+        }
+        Map<String, String> kv = Kvp.kv("nick", nick, "node", self, "session", String.valueOf(session));
+        try {
+            p.send(Frame.ofText(MsgType.NICK_RELEASE, 0, Kvp.encode(kv)));
+        } catch (IOException e) {
+            logger.debug("Release of %s failed: %s", nick, e.getMessage());
+        }
+    }
+
+    // Delivers a WHISPER to a user on another node: one hop when the node is cached, otherwise a directory
+    // lookup first. A stale cache entry costs a lookup and a second try. Completes false if the user is
+    // not logged in anywhere (or cannot be reached).
+    CompletableFuture<Boolean> whisper(Map<String, String> payload) {
+        String to = payload.get("to");
+        boolean cached = directory.cached(to) != null;
+        return locate(to).thenCompose(node -> whisperTo(node, payload)).thenCompose(ok -> {
+            if (ok || !cached) return CompletableFuture.completedFuture(ok);
+            return locate(to).thenCompose(node -> whisperTo(node, payload));
+        }).exceptionally(e -> false);
+    }
+
+    // The node a nick is logged in on, or null.
+    private CompletableFuture<String> locate(String nick) {
+        String node = directory.cached(nick);
+        if (node != null && ring.nodes().contains(node)) {
+            lookupHits.increment();
+            return CompletableFuture.completedFuture(node);
+        }
+        lookupMisses.increment();
+        Peer p = peers.get(ring.owner(nick));
+        if (p == null) {
+            NickDirectory.Holder h = directory.lookup(nick);
+            return CompletableFuture.completedFuture(h != null ? h.node : null);
+        }
+        return p.mux.request(MsgType.NICK_LOOKUP, Kvp.kv("nick", nick), REQUEST_TIMEOUT_MS).thenApply(f -> {
+            String holder = Kvp.decode(f).getOrDefault("node", "");
+            if (holder.isEmpty()) return null;
+            if (!holder.equals(self)) directory.cache(nick, holder);
+            return holder;
+        });
+    }
+
+    private CompletableFuture<Boolean> whisperTo(String node, Map<String, String> payload) {
+        if (node == null) return CompletableFuture.completedFuture(false);
+        if (node.equals(self)) return CompletableFuture.completedFuture(server.deliverWhisper(payload));
+        String to = payload.get("to");
+        Peer p = peers.get(node);
+        if (p == null) {
+            directory.invalidate(to, node);
+            return CompletableFuture.completedFuture(false);
+        }
+        return p.mux.request(MsgType.WHISPER_ROUTE, payload, REQUEST_TIMEOUT_MS).handle((f, e) -> {
+            boolean delivered = f != null && "true".equals(Kvp.decode(f).get("delivered"));
+            if (!delivered) directory.invalidate(to, node);
+            return delivered;
+        });
+    }
+
+    // On the directory owner: drops the entry and tells every node to forget where the nick was.
+    private void released(String nick, String node, long session) {
+        if (!directory.release(nick, node, session)) return;
+        directory.invalidate(nick, node);
+        Frame gone = Frame.ofText(MsgType.NICK_GONE, 0,
+            Kvp.encode(Kvp.kv("nick", nick, "node", node, "session", String.valueOf(session))));
+        for (String id : ring.nodes()) {
+            Peer p = peers.get(id);
+            if (p == null) continue;
+            try {
+                p.send(gone);
+            } catch (IOException ignored) {
+                // that node drops its cache entries for nodes it loses track of
+            }
+        }
+    }
+
+    // Reports every local nick to its directory owner, as the complete list of this node's nicks there.
+    private void syncNicks() {
+        HashRing r = ring;
+        Map<String, Map<String, Long>> byOwner = new HashMap<>();
+        for (String node : r.nodes()) {
+            byOwner.put(node, new HashMap<>());
+        }
+        server.localSessions().forEach((nick, cs) -> byOwner.get(r.owner(nick)).put(nick, cs.sessionId));
+        for (Map.Entry<String, Map<String, Long>> e : byOwner.entrySet()) {
+            Map<String, Long> held = e.getValue();
+            if (e.getKey().equals(self)) {
+                reportConflicts(self, directory.sync(self, held));
+                continue;
+            }
+            Peer p = peers.get(e.getKey());
+            if (p == null) continue;
+            StringBuilder entries = new StringBuilder(held.size() * 16);
+            for (Map.Entry<String, Long> h : held.entrySet()) {
+                if (entries.length() > 0) entries.append(',');
+                entries.append(h.getKey()).append(':').append(h.getValue());
+            }
+            try {
+                p.send(Frame.ofText(MsgType.NICK_SYNC, 0, Kvp.encode(Kvp.kv("node", self, "entries", entries.toString()))));
+            } catch (IOException ignored) {
+                // retried at the next sync
+            }
+        }
+    }
+
+    private void onNickSync(Map<String, String> kv) {
+        String node = kv.getOrDefault("node", "");
+        Map<String, Long> held = new HashMap<>();
+        String entries = kv.getOrDefault("entries", "");
+        if (!entries.isEmpty()) {
+            for (String entry : entries.split(",")) {
+                int colon = entry.lastIndexOf(':');
+                held.put(entry.substring(0, colon), Long.parseLong(entry.substring(colon + 1)));
+            }
+        }
+        reportConflicts(node, directory.sync(node, held));
+    }
+
+    private void reportConflicts(String node, List<String> nicks) {
+        if (!nicks.isEmpty()) {
+            logger.warn("Nicks logged in on %s are already held on another node: %s", node, nicks);
+        }
+    }
+
+    private void tick() {
+        try {
+            Frame ping = Frame.ofText(MsgType.NODE_PING, 0, Kvp.encode(Kvp.kv("node", self, "members", String.join(",", ring.nodes()))));
+            long now = System.currentTimeMillis();
+            for (Peer p : peers.values()) {
+                if (p.socket == null) {
+                    if (p.inbound == null && now - p.lastLinked > FORGET_TICKS * heartbeatMillis && !seeds.contains(p.id)) {
+                        forget(p);
+                    } else if (now >= p.redialAt) {
+                        dial(p);
+                    }
+                } else {
+                    try {
+                        p.send(ping);
+                    } catch (IOException ignored) {
+                        // unlinked; the next tick redials
+                    }
+                }
+            }
+            checkMembership();
+            if (++ticks % NICK_SYNC_TICKS == 0) syncNicks();
+        } catch (Exception e) {
+            logger.error("Error in cluster heartbeat", e);
+        }
+    }
+
+    private void checkMembership() {
+        long now = System.currentTimeMillis();
+        Set<String> alive = new TreeSet<>();
+        alive.add(self);
+        for (Peer p : peers.values()) {
+            if (p.socket != null && now - p.lastHeard < 3 * heartbeatMillis) alive.add(p.id);
+        }
+        membershipLock.lock();
+        try {
+            HashRing old = ring;
+            if (old.nodes().equals(alive)) return;
+            ring = new HashRing(alive, VNODES);
+            rebalances.increment();
+            for (String node : old.nodes()) {
+                if (!alive.contains(node)) directory.dropNode(node);
+            }
+            directory.retainOwned(nick -> self.equals(ring.owner(nick)));
+            syncNicks();
+
+            int moved = 0;
+            int owned = 0;
+            for (String room : server.localRooms()) {
+                String owner = ring.owner(room);
+                if (!owner.equals(old.owner(room))) moved++;
+                if (owner.equals(self)) owned++;
+            }
+            logger.info("Cluster members now %s; %d local room(s) changed owner, %d owned here", alive, moved, owned);
+        } finally {
+            membershipLock.unlock();
+        }
+    }
+
+    private void dial(Peer p) {
+        if (running && p.claimDial()) dialer.execute(p::connect);
+    }
+
+    private void forget(Peer p) {
+        if (!peers.remove(p.id, p)) return;
+        p.mux.failAll(new IOException("Cluster node " + p.id + " forgotten"));
+        logger.info("Forgetting cluster node %s: unreachable for %d heartbeats", p.id, FORGET_TICKS);
+    }
+
+    private void learn(String id) {
+        if (id.isEmpty() || id.equals(self) || peers.containsKey(id)) return;
+        int colon = id.lastIndexOf(':');
+        if (colon <= 0) {
+            logger.warn("Ignoring cluster node %s: expected host:port", id);
+            return;
+        }
+        try {
+            peers.putIfAbsent(id, new Peer(id, id.substring(0, colon), Integer.parseInt(id.substring(colon + 1))));
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring cluster node %s: bad port", id);
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket s = listener.accept();
+                s.setTcpNoDelay(true);
+                Threads.newThread(() -> readLoop(s), "Cluster-in-" + s.getRemoteSocketAddress(), false).start();
+            } catch (IOException e) {
+                if (!running) break;
+                logger.error("Error accepting cluster connection", e);
+            }
+        }
+    }
+
+    private void readLoop(Socket s) {
+        Peer peer = null;
+        try (s) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            Frame hello = Frame.readFrom(in);
+            Map<String, String> kv = Kvp.decode(hello);
+            String id = kv.getOrDefault("node", "");
+            if (hello.type != MsgType.NODE_HELLO || id.equals(self)) {
+                logger.warn("Rejecting cluster connection from %s: no NODE_HELLO", s.getRemoteSocketAddress());
+                return;
+            }
+            if (!secretMatches(kv.getOrDefault("secret", ""))) {
+                logger.warn("Rejecting cluster connection from %s as %s: wrong clusterSecret", s.getRemoteSocketAddress(), id);
+                return;
+            }
+            learn(id);
+            peer = peers.get(id);
+            if (peer == null) return;
+            peer.inbound = s;
+            peer.lastHeard = System.currentTimeMillis();
+            peer.lastLinked = peer.lastHeard;
+            peer.reachable();
+            // Dial back now rather than on the next tick, so a joining node is usable within one round trip.
+            if (peer.socket == null) dial(peer);
+
+            while (running) {
+                onFrame(peer, Frame.readFrom(in));
+            }
+        } catch (IOException e) {
+            if (running && peer != null) logger.info("Lost inbound link from %s: %s", peer.id, e.getMessage());
+        } finally {
+            if (peer != null && peer.inbound == s) {
+                peer.inbound = null;
+                peer.lastHeard = 0;
+                peer.lastLinked = System.currentTimeMillis();
+                if (running) scheduler.execute(this::checkMembership);
+            }
+        }
+    }
+
+    private boolean secretMatches(String secret) {
+        String expected = config.getClusterSecret();
+        return expected.isEmpty() || MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8),
+            secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void onFrame(Peer peer, Frame f) {
+        peer.lastHeard = System.currentTimeMillis();
+        if (f.type == MsgType.NODE_REPLY) {
+            peer.mux.dispatch(f);
+            return;
+        }
+        try {
+            Map<String, String> kv = Kvp.decode(f);
+            switch (f.type) {
+                case MsgType.NODE_PING -> {
+                    for (String id : kv.getOrDefault("members", "").split(",")) learn(id);
+                }
+                case MsgType.ROOM_PUBLISH -> server.publishOwned(kv.get("room"), kv.get("from"), kv.get("msg"),
+                    Boolean.parseBoolean(kv.get("record")));
+                case MsgType.ROOM_RELAY -> {
+                    boolean record = Boolean.parseBoolean(kv.get("record"));
+                    server.deliverRoom(Kvp.kv("room", kv.get("room"), "from", kv.get("from"),
+                        "msg", kv.get("msg"), "time", kv.get("time")), record);
+                }
+                case MsgType.NICK_CLAIM -> {
+                    NickDirectory.Holder other = directory.claim(kv.get("nick"), kv.get("node"), Long.parseLong(kv.get("session")));
+                    reply(peer, f, Kvp.kv("ok", String.valueOf(other == null), "node", other != null ? other.node : ""));
+                }
+                case MsgType.NICK_RELEASE -> released(kv.get("nick"), kv.get("node"), Long.parseLong(kv.get("session")));
+                case MsgType.NICK_LOOKUP -> {
+                    NickDirectory.Holder h = directory.lookup(kv.getOrDefault("nick", ""));
+                    reply(peer, f, Kvp.kv("node", h != null ? h.node : ""));
+                }
+                case MsgType.NICK_GONE -> {
+                    directory.invalidate(kv.get("nick"), kv.get("node"));
+                    directory.release(kv.get("nick"), kv.get("node"), Long.parseLong(kv.get("session")));
+                }
+                case MsgType.NICK_SYNC -> onNickSync(kv);
+                case MsgType.WHISPER_ROUTE -> reply(peer, f, Kvp.kv("delivered", String.valueOf(server.deliverWhisper(kv))));
+                case MsgType.LIST_USERS -> reply(peer, f, Kvp.kv("users", String.join(",", server.localNicks())));
+                case MsgType.LIST_ROOMS -> reply(peer, f, Kvp.kv("rooms", String.join(",", server.localRooms())));
+                default -> logger.warn("Unexpected %s from cluster node %s", MsgType.name(f.type), peer.id);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Error handling " + MsgType.name(f.type) + " from cluster node " + peer.id, e);
+        }
+    }
+
+    private void reply(Peer peer, Frame request, Map<String, String> kv) {
+        try {
+            peer.send(Frame.ofText(MsgType.NODE_REPLY, request.seq, Kvp.encode(kv)));
+        } catch (IOException e) {
+            logger.debug("Reply to %s failed: %s", peer.id, e.getMessage());
+        }
+    }
+
+    // Another node, as reached over the link this node dialed.
+    private final class Peer {
+        final String id;
+        final String host;
+        final int port;
+        final RequestMux mux = new RequestMux(this::send);
+        private final ReentrantLock lock = new ReentrantLock();
+        // Set while the outbound link is up; replaced on every reconnect.
+        volatile Socket socket;
+        private volatile BlockingQueue<Frame> queue;
+        // The peer's link to this node, and when anything last arrived on it.
+        volatile Socket inbound;
+        volatile long lastHeard;
+        // When either link was last up, for forgetting; and when the tick may dial again after a failure.
+        volatile long lastLinked = System.currentTimeMillis();
+        volatile long redialAt;
+        private boolean dialing;
+        private int failures;
+
+        Peer(String id, String host, int port) {
+            this.id = id;
+            this.host = host;
+            this.port = port;
+        }
+
+        // True if the caller should run connect(): no link and no other dial in flight.
+        boolean claimDial() {
+            lock.lock();
+            try {
+                if (dialing || socket != null) return false;
+                dialing = true;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Runs on a dialer thread, after claimDial.
+        void connect() {
+            Socket s = new Socket();
+            try {
+                s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+                s.setTcpNoDelay(true);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                BlockingQueue<Frame> q = new LinkedBlockingQueue<>(LINK_QUEUE_FRAMES);
+                String secret = config.getClusterSecret();
+                q.add(Frame.ofText(MsgType.NODE_HELLO, 0, Kvp.encode(secret.isEmpty()
+                    ? Kvp.kv("node", self) : Kvp.kv("node", self, "secret", secret))));
+                lock.lock();
+                try {
+                    dialing = false;
+                    if (!running) throw new IOException("shutting down");
+                    queue = q;
+                    socket = s;
+                    lastLinked = System.currentTimeMillis();
+                } finally {
+                    lock.unlock();
+                }
+                Threads.newThread(() -> writeLoop(s, out, q), "Cluster-out-" + id, false).start();
+                logger.info("Linked to cluster node %s", id);
+            } catch (IOException e) {
+                try {
+                    s.close();
+                } catch (IOException ignored) {}
+                lock.lock();
+                try {
+                    if (dialing) {
+                        dialing = false;
+                        backOff();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                logger.debug("Cannot reach cluster node %s: %s", id, e.getMessage());
+            }
+        }
+
+        // The peer's NODE_HELLO got through, so it is up and has our secret; dial it again without delay.
+        void reachable() {
+            lock.lock();
+            try {
+                failures = 0;
+                redialAt = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Caller holds the lock. A link that fails, or is dropped before the peer says hello, counts too.
+        private void backOff() {
+            long ticks = Math.min(MAX_DIAL_BACKOFF_TICKS, 1L << Math.min(failures++, 30));
+            redialAt = System.currentTimeMillis() + (ticks - 1) * heartbeatMillis;
+        }
+
+        void send(Frame f) throws IOException {
+            BlockingQueue<Frame> q = queue;
+            if (q == null) throw new IOException("No link to " + id);
+            if (!q.offer(f)) {
+                unlink(socket, "link queue full");
+                throw new IOException("Link to " + id + " is backed up");
+            }
+        }
+
+        void unlink(Socket s, String reason) {
+            lock.lock();
+            try {
+                if (s == null || socket != s) return;
+                socket = null;
+                queue = null;
+                lastLinked = System.currentTimeMillis();
+                backOff();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                s.close();
+            } catch (IOException ignored) {}
+            mux.failAll(new IOException("Link to " + id + " closed: " + reason));
+            if (running) {
+                logger.info("Unlinked from cluster node %s: %s", id, reason);
+                scheduler.execute(Cluster.this::checkMembership);
+            }
+        }
+
+        private void writeLoop(Socket s, DataOutputStream out, BlockingQueue<Frame> q) {
+            try {
+                while (socket == s) {
+                    Frame f = q.poll(heartbeatMillis, TimeUnit.MILLISECONDS);
+                    if (f == null) continue;
+                    f.write(out);
+                    if (q.isEmpty()) out.flush();
+                }
+            } catch (IOException e) {
+                unlink(s, e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                unlink(s, "interrupted");
+            }
+        }
+    }
+}
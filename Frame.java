@@ -1,5 +1,7 @@
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Map;
 
 
 public final class Frame {
@@ -8,20 +10,59 @@ public final class Frame {
     public static final int HEADER_SIZE = 16;
     public static final int MAX_PAYLOAD_SIZE = 1_000_000; 
 
+    public static final short FLAG_BINARY_KV = 0x0001;
+    // More frames of the same response follow; the last one goes out without it.
+    public static final short FLAG_CONTINUED = 0x0002;
+
     public final byte type;
     public final short flags;
+    // Chosen by the client for each request and echoed in every frame of the reply; server pushes carry 0.
     public final int seq;
     public final byte[] payload;
+    // Bytes of payload in use; pooled payload arrays are usually longer than the frame.
+    public final int length;
+
+    // Serialized header + payload, built at most once and shared by every recipient.
+    private volatile ByteBuffer wire;
+    // Set while payload is borrowed from a pool; cleared by release().
+    private BufferPool pool;
 
     public Frame(byte type, short flags, int seq, byte[] payload) {
         this.type = type;
         this.flags = flags;
         this.seq = seq;
         this.payload = (payload == null) ? new byte[0] : payload;
+        this.length = this.payload.length;
+    }
+
+    Frame(byte type, short flags, int seq, byte[] payload, int length, BufferPool pool) {
+        this.type = type;
+        this.flags = flags;
+        this.seq = seq;
+        this.payload = payload;
+        this.length = length;
+        this.pool = pool;
+    }
+
+    // Hands a pooled payload back once the frame has been handled; the frame must not be used afterwards.
+    public void release() {
+        BufferPool p = pool;
+        if (p != null) {
+            pool = null;
+            p.release(payload);
+        }
+    }
+
+    public boolean isBinaryKv() {
+        return (flags & FLAG_BINARY_KV) != 0;
+    }
+
+    public boolean isContinued() {
+        return (flags & FLAG_CONTINUED) != 0;
     }
 
     public String payloadText() {
-        return new String(payload, StandardCharsets.UTF_8);
+        return new String(payload, 0, length, StandardCharsets.UTF_8);
     }
 
     public static Frame ofText(byte type, int seq, String text) {
@@ -29,17 +70,62 @@ public final class Frame {
         return new Frame(type, (short) 0, seq, p);
     }
 
+    public static Frame ofKv(byte type, int seq, Map<String, String> kv, boolean binary) {
+        return ofKv(type, seq, kv, binary, (short) 0);
+    }
+
+    public static Frame ofKv(byte type, int seq, Map<String, String> kv, boolean binary, short flags) {
+        if (!binary) return new Frame(type, flags, seq, Kvp.encode(kv).getBytes(StandardCharsets.UTF_8));
+        return new Frame(type, (short) (flags | FLAG_BINARY_KV), seq, BinaryKvp.encode(kv));
+    }
+
+    // For frames fanned out to many sessions: encoded once here, then written as-is by each writer.
+    public static Frame broadcast(byte type, String text) {
+        Frame f = ofText(type, 0, text);
+        f.wire();
+        return f;
+    }
+
+    public static Frame broadcast(byte type, Map<String, String> kv, boolean binary) {
+        Frame f = ofKv(type, 0, kv, binary);
+        f.wire();
+        return f;
+    }
+
+    public ByteBuffer wire() {
+        ByteBuffer w = wire;
+        if (w == null) {
+            w = encode();
+            wire = w;
+        }
+        return w.asReadOnlyBuffer();
+    }
+
+    public int wireSize() {
+        return HEADER_SIZE + length;
+    }
+
     public void writeTo(DataOutputStream out) throws IOException {
-        out.writeInt(MAGIC);
-        out.writeByte(VERSION);
-        out.writeByte(type);
-        out.writeShort(flags);
-        out.writeInt(seq);
-        out.writeInt(payload.length);
-        if (payload.length > 0) out.write(payload);
+        write(out);
         out.flush();
     }
 
+    // Same as writeTo without the flush, so a writer can batch several frames into one flush.
+    public void write(DataOutputStream out) throws IOException {
+        ByteBuffer w = wire;
+        if (w != null) {
+            out.write(w.array(), w.arrayOffset(), w.limit());
+        } else {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(type);
+            out.writeShort(flags);
+            out.writeInt(seq);
+            out.writeInt(length);
+            if (length > 0) out.write(payload, 0, length);
+        }
+    }
+
     public static Frame readFrom(DataInputStream in) throws IOException {
         int magic = in.readInt();               
         if (magic != MAGIC) throw new IOException("Bad MAGIC: " + Integer.toHexString(magic));
@@ -60,4 +146,62 @@ public final class Frame {
         if (len > 0) in.readFully(payload);     
         return new Frame(type, flags, seq, payload);
     }
+
+    public ByteBuffer encode() {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + length);
+        buf.putInt(MAGIC);
+        buf.put(VERSION);
+        buf.put(type);
+        buf.putShort(flags);
+        buf.putInt(seq);
+        buf.putInt(length);
+        buf.put(payload, 0, length);
+        buf.flip();
+        return buf;
+    }
+
+    // Total size of the frame starting at buf.position(), or HEADER_SIZE while the header is incomplete.
+    public static int frameLength(ByteBuffer buf) throws IOException {
+        if (buf.remaining() < HEADER_SIZE) return HEADER_SIZE;
+        int len = buf.getInt(buf.position() + 12);
+        if (len < 0 || len > MAX_PAYLOAD_SIZE) {
+            throw new IOException(String.format("Bad LEN: %d (max: %d)", len, MAX_PAYLOAD_SIZE));
+        }
+        return HEADER_SIZE + len;
+    }
+
+    // Non-blocking counterpart of readFrom: returns null and leaves buf untouched until a whole frame is buffered.
+    public static Frame decode(ByteBuffer buf) throws IOException {
+        return decode(buf, null);
+    }
+
+    // With a pool, the payload is borrowed from it and the caller must release() the frame.
+    public static Frame decode(ByteBuffer buf, BufferPool pool) throws IOException {
+        if (buf.remaining() < HEADER_SIZE) return null;
+        int start = buf.position();
+
+        int magic = buf.getInt(start);
+        if (magic != MAGIC) throw new IOException("Bad MAGIC: " + Integer.toHexString(magic));
+
+        byte ver = buf.get(start + 4);
+        if (ver != VERSION) throw new IOException("Bad VERSION: " + ver);
+
+        int total = frameLength(buf);
+        if (buf.remaining() < total) return null;
+
+        byte type = buf.get(start + 5);
+        short flags = buf.getShort(start + 6);
+        int seq = buf.getInt(start + 8);
+
+        int len = total - HEADER_SIZE;
+        buf.position(start + HEADER_SIZE);
+        if (pool == null || len == 0) {
+            byte[] payload = new byte[len];
+            buf.get(payload);
+            return new Frame(type, flags, seq, payload);
+        }
+        byte[] payload = pool.acquire(len);
+        buf.get(payload, 0, len);
+        return new Frame(type, flags, seq, payload, len, pool);
+    }
 }
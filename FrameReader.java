@@ -0,0 +1,72 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+
+// Blocking-side frame decoder: reads the socket into one reusable per-connection buffer and decodes
+// frames out of it with pooled payloads. A frame larger than the buffer is read straight into its
+// pooled payload array. Frames returned by read() must be release()d once handled.
+public final class FrameReader {
+    private final InputStream in;
+    private final BufferPool pool;
+    // Unread bytes live between position and limit.
+    private final ByteBuffer buf;
+
+    public FrameReader(InputStream in, BufferPool pool, int bufferSize) {
+        this.in = in;
+        this.pool = pool;
+        this.buf = ByteBuffer.allocate(Math.max(bufferSize, Frame.HEADER_SIZE));
+        this.buf.flip();
+    }
+
+    public Frame read() throws IOException {
+        while (true) {
+            Frame f = Frame.decode(buf, pool);
+            if (f != null) return f;
+
+            int needed = Frame.frameLength(buf);
+            if (needed > buf.capacity()) return readLarge(needed);
+            fill();
+        }
+    }
+
+    // On a read timeout the buffer is left consistent, so the caller can simply call read() again.
+    private void fill() throws IOException {
+        buf.compact();
+        try {
+            int n = in.read(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            if (n < 0) throw new EOFException();
+            buf.position(buf.position() + n);
+        } finally {
+            buf.flip();
+        }
+    }
+
+    // The header is buffered and valid here (Frame.decode checked it); the rest is payload.
+    private Frame readLarge(int total) throws IOException {
+        int start = buf.position();
+        byte type = buf.get(start + 5);
+        short flags = buf.getShort(start + 6);
+        int seq = buf.getInt(start + 8);
+        int len = total - Frame.HEADER_SIZE;
+
+        byte[] payload = pool.acquire(len);
+        int have = buf.remaining() - Frame.HEADER_SIZE;
+        buf.position(start + Frame.HEADER_SIZE);
+        buf.get(payload, 0, have);
+        try {
+            while (have < len) {
+                int n = in.read(payload, have, len - have);
+                if (n < 0) throw new EOFException();
+                have += n;
+            }
+        } catch (IOException e) {
+            pool.release(payload);
+            // A timeout here would leave the stream mid-frame, so it is not retryable.
+            if (e instanceof java.net.SocketTimeoutException) throw new IOException("Timed out inside a frame");
+            throw e;
+        }
+        return new Frame(type, flags, seq, payload, len, pool);
+    }
+}
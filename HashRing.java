@@ -0,0 +1,52 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+
+// Consistent hashing of room names onto cluster node ids. Each node is placed at `vnodes` points on a 64-bit
+// ring and a room belongs to the first point at or after its own hash, so when a node joins or leaves only
+// the rooms next to its points change owner. Immutable; the cluster builds a new ring on every membership
+// change.
+final class HashRing {
+    private final TreeMap<Long, String> points = new TreeMap<>();
+    private final Set<String> nodes;
+
+    HashRing(Collection<String> nodes, int vnodes) {
+        this.nodes = new TreeSet<>(nodes);
+        for (String node : this.nodes) {
+            for (int i = 0; i < vnodes; i++) {
+                // On a (rare) collision the smaller id wins, so every node builds the same ring.
+                points.merge(hash(node + "#" + i), node, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            }
+        }
+    }
+
+    Set<String> nodes() {
+        return nodes;
+    }
+
+    String owner(String key) {
+        if (points.isEmpty()) return null;
+        Map.Entry<Long, String> e = points.ceilingEntry(hash(key));
+        return (e != null ? e : points.firstEntry()).getValue();
+    }
+
+    // 64-bit FNV-1a over the UTF-8 bytes, then the MurmurHash3 finalizer so that similar names
+    // ("node:7001#1", "node:7001#2") still land far apart.
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
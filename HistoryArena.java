@@ -0,0 +1,95 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+// Off-heap storage shared by every room's history when historyArenaMb is set: direct buffers cut into
+// fixed BLOCK_BYTES blocks that rooms take from a free list and hand back once every entry in them has
+// left the room's window (see ArenaRing). The whole cap is reserved up front, outside the Java heap, so
+// a large backlog adds nothing for the collector to trace or copy.
+final class HistoryArena {
+    static final int BLOCK_BYTES = 64 * 1024;
+    // 1 GiB per buffer; a direct ByteBuffer is int-indexed.
+    private static final int BLOCKS_PER_BUFFER = 1 << 14;
+
+    private final ByteBuffer[] buffers;
+    private final int blocks;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int[] free;
+    private int freeCount;
+    private long reclaimed;
+
+    HistoryArena(long capBytes) {
+        this.blocks = (int) Math.max(1, capBytes / BLOCK_BYTES);
+        int n = (blocks + BLOCKS_PER_BUFFER - 1) / BLOCKS_PER_BUFFER;
+        this.buffers = new ByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            int inBuffer = Math.min(BLOCKS_PER_BUFFER, blocks - i * BLOCKS_PER_BUFFER);
+            buffers[i] = ByteBuffer.allocateDirect(inBuffer * BLOCK_BYTES);
+        }
+        this.free = new int[blocks];
+        // Handed out lowest first.
+        for (int b = 0; b < blocks; b++) free[b] = blocks - 1 - b;
+        this.freeCount = blocks;
+    }
+
+    // A free block, or -1 if the arena is full.
+    int allocate() {
+        lock.lock();
+        try {
+            return (freeCount > 0) ? free[--freeCount] : -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release(int block) {
+        lock.lock();
+        try {
+            free[freeCount++] = block;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A room gave up a block whose entries were still in its window, because the arena was full.
+    void reclaimed() {
+        lock.lock();
+        try {
+            reclaimed++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Shared by all rooms: use only absolute gets and puts.
+    ByteBuffer buffer(int block) {
+        return buffers[block / BLOCKS_PER_BUFFER];
+    }
+
+    // Where the block starts in buffer(block).
+    int offset(int block) {
+        return (block % BLOCKS_PER_BUFFER) * BLOCK_BYTES;
+    }
+
+    long capacityBytes() {
+        return (long) blocks * BLOCK_BYTES;
+    }
+
+    long usedBytes() {
+        lock.lock();
+        try {
+            return (long) (blocks - freeCount) * BLOCK_BYTES;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long reclaimedBlocks() {
+        lock.lock();
+        try {
+            return reclaimed;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
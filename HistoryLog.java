@@ -0,0 +1,404 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+
+// Append-only history of one room, split into segment files named after the seq of their first record.
+// Record layout, big-endian:
+//   int bodyLength, int crc32(body), body = long seq, long epochMillis, short fromLength, from, message
+// with both strings in UTF-8. Only the newest segment is written; reads go through read-only mappings.
+// On open the newest segment is scanned and cut back to its last record with a valid CRC.
+public final class HistoryLog {
+    private static final Logger logger = Logger.getLogger(HistoryLog.class);
+    private static final String SUFFIX = ".log";
+    private static final int RECORD_HEADER = 8;
+    private static final int BODY_FIXED = 18;
+    // The offset of every INDEX_STRIDE-th record is kept; lookups scan forward from there.
+    private static final int INDEX_STRIDE = 64;
+
+    private final String room;
+    private final Path dir;
+    private final HistorySync sync;
+    private final long segmentBytes;
+    private final long retentionBytes;
+    private final long retentionMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer record = ByteBuffer.allocate(256);
+    private Segment active;
+    private FileChannel out;
+    private long nextSeq;
+    private boolean dirty;
+    // Set when a write failed; the next append starts a fresh segment instead of extending a torn one.
+    private boolean broken;
+    // Set by close; HistoryStore may already have opened a new log on the same directory.
+    private boolean closed;
+
+    public HistoryLog(String room, Path dir, ServerConfig config) throws IOException {
+        this.room = room;
+        this.dir = dir;
+        this.sync = config.getHistorySync();
+        this.segmentBytes = config.getHistorySegmentBytes();
+        this.retentionBytes = config.getHistoryRetentionBytes();
+        this.retentionMillis = TimeUnit.HOURS.toMillis(config.getHistoryRetentionHours());
+
+        Files.createDirectories(dir);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path p : files) {
+                String name = p.getFileName().toString();
+                try {
+                    long base = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                    segments.put(base, new Segment(base, p));
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring stray file in history directory: " + p);
+                }
+            }
+        }
+
+        if (segments.isEmpty()) {
+            startSegment(0);
+        } else {
+            Segment last = segments.lastEntry().getValue();
+            scan(last, true);
+            active = last;
+            nextSeq = last.base + last.count;
+            out = FileChannel.open(last.path, StandardOpenOption.WRITE);
+            out.position(last.size);
+        }
+        enforceRetention();
+    }
+
+    public MessageHistory.HistoryEntry append(String from, String message, Instant time) {
+        lock.lock();
+        try {
+            long seq = nextSeq++;
+            // Stored with millisecond precision, so keep the in-memory copy identical to what a re-read returns.
+            Instant ts = time.truncatedTo(ChronoUnit.MILLIS);
+            MessageHistory.HistoryEntry entry = new MessageHistory.HistoryEntry(seq, from, room, message, ts);
+            // Raced with the room's history being dropped; the entry goes nowhere either way.
+            if (closed) return entry;
+            try {
+                ByteBuffer r = encode(entry);
+                boolean full = active.size > 0 && active.size + r.remaining() > segmentBytes;
+                if (broken || out == null || full || active.base + active.count != seq) roll(seq);
+
+                int pos = (int) active.size;
+                while (r.hasRemaining()) out.write(r);
+                active.addRecord(pos);
+                active.size = out.position();
+                if (sync == HistorySync.ALWAYS) {
+                    out.force(false);
+                } else {
+                    dirty = true;
+                }
+                broken = false;
+            } catch (IOException e) {
+                broken = true;
+                logger.error(String.format("History write failed for room %s; message %d kept in memory only", room, seq), e);
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Entries with from <= seq < to that are still on disk, oldest first.
+    public List<MessageHistory.HistoryEntry> read(long from, long to) {
+        List<MessageHistory.HistoryEntry> result = new ArrayList<>();
+        lock.lock();
+        try {
+            if (segments.isEmpty()) return result;
+            Long key = segments.floorKey(from);
+            if (key == null) key = segments.firstKey();
+            for (Segment seg : segments.tailMap(key, true).values()) {
+                if (seg.base >= to) break;
+                try {
+                    readSegment(seg, Math.max(from, seg.base), to, result);
+                } catch (IOException e) {
+                    logger.warn("Cannot read history segment %s: %s", seg.path, e.getMessage());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return result;
+    }
+
+    public long firstSeq() {
+        lock.lock();
+        try {
+            return segments.isEmpty() ? nextSeq : segments.firstKey();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long nextSeq() {
+        lock.lock();
+        try {
+            return nextSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Forces appended records to disk; the interval policy calls this from the server's scheduler.
+    public void sync() {
+        lock.lock();
+        try {
+            if (!dirty || out == null) return;
+            out.force(false);
+            dirty = false;
+        } catch (IOException e) {
+            logger.error("History fsync failed for room " + room, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void enforceRetention() {
+        lock.lock();
+        try {
+            long total = 0;
+            for (Segment seg : segments.values()) {
+                total += fileSize(seg.path);
+            }
+            long cutoff = System.currentTimeMillis() - retentionMillis;
+
+            Iterator<Segment> it = segments.values().iterator();
+            while (it.hasNext()) {
+                Segment seg = it.next();
+                if (seg == active) break;
+                boolean overSize = retentionBytes > 0 && total > retentionBytes;
+                boolean tooOld = retentionMillis > 0 && lastModified(seg.path) < cutoff;
+                if (!overSize && !tooOld) break;
+
+                long size = fileSize(seg.path);
+                try {
+                    Files.deleteIfExists(seg.path);
+                } catch (IOException e) {
+                    logger.warn("Cannot delete history segment %s: %s", seg.path, e.getMessage());
+                    break;
+                }
+                it.remove();
+                total -= size;
+                logger.debug("Dropped history segment %s (%s)", seg.path, overSize ? "size" : "age");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Closes the active segment and drops the read mappings; reads still work, appends are discarded.
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            for (Segment seg : segments.values()) seg.map = null;
+            if (out == null) return;
+            try {
+                out.force(false);
+            } finally {
+                out.close();
+                out = null;
+            }
+        } catch (IOException e) {
+            logger.error("Error closing history for room " + room, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Closes the log and removes its files; used when the room itself is deleted.
+    public void delete() {
+        lock.lock();
+        try {
+            close();
+            for (Segment seg : segments.values()) {
+                Files.deleteIfExists(seg.path);
+            }
+            segments.clear();
+            Files.deleteIfExists(dir);
+        } catch (IOException e) {
+            logger.warn("Cannot delete history for room %s: %s", room, e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ByteBuffer encode(MessageHistory.HistoryEntry e) {
+        byte[] from = e.from().getBytes(StandardCharsets.UTF_8);
+        byte[] msg = e.message.getBytes(StandardCharsets.UTF_8);
+        int len = BODY_FIXED + from.length + msg.length;
+        if (record.capacity() < RECORD_HEADER + len) {
+            record = ByteBuffer.allocate(Integer.highestOneBit(RECORD_HEADER + len) << 1);
+        }
+
+        record.clear();
+        record.putInt(len);
+        record.putInt(0);
+        record.putLong(e.seq);
+        record.putLong(e.timestamp.toEpochMilli());
+        record.putShort((short) from.length);
+        record.put(from);
+        record.put(msg);
+
+        crc.reset();
+        crc.update(record.array(), RECORD_HEADER, len);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    // Seals the active segment and starts a new one at base; an empty active segment is just replaced.
+    private void roll(long base) throws IOException {
+        if (out != null) {
+            try {
+                if (!broken) out.force(false);
+                out.truncate(active.size);
+            } finally {
+                out.close();
+                out = null;
+            }
+        }
+        if (active != null && active.count == 0) {
+            segments.remove(active.base);
+            Files.deleteIfExists(active.path);
+        }
+        startSegment(base);
+        enforceRetention();
+    }
+
+    private void startSegment(long base) throws IOException {
+        Path path = dir.resolve(String.format("%020d%s", base, SUFFIX));
+        out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        Segment seg = new Segment(base, path);
+        seg.scanned = true;
+        segments.put(base, seg);
+        active = seg;
+        nextSeq = Math.max(nextSeq, base);
+    }
+
+    // Walks a segment's records, building its index; stops at the first record that is cut short,
+    // fails its CRC or breaks the seq run. With truncate, everything from there on is removed.
+    private void scan(Segment seg, boolean truncate) throws IOException {
+        long fileSize = fileSize(seg.path);
+        map(seg, fileSize);
+        MappedByteBuffer m = seg.map;
+
+        int pos = 0;
+        seg.count = 0;
+        while (pos + RECORD_HEADER <= fileSize) {
+            int len = m.getInt(pos);
+            if (len < BODY_FIXED || pos + RECORD_HEADER + len > fileSize) break;
+            crc.reset();
+            crc.update(m.slice(pos + RECORD_HEADER, len));
+            if ((int) crc.getValue() != m.getInt(pos + 4)) break;
+            if (m.getLong(pos + RECORD_HEADER) != seg.base + seg.count) break;
+            seg.addRecord(pos);
+            pos += RECORD_HEADER + len;
+        }
+        seg.size = pos;
+        seg.scanned = true;
+
+        if (truncate && pos < fileSize) {
+            logger.warn("History for room %s: dropping %d torn bytes at the end of %s",
+                    room, fileSize - pos, seg.path.getFileName());
+            try (FileChannel ch = FileChannel.open(seg.path, StandardOpenOption.WRITE)) {
+                ch.truncate(pos);
+                ch.force(false);
+            }
+            seg.map = null;
+        }
+    }
+
+    private void readSegment(Segment seg, long start, long to, List<MessageHistory.HistoryEntry> result) throws IOException {
+        if (!seg.scanned) scan(seg, false);
+        if (start >= seg.base + seg.count) return;
+        map(seg, seg.size);
+        MappedByteBuffer m = seg.map;
+
+        int slot = (int) ((start - seg.base) / INDEX_STRIDE);
+        int pos = seg.index[slot];
+        for (long seq = seg.base + (long) slot * INDEX_STRIDE; seq < to && pos < seg.size; seq++) {
+            int len = m.getInt(pos);
+            if (seq >= start) {
+                int body = pos + RECORD_HEADER;
+                long millis = m.getLong(body + 8);
+                int fromLen = m.getShort(body + 16) & 0xFFFF;
+                String from = string(m, body + BODY_FIXED, fromLen);
+                String msg = string(m, body + BODY_FIXED + fromLen, len - BODY_FIXED - fromLen);
+                result.add(new MessageHistory.HistoryEntry(seq, from, room, msg, Instant.ofEpochMilli(millis)));
+            }
+            pos += RECORD_HEADER + len;
+        }
+    }
+
+    private static void map(Segment seg, long size) throws IOException {
+        if (seg.map != null && seg.map.capacity() >= size) return;
+        try (FileChannel ch = FileChannel.open(seg.path, StandardOpenOption.READ)) {
+            seg.map = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    private static String string(MappedByteBuffer m, int off, int len) {
+        byte[] b = new byte[len];
+        m.get(off, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static long fileSize(Path p) {
+        try {
+            return Files.size(p);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long lastModified(Path p) {
+        try {
+            return Files.getLastModifiedTime(p).toMillis();
+        } catch (IOException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static final class Segment {
+        final long base;
+        final Path path;
+        // Bytes of valid records and their count; only known once scanned (or for the active segment).
+        long size;
+        int count;
+        boolean scanned;
+        int[] index = new int[8];
+        MappedByteBuffer map;
+
+        Segment(long base, Path path) {
+            this.base = base;
+            this.path = path;
+        }
+
+        void addRecord(int pos) {
+            if (count % INDEX_STRIDE == 0) {
+                int slot = count / INDEX_STRIDE;
+                if (slot == index.length) index = Arrays.copyOf(index, slot * 2);
+                index[slot] = pos;
+            }
+            count++;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+// One HistoryLog per room under historyDir, opened on demand. A room's MessageHistory holds its log
+// through acquire/release, and the log is closed as soon as that history is dropped, so only rooms with
+// members here keep a file open. Logs opened just to read a room nobody is in are idle; the
+// historyOpenLogs most recently read stay open and the rest are closed, least recently used first.
+public final class HistoryStore {
+    private static final Logger logger = Logger.getLogger(HistoryStore.class);
+
+    private static final class Entry {
+        final HistoryLog log;
+        int users;
+
+        Entry(HistoryLog log) {
+            this.log = log;
+        }
+    }
+
+    private final ServerConfig config;
+    private final Path root;
+    private final int maxIdle;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Access-ordered, so the first idle entry is the least recently used one.
+    private final LinkedHashMap<String, Entry> logs = new LinkedHashMap<>(16, 0.75f, true);
+    private int idle;
+
+    public HistoryStore(ServerConfig config) {
+        this.config = config;
+        this.root = Paths.get(config.getHistoryDir());
+        this.maxIdle = Math.max(0, config.getHistoryOpenLogs());
+    }
+
+    // The room's log, kept open until the matching release. Returns null if the log cannot be opened;
+    // the room then falls back to in-memory history.
+    public HistoryLog acquire(String room) {
+        lock.lock();
+        try {
+            Entry e = entry(room);
+            if (e == null) return null;
+            if (e.users++ == 0) idle--;
+            return e.log;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(String room, HistoryLog log) {
+        lock.lock();
+        try {
+            Entry e = logs.get(room);
+            if (e == null || e.log != log || --e.users > 0) return;
+            logs.remove(room);
+            e.log.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The room's log for a one-off read, or null if it cannot be opened. Unless the room is in use it may
+    // be closed again once historyOpenLogs other idle logs have been read.
+    public HistoryLog open(String room) {
+        lock.lock();
+        try {
+            Entry e = entry(room);
+            if (e == null) return null;
+            trim(e);
+            return e.log;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean exists(String room) {
+        lock.lock();
+        try {
+            if (logs.containsKey(room)) return true;
+        } finally {
+            lock.unlock();
+        }
+        return Files.isDirectory(dirFor(room));
+    }
+
+    public void delete(String room) {
+        lock.lock();
+        try {
+            Entry e = logs.remove(room);
+            HistoryLog log = null;
+            if (e != null) {
+                if (e.users == 0) idle--;
+                log = e.log;
+            } else if (Files.isDirectory(dirFor(room))) {
+                log = newLog(room);
+            }
+            if (log != null) log.delete();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void sync() {
+        for (HistoryLog log : snapshot()) {
+            log.sync();
+        }
+    }
+
+    public void enforceRetention() {
+        for (HistoryLog log : snapshot()) {
+            log.enforceRetention();
+        }
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            for (Entry e : logs.values()) {
+                e.log.close();
+            }
+            logs.clear();
+            idle = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<HistoryLog> snapshot() {
+        lock.lock();
+        try {
+            List<HistoryLog> open = new ArrayList<>(logs.size());
+            for (Entry e : logs.values()) open.add(e.log);
+            return open;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Caller holds the lock. A new entry starts out idle.
+    private Entry entry(String room) {
+        Entry e = logs.get(room);
+        if (e != null) return e;
+        HistoryLog log = newLog(room);
+        if (log == null) return null;
+        e = new Entry(log);
+        logs.put(room, e);
+        idle++;
+        return e;
+    }
+
+    // Caller holds the lock. Closes the least recently used idle logs beyond the cap, sparing `keep`.
+    private void trim(Entry keep) {
+        Iterator<Entry> it = logs.values().iterator();
+        while (idle > maxIdle && it.hasNext()) {
+            Entry e = it.next();
+            if (e.users > 0 || e == keep) continue;
+            it.remove();
+            idle--;
+            e.log.close();
+        }
+    }
+
+    private HistoryLog newLog(String room) {
+        try {
+            return new HistoryLog(room, dirFor(room), config);
+        } catch (IOException e) {
+            logger.error("Cannot open history for room " + room, e);
+            return null;
+        }
+    }
+
+    private Path dirFor(String room) {
+        return root.resolve(URLEncoder.encode(room, StandardCharsets.UTF_8));
+    }
+}
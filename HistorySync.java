@@ -0,0 +1,17 @@
+public enum HistorySync {
+    // fsync the segment after every appended message.
+    ALWAYS,
+    // fsync dirty segments every historySyncIntervalMs.
+    INTERVAL,
+    // Leave write-back entirely to the OS page cache.
+    OS;
+
+    public static HistorySync fromString(String s) {
+        if (s == null) return INTERVAL;
+        return switch (s.trim().toLowerCase()) {
+            case "always" -> ALWAYS;
+            case "os" -> OS;
+            default -> INTERVAL;
+        };
+    }
+}
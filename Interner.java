@@ -0,0 +1,52 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+// Dense int ids for names, one registry for nicks and one for rooms. Long-lived structures (history entries,
+// the room index) hold the id instead of a String of their own, and the name is looked up again only when
+// it goes out on the wire; every id resolves to the one String instance first seen for it. Lookups are a
+// map read; only a name never seen before takes the lock. Ids are never reused and names never forgotten,
+// so a server keeps one String and one map entry (~100 bytes) for every distinct nick and room it has seen.
+final class Interner {
+    static final Interner NICKS = new Interner();
+    static final Interner ROOMS = new Interner();
+    // Past this many names id() refuses new ones rather than overflow the array.
+    private static final int MAX_IDS = 1 << 30;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    // Written before the id is published in `ids`, so whoever got an id can resolve it.
+    private volatile String[] names = new String[64];
+    private int size;
+
+    // Assigns an id on first use; throws IllegalStateException once MAX_IDS names are taken.
+    int id(String name) {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+        lock.lock();
+        try {
+            id = ids.get(name);
+            if (id != null) return id;
+            String[] n = names;
+            if (size == MAX_IDS) throw new IllegalStateException("Too many distinct names");
+            if (size == n.length) n = Arrays.copyOf(n, Math.min(n.length * 2, MAX_IDS));
+            n[size] = name;
+            names = n;
+            ids.put(name, size);
+            return size++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // -1 if the name has no id yet; never assigns one.
+    int find(String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : -1;
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+}
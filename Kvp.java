@@ -1,3 +1,4 @@
+import java.io.IOException;
 import java.util.*;
 
 public final class Kvp {
@@ -23,6 +24,17 @@ public final class Kvp {
         return sb.toString();
     }
 
+    // Decodes either payload format, as marked by the frame's FLAG_BINARY_KV bit. A malformed binary payload
+    // throws IllegalArgumentException.
+    public static Map<String, String> decode(Frame f) {
+        if (!f.isBinaryKv()) return decode(f.payloadText());
+        try {
+            return BinaryKvp.decode(f.payload, f.length);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
     public static Map<String, String> decode(String text) {
         Map<String, String> map = new HashMap<>();
         if (text == null || text.isEmpty()) return map;
@@ -0,0 +1,667 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+// Headless load generator for sizing a deployment. Simulated users are spread over a few selector threads;
+// each connects, logs in with a generated nick, joins one room drawn from the configured distribution and
+// then sends CHAT and WHISPER as Poisson traffic at the configured per-user rates, with a PING whenever it
+// has been quiet for a heartbeat interval. Every message carries its sender and send time
+// ("lg@<user>@<nanos>"), so each receiving user records end-to-end latency; a sender's own echo is not
+// counted. Progress is printed every report seconds and a summary at the end.
+//
+//   java LoadGenerator [key=value ...]
+//     host=127.0.0.1 port=5555 users=1000 threads=2 codec=text|binary
+//     rooms=20 roomDist=uniform|zipf[:s]   (rooms=0 keeps everyone in the lobby)
+//     chatRate=0.2 whisperRate=0.02        (messages per user per second)
+//     msgBytes=64 connectRate=500 duration=60 warmup=10 report=5
+//     sources=256                          (loopback source addresses, see below)
+//
+// The server's admission control caps users at maxClients (default 1000). It limits every source address
+// to maxConnectionsPerIp open connections (default 100) and connectRatePerIp new ones per second (default
+// 10), and all sources together to acceptRatePerSec (default 1000), so keep connectRate at or below that.
+// Against a loopback host, users are dealt round-robin over `sources` addresses 127.0.x.y, so the per-address
+// defaults cover up to 25,600 users. Against a remote host every user comes from this machine's one address:
+// set maxConnectionsPerIp=0 and connectRatePerIp=0 in the server's server.properties for the run.
+public final class LoadGenerator {
+    private static final byte[] MARKER = "lg@".getBytes(StandardCharsets.US_ASCII);
+
+    private final Options options;
+    private final User[] users;
+    private final Worker[] workers;
+    // Zero point for the timestamps in messages, so they stay positive.
+    private final long epoch = System.nanoTime();
+    private volatile long measureFrom;
+    private volatile long heartbeatNanos = 30_000_000_000L;
+
+    private final LongAdder connected = new LongAdder();
+    private final LongAdder ready = new LongAdder();
+    private final LongAdder loggedIn = new LongAdder();
+    // Everything, for the progress lines; the per-type counters below only count after the warmup.
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder chatsSent = new LongAdder();
+    private final LongAdder whispersSent = new LongAdder();
+    private final LongAdder chatsReceived = new LongAdder();
+    private final LongAdder whispersReceived = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    static final class Options {
+        String host = "127.0.0.1";
+        int port = 5555;
+        int users = 1000;
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        boolean binary = false;
+        int rooms = 20;
+        String roomDist = "uniform";
+        double chatRate = 0.2;
+        double whisperRate = 0.02;
+        int msgBytes = 64;
+        int connectRate = 500;
+        int duration = 60;
+        int warmup = 10;
+        int report = 5;
+        int sources = 256;
+
+        static Options parse(String[] args) {
+            Properties p = new Properties();
+            for (String a : args) {
+                int eq = a.indexOf('=');
+                if (eq <= 0) throw new IllegalArgumentException("Expected key=value, got: " + a);
+                p.setProperty(a.substring(0, eq).trim(), a.substring(eq + 1).trim());
+            }
+            Options o = new Options();
+            o.host = p.getProperty("host", o.host);
+            o.port = Integer.parseInt(p.getProperty("port", String.valueOf(o.port)));
+            o.users = Integer.parseInt(p.getProperty("users", String.valueOf(o.users)));
+            o.threads = Integer.parseInt(p.getProperty("threads", String.valueOf(o.threads)));
+            o.binary = "binary".equalsIgnoreCase(p.getProperty("codec", "text"));
+            o.rooms = Integer.parseInt(p.getProperty("rooms", String.valueOf(o.rooms)));
+            o.roomDist = p.getProperty("roomDist", o.roomDist).toLowerCase();
+            o.chatRate = Double.parseDouble(p.getProperty("chatRate", String.valueOf(o.chatRate)));
+            o.whisperRate = Double.parseDouble(p.getProperty("whisperRate", String.valueOf(o.whisperRate)));
+            o.msgBytes = Integer.parseInt(p.getProperty("msgBytes", String.valueOf(o.msgBytes)));
+            o.connectRate = Integer.parseInt(p.getProperty("connectRate", String.valueOf(o.connectRate)));
+            o.duration = Integer.parseInt(p.getProperty("duration", String.valueOf(o.duration)));
+            o.warmup = Integer.parseInt(p.getProperty("warmup", String.valueOf(o.warmup)));
+            o.report = Integer.parseInt(p.getProperty("report", String.valueOf(o.report)));
+            o.sources = Integer.parseInt(p.getProperty("sources", String.valueOf(o.sources)));
+            if (o.users < 1 || o.threads < 1 || o.connectRate < 1 || o.report < 1) {
+                throw new IllegalArgumentException("users, threads, connectRate and report must be positive");
+            }
+            if (o.sources < 1 || o.sources > 250 * 256) {
+                throw new IllegalArgumentException("sources must be between 1 and 64000");
+            }
+            if (o.users < 2) o.whisperRate = 0;
+            return o;
+        }
+    }
+
+    private enum State { CONNECTING, LOGGING_IN, JOINING, READY, CLOSED }
+
+    private static final class User {
+        final int id;
+        final String nick;
+        String room;
+        SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(8192);
+        ByteBuffer out = ByteBuffer.allocate(4096);
+        int seq = 1;
+        long lastSent;
+        volatile State state = State.CONNECTING;
+
+        User(int id, String nick, String room) {
+            this.id = id;
+            this.nick = nick;
+            this.room = room;
+        }
+    }
+
+    // Latencies in microseconds, bucketed with 4 bits of precision (within ~6%). One writer, any readers.
+    static final class Histogram {
+        private static final int BUCKETS = 960;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private volatile long max;
+
+        void record(long micros) {
+            counts.incrementAndGet(bucket(Math.max(0, micros)));
+            if (micros > max) max = micros;
+        }
+
+        long[] snapshot() {
+            long[] s = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) s[i] = counts.get(i);
+            return s;
+        }
+
+        long max() {
+            return max;
+        }
+
+        static int bucket(long v) {
+            if (v < 16) return (int) v;
+            int e = 63 - Long.numberOfLeadingZeros(v);
+            return (e - 3) * 16 + (int) ((v >>> (e - 4)) & 15);
+        }
+
+        static long upper(int idx) {
+            if (idx < 16) return idx;
+            int e = idx / 16 + 3;
+            return ((16L + idx % 16 + 1) << (e - 4)) - 1;
+        }
+
+        static long count(long[] s) {
+            long n = 0;
+            for (long c : s) n += c;
+            return n;
+        }
+
+        // Upper bound of the bucket holding the p-th percentile, in milliseconds.
+        static double percentileMs(long[] s, double p) {
+            long total = count(s);
+            if (total == 0) return Double.NaN;
+            long rank = (long) Math.ceil(p / 100.0 * total);
+            long seen = 0;
+            for (int i = 0; i < s.length; i++) {
+                seen += s[i];
+                if (seen >= Math.max(1, rank)) return upper(i) / 1000.0;
+            }
+            return upper(s.length - 1) / 1000.0;
+        }
+
+        static long[] minus(long[] a, long[] b) {
+            long[] d = new long[a.length];
+            for (int i = 0; i < a.length; i++) d[i] = a[i] - b[i];
+            return d;
+        }
+
+        static long[] plus(long[] a, long[] b) {
+            long[] d = new long[a.length];
+            for (int i = 0; i < a.length; i++) d[i] = a[i] + b[i];
+            return d;
+        }
+    }
+
+    public LoadGenerator(Options options) {
+        this.options = options;
+        this.users = new User[options.users];
+        String[] rooms = roomNames(options.rooms);
+        RoomPicker picker = new RoomPicker(rooms.length, options.roomDist);
+        SplittableRandom random = new SplittableRandom(42);
+        // Nicks are unique per run so a second generator against the same server does not collide.
+        String run = Long.toString(System.currentTimeMillis() % 1_000_000, 36);
+        for (int i = 0; i < users.length; i++) {
+            String room = rooms.length == 0 ? "lobby" : rooms[picker.pick(random)];
+            users[i] = new User(i, "lg" + run + "-" + Integer.toString(i, 36), room);
+        }
+        this.workers = new Worker[options.threads];
+        for (int t = 0; t < workers.length; t++) {
+            workers[t] = new Worker(t);
+        }
+    }
+
+    private static String[] roomNames(int n) {
+        String[] names = new String[Math.max(0, n)];
+        for (int i = 0; i < names.length; i++) names[i] = "load-" + i;
+        return names;
+    }
+
+    // Uniform, or Zipf with exponent s (room k drawn with weight 1 / (k + 1)^s).
+    private static final class RoomPicker {
+        private final double[] cdf;
+
+        RoomPicker(int rooms, String dist) {
+            this.cdf = new double[rooms];
+            double s = 0;
+            if (dist.startsWith("zipf")) {
+                int colon = dist.indexOf(':');
+                s = colon > 0 ? Double.parseDouble(dist.substring(colon + 1)) : 1.0;
+            } else if (!dist.equals("uniform")) {
+                throw new IllegalArgumentException("roomDist must be uniform or zipf[:s], got: " + dist);
+            }
+            double total = 0;
+            for (int k = 0; k < rooms; k++) {
+                total += 1.0 / Math.pow(k + 1, s);
+                cdf[k] = total;
+            }
+            for (int k = 0; k < rooms; k++) cdf[k] /= total;
+        }
+
+        int pick(SplittableRandom random) {
+            int i = Arrays.binarySearch(cdf, random.nextDouble());
+            return Math.min(cdf.length - 1, i >= 0 ? i : -i - 1);
+        }
+    }
+
+    public void run() throws Exception {
+        Options o = options;
+        System.out.println(String.format("LoadGenerator: %d users on %d thread(s) -> %s:%d, %s, chat %.3f/s whisper %.3f/s per user, %d-byte messages, %s codec",
+                o.users, o.threads, o.host, o.port,
+                o.rooms > 0 ? o.rooms + " rooms (" + o.roomDist + ")" : "lobby only",
+                o.chatRate, o.whisperRate, o.msgBytes, o.binary ? "binary" : "text"));
+
+        long start = System.nanoTime();
+        measureFrom = start + o.warmup * 1_000_000_000L;
+        long end = start + o.duration * 1_000_000_000L;
+        Thread[] threads = new Thread[workers.length];
+        for (int t = 0; t < workers.length; t++) {
+            Worker w = workers[t];
+            threads[t] = new Thread(() -> w.run(end), "LoadGenerator-" + t);
+            threads[t].start();
+        }
+
+        long[][] last = {new long[Histogram.BUCKETS], new long[Histogram.BUCKETS]};
+        long lastReceived = 0;
+        long lastSent = 0;
+        long lastTime = start;
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.min(o.report * 1000L, Math.max(1, (end - System.nanoTime()) / 1_000_000)));
+            long now = System.nanoTime();
+            long[] chat = merge(true);
+            long[] whisper = merge(false);
+            long received = this.received.sum();
+            long sent = this.sent.sum();
+            double secs = (now - lastTime) / 1e9;
+            long[] dc = Histogram.minus(chat, last[0]);
+            long[] dw = Histogram.minus(whisper, last[1]);
+            System.out.println(String.format("%5.0fs  conn %d/%d ready %d  sent %.0f/s recv %.0f/s  chat p50 %s p99 %s  whisper p50 %s p99 %s ms  errors %d",
+                    (now - start) / 1e9, connected.sum(), o.users, ready.sum(),
+                    (sent - lastSent) / secs, (received - lastReceived) / secs,
+                    ms(Histogram.percentileMs(dc, 50)), ms(Histogram.percentileMs(dc, 99)),
+                    ms(Histogram.percentileMs(dw, 50)), ms(Histogram.percentileMs(dw, 99)),
+                    errorCount()));
+            last[0] = chat;
+            last[1] = whisper;
+            lastReceived = received;
+            lastSent = sent;
+            lastTime = now;
+        }
+        for (Thread t : threads) t.join(5000);
+        summary(Math.max(1, o.duration - o.warmup));
+    }
+
+    private void summary(int measuredSeconds) {
+        System.out.println();
+        System.out.println(String.format("Summary (after %ds warmup, %ds measured)", options.warmup, measuredSeconds));
+        System.out.println(String.format("  logged in %d/%d, connect failures %d, disconnects %d",
+                loggedIn.sum(), options.users, connectFailures.sum(), disconnects.sum()));
+        System.out.println(String.format("  sent     chat %d  whisper %d", chatsSent.sum(), whispersSent.sum()));
+        System.out.println(String.format("  received chat %d  whisper %d", chatsReceived.sum(), whispersReceived.sum()));
+        latencyLine("chat", measured(true), maxOf(true), measuredSeconds);
+        latencyLine("whisper", measured(false), maxOf(false), measuredSeconds);
+        if (errors.isEmpty()) {
+            System.out.println("  errors   none");
+        } else {
+            Map<String, Long> sorted = new TreeMap<>();
+            errors.forEach((k, v) -> sorted.put(k, v.sum()));
+            System.out.println("  errors   " + sorted);
+        }
+    }
+
+    private static void latencyLine(String name, long[] s, long maxMicros, int seconds) {
+        System.out.println(String.format("  %-8s %d delivered (%.0f/s)  p50 %s  p90 %s  p99 %s  p99.9 %s  max %s ms",
+                name, Histogram.count(s), Histogram.count(s) / (double) seconds,
+                ms(Histogram.percentileMs(s, 50)), ms(Histogram.percentileMs(s, 90)),
+                ms(Histogram.percentileMs(s, 99)), ms(Histogram.percentileMs(s, 99.9)),
+                ms(maxMicros / 1000.0)));
+    }
+
+    private static String ms(double v) {
+        return Double.isNaN(v) ? "-" : String.format("%.2f", v);
+    }
+
+    private long[] merge(boolean chat) {
+        long[] s = new long[Histogram.BUCKETS];
+        for (Worker w : workers) s = Histogram.plus(s, (chat ? w.chatLatency : w.whisperLatency).snapshot());
+        return s;
+    }
+
+    private long[] measured(boolean chat) {
+        long[] s = new long[Histogram.BUCKETS];
+        for (Worker w : workers) s = Histogram.plus(s, (chat ? w.chatMeasured : w.whisperMeasured).snapshot());
+        return s;
+    }
+
+    private long maxOf(boolean chat) {
+        long max = 0;
+        for (Worker w : workers) max = Math.max(max, (chat ? w.chatMeasured : w.whisperMeasured).max());
+        return max;
+    }
+
+    private long errorCount() {
+        long n = 0;
+        for (LongAdder a : errors.values()) n += a.sum();
+        return n;
+    }
+
+    private void error(String code) {
+        errors.computeIfAbsent(code, k -> new LongAdder()).increment();
+    }
+
+    // One selector thread and its share of the users (every threads-th one).
+    private final class Worker {
+        final Histogram chatLatency = new Histogram();
+        final Histogram whisperLatency = new Histogram();
+        final Histogram chatMeasured = new Histogram();
+        final Histogram whisperMeasured = new Histogram();
+        private final List<User> mine = new ArrayList<>();
+        private final SplittableRandom random;
+        private final String filler;
+        private Selector selector;
+
+        Worker(int index) {
+            for (int i = index; i < users.length; i += options.threads) mine.add(users[i]);
+            this.random = new SplittableRandom(index * 7919L + 1);
+            this.filler = "x".repeat(Math.max(0, options.msgBytes - 40));
+        }
+
+        void run(long end) {
+            try {
+                selector = Selector.open();
+                loop(end);
+            } catch (IOException e) {
+                System.err.println(Thread.currentThread().getName() + " failed: " + e);
+            } finally {
+                for (User u : mine) close(u);
+                try {
+                    if (selector != null) selector.close();
+                } catch (IOException ignored) {}
+            }
+        }
+
+        private void loop(long end) throws IOException {
+            long start = System.nanoTime();
+            double connectInterval = 1e9 * options.threads / options.connectRate;
+            int nextConnect = 0;
+            long nextChat = start;
+            long nextWhisper = start;
+            long nextHeartbeatCheck = start + 1_000_000_000L;
+
+            while (true) {
+                long now = System.nanoTime();
+                if (now >= end) break;
+
+                while (nextConnect < mine.size() && now >= start + (long) (nextConnect * connectInterval)) {
+                    connect(mine.get(nextConnect++));
+                }
+
+                // Open-loop Poisson arrivals at the full per-worker rate, each landing on a random user and
+                // dropped if that user is not ready yet, which thins it to the rate of the ready users.
+                // Falling behind is caught up, not skipped, so a slow server shows up as latency instead
+                // of a lower offered rate.
+                int n = mine.size();
+                while (options.chatRate > 0 && nextChat <= now) {
+                    User u = mine.get(random.nextInt(n));
+                    if (u.state == State.READY) sendChat(u, now);
+                    nextChat += interval(n * options.chatRate);
+                }
+                while (options.whisperRate > 0 && nextWhisper <= now) {
+                    User u = mine.get(random.nextInt(n));
+                    if (u.state == State.READY) sendWhisper(u, now);
+                    nextWhisper += interval(n * options.whisperRate);
+                }
+                if (now >= nextHeartbeatCheck) {
+                    for (User u : mine) {
+                        if (u.state == State.READY && now - u.lastSent >= heartbeatNanos) send(u, MsgType.PING, Kvp.kv("t", String.valueOf(now)), now);
+                    }
+                    nextHeartbeatCheck = now + 1_000_000_000L;
+                }
+
+                long wake = Math.min(end, nextHeartbeatCheck);
+                if (nextConnect < mine.size()) wake = Math.min(wake, start + (long) (nextConnect * connectInterval));
+                if (options.chatRate > 0) wake = Math.min(wake, nextChat);
+                if (options.whisperRate > 0) wake = Math.min(wake, nextWhisper);
+                long waitMs = (wake - System.nanoTime()) / 1_000_000;
+                if (waitMs > 0) selector.select(waitMs); else selector.selectNow();
+                process();
+            }
+        }
+
+        private long interval(double ratePerSecond) {
+            return (long) (-Math.log(1 - random.nextDouble()) / ratePerSecond * 1e9);
+        }
+
+        private void connect(User u) {
+            try {
+                SocketChannel ch = SocketChannel.open();
+                ch.configureBlocking(false);
+                ch.socket().setTcpNoDelay(true);
+                InetAddress target = InetAddress.getByName(options.host);
+                if (target.isLoopbackAddress()) {
+                    // Round-robin over 127.0.x.y, to stay within the server's per-address limits and off the
+                    // ephemeral port limit of any one address.
+                    int a = u.id % options.sources;
+                    ch.bind(new InetSocketAddress("127.0." + (a / 250) + "." + (1 + a % 250), 0));
+                }
+                u.channel = ch;
+                u.state = State.CONNECTING;
+                if (ch.connect(new InetSocketAddress(target, options.port))) {
+                    u.key = ch.register(selector, SelectionKey.OP_READ, u);
+                    onConnected(u);
+                } else {
+                    u.key = ch.register(selector, SelectionKey.OP_CONNECT, u);
+                }
+            } catch (IOException e) {
+                connectFailures.increment();
+                close(u);
+            }
+        }
+
+        private void onConnected(User u) {
+            connected.increment();
+            u.key.interestOps(SelectionKey.OP_READ);
+            u.state = State.LOGGING_IN;
+            long now = System.nanoTime();
+            send(u, MsgType.HELLO, Kvp.kv("client", "loadgen", "codecs", options.binary ? "binary" : "text"), now);
+            send(u, MsgType.LOGIN, Kvp.kv("nick", u.nick), now);
+        }
+
+        private void process() {
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                User u = (User) key.attachment();
+                try {
+                    if (!key.isValid()) continue;
+                    if (key.isConnectable()) {
+                        u.channel.finishConnect();
+                        onConnected(u);
+                        continue;
+                    }
+                    if (key.isWritable()) flush(u);
+                    if (key.isValid() && key.isReadable()) read(u);
+                } catch (IOException e) {
+                    if (u.state == State.CONNECTING) connectFailures.increment(); else disconnects.increment();
+                    close(u);
+                }
+            }
+        }
+
+        private void read(User u) throws IOException {
+            if (u.channel.read(u.in) < 0) {
+                disconnects.increment();
+                close(u);
+                return;
+            }
+            u.in.flip();
+            Frame f;
+            while ((f = Frame.decode(u.in)) != null) {
+                onFrame(u, f);
+                if (u.state == State.CLOSED) return;
+            }
+            if (u.in.remaining() > 0 && Frame.frameLength(u.in) > u.in.capacity()) {
+                ByteBuffer bigger = ByteBuffer.allocate(Frame.frameLength(u.in));
+                bigger.put(u.in);
+                u.in = bigger;
+            } else {
+                u.in.compact();
+            }
+        }
+
+        private void onFrame(User u, Frame f) {
+            long now = System.nanoTime();
+            switch (f.type) {
+                case MsgType.CHAT, MsgType.WHISPER -> latency(u, f, now);
+                case MsgType.WELCOME -> {
+                    String hb = Kvp.decode(f).get("heartbeatInterval");
+                    if (hb != null) heartbeatNanos = Long.parseLong(hb) * 1_000_000_000L;
+                }
+                case MsgType.LOGIN_OK -> {
+                    loggedIn.increment();
+                    if (u.room.equals("lobby")) {
+                        ready(u);
+                    } else {
+                        u.state = State.JOINING;
+                        send(u, MsgType.JOIN, Kvp.kv("room", u.room), now);
+                    }
+                }
+                case MsgType.JOIN_OK -> ready(u);
+                case MsgType.LOGIN_FAIL -> {
+                    error("LOGIN_FAIL:" + Kvp.decode(f).getOrDefault("reason", "?"));
+                    close(u);
+                }
+                case MsgType.ERROR -> {
+                    error(Kvp.decode(f).getOrDefault("code", "?"));
+                    // Could not join (e.g. ROOM_FULL): chat from the lobby instead.
+                    if (u.state == State.JOINING) {
+                        u.room = "lobby";
+                        ready(u);
+                    }
+                }
+                default -> {}
+            }
+        }
+
+        private void ready(User u) {
+            if (u.state == State.READY) return;
+            u.state = State.READY;
+            ready.increment();
+        }
+
+        // Parses "lg@<sender>@<nanos>" out of the raw payload; works for both codecs since the text is not escaped.
+        private void latency(User u, Frame f, long now) {
+            byte[] p = f.payload;
+            int end = f.length - MARKER.length;
+            outer:
+            for (int i = 0; i <= end; i++) {
+                for (int j = 0; j < MARKER.length; j++) {
+                    if (p[i + j] != MARKER[j]) continue outer;
+                }
+                int k = i + MARKER.length;
+                long sender = 0;
+                for (; k < f.length && p[k] >= '0' && p[k] <= '9'; k++) sender = sender * 10 + (p[k] - '0');
+                if (k >= f.length || p[k] != '@' || sender == u.id) return;
+                long sent = 0;
+                for (k++; k < f.length && p[k] >= '0' && p[k] <= '9'; k++) sent = sent * 10 + (p[k] - '0');
+                long micros = (now - epoch - sent) / 1000;
+                boolean chat = f.type == MsgType.CHAT;
+                received.increment();
+                (chat ? chatLatency : whisperLatency).record(micros);
+                if (now >= measureFrom) {
+                    (chat ? chatMeasured : whisperMeasured).record(micros);
+                    (chat ? chatsReceived : whispersReceived).increment();
+                }
+                return;
+            }
+        }
+
+        private String message(User u, long now) {
+            return "lg@" + u.id + "@" + (now - epoch) + " " + filler;
+        }
+
+        private void sendChat(User u, long now) {
+            send(u, MsgType.CHAT, Kvp.kv("room", u.room, "msg", message(u, now)), now);
+            sent.increment();
+            if (now >= measureFrom) chatsSent.increment();
+        }
+
+        private void sendWhisper(User u, long now) {
+            User to = null;
+            for (int tries = 0; tries < 8 && to == null; tries++) {
+                User c = users[random.nextInt(users.length)];
+                if (c != u && c.state == State.READY) to = c;
+            }
+            if (to == null) return;
+            send(u, MsgType.WHISPER, Kvp.kv("to", to.nick, "msg", message(u, now)), now);
+            sent.increment();
+            if (now >= measureFrom) whispersSent.increment();
+        }
+
+        private void send(User u, byte type, Map<String, String> kv, long now) {
+            if (u.state == State.CLOSED) return;
+            ByteBuffer frame = Frame.ofKv(type, u.seq++, kv, options.binary && type != MsgType.HELLO).encode();
+            if (u.out.remaining() < frame.remaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(u.out.capacity() * 2, u.out.position() + frame.remaining()));
+                u.out.flip();
+                bigger.put(u.out);
+                u.out = bigger;
+            }
+            u.out.put(frame);
+            u.lastSent = now;
+            try {
+                flush(u);
+            } catch (IOException e) {
+                disconnects.increment();
+                close(u);
+            }
+        }
+
+        private void flush(User u) throws IOException {
+            if (u.state == State.CONNECTING || u.key == null) return;
+            u.out.flip();
+            u.channel.write(u.out);
+            boolean pending = u.out.hasRemaining();
+            u.out.compact();
+            if (u.key.isValid()) {
+                u.key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            }
+        }
+
+        private void close(User u) {
+            if (u.state == State.CLOSED) return;
+            if (u.state == State.READY) ready.decrement();
+            if (u.state != State.CONNECTING) connected.decrement();
+            u.state = State.CLOSED;
+            if (u.channel != null) {
+                try {
+                    u.channel.close();
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java LoadGenerator [host=..] [port=..] [users=..] [threads=..] [rooms=..] [roomDist=uniform|zipf[:s]]");
+            System.err.println("                          [chatRate=..] [whisperRate=..] [msgBytes=..] [connectRate=..] [duration=..] [warmup=..] [report=..] [codec=text|binary]");
+            System.err.println("                          [sources=..]");
+            System.exit(2);
+            return;
+        }
+        new LoadGenerator(options).run();
+    }
+}
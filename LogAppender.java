@@ -0,0 +1,99 @@
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+
+// Where formatted log lines end up: stdout, or a file that is rolled over once it passes maxBytes
+// (chat.log -> chat.log.1 -> ... -> chat.log.<maxFiles>, the oldest dropped). Not thread-safe; the
+// Logger serializes access.
+final class LogAppender {
+    private final File file;
+    private final long maxBytes;
+    private final int maxFiles;
+    private CountingStream counter;
+    private Writer out;
+
+    private static final class CountingStream extends FilterOutputStream {
+        long bytes;
+
+        CountingStream(OutputStream out, long bytes) {
+            super(out);
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            bytes += len;
+        }
+    }
+
+    // An empty path means stdout.
+    LogAppender(String path, long maxBytes, int maxFiles) {
+        this.file = (path == null || path.isEmpty()) ? null : new File(path);
+        this.maxBytes = maxBytes;
+        this.maxFiles = Math.max(1, maxFiles);
+        open();
+    }
+
+    void append(CharSequence line) {
+        try {
+            out.append(line).append(System.lineSeparator());
+            if (counter != null && maxBytes > 0 && counter.bytes >= maxBytes) {
+                out.flush();
+                roll();
+            }
+        } catch (IOException e) {
+            System.err.println("Log write failed: " + e.getMessage());
+        }
+    }
+
+    void append(Throwable t) {
+        PrintWriter pw = new PrintWriter(out);
+        t.printStackTrace(pw);
+        pw.flush();
+    }
+
+    void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Log flush failed: " + e.getMessage());
+        }
+    }
+
+    private void open() {
+        if (file == null) {
+            out = new BufferedWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()), 16 * 1024);
+            return;
+        }
+        try {
+            File dir = file.getAbsoluteFile().getParentFile();
+            if (dir != null) dir.mkdirs();
+            counter = new CountingStream(new FileOutputStream(file, true), file.length());
+            out = new BufferedWriter(new OutputStreamWriter(counter, StandardCharsets.UTF_8), 16 * 1024);
+        } catch (IOException e) {
+            System.err.println("Cannot open log file " + file + ", logging to stdout: " + e.getMessage());
+            counter = null;
+            out = new BufferedWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()), 16 * 1024);
+        }
+    }
+
+    private void roll() throws IOException {
+        out.close();
+        File oldest = new File(file.getPath() + "." + maxFiles);
+        oldest.delete();
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            File from = new File(file.getPath() + "." + i);
+            if (from.exists()) from.renameTo(new File(file.getPath() + "." + (i + 1)));
+        }
+        file.renameTo(new File(file.getPath() + ".1"));
+        open();
+    }
+}
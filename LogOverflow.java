@@ -0,0 +1,14 @@
+public enum LogOverflow {
+    // Discard the record and count it; the writer reports how many were lost.
+    DROP,
+    // Wait until the writer frees a slot.
+    BLOCK;
+
+    public static LogOverflow fromString(String s) {
+        if (s == null) return DROP;
+        return switch (s.trim().toLowerCase()) {
+            case "block" -> BLOCK;
+            default -> DROP;
+        };
+    }
+}
@@ -0,0 +1,173 @@
+import java.util.Formatter;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+// Bounded multi-producer, single-consumer ring of preallocated log events. Producers claim a slot by
+// CAS on tail and publish it by bumping the slot's sequence; the one writer thread reads slots in order,
+// formats them and hands the lines to the appender, flushing whenever the ring runs dry. Logging threads
+// never format, never touch the appender and never take a lock.
+// Once close() has drained the ring, publish() refuses further events and the Logger writes them itself
+// under the same appender lock, so lines logged by other shutdown hooks still make it out.
+final class LogRing {
+    static final class Event {
+        long millis;
+        Logger.Level level;
+        String name;
+        String message;
+        Object[] args;
+        Throwable thrown;
+    }
+
+    private final Event[] events;
+    // sequence[i] == claim + 1 once slot i holds the event for that claim; claim + capacity once free again.
+    private final AtomicLongArray sequence;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final LogOverflow policy;
+    private final LogAppender appender;
+    private final ReentrantLock appenderLock;
+    private final Thread writer;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile boolean running = true;
+    private volatile boolean parked;
+    private volatile boolean drained;
+    // Owned by the writer thread.
+    private long head;
+    private long reported;
+
+    LogRing(int capacity, LogOverflow policy, LogAppender appender, ReentrantLock appenderLock) {
+        int n = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.events = new Event[n];
+        this.sequence = new AtomicLongArray(n);
+        for (int i = 0; i < n; i++) {
+            events[i] = new Event();
+            sequence.set(i, i);
+        }
+        this.mask = n - 1;
+        this.policy = policy;
+        this.appender = appender;
+        this.appenderLock = appenderLock;
+        this.writer = new Thread(this::drainLoop, "Logger");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Returns false once the ring is closed; the caller must write the event itself.
+    boolean publish(long millis, Logger.Level level, String name, String message, Object[] args, Throwable thrown) {
+        int spins = 0;
+        while (true) {
+            if (drained) return false;
+            long claim = tail.get();
+            int i = (int) (claim & mask);
+            long diff = sequence.get(i) - claim;
+            if (diff == 0) {
+                if (!tail.compareAndSet(claim, claim + 1)) continue;
+                Event e = events[i];
+                e.millis = millis;
+                e.level = level;
+                e.name = name;
+                e.message = message;
+                e.args = args;
+                e.thrown = thrown;
+                sequence.set(i, claim + 1);
+                if (parked) LockSupport.unpark(writer);
+                return true;
+            }
+            if (diff < 0) {
+                // Full.
+                if (policy == LogOverflow.DROP) {
+                    dropped.incrementAndGet();
+                    return true;
+                }
+                if (parked) LockSupport.unpark(writer);
+                if (++spins < 64) Thread.onSpinWait(); else LockSupport.parkNanos(50_000);
+            }
+        }
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    // Stops the writer after it has written everything published so far.
+    void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        StringBuilder sb = new StringBuilder(256);
+        Formatter formatter = new Formatter(sb);
+        while (true) {
+            int n;
+            appenderLock.lock();
+            try {
+                n = drain(sb, formatter);
+                if (n > 0) appender.flush();
+            } finally {
+                appenderLock.unlock();
+            }
+            if (n > 0) continue;
+            if (!running) break;
+
+            parked = true;
+            if (sequence.get((int) (head & mask)) != head + 1 && running) {
+                LockSupport.parkNanos(100_000_000L);
+            }
+            parked = false;
+        }
+
+        // Producers that claimed a slot before seeing drained are still filling it; wait for them.
+        appenderLock.lock();
+        try {
+            drained = true;
+            long deadline = System.nanoTime() + 1_000_000_000L;
+            while (head < tail.get() && System.nanoTime() < deadline) {
+                if (drain(sb, formatter) == 0) Thread.onSpinWait();
+            }
+            appender.flush();
+        } finally {
+            appenderLock.unlock();
+        }
+    }
+
+    private int drain(StringBuilder sb, Formatter formatter) {
+        int n = 0;
+        while (true) {
+            int i = (int) (head & mask);
+            if (sequence.get(i) != head + 1) break;
+            Event e = events[i];
+            Logger.render(sb, formatter, e.millis, e.level, e.name, e.message, e.args);
+            appender.append(sb);
+            if (e.thrown != null) appender.append(e.thrown);
+            e.name = null;
+            e.message = null;
+            e.args = null;
+            e.thrown = null;
+            sequence.set(i, head + mask + 1);
+            head++;
+            n++;
+        }
+
+        long lost = dropped.get();
+        if (lost != reported) {
+            Logger.render(sb, formatter, System.currentTimeMillis(), Logger.Level.WARN, "Logger",
+                    "%d log records dropped, ring full", new Object[] {lost - reported});
+            appender.append(sb);
+            reported = lost;
+            n++;
+        }
+        return n;
+    }
+}
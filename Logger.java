@@ -1,64 +1,180 @@
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Formatter;
+import java.util.IllegalFormatException;
+import java.util.concurrent.locks.ReentrantLock;
 
 
+// Levels below logLevel are dropped before anything is formatted, so pass arguments to the
+// (format, args...) overloads instead of building the message up front. In logMode=async the caller
+// only copies its arguments into a LogRing slot; formatting and I/O happen on the ring's writer thread.
 public final class Logger {
-    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
-    private static final boolean ENABLED = ServerConfig.getInstance().isLoggingEnabled();
-    
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
     public enum Level {
         DEBUG, INFO, WARN, ERROR
     }
-    
+
+    // Lowest level written; past ERROR when logging is disabled.
+    private static final int THRESHOLD;
+    private static final LogAppender APPENDER;
+    private static final LogRing RING;
+    // Serializes the appender between sync writers and the ring's writer thread.
+    private static final ReentrantLock LOCK = new ReentrantLock();
+
+    // yyyy-MM-dd HH:mm:ss for the current second, shared by all threads.
+    private static volatile TimestampCache timestamps = new TimestampCache(Long.MIN_VALUE, "");
+
+    static {
+        ServerConfig config = ServerConfig.getInstance();
+        THRESHOLD = config.isLoggingEnabled() ? parseLevel(config.getLogLevel()).ordinal() : Integer.MAX_VALUE;
+        if (THRESHOLD == Integer.MAX_VALUE) {
+            APPENDER = null;
+            RING = null;
+        } else {
+            APPENDER = new LogAppender(config.getLogFile(), config.getLogMaxBytes(), config.getLogMaxFiles());
+            RING = config.isLogAsync()
+                ? new LogRing(config.getLogQueueSize(), config.getLogQueuePolicy(), APPENDER, LOCK)
+                : null;
+            if (RING != null) {
+                Runtime.getRuntime().addShutdownHook(new Thread(RING::close, "Logger-shutdown"));
+            }
+        }
+    }
+
+    private static final class TimestampCache {
+        final long second;
+        final String text;
+
+        TimestampCache(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+
     private final String name;
-    
+
     private Logger(String name) {
         this.name = name;
     }
-    
+
     public static Logger getLogger(Class<?> clazz) {
         return new Logger(clazz.getSimpleName());
     }
-    
+
     public static Logger getLogger(String name) {
         return new Logger(name);
     }
-    
-    private void log(Level level, String message, Throwable throwable) {
-        if (!ENABLED) return;
-        
-        String timestamp = LocalDateTime.now().format(FORMATTER);
-        String logMessage = String.format("[%s] [%s] [%s] %s", 
-            timestamp, level, name, message);
-        
-        System.out.println(logMessage);
-        if (throwable != null) {
-            throwable.printStackTrace();
+
+    public static long droppedRecords() {
+        return RING != null ? RING.getDropped() : 0;
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.ordinal() >= THRESHOLD;
+    }
+
+    public boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    private void log(Level level, String message, Object[] args, Throwable throwable) {
+        if (level.ordinal() < THRESHOLD) return;
+
+        long now = System.currentTimeMillis();
+        if (RING != null && RING.publish(now, level, name, message, args, throwable)) return;
+
+        StringBuilder sb = new StringBuilder(128);
+        render(sb, null, now, level, name, message, args);
+        LOCK.lock();
+        try {
+            APPENDER.append(sb);
+            if (throwable != null) APPENDER.append(throwable);
+            APPENDER.flush();
+        } finally {
+            LOCK.unlock();
         }
     }
-    
+
+    // Writes "[timestamp] [LEVEL] [name] message" into sb, replacing its contents. formatter, if given,
+    // must write into sb.
+    static void render(StringBuilder sb, Formatter formatter, long millis, Level level, String name,
+                       String message, Object[] args) {
+        sb.setLength(0);
+        sb.append('[').append(timestamp(millis / 1000));
+        int ms = (int) (millis % 1000);
+        sb.append('.').append((char) ('0' + ms / 100)).append((char) ('0' + ms / 10 % 10)).append((char) ('0' + ms % 10));
+        sb.append("] [").append(level.name()).append("] [").append(name).append("] ");
+        if (args == null || args.length == 0) {
+            sb.append(message);
+            return;
+        }
+        int start = sb.length();
+        try {
+            (formatter != null ? formatter : new Formatter(sb)).format(message, args);
+        } catch (IllegalFormatException e) {
+            sb.setLength(start);
+            sb.append(message).append(' ').append(Arrays.toString(args));
+        }
+    }
+
+    private static String timestamp(long second) {
+        TimestampCache cache = timestamps;
+        if (cache.second != second) {
+            LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochSecond(second), ZONE);
+            cache = new TimestampCache(second, t.format(FORMATTER));
+            timestamps = cache;
+        }
+        return cache.text;
+    }
+
+    private static Level parseLevel(String s) {
+        if (s == null) return Level.INFO;
+        return switch (s.trim().toLowerCase()) {
+            case "debug" -> Level.DEBUG;
+            case "warn" -> Level.WARN;
+            case "error" -> Level.ERROR;
+            default -> Level.INFO;
+        };
+    }
+
     public void debug(String message) {
-        log(Level.DEBUG, message, null);
+        log(Level.DEBUG, message, null, null);
+    }
+
+    public void debug(String format, Object... args) {
+        log(Level.DEBUG, format, args, null);
     }
-    
+
     public void info(String message) {
-        log(Level.INFO, message, null);
+        log(Level.INFO, message, null, null);
+    }
+
+    public void info(String format, Object... args) {
+        log(Level.INFO, format, args, null);
     }
-    
+
     public void warn(String message) {
-        log(Level.WARN, message, null);
+        log(Level.WARN, message, null, null);
     }
-    
+
+    public void warn(String format, Object... args) {
+        log(Level.WARN, format, args, null);
+    }
+
     public void warn(String message, Throwable throwable) {
-        log(Level.WARN, message, throwable);
+        log(Level.WARN, message, null, throwable);
     }
-    
+
     public void error(String message) {
-        log(Level.ERROR, message, null);
+        log(Level.ERROR, message, null, null);
     }
-    
+
     public void error(String message, Throwable throwable) {
-        log(Level.ERROR, message, throwable);
+        log(Level.ERROR, message, null, throwable);
     }
 }
-
@@ -1,63 +1,240 @@
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 
+// Fixed-capacity ring of the latest entries for one room. A writer claims the next sequence number
+// and stores its entry in slot seq % capacity; readers walk back from the newest claimed sequence and
+// keep only slots whose entry still carries the expected seq, so an entry that is mid-write or
+// already overwritten is skipped rather than returned out of order.
+// With a HistoryLog behind it the log assigns the seqs, the ring is only a cache of the newest entries
+// and anything older is read back from disk.
+// Every entry in the ring is also in a SearchIndex, which drops it again once its slot is reused.
+// With a HistoryArena the ring lives off-heap in an ArenaRing instead of the slot array; that mode takes
+// `lock` for every read and write, and entries become objects only when a reader asks for them.
 public final class MessageHistory {
-    private final ConcurrentLinkedQueue<HistoryEntry> history;
+    private final AtomicReferenceArray<HistoryEntry> slots;
+    private final ArenaRing ring;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Set once the room's history is dropped, so a late add cannot take arena blocks nobody will free.
+    private boolean closed;
+    private final AtomicLong nextSeq = new AtomicLong();
+    // Entries below this sequence were cleared.
+    private volatile long floor;
     private final int maxSize;
-    
+    private final HistoryLog log;
+    private final SearchIndex index = new SearchIndex(this::entry);
+
     public MessageHistory(int maxSize) {
-        this.maxSize = maxSize;
-        this.history = new ConcurrentLinkedQueue<>();
+        this(maxSize, null);
+    }
+
+    public MessageHistory(int maxSize, HistoryLog log) {
+        this(maxSize, log, null, null);
     }
-    
-    public void add(String from, String room, String message) {
-        history.offer(new HistoryEntry(from, room, message, Instant.now()));
-        
-        while (history.size() > maxSize) {
-            history.poll();
+
+    public MessageHistory(int maxSize, HistoryLog log, HistoryArena arena, String room) {
+        this.maxSize = Math.max(1, maxSize);
+        this.slots = (arena == null) ? new AtomicReferenceArray<>(this.maxSize) : null;
+        this.ring = (arena != null) ? new ArenaRing(arena, room, this.maxSize) : null;
+        this.log = log;
+        if (log != null) {
+            long end = log.nextSeq();
+            for (HistoryEntry e : log.read(Math.max(log.firstSeq(), end - this.maxSize), end)) {
+                store(e);
+            }
+            nextSeq.set(end);
         }
     }
-    
+
+    // The log behind this history, or null if it is in memory only.
+    HistoryLog log() {
+        return log;
+    }
+
+    public HistoryEntry add(String from, String room, String message) {
+        if (log != null) {
+            HistoryEntry entry = log.append(from, message, Instant.now());
+            store(entry);
+            nextSeq.accumulateAndGet(entry.seq + 1, Math::max);
+            return entry;
+        }
+        long seq = nextSeq.getAndIncrement();
+        HistoryEntry entry = new HistoryEntry(seq, from, room, message, Instant.now());
+        store(entry);
+        return entry;
+    }
+
+    private void store(HistoryEntry entry) {
+        if (ring != null) {
+            lock.lock();
+            try {
+                if (closed) return;
+                HistoryEntry old = ring.inSlot(entry.seq);
+                index.update(entry, old, () -> {
+                    ring.put(entry, index::remove);
+                    return old;
+                });
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+        int slot = slot(entry.seq);
+        index.update(entry, slots.get(slot), () -> slots.getAndSet(slot, entry));
+    }
+
+    // Ranked matches among the entries still in memory; see SearchIndex for the query syntax.
+    public SearchIndex.Result search(String query, int limit) {
+        return index.search(query, limit);
+    }
+
+    // Up to count most recent entries, oldest first.
     public List<HistoryEntry> getRecent(int count) {
-        List<HistoryEntry> result = new ArrayList<>();
-        Iterator<HistoryEntry> it = history.iterator();
-        int collected = 0;
-        
-        List<HistoryEntry> all = new ArrayList<>(history);
-        Collections.reverse(all);
-        
-        for (HistoryEntry entry : all) {
-            if (collected >= count) break;
-            result.add(entry);
-            collected++;
-        }
-        
-        Collections.reverse(result); 
+        return getBefore(Long.MAX_VALUE, count);
+    }
+
+    // Up to count entries older than beforeSeq, oldest first; past the in-memory window they come from
+    // the log, so without one paging stops at the oldest entry still in memory.
+    public List<HistoryEntry> getBefore(long beforeSeq, int count) {
+        long newest = nextSeq.get();
+        long end = Math.min(beforeSeq, newest);
+        long start = Math.max(floor, end - Math.max(0, count));
+        if (log != null && start < newest - maxSize) return log.read(start, end);
+        return range(Math.max(start, newest - maxSize), end);
+    }
+
+    // Up to count entries newer than afterSeq, oldest first.
+    public List<HistoryEntry> getAfter(long afterSeq, int count) {
+        long newest = nextSeq.get();
+        long start = Math.max(afterSeq + 1, firstSeq());
+        long end = Math.min(newest, start + Math.max(0, count));
+        if (log != null && start < newest - maxSize) return log.read(start, end);
+        return range(Math.max(start, newest - maxSize), end);
+    }
+
+    // Oldest seq that can still be returned, from memory or from the log.
+    public long firstSeq() {
+        if (log != null) return Math.max(floor, log.firstSeq());
+        return Math.max(floor, Math.max(0, nextSeq.get() - maxSize));
+    }
+
+    public long nextSeq() {
+        return nextSeq.get();
+    }
+
+    private HistoryEntry entry(long seq) {
+        if (seq < floor) return null;
+        if (ring != null) {
+            lock.lock();
+            try {
+                return ring.get(seq);
+            } finally {
+                lock.unlock();
+            }
+        }
+        HistoryEntry e = slots.get(slot(seq));
+        return (e != null && e.seq == seq) ? e : null;
+    }
+
+    private List<HistoryEntry> range(long start, long end) {
+        if (start >= end) return new ArrayList<>();
+        if (ring != null) {
+            lock.lock();
+            try {
+                List<HistoryEntry> result = new ArrayList<>((int) (end - start));
+                for (long seq = start; seq < end; seq++) {
+                    HistoryEntry e = ring.get(seq);
+                    if (e != null) result.add(e);
+                }
+                return result;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        HistoryEntry[] found = new HistoryEntry[(int) (end - start)];
+        int n = 0;
+        for (long seq = end - 1; seq >= start; seq--) {
+            HistoryEntry e = slots.get(slot(seq));
+            if (e != null && e.seq == seq) found[n++] = e;
+        }
+
+        List<HistoryEntry> result = new ArrayList<>(n);
+        for (int i = n - 1; i >= 0; i--) {
+            result.add(found[i]);
+        }
         return result;
     }
-    
+
     public List<HistoryEntry> getAll() {
-        return new ArrayList<>(history);
+        return getRecent(maxSize);
+    }
+
+    public int size() {
+        return (int) Math.min(nextSeq.get() - floor, maxSize);
     }
-    
+
+    // Sequence numbers keep counting up across a clear, so they stay unique for the room.
     public void clear() {
-        history.clear();
+        lock.lock();
+        try {
+            index.clear(() -> {
+                floor = nextSeq.get();
+                if (ring != null) {
+                    ring.clear();
+                    return;
+                }
+                for (int i = 0; i < maxSize; i++) {
+                    slots.set(i, null);
+                }
+            });
+        } finally {
+            lock.unlock();
+        }
     }
-    
+
+    // The room's history is being dropped: gives its arena blocks back. Later adds are not kept.
+    public void close() {
+        if (ring == null) return;
+        lock.lock();
+        try {
+            closed = true;
+            ring.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int slot(long seq) {
+        return (int) (seq % maxSize);
+    }
+
+    // Sender and room are Interner ids rather than Strings: an entry built from a decoded payload or read
+    // back from the log would otherwise hold its own copy of both names.
     public static final class HistoryEntry {
-        public final String from;
-        public final String room;
+        public final long seq;
+        public final int fromId;
+        public final int roomId;
         public final String message;
         public final Instant timestamp;
-        
-        public HistoryEntry(String from, String room, String message, Instant timestamp) {
-            this.from = from;
-            this.room = room;
+
+        public HistoryEntry(long seq, String from, String room, String message, Instant timestamp) {
+            this.seq = seq;
+            this.fromId = Interner.NICKS.id(from);
+            this.roomId = Interner.ROOMS.id(room);
             this.message = message;
             this.timestamp = timestamp;
         }
+
+        public String from() {
+            return Interner.NICKS.name(fromId);
+        }
+
+        public String room() {
+            return Interner.ROOMS.name(roomId);
+        }
     }
 }
-
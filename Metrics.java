@@ -0,0 +1,219 @@
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+
+// Named counters, gauges and latency histograms, rendered in the Prometheus text format (version 0.0.4).
+// Updates are LongAdder increments and never lock; registering a metric or a new label value takes the
+// registry lock, so hot paths should look their children up once and keep the reference. Gauges are
+// suppliers read at scrape time.
+public final class Metrics {
+    public enum Type { COUNTER, GAUGE, HISTOGRAM }
+
+    // Histogram upper bounds in nanoseconds, 10us to 2.5s; everything slower lands in +Inf.
+    private static final long[] LATENCY_BOUNDS = {
+        10_000L, 25_000L, 50_000L, 100_000L, 250_000L, 500_000L,
+        1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L,
+        100_000_000L, 250_000_000L, 500_000_000L, 1_000_000_000L, 2_500_000_000L
+    };
+
+    public interface Metric {}
+
+    public static final class Counter implements Metric {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long n) {
+            value.add(n);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    public static final class Gauge implements Metric {
+        private final LongSupplier supplier;
+
+        Gauge(LongSupplier supplier) {
+            this.supplier = supplier;
+        }
+
+        public long get() {
+            return supplier.getAsLong();
+        }
+    }
+
+    public static final class Histogram implements Metric {
+        // Per-bucket counts, not cumulative; the last is +Inf.
+        private final LongAdder[] buckets = new LongAdder[LATENCY_BOUNDS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void observeNanos(long nanos) {
+            int i = 0;
+            while (i < LATENCY_BOUNDS.length && nanos > LATENCY_BOUNDS[i]) i++;
+            buckets[i].increment();
+            sumNanos.add(nanos);
+        }
+
+        public long count() {
+            long n = 0;
+            for (LongAdder b : buckets) n += b.sum();
+            return n;
+        }
+
+        public long sumNanos() {
+            return sumNanos.sum();
+        }
+    }
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final Type type;
+        final String label;
+        // Keyed by label value, or "" for an unlabelled metric; kept in registration order.
+        final Map<String, Metric> children = new LinkedHashMap<>();
+
+        Family(String name, String help, Type type, String label) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.label = label;
+        }
+    }
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public Counter counter(String name, String help) {
+        return (Counter) child(name, help, Type.COUNTER, null, "", null);
+    }
+
+    public Counter counter(String name, String help, String label, String value) {
+        return (Counter) child(name, help, Type.COUNTER, label, value, null);
+    }
+
+    public Histogram histogram(String name, String help, String label, String value) {
+        return (Histogram) child(name, help, Type.HISTOGRAM, label, value, null);
+    }
+
+    public void gauge(String name, String help, LongSupplier supplier) {
+        child(name, help, Type.GAUGE, null, "", supplier);
+    }
+
+    // Current value of a counter or gauge, summed over its label values; 0 if nothing is registered.
+    public long get(String name) {
+        long total = 0;
+        for (Metric m : children(name)) {
+            if (m instanceof Counter c) total += c.get();
+            else if (m instanceof Gauge g) total += g.get();
+            else if (m instanceof Histogram h) total += h.count();
+        }
+        return total;
+    }
+
+    public String scrape() {
+        StringBuilder sb = new StringBuilder(4096);
+        List<Family> snapshot;
+        lock.lock();
+        try {
+            snapshot = new ArrayList<>(families.values());
+        } finally {
+            lock.unlock();
+        }
+        for (Family f : snapshot) {
+            sb.append("# HELP ").append(f.name).append(' ').append(f.help).append('\n');
+            sb.append("# TYPE ").append(f.name).append(' ').append(f.type.name().toLowerCase()).append('\n');
+            for (Map.Entry<String, Metric> e : entries(f)) {
+                String labels = f.label == null ? "" : f.label + "=\"" + escape(e.getKey()) + "\"";
+                Metric m = e.getValue();
+                if (m instanceof Histogram h) {
+                    writeHistogram(sb, f.name, labels, h);
+                } else {
+                    sb.append(f.name);
+                    if (!labels.isEmpty()) sb.append('{').append(labels).append('}');
+                    sb.append(' ').append(m instanceof Counter c ? c.get() : ((Gauge) m).get()).append('\n');
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private Metric child(String name, String help, Type type, String label, String value, LongSupplier supplier) {
+        lock.lock();
+        try {
+            Family f = families.computeIfAbsent(name, n -> new Family(n, help, type, label));
+            if (f.type != type) {
+                throw new IllegalArgumentException(name + " is already registered as a " + f.type.name().toLowerCase());
+            }
+            Metric m = f.children.get(value);
+            if (m == null) {
+                m = switch (type) {
+                    case COUNTER -> new Counter();
+                    case GAUGE -> new Gauge(supplier);
+                    case HISTOGRAM -> new Histogram();
+                };
+                f.children.put(value, m);
+            }
+            return m;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Metric> children(String name) {
+        lock.lock();
+        try {
+            Family f = families.get(name);
+            return f == null ? List.of() : new ArrayList<>(f.children.values());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Map.Entry<String, Metric>> entries(Family f) {
+        lock.lock();
+        try {
+            return new ArrayList<>(f.children.entrySet());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void writeHistogram(StringBuilder sb, String name, String labels, Histogram h) {
+        String sep = labels.isEmpty() ? "" : ",";
+        long cumulative = 0;
+        for (int i = 0; i <= LATENCY_BOUNDS.length; i++) {
+            cumulative += h.buckets[i].sum();
+            String le = i < LATENCY_BOUNDS.length ? seconds(LATENCY_BOUNDS[i]) : "+Inf";
+            sb.append(name).append("_bucket{").append(labels).append(sep)
+              .append("le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+        }
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        sb.append(name).append("_sum").append(braces).append(' ').append(seconds(h.sumNanos())).append('\n');
+        sb.append(name).append("_count").append(braces).append(' ').append(cumulative).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return BigDecimal.valueOf(nanos, 9).stripTrailingZeros().toPlainString();
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -11,6 +11,9 @@ public final class MsgType {
     public static final byte LOGIN_OK   = 0x04;
     public static final byte LOGIN_FAIL = 0x05;
     public static final byte LOGOUT     = 0x06;
+    public static final byte RESUME     = 0x07;
+    public static final byte RESUME_OK  = 0x08;
+    public static final byte RESUME_FAIL = 0x09;
 
    
     public static final byte JOIN       = 0x10;
@@ -76,6 +79,21 @@ public final class MsgType {
 
     public static final byte ERROR      = 0x7F;
 
+    // Node-to-node traffic on the cluster port; a client sending these gets BAD_TYPE.
+    public static final byte NODE_HELLO = (byte) 0x80;
+    public static final byte NODE_PING = (byte) 0x81;
+    public static final byte NODE_REPLY = (byte) 0x82;
+    public static final byte ROOM_PUBLISH = (byte) 0x83;
+    public static final byte ROOM_RELAY = (byte) 0x84;
+    public static final byte WHISPER_ROUTE = (byte) 0x85;
+    public static final byte LIST_USERS = (byte) 0x86;
+    public static final byte LIST_ROOMS = (byte) 0x87;
+    public static final byte NICK_CLAIM = (byte) 0x88;
+    public static final byte NICK_RELEASE = (byte) 0x89;
+    public static final byte NICK_LOOKUP = (byte) 0x8A;
+    public static final byte NICK_GONE = (byte) 0x8B;
+    public static final byte NICK_SYNC = (byte) 0x8C;
+
     public static String name(byte t) {
         return switch (t) {
             case HELLO -> "HELLO";
@@ -84,6 +102,9 @@ public final class MsgType {
             case LOGIN_OK -> "LOGIN_OK";
             case LOGIN_FAIL -> "LOGIN_FAIL";
             case LOGOUT -> "LOGOUT";
+            case RESUME -> "RESUME";
+            case RESUME_OK -> "RESUME_OK";
+            case RESUME_FAIL -> "RESUME_FAIL";
             case JOIN -> "JOIN";
             case LEAVE -> "LEAVE";
             case JOIN_OK -> "JOIN_OK";
@@ -136,6 +157,19 @@ public final class MsgType {
             case STATS_ROOM_ACTIVITY -> "STATS_ROOM_ACTIVITY";
             case STATS_WORD_FREQ -> "STATS_WORD_FREQ";
             case ERROR -> "ERROR";
+            case NODE_HELLO -> "NODE_HELLO";
+            case NODE_PING -> "NODE_PING";
+            case NODE_REPLY -> "NODE_REPLY";
+            case ROOM_PUBLISH -> "ROOM_PUBLISH";
+            case ROOM_RELAY -> "ROOM_RELAY";
+            case WHISPER_ROUTE -> "WHISPER_ROUTE";
+            case LIST_USERS -> "LIST_USERS";
+            case LIST_ROOMS -> "LIST_ROOMS";
+            case NICK_CLAIM -> "NICK_CLAIM";
+            case NICK_RELEASE -> "NICK_RELEASE";
+            case NICK_LOOKUP -> "NICK_LOOKUP";
+            case NICK_GONE -> "NICK_GONE";
+            case NICK_SYNC -> "NICK_SYNC";
             default -> "UNKNOWN(" + t + ")";
         };
     }
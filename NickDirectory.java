@@ -0,0 +1,100 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+
+// Which node and session every logged-in nick in the cluster belongs to. The entry for a nick is kept by the
+// node the HashRing maps the nick to, its directory owner, and claims for one nick all go there, so two
+// nodes logging in the same nick at once cannot both win. Holders re-register their nicks with the new
+// owner whenever membership changes, and every few heartbeats anyway, so an owner that comes or goes only
+// loses entries until the next sync. Other nodes cache nick -> node from their lookups; the owner
+// broadcasts NICK_GONE when a nick is released, and entries for a node that leaves are dropped everywhere.
+final class NickDirectory {
+    static final class Holder {
+        final String node;
+        final long session;
+
+        Holder(String node, long session) {
+            this.node = node;
+            this.session = session;
+        }
+    }
+
+    // Entries for the nicks this node is directory owner of.
+    private final Map<String, Holder> claims = new ConcurrentHashMap<>();
+    // Looked-up nick -> node for nicks owned elsewhere.
+    private final Map<String, String> cache = new ConcurrentHashMap<>();
+
+    // Null if the nick is now held by node/session, otherwise the holder that got there first. A node
+    // only claims a nick it has no local session for, so its own older entry is simply replaced.
+    Holder claim(String nick, String node, long session) {
+        Holder mine = new Holder(node, session);
+        Holder[] other = {null};
+        claims.compute(nick, (n, cur) -> {
+            if (cur == null || cur.node.equals(node)) return mine;
+            other[0] = cur;
+            return cur;
+        });
+        return other[0];
+    }
+
+    // False if the nick was not held by that session, e.g. it was already released or claimed again.
+    boolean release(String nick, String node, long session) {
+        boolean[] removed = {false};
+        claims.computeIfPresent(nick, (n, cur) -> {
+            if (!cur.node.equals(node) || cur.session != session) return cur;
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
+    }
+
+    // Makes the directory's entries from node, among the nicks owned here, exactly `held` (nick -> session):
+    // the holder's periodic full report, which also clears entries whose release was lost. Returns the
+    // nicks some other node already holds.
+    List<String> sync(String node, Map<String, Long> held) {
+        claims.entrySet().removeIf(e -> e.getValue().node.equals(node) && !held.containsKey(e.getKey()));
+        List<String> conflicts = new ArrayList<>();
+        for (Map.Entry<String, Long> e : held.entrySet()) {
+            if (claim(e.getKey(), node, e.getValue()) != null) conflicts.add(e.getKey());
+        }
+        return conflicts;
+    }
+
+    Holder lookup(String nick) {
+        return claims.get(nick);
+    }
+
+    String cached(String nick) {
+        return cache.get(nick);
+    }
+
+    void cache(String nick, String node) {
+        cache.put(nick, node);
+    }
+
+    void invalidate(String nick, String node) {
+        cache.remove(nick, node);
+    }
+
+    // A node left: its sessions are gone with it.
+    void dropNode(String node) {
+        claims.values().removeIf(h -> h.node.equals(node));
+        cache.values().removeIf(node::equals);
+    }
+
+    // After a membership change, forgets the entries for nicks now owned by another node.
+    void retainOwned(Predicate<String> owned) {
+        claims.keySet().removeIf(nick -> !owned.test(nick));
+    }
+
+    int size() {
+        return claims.size();
+    }
+
+    int cacheSize() {
+        return cache.size();
+    }
+}
@@ -0,0 +1,215 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+public final class NioEventLoop implements Runnable {
+    private static final Logger logger = Logger.getLogger(NioEventLoop.class);
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_GATHER = 256;
+
+    private final ChatServer server;
+    private final Selector selector;
+    private final Thread thread;
+
+    private final Queue<ClientSession> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final Queue<ClientSession> pendingFlushes = new ConcurrentLinkedQueue<>();
+
+    // Shared by every channel on this loop; only partial frames are copied into a per-session buffer,
+    // borrowed from the pool and returned once the frame completes. A session closed mid-frame just
+    // leaves its buffer to the GC.
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final BufferPool pool = BufferPool.shared();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+
+    private volatile boolean running = true;
+
+    public NioEventLoop(ChatServer server, int index) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, "NioLoop-" + index);
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    public void register(ClientSession cs) {
+        pendingRegistrations.offer(cs);
+        selector.wakeup();
+    }
+
+    public void requestFlush(ClientSession cs) {
+        if (cs.flushScheduled.compareAndSet(false, true)) {
+            pendingFlushes.offer(cs);
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                processRegistrations();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    ClientSession cs = (ClientSession) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) read(cs);
+                        if (key.isValid() && key.isWritable()) flush(cs);
+                    } catch (CancelledKeyException e) {
+                        cs.stop("Channel closed");
+                    } catch (IOException e) {
+                        if (cs.isRunning()) {
+                            logger.warn("I/O error for %s: %s",
+                                cs.nick != null ? cs.nick : cs.socket.getRemoteSocketAddress(), e.getMessage());
+                        }
+                        cs.stop(e.getMessage());
+                    }
+                }
+
+                processFlushes();
+            }
+        } catch (IOException e) {
+            logger.error("Event loop failed", e);
+        } catch (Exception e) {
+            logger.error("Unexpected error in event loop", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                ((ClientSession) key.attachment()).stop("Server shutdown");
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private void processRegistrations() {
+        ClientSession cs;
+        while ((cs = pendingRegistrations.poll()) != null) {
+            try {
+                cs.channel.configureBlocking(false);
+                cs.selectionKey = cs.channel.register(selector, SelectionKey.OP_READ, cs);
+            } catch (IOException e) {
+                logger.warn("Error registering channel", e);
+                cs.stop("Register failed");
+            }
+        }
+    }
+
+    private void processFlushes() {
+        ClientSession cs;
+        while ((cs = pendingFlushes.poll()) != null) {
+            cs.flushScheduled.set(false);
+            if (cs.selectionKey == null || !cs.selectionKey.isValid()) continue;
+            try {
+                flush(cs);
+            } catch (CancelledKeyException e) {
+                cs.stop("Channel closed");
+            } catch (IOException e) {
+                if (cs.isRunning()) {
+                    logger.warn("Writer error for %s: %s",
+                        cs.nick != null ? cs.nick : cs.socket.getRemoteSocketAddress(), e.getMessage());
+                }
+                cs.stop(e.getMessage());
+            }
+        }
+    }
+
+    private void read(ClientSession cs) throws IOException {
+        ByteBuffer buf = cs.readBuffer;
+        if (buf == null) {
+            buf = readBuffer;
+            buf.clear();
+        }
+
+        int n = cs.channel.read(buf);
+        if (n < 0) {
+            logger.debug("EOF for %s", cs.nick != null ? cs.nick : cs.socket.getRemoteSocketAddress());
+            cs.stop("EOF");
+            return;
+        }
+
+        buf.flip();
+        Frame f;
+        while (cs.isRunning() && (f = Frame.decode(buf, pool)) != null) {
+            try {
+                cs.updateLastActivity();
+                server.onFrame(cs, f);
+            } finally {
+                f.release();
+            }
+        }
+
+        if (!buf.hasRemaining()) {
+            releaseReadBuffer(cs);
+            return;
+        }
+
+        int needed = Frame.frameLength(buf);
+        if (buf != readBuffer && buf.capacity() >= needed) {
+            buf.compact();
+        } else {
+            ByteBuffer partial = ByteBuffer.wrap(pool.acquire(Math.max(needed, buf.remaining())));
+            partial.put(buf);
+            releaseReadBuffer(cs);
+            cs.readBuffer = partial;
+        }
+    }
+
+    private void releaseReadBuffer(ClientSession cs) {
+        if (cs.readBuffer != null) {
+            pool.release(cs.readBuffer.array());
+            cs.readBuffer = null;
+        }
+    }
+
+    private void flush(ClientSession cs) throws IOException {
+        if (cs.pendingWrites != null) {
+            ByteBuffer[] pending = cs.pendingWrites;
+            cs.channel.write(pending);
+            if (pending[pending.length - 1].hasRemaining()) return;
+            cs.pendingWrites = null;
+        }
+
+        while (true) {
+            // One gathering write per batch of queued frames, bounded by the session's byte budget.
+            int n = 0;
+            long bytes = 0;
+            Frame f;
+            while (n < gather.length && (n == 0 || bytes < cs.getBatchBytes()) && (f = cs.pollOutbound()) != null) {
+                gather[n++] = f.wire();
+                bytes += f.wireSize();
+                server.recordWrite(f);
+            }
+            if (n == 0) break;
+
+            cs.channel.write(gather, 0, n);
+            server.recordFlush();
+            if (gather[n - 1].hasRemaining()) {
+                int first = 0;
+                while (!gather[first].hasRemaining()) first++;
+                cs.pendingWrites = Arrays.copyOfRange(gather, first, n);
+                Arrays.fill(gather, 0, n, null);
+                cs.selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            Arrays.fill(gather, 0, n, null);
+        }
+        cs.selectionKey.interestOps(SelectionKey.OP_READ);
+    }
+}
@@ -0,0 +1,17 @@
+public enum OverflowPolicy {
+    // Close the session as soon as its send queue is over either bound.
+    DISCONNECT,
+    // Evict the oldest queued CHAT frames to make room; control frames are never dropped.
+    DROP_OLDEST,
+    // Replace every queued CHAT frame with a "you missed N messages" notice per room they were in.
+    COLLAPSE;
+
+    public static OverflowPolicy fromString(String s) {
+        if (s == null) return DROP_OLDEST;
+        return switch (s.trim().toLowerCase()) {
+            case "disconnect" -> DISCONNECT;
+            case "collapse" -> COLLAPSE;
+            default -> DROP_OLDEST;
+        };
+    }
+}
@@ -0,0 +1,94 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+// Flood control in front of ChatServer.onFrame. Each frame type that makes the server do work beyond its
+// own reply belongs to one of four classes, and every session has a token bucket per class refilling at
+// `rate` frames per second up to `burst`. A fifth bucket counts rejected frames ("strikes"), forgiving one
+// per second; a session that empties it is disconnected.
+//
+// A bucket is one long in the session's own AtomicLongArray, in the GCRA form of a token bucket: the
+// instant (System.nanoTime) at which the bucket would be full again. A frame is allowed if that instant
+// is at most (burst - 1) intervals away, and pushes it one interval further with a single CAS. No lock,
+// no shared state: two sessions never touch the same memory, and the configuration is immutable.
+final class RateLimiter {
+    static final int CHAT = 0;
+    static final int WHISPER = 1;
+    static final int QUERY = 2;
+    static final int ADMIN = 3;
+    private static final int STRIKES = 4;
+    private static final String[] NAMES = {"chat", "whisper", "query", "admin"};
+
+    // Per bucket: nanos per token, 0 for unlimited, and how far ahead of now the full-again instant may be.
+    private final long[] interval = new long[STRIKES + 1];
+    private final long[] tolerance = new long[STRIKES + 1];
+
+    RateLimiter(ServerConfig config) {
+        set(CHAT, config.getRateChatPerSec(), config.getRateChatBurst());
+        set(WHISPER, config.getRateWhisperPerSec(), config.getRateWhisperBurst());
+        set(QUERY, config.getRateQueryPerSec(), config.getRateQueryBurst());
+        set(ADMIN, config.getRateAdminPerSec(), config.getRateAdminBurst());
+        set(STRIKES, 1, config.getRateLimitStrikes());
+    }
+
+    private void set(int bucket, int perSecond, int burst) {
+        if (perSecond <= 0 || burst <= 0) return;
+        interval[bucket] = TimeUnit.SECONDS.toNanos(1) / perSecond;
+        tolerance[bucket] = (burst - 1) * interval[bucket];
+    }
+
+    // The class a frame type is limited under, or -1 if it is never limited (HELLO, PING, LOGOUT: cheap,
+    // and needed to keep a connection alive or end it).
+    static int classOf(byte type) {
+        return switch (type) {
+            // Everything fanned out to a room.
+            case MsgType.CHAT, MsgType.MSG_EDIT, MsgType.MSG_DELETE, MsgType.JOIN, MsgType.LEAVE -> CHAT;
+            case MsgType.WHISPER -> WHISPER;
+            case MsgType.MSG_SEARCH, MsgType.CHAT_HISTORY, MsgType.ROOM_LIST, MsgType.ROOM_INFO,
+                 MsgType.USER_LIST, MsgType.USER_INFO, MsgType.FRIEND_LIST, MsgType.STATS_REQUEST -> QUERY;
+            case MsgType.LOGIN, MsgType.RESUME, MsgType.ROOM_CREATE, MsgType.ROOM_DELETE,
+                 MsgType.ROOM_SET_PASSWORD, MsgType.ROOM_SET_DESCRIPTION, MsgType.ROOM_SET_ADMIN,
+                 MsgType.ROOM_SET_LIMIT, MsgType.MSG_BOOKMARK, MsgType.USER_BLOCK, MsgType.USER_UNBLOCK,
+                 MsgType.FRIEND_ADD, MsgType.FRIEND_REMOVE -> ADMIN;
+            default -> -1;
+        };
+    }
+
+    static String name(int cls) {
+        return NAMES[cls];
+    }
+
+    // Bucket state for a new session: every bucket full.
+    static AtomicLongArray newBuckets() {
+        AtomicLongArray buckets = new AtomicLongArray(STRIKES + 1);
+        for (int i = 0; i <= STRIKES; i++) buckets.set(i, Long.MIN_VALUE);
+        return buckets;
+    }
+
+    // Takes a token from the class's bucket: 0 if the frame may go ahead, else nanos until one is there.
+    long acquire(AtomicLongArray buckets, int cls, long now) {
+        return take(buckets, cls, now);
+    }
+
+    // Records a rejected frame; true once the session has run out of strikes.
+    boolean strike(AtomicLongArray buckets, long now) {
+        return take(buckets, STRIKES, now) > 0;
+    }
+
+    private long take(AtomicLongArray buckets, int bucket, long now) {
+        return take(buckets, bucket, interval[bucket], tolerance[bucket], now);
+    }
+
+    // One GCRA step on buckets[bucket]: 0 and a token taken, or nanos until one is there. An interval of 0
+    // is unlimited.
+    static long take(AtomicLongArray buckets, int bucket, long interval, long tolerance, long now) {
+        if (interval == 0) return 0;
+        while (true) {
+            long full = buckets.get(bucket);
+            long from = Math.max(full, now);
+            long ahead = from - now;
+            if (ahead > tolerance) return ahead - tolerance;
+            if (buckets.compareAndSet(bucket, full, from + interval)) return 0;
+        }
+    }
+}
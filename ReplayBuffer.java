@@ -0,0 +1,48 @@
+import java.util.ArrayList;
+import java.util.List;
+
+
+// The last `capacity` frames a resumable session took off its send queue, numbered 1, 2, ... from the
+// frame after its LOGIN_OK, or continuing from the client's count after a RESUME_OK. The client numbers
+// the frames it reads the same way, so on RESUME it only has to say how many it got. Written and read
+// under the owning SendQueue's lock.
+final class ReplayBuffer {
+    private final Frame[] ring;
+    // Nothing is numbered until a frame of this type goes by.
+    private final byte startType;
+    private boolean started;
+    // Number of the newest frame recorded.
+    private long last;
+
+    ReplayBuffer(int capacity, byte startType, long base) {
+        this.ring = new Frame[Math.max(1, capacity)];
+        this.startType = startType;
+        this.last = base;
+    }
+
+    void record(Frame f) {
+        // Type 0 is the writer's stop marker, never sent.
+        if (f.type == 0) return;
+        if (!started) {
+            started = f.type == startType;
+            return;
+        }
+        last++;
+        ring[(int) (last % ring.length)] = f;
+    }
+
+    long last() {
+        return last;
+    }
+
+    // The frames after the first `received`, oldest first; null if the client claims more than was sent or
+    // some of the frames it missed have already been overwritten.
+    List<Frame> since(long received) {
+        if (received < 0 || received > last || last - received > ring.length) return null;
+        List<Frame> missed = new ArrayList<>((int) (last - received));
+        for (long n = received + 1; n <= last; n++) {
+            missed.add(ring[(int) (n % ring.length)]);
+        }
+        return missed;
+    }
+}
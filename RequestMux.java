@@ -0,0 +1,93 @@
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+
+// Client-side request/response matching. Each request goes out with a fresh seq, the server echoes that seq
+// in every frame of its reply, and the reader thread passes each inbound frame to dispatch(), which completes
+// the future waiting on it. Any number of requests may be in flight, each with its own timeout. Frames no
+// request is waiting for (pushes, replies to fire-and-forget sends) are left to the caller.
+public final class RequestMux {
+    public interface Sender {
+        void send(Frame f) throws IOException;
+    }
+
+    private static final class Pending {
+        final CompletableFuture<Frame> future = new CompletableFuture<>();
+        // Gets the FLAG_CONTINUED frames of a multi-frame reply, in order, on the reader thread; may be null.
+        final Consumer<Frame> parts;
+
+        Pending(Consumer<Frame> parts) {
+            this.parts = parts;
+        }
+    }
+
+    private final Sender sender;
+    private final Map<Integer, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger seq = new AtomicInteger();
+
+    public RequestMux(Sender sender) {
+        this.sender = sender;
+    }
+
+    // Always positive, so a seq never collides with the 0 carried by server pushes.
+    public int nextSeq() {
+        return seq.updateAndGet(s -> s == Integer.MAX_VALUE ? 1 : s + 1);
+    }
+
+    public CompletableFuture<Frame> request(byte type, Map<String, String> kv, long timeoutMillis) {
+        return request(type, kv, timeoutMillis, null);
+    }
+
+    // Completes with the final frame of the reply, which may be an ERROR, or exceptionally with a
+    // TimeoutException or the send/connection failure. Callbacks chained on the future run on the reader thread.
+    public CompletableFuture<Frame> request(byte type, Map<String, String> kv, long timeoutMillis,
+                                           Consumer<Frame> parts) {
+        int s = nextSeq();
+        Pending p = new Pending(parts);
+        // Registered before the write so a fast reply cannot arrive unmatched.
+        pending.put(s, p);
+        p.future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((f, e) -> pending.remove(s, p));
+        try {
+            sender.send(Frame.ofText(type, s, Kvp.encode(kv)));
+        } catch (IOException e) {
+            p.future.completeExceptionally(e);
+        }
+        return p.future;
+    }
+
+    // Returns false if no request is waiting for f.
+    public boolean dispatch(Frame f) {
+        if (f.seq == 0) return false;
+        Pending p = pending.get(f.seq);
+        if (p == null) return false;
+        if (f.isContinued()) {
+            if (p.parts != null) p.parts.accept(f);
+            return true;
+        }
+        pending.remove(f.seq, p);
+        p.future.complete(f);
+        return true;
+    }
+
+    public void failAll(Throwable cause) {
+        for (Pending p : pending.values()) {
+            p.future.completeExceptionally(cause);
+        }
+        pending.clear();
+    }
+
+    // Blocks for the reply; null if the request timed out or the connection failed.
+    public static Frame await(CompletableFuture<Frame> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+}
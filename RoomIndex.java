@@ -0,0 +1,190 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+// Room -> subscribed sessions, each room a copy-on-write array in the slot for its Interner.ROOMS id. A
+// fan-out is an id lookup, two array reads and a plain loop over the array it got, with no lock and no
+// iterator; joins and leaves CAS a new array into the slot, so they retry against each other per room but
+// never wait for, or disturb, a broadcast in progress (which keeps the array it started with). An array
+// also costs a reference per member where a concurrent set costs a node each. Copying is O(room size) per
+// join or leave, which is fine for rooms capped at maxRoomSize and tolerable for the lobby. Only a room
+// coming into or going out of existence takes the lock, to keep the set of live rooms in step.
+final class RoomIndex {
+    private static final ClientSession[] EMPTY = new ClientSession[0];
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    // Slots come in chunks allocated on first use that never move, so a CAS into a slot cannot be lost to
+    // a resize. The table of chunks doubles under the lock as room ids grow past it.
+    private volatile AtomicReferenceArray<AtomicReferenceArray<ClientSession[]>> chunks =
+            new AtomicReferenceArray<>(16);
+    private final AtomicInteger count = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    // Names of the rooms that exist, so listings need not walk every id the Interner ever handed out.
+    private final Set<String> live = new HashSet<>();
+
+    // A snapshot; never null, empty if the room does not exist.
+    ClientSession[] members(String room) {
+        ClientSession[] m = get(Interner.ROOMS.find(room));
+        return m != null ? m : EMPTY;
+    }
+
+    boolean exists(String room) {
+        return get(Interner.ROOMS.find(room)) != null;
+    }
+
+    int size(String room) {
+        return members(room).length;
+    }
+
+    boolean contains(String room, ClientSession cs) {
+        for (ClientSession m : members(room)) {
+            if (m == cs) return true;
+        }
+        return false;
+    }
+
+    List<String> names() {
+        lock.lock();
+        try {
+            return new ArrayList<>(live);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int roomCount() {
+        return count.get();
+    }
+
+    // Creates an empty room; false if it already exists.
+    boolean create(String room) {
+        int id = Interner.ROOMS.id(room);
+        return transition(room, chunk(id), slot(id), null, EMPTY);
+    }
+
+    // Creates the room if needed.
+    void add(String room, ClientSession cs) {
+        int id = Interner.ROOMS.id(room);
+        AtomicReferenceArray<ClientSession[]> chunk = chunk(id);
+        int slot = slot(id);
+        while (true) {
+            ClientSession[] cur = chunk.get(slot);
+            ClientSession[] next;
+            if (cur == null) {
+                next = new ClientSession[] {cs};
+            } else {
+                for (ClientSession m : cur) {
+                    if (m == cs) return;
+                }
+                next = new ClientSession[cur.length + 1];
+                System.arraycopy(cur, 0, next, 0, cur.length);
+                next[cur.length] = cs;
+            }
+            if (cur == null ? transition(room, chunk, slot, null, next) : chunk.compareAndSet(slot, cur, next)) return;
+        }
+    }
+
+    // Returns true if that left the room empty, in which case the room is gone.
+    boolean remove(String room, ClientSession cs) {
+        int id = Interner.ROOMS.find(room);
+        if (get(id) == null) return false;
+        AtomicReferenceArray<ClientSession[]> chunk = chunk(id);
+        int slot = slot(id);
+        while (true) {
+            ClientSession[] cur = chunk.get(slot);
+            if (cur == null) return false;
+            int i = 0;
+            while (i < cur.length && cur[i] != cs) i++;
+            if (i == cur.length) return false;
+            ClientSession[] next = null;
+            if (cur.length > 1) {
+                next = new ClientSession[cur.length - 1];
+                System.arraycopy(cur, 0, next, 0, i);
+                System.arraycopy(cur, i + 1, next, i, cur.length - i - 1);
+            }
+            if (next != null) {
+                if (chunk.compareAndSet(slot, cur, next)) return false;
+            } else if (transition(room, chunk, slot, cur, null)) {
+                return true;
+            }
+        }
+    }
+
+    // Drops the room and returns whoever was in it.
+    ClientSession[] removeRoom(String room) {
+        int id = Interner.ROOMS.find(room);
+        if (get(id) == null) return EMPTY;
+        lock.lock();
+        try {
+            ClientSession[] m = chunk(id).getAndSet(slot(id), null);
+            if (m == null) return EMPTY;
+            live.remove(room);
+            count.decrementAndGet();
+            return m;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A CAS that creates or drops the room, made under the lock so `live` and `count` follow it.
+    private boolean transition(String room, AtomicReferenceArray<ClientSession[]> chunk, int slot,
+                               ClientSession[] cur, ClientSession[] next) {
+        lock.lock();
+        try {
+            if (!chunk.compareAndSet(slot, cur, next)) return false;
+            if (next == null) {
+                live.remove(room);
+                count.decrementAndGet();
+            } else {
+                live.add(room);
+                count.incrementAndGet();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ClientSession[] get(int id) {
+        if (id < 0) return null;
+        AtomicReferenceArray<AtomicReferenceArray<ClientSession[]>> table = chunks;
+        int c = id >>> CHUNK_BITS;
+        AtomicReferenceArray<ClientSession[]> chunk = c < table.length() ? table.get(c) : null;
+        return chunk != null ? chunk.get(id & CHUNK_MASK) : null;
+    }
+
+    private AtomicReferenceArray<ClientSession[]> chunk(int id) {
+        int c = id >>> CHUNK_BITS;
+        AtomicReferenceArray<AtomicReferenceArray<ClientSession[]>> table = chunks;
+        AtomicReferenceArray<ClientSession[]> chunk = c < table.length() ? table.get(c) : null;
+        if (chunk != null) return chunk;
+        lock.lock();
+        try {
+            table = chunks;
+            if (c >= table.length()) {
+                AtomicReferenceArray<AtomicReferenceArray<ClientSession[]>> bigger =
+                        new AtomicReferenceArray<>(Math.max(c + 1, table.length() * 2));
+                for (int i = 0; i < table.length(); i++) bigger.set(i, table.get(i));
+                chunks = table = bigger;
+            }
+            chunk = table.get(c);
+            if (chunk == null) {
+                chunk = new AtomicReferenceArray<>(1 << CHUNK_BITS);
+                table.set(c, chunk);
+            }
+            return chunk;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int slot(int id) {
+        return id & CHUNK_MASK;
+    }
+}
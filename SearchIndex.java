@@ -0,0 +1,382 @@
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+
+
+// Inverted index over the entries a MessageHistory currently holds. Terms are lower-cased words for
+// Latin/digit runs and, for Hangul runs, every character bigram plus the run's last character, so any
+// Hangul substring can be found without a dictionary. Each entry is also indexed under "@" + sender.
+// Postings are sorted arrays of (seq << 8 | term frequency); entries are removed again when the ring
+// overwrites them.
+//
+// Query syntax: words, Hangul fragments and an optional from:<nick>. Every word must match as a prefix
+// of some indexed word, every Hangul fragment must appear verbatim; hits are ranked by tf-idf, newest first
+// on ties.
+public final class SearchIndex {
+    private static final String FROM_PREFIX = "@";
+
+    private final HashMap<String, Postings> terms = new HashMap<>();
+    // Sorted view of the term set, only touched when a term appears or disappears; serves prefix queries.
+    private final TreeSet<String> vocabulary = new TreeSet<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongFunction<MessageHistory.HistoryEntry> entries;
+    private int docs;
+
+    public static final class Result {
+        public final List<MessageHistory.HistoryEntry> hits;
+        public final int total;
+
+        Result(List<MessageHistory.HistoryEntry> hits, int total) {
+            this.hits = hits;
+            this.total = total;
+        }
+    }
+
+    // entries resolves a seq to the entry still held for it, or null once it has been overwritten.
+    public SearchIndex(LongFunction<MessageHistory.HistoryEntry> entries) {
+        this.entries = entries;
+    }
+
+    // Indexes added; store puts it into its ring slot and returns the entry it overwrote, which is dropped
+    // from the index. Both happen under the write lock so the index never trails the ring's slot order.
+    // likelyEvicted is the slot's current entry, tokenized up front so the lock is held only for postings.
+    public void update(MessageHistory.HistoryEntry added, MessageHistory.HistoryEntry likelyEvicted,
+                       Supplier<MessageHistory.HistoryEntry> store) {
+        Map<String, Integer> addTerms = termsOf(added);
+        Map<String, Integer> evictTerms = (likelyEvicted != null) ? termsOf(likelyEvicted) : null;
+
+        lock.writeLock().lock();
+        try {
+            MessageHistory.HistoryEntry evicted = store.get();
+            if (evicted != null) {
+                unindex(evicted.seq, (evicted != likelyEvicted) ? termsOf(evicted) : evictTerms);
+            }
+            for (Map.Entry<String, Integer> e : addTerms.entrySet()) {
+                Postings p = terms.get(e.getKey());
+                if (p == null) {
+                    p = new Postings();
+                    terms.put(e.getKey(), p);
+                    vocabulary.add(e.getKey());
+                }
+                p.add(added.seq, e.getValue());
+            }
+            docs++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Drops an entry that left the ring without its slot being reused, e.g. to make room in a full
+    // HistoryArena. Called with the write lock held when that happens inside update's store.
+    public void remove(MessageHistory.HistoryEntry e) {
+        Map<String, Integer> t = termsOf(e);
+        lock.writeLock().lock();
+        try {
+            unindex(e.seq, t);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void unindex(long seq, Map<String, Integer> t) {
+        for (String term : t.keySet()) {
+            Postings p = terms.get(term);
+            if (p != null && p.remove(seq) && p.isEmpty()) {
+                terms.remove(term);
+                vocabulary.remove(term);
+            }
+        }
+        docs--;
+    }
+
+    public void clear(Runnable wipe) {
+        lock.writeLock().lock();
+        try {
+            wipe.run();
+            terms.clear();
+            vocabulary.clear();
+            docs = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int termCount() {
+        lock.readLock().lock();
+        try {
+            return terms.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Result search(String query, int limit) {
+        String from = null;
+        List<String> words = new ArrayList<>();
+        List<String> hangul = new ArrayList<>();
+        for (String part : query.trim().split("\\s+")) {
+            if (part.regionMatches(true, 0, "from:", 0, 5)) {
+                if (part.length() > 5) from = part.substring(5).toLowerCase(Locale.ROOT);
+            } else {
+                split(part.toLowerCase(Locale.ROOT), words, hangul);
+            }
+        }
+
+        lock.readLock().lock();
+        long[] hits;
+        double[] weights = new double[words.size() + hangul.size()];
+        try {
+            List<long[]> units = new ArrayList<>();
+            for (String w : words) units.add(prefix(w));
+            for (String h : hangul) units.add(fragment(h));
+            for (int i = 0; i < units.size(); i++) {
+                weights[i] = Math.log(1 + (double) docs / Math.max(1, units.get(i).length));
+            }
+
+            if (from != null) {
+                Postings p = terms.get(FROM_PREFIX + from);
+                units.add(p == null ? new long[0] : p.toArray());
+            }
+            if (units.isEmpty()) return new Result(new ArrayList<>(), 0);
+
+            hits = intersect(units, weights);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // Min-heap of the best limit hits by (score, seq); drained backwards into best-first order.
+        PriorityQueue<long[]> top = new PriorityQueue<>(Math.max(1, limit), (a, b) ->
+            a[1] != b[1] ? Long.compare(a[1], b[1]) : Long.compare(a[0], b[0]));
+        int total = 0;
+        for (int i = 0; i < hits.length; i += 2) {
+            MessageHistory.HistoryEntry e = entries.apply(hits[i]);
+            if (e == null || !containsAll(e.message, e.from(), hangul)) continue;
+            total++;
+            top.offer(new long[] {hits[i], hits[i + 1]});
+            if (top.size() > limit) top.poll();
+        }
+
+        MessageHistory.HistoryEntry[] ranked = new MessageHistory.HistoryEntry[top.size()];
+        for (int i = ranked.length - 1; i >= 0; i--) {
+            ranked[i] = entries.apply(top.poll()[0]);
+        }
+        List<MessageHistory.HistoryEntry> result = new ArrayList<>(ranked.length);
+        for (MessageHistory.HistoryEntry e : ranked) {
+            if (e != null) result.add(e);
+        }
+        return new Result(result, total);
+    }
+
+    // Union of the postings of every term starting with word, tf summed per seq.
+    private long[] prefix(String word) {
+        SortedSet<String> range = vocabulary.subSet(word, word + Character.MAX_VALUE);
+        if (range.size() == 1) return terms.get(range.first()).toArray();
+
+        int n = 0;
+        for (String t : range) n += terms.get(t).size();
+        long[] all = new long[n];
+        int i = 0;
+        for (String t : range) i = terms.get(t).copyTo(all, i);
+        Arrays.sort(all);
+        return mergeSameSeq(all);
+    }
+
+    // Entries holding every bigram of a Hangul fragment; a one-character fragment matches as a prefix.
+    private long[] fragment(String h) {
+        if (h.length() == 1) return prefix(h);
+        List<long[]> grams = new ArrayList<>();
+        for (int i = 0; i + 1 < h.length(); i++) {
+            Postings p = terms.get(h.substring(i, i + 2));
+            if (p == null) return new long[0];
+            grams.add(p.toArray());
+        }
+        long[] pairs = intersect(grams, new double[grams.size()]);
+        long[] out = new long[pairs.length / 2];
+        for (int i = 0; i < out.length; i++) out[i] = pairs[2 * i] << 8 | 1;
+        return out;
+    }
+
+    // Returns (seq, score) pairs for seqs present in every unit; score is scaled tf-idf.
+    private static long[] intersect(List<long[]> units, double[] weights) {
+        Integer[] order = new Integer[units.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingInt(i -> units.get(i).length));
+
+        long[] first = units.get(order[0]);
+        long[] seqs = new long[first.length];
+        double[] scores = new double[first.length];
+        int n = 0;
+        for (long p : first) {
+            seqs[n] = p >>> 8;
+            scores[n++] = weight(weights, order[0]) * (p & 0xFF);
+        }
+
+        for (int u = 1; u < order.length && n > 0; u++) {
+            long[] other = units.get(order[u]);
+            double w = weight(weights, order[u]);
+            int kept = 0;
+            int j = 0;
+            for (int i = 0; i < n; i++) {
+                long seq = seqs[i];
+                j = lowerBound(other, j, other.length, seq);
+                if (j < other.length && other[j] >>> 8 == seq) {
+                    seqs[kept] = seq;
+                    scores[kept++] = scores[i] + w * (other[j] & 0xFF);
+                }
+            }
+            n = kept;
+        }
+
+        long[] out = new long[2 * n];
+        for (int i = 0; i < n; i++) {
+            out[2 * i] = seqs[i];
+            out[2 * i + 1] = (long) (scores[i] * 1000);
+        }
+        return out;
+    }
+
+    private static double weight(double[] weights, int unit) {
+        return unit < weights.length ? weights[unit] : 0;
+    }
+
+    // First index in [from, to) whose seq is >= seq; gallops first, since callers walk forward.
+    private static int lowerBound(long[] a, int from, int to, long seq) {
+        int step = 1;
+        int hi = from;
+        while (hi < to && a[hi] >>> 8 < seq) {
+            from = hi + 1;
+            hi += step;
+            step <<= 1;
+        }
+        hi = Math.min(hi, to);
+        while (from < hi) {
+            int mid = (from + hi) >>> 1;
+            if (a[mid] >>> 8 < seq) from = mid + 1; else hi = mid;
+        }
+        return from;
+    }
+
+    private static long[] mergeSameSeq(long[] sorted) {
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (n > 0 && sorted[n - 1] >>> 8 == sorted[i] >>> 8) {
+                long tf = Math.min(255, (sorted[n - 1] & 0xFF) + (sorted[i] & 0xFF));
+                sorted[n - 1] = (sorted[n - 1] & ~0xFFL) | tf;
+            } else {
+                sorted[n++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, n);
+    }
+
+    // Bigrams only prove the characters occur pairwise, so each Hangul fragment is checked verbatim.
+    private static boolean containsAll(String message, String from, List<String> hangul) {
+        for (String h : hangul) {
+            if (!message.contains(h) && !from.contains(h)) return false;
+        }
+        return true;
+    }
+
+    private static Map<String, Integer> termsOf(MessageHistory.HistoryEntry e) {
+        Map<String, Integer> out = new HashMap<>();
+        tokenize(e.message.toLowerCase(Locale.ROOT), out);
+        String from = e.from().toLowerCase(Locale.ROOT);
+        tokenize(from, out);
+        out.merge(FROM_PREFIX + from, 1, Integer::sum);
+        return out;
+    }
+
+    private static void tokenize(String text, Map<String, Integer> out) {
+        List<String> words = new ArrayList<>();
+        List<String> hangul = new ArrayList<>();
+        split(text, words, hangul);
+        for (String w : words) out.merge(w, 1, Integer::sum);
+        for (String h : hangul) {
+            for (int i = 0; i + 1 < h.length(); i++) {
+                out.merge(h.substring(i, i + 2), 1, Integer::sum);
+            }
+            out.merge(h.substring(h.length() - 1), 1, Integer::sum);
+        }
+    }
+
+    // Splits lower-cased text into Latin/digit words and Hangul runs; everything else separates them.
+    private static void split(String text, List<String> words, List<String> hangul) {
+        int start = -1;
+        boolean inHangul = false;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = (i < text.length()) ? text.charAt(i) : ' ';
+            boolean h = isHangul(c);
+            boolean word = !h && Character.isLetterOrDigit(c);
+            if (start >= 0 && (!(h || word) || h != inHangul)) {
+                (inHangul ? hangul : words).add(text.substring(start, i));
+                start = -1;
+            }
+            if (start < 0 && (h || word)) {
+                start = i;
+                inHangul = h;
+            }
+        }
+    }
+
+    private static boolean isHangul(char c) {
+        return (c >= 0xAC00 && c <= 0xD7A3) || (c >= 0x1100 && c <= 0x11FF) || (c >= 0x3130 && c <= 0x318F);
+    }
+
+    // Sorted (seq << 8 | tf) values; removals come almost always from the front as the ring wraps.
+    private static final class Postings {
+        private long[] data = new long[4];
+        private int head;
+        private int end;
+
+        void add(long seq, int tf) {
+            long v = seq << 8 | Math.min(tf, 255);
+            if (end == data.length) grow();
+            int i = end;
+            while (i > head && data[i - 1] >>> 8 > seq) {
+                data[i] = data[i - 1];
+                i--;
+            }
+            data[i] = v;
+            end++;
+        }
+
+        boolean remove(long seq) {
+            int i = lowerBound(data, head, end, seq);
+            if (i >= end || data[i] >>> 8 != seq) return false;
+            if (i == head) {
+                head++;
+            } else {
+                System.arraycopy(data, i + 1, data, i, end - i - 1);
+                end--;
+            }
+            return true;
+        }
+
+        boolean isEmpty() {
+            return head == end;
+        }
+
+        int size() {
+            return end - head;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOfRange(data, head, end);
+        }
+
+        int copyTo(long[] dst, int at) {
+            System.arraycopy(data, head, dst, at, end - head);
+            return at + end - head;
+        }
+
+        private void grow() {
+            int live = end - head;
+            long[] next = (live * 2 <= data.length) ? data : new long[data.length * 2];
+            System.arraycopy(data, head, next, 0, live);
+            data = next;
+            head = 0;
+            end = live;
+        }
+    }
+}
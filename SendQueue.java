@@ -0,0 +1,261 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+
+
+// Per-session outbound queue bounded by frame count and bytes. What happens when a frame does not
+// fit is decided by the OverflowPolicy; only CHAT frames are ever dropped or collapsed. COLLAPSE counts
+// what it drops per room and queues one notice for each room, where that room's first drop was.
+public final class SendQueue {
+    // MOVED: the session was resumed on another connection; send the frame there instead.
+    public enum Result { ACCEPTED, DROPPED, OVERFLOW, MOVED }
+
+    // Stand-in for one room's collapse notice; the real frame is built on dequeue so it carries the final count.
+    private static final class Marker {
+        final String room;
+        final Frame frame = new Frame(MsgType.CHAT, (short) 0, 0, new byte[0]);
+        int missed;
+
+        Marker(String room) {
+            this.room = room;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    private long bytes;
+    // Markers still queued, by room and by their stand-in frame.
+    private final Map<String, Marker> pending = new HashMap<>();
+    private final Map<Frame, Marker> markers = new IdentityHashMap<>();
+    // Set for resumable sessions; every dequeued frame is recorded in it.
+    private ReplayBuffer journal;
+    private boolean moved;
+
+    private final int maxFrames;
+    private final long maxBytes;
+    private final OverflowPolicy policy;
+    private final BiFunction<String, Integer, Frame> missedNotice;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong collapsed = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+    private volatile int highWater;
+
+    public SendQueue(int maxFrames, long maxBytes, OverflowPolicy policy,
+                     BiFunction<String, Integer, Frame> missedNotice) {
+        this.maxFrames = maxFrames;
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+        this.missedNotice = missedNotice;
+    }
+
+    public Result offer(Frame f) {
+        lock.lock();
+        try {
+            if (moved) return Result.MOVED;
+            if (fits(f)) {
+                enqueue(f);
+                return Result.ACCEPTED;
+            }
+
+            overflows.incrementAndGet();
+            switch (policy) {
+                case DROP_OLDEST -> {
+                    Iterator<Frame> it = frames.iterator();
+                    while (!fits(f) && it.hasNext()) {
+                        Frame old = it.next();
+                        if (old.type == MsgType.CHAT && !markers.containsKey(old)) {
+                            it.remove();
+                            bytes -= old.wireSize();
+                            dropped.incrementAndGet();
+                        }
+                    }
+                    if (!fits(f)) {
+                        if (f.type != MsgType.CHAT) return Result.OVERFLOW;
+                        dropped.incrementAndGet();
+                        return Result.DROPPED;
+                    }
+                    enqueue(f);
+                    return Result.ACCEPTED;
+                }
+                case COLLAPSE -> {
+                    Iterator<Frame> it = frames.iterator();
+                    List<Frame> lost = new ArrayList<>();
+                    while (it.hasNext()) {
+                        Frame old = it.next();
+                        if (old.type == MsgType.CHAT && !markers.containsKey(old)) {
+                            it.remove();
+                            bytes -= old.wireSize();
+                            lost.add(old);
+                        }
+                    }
+                    boolean chat = f.type == MsgType.CHAT;
+                    if (chat) lost.add(f);
+                    // Counted after the scan, so new markers go to the back rather than into the iteration.
+                    for (Frame old : lost) {
+                        missedIn(roomOf(old));
+                    }
+                    collapsed.addAndGet(lost.size());
+
+                    if (chat) return Result.DROPPED;
+                    if (!fits(f)) return Result.OVERFLOW;
+                    enqueue(f);
+                    return Result.ACCEPTED;
+                }
+                default -> {
+                    return Result.OVERFLOW;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Bypasses the bounds; used for the writer's stop marker.
+    public void offerControl(Frame f) {
+        lock.lock();
+        try {
+            enqueue(f);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void startJournal(ReplayBuffer journal) {
+        lock.lock();
+        try {
+            this.journal = journal;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Runs everything still queued through the journal, then asks successor to take over from it. If it
+    // agrees, offers return MOVED from then on. All of this holds the lock, so no frame can be queued
+    // between the last replayed frame and the hand-off. Control frames stay behind for the old writer.
+    public boolean handOff(Predicate<ReplayBuffer> successor) {
+        lock.lock();
+        try {
+            ArrayDeque<Frame> control = new ArrayDeque<>();
+            while (!frames.isEmpty()) {
+                Frame f = dequeue();
+                if (f.type == 0) control.add(f);
+            }
+            for (Frame f : control) enqueue(f);
+            if (journal == null || !successor.test(journal)) return false;
+            moved = true;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Frame take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (frames.isEmpty()) notEmpty.await();
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Frame poll() {
+        lock.lock();
+        try {
+            return frames.isEmpty() ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Frame poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (frames.isEmpty()) {
+                if (nanos <= 0) return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return frames.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long bytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDropped() { return dropped.get(); }
+    public long getCollapsed() { return collapsed.get(); }
+    public long getOverflows() { return overflows.get(); }
+    public int getHighWater() { return highWater; }
+
+    private boolean fits(Frame f) {
+        return frames.size() < maxFrames && bytes + f.wireSize() <= maxBytes;
+    }
+
+    private void enqueue(Frame f) {
+        frames.addLast(f);
+        bytes += f.wireSize();
+        if (frames.size() > highWater) highWater = frames.size();
+        notEmpty.signal();
+    }
+
+    private void missedIn(String room) {
+        Marker m = pending.get(room);
+        if (m == null) {
+            m = new Marker(room);
+            pending.put(room, m);
+            markers.put(m.frame, m);
+            enqueue(m.frame);
+        }
+        m.missed++;
+    }
+
+    private static String roomOf(Frame f) {
+        try {
+            return Kvp.decode(f).getOrDefault("room", "");
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    private Frame dequeue() {
+        Frame f = frames.pollFirst();
+        bytes -= f.wireSize();
+        Marker m = markers.remove(f);
+        if (m != null) {
+            pending.remove(m.room);
+            f = missedNotice.apply(m.room, m.missed);
+        }
+        if (journal != null) journal.record(f);
+        return f;
+    }
+}
@@ -10,15 +10,60 @@ public final class ServerConfig {
     private static final int DEFAULT_PORT = 5555;
     private static final int DEFAULT_MAX_CLIENTS = 1000;
     private static final int DEFAULT_MAX_ROOM_SIZE = 100;
+    private static final int DEFAULT_MAX_ROOMS_PER_SESSION = 16;
     private static final int DEFAULT_HEARTBEAT_INTERVAL = 30; 
     private static final int DEFAULT_MESSAGE_HISTORY_SIZE = 100;
     private static final int DEFAULT_MAX_MESSAGE_LENGTH = 1000;
     private static final int DEFAULT_MAX_NICK_LENGTH = 16;
     private static final int DEFAULT_MIN_NICK_LENGTH = 2;
+    private static final String DEFAULT_TRANSPORT = "blocking";
+    private static final int DEFAULT_IO_THREADS = 0;
+    private static final String DEFAULT_THREAD_MODE = "platform";
+    private static final int DEFAULT_WRITE_BATCH_BYTES = 8192;
+    private static final int DEFAULT_WRITE_BATCH_DELAY_MICROS = 0;
+    private static final int DEFAULT_SEND_QUEUE_MAX_FRAMES = 1000;
+    private static final long DEFAULT_SEND_QUEUE_MAX_BYTES = 1_000_000;
+    private static final String DEFAULT_HISTORY_DIR = "history";
+    private static final int DEFAULT_HISTORY_SYNC_INTERVAL_MS = 1000;
+    private static final int DEFAULT_HISTORY_SEGMENT_BYTES = 16 * 1024 * 1024;
+    private static final long DEFAULT_HISTORY_RETENTION_BYTES = 256L * 1024 * 1024;
+    private static final int DEFAULT_HISTORY_RETENTION_HOURS = 24 * 7;
+    private static final int DEFAULT_HISTORY_MAX_PAGE = 200;
+    private static final int DEFAULT_HISTORY_OPEN_LOGS = 64;
+    private static final int DEFAULT_HISTORY_ARENA_MB = 0;
+    private static final int DEFAULT_TIMER_TICK_MS = 100;
+    private static final String DEFAULT_LOG_LEVEL = "info";
+    private static final String DEFAULT_LOG_MODE = "sync";
+    private static final long DEFAULT_LOG_MAX_BYTES = 10L * 1024 * 1024;
+    private static final int DEFAULT_LOG_MAX_FILES = 5;
+    private static final int DEFAULT_LOG_QUEUE_SIZE = 8192;
+    private static final int DEFAULT_ADMIN_PORT = 0;
+    private static final String DEFAULT_ADMIN_BIND_ADDRESS = "127.0.0.1";
+    private static final int DEFAULT_RESUME_GRACE_SECONDS = 30;
+    private static final int DEFAULT_RESUME_BUFFER_FRAMES = 256;
+    private static final int DEFAULT_CLUSTER_PORT = 0;
+    private static final String DEFAULT_CLUSTER_HOST = "127.0.0.1";
+    private static final int DEFAULT_CLUSTER_HEARTBEAT_MS = 1000;
+    private static final int DEFAULT_RATE_CHAT_PER_SEC = 5;
+    private static final int DEFAULT_RATE_CHAT_BURST = 10;
+    private static final int DEFAULT_RATE_WHISPER_PER_SEC = 2;
+    private static final int DEFAULT_RATE_WHISPER_BURST = 5;
+    private static final int DEFAULT_RATE_QUERY_PER_SEC = 2;
+    private static final int DEFAULT_RATE_QUERY_BURST = 10;
+    private static final int DEFAULT_RATE_ADMIN_PER_SEC = 1;
+    private static final int DEFAULT_RATE_ADMIN_BURST = 5;
+    private static final int DEFAULT_RATE_LIMIT_STRIKES = 20;
+    private static final int DEFAULT_ACCEPT_BACKLOG = 1024;
+    private static final int DEFAULT_ACCEPT_RATE_PER_SEC = 1000;
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_IP = 100;
+    private static final int DEFAULT_CONNECT_RATE_PER_IP = 10;
+    private static final int DEFAULT_HELLO_TIMEOUT_MS = 5000;
+    private static final int DEFAULT_LOGIN_TIMEOUT_MS = 30000;
     
     private int port;
     private int maxClients;
     private int maxRoomSize;
+    private int maxRoomsPerSession;
     private int heartbeatInterval;
     private int messageHistorySize;
     private int maxMessageLength;
@@ -26,6 +71,57 @@ public final class ServerConfig {
     private int minNickLength;
     private String serverName;
     private boolean enableLogging;
+    private String transport;
+    private int ioThreads;
+    private String threadMode;
+    private int writeBatchBytes;
+    private int writeBatchDelayMicros;
+    private int sendQueueMaxFrames;
+    private long sendQueueMaxBytes;
+    private OverflowPolicy sendQueuePolicy;
+    private String historyDir;
+    private HistorySync historySync;
+    private int historySyncIntervalMs;
+    private int historySegmentBytes;
+    private long historyRetentionBytes;
+    private int historyRetentionHours;
+    private int historyMaxPage;
+    private int historyOpenLogs;
+    private int historyArenaMb;
+    private int timerTickMs;
+    private String logLevel;
+    private String logMode;
+    // Empty logs to stdout.
+    private String logFile;
+    private long logMaxBytes;
+    private int logMaxFiles;
+    private int logQueueSize;
+    private LogOverflow logQueuePolicy;
+    private int adminPort;
+    private String adminBindAddress;
+    private int resumeGraceSeconds;
+    private int resumeBufferFrames;
+    private int clusterPort;
+    private String clusterHost;
+    private String clusterSeeds;
+    private int clusterHeartbeatMs;
+    private String clusterSecret;
+    private boolean rateLimitEnabled;
+    private int rateChatPerSec;
+    private int rateChatBurst;
+    private int rateWhisperPerSec;
+    private int rateWhisperBurst;
+    private int rateQueryPerSec;
+    private int rateQueryBurst;
+    private int rateAdminPerSec;
+    private int rateAdminBurst;
+    private int rateLimitStrikes;
+    private int acceptBacklog;
+    private int acceptRatePerSec;
+    private int maxConnectionsPerIp;
+    private int connectRatePerIp;
+    private int helloTimeoutMs;
+    private int loginTimeoutMs;
     
     private ServerConfig() {
         loadDefaults();
@@ -40,6 +136,7 @@ public final class ServerConfig {
         this.port = DEFAULT_PORT;
         this.maxClients = DEFAULT_MAX_CLIENTS;
         this.maxRoomSize = DEFAULT_MAX_ROOM_SIZE;
+        this.maxRoomsPerSession = DEFAULT_MAX_ROOMS_PER_SESSION;
         this.heartbeatInterval = DEFAULT_HEARTBEAT_INTERVAL;
         this.messageHistorySize = DEFAULT_MESSAGE_HISTORY_SIZE;
         this.maxMessageLength = DEFAULT_MAX_MESSAGE_LENGTH;
@@ -47,16 +144,68 @@ public final class ServerConfig {
         this.minNickLength = DEFAULT_MIN_NICK_LENGTH;
         this.serverName = "ChatServer";
         this.enableLogging = true;
+        this.transport = DEFAULT_TRANSPORT;
+        this.ioThreads = DEFAULT_IO_THREADS;
+        this.threadMode = DEFAULT_THREAD_MODE;
+        this.writeBatchBytes = DEFAULT_WRITE_BATCH_BYTES;
+        this.writeBatchDelayMicros = DEFAULT_WRITE_BATCH_DELAY_MICROS;
+        this.sendQueueMaxFrames = DEFAULT_SEND_QUEUE_MAX_FRAMES;
+        this.sendQueueMaxBytes = DEFAULT_SEND_QUEUE_MAX_BYTES;
+        this.sendQueuePolicy = OverflowPolicy.DROP_OLDEST;
+        this.historyDir = DEFAULT_HISTORY_DIR;
+        this.historySync = HistorySync.INTERVAL;
+        this.historySyncIntervalMs = DEFAULT_HISTORY_SYNC_INTERVAL_MS;
+        this.historySegmentBytes = DEFAULT_HISTORY_SEGMENT_BYTES;
+        this.historyRetentionBytes = DEFAULT_HISTORY_RETENTION_BYTES;
+        this.historyRetentionHours = DEFAULT_HISTORY_RETENTION_HOURS;
+        this.historyMaxPage = DEFAULT_HISTORY_MAX_PAGE;
+        this.historyOpenLogs = DEFAULT_HISTORY_OPEN_LOGS;
+        this.historyArenaMb = DEFAULT_HISTORY_ARENA_MB;
+        this.timerTickMs = DEFAULT_TIMER_TICK_MS;
+        this.logLevel = DEFAULT_LOG_LEVEL;
+        this.logMode = DEFAULT_LOG_MODE;
+        this.logFile = "";
+        this.logMaxBytes = DEFAULT_LOG_MAX_BYTES;
+        this.logMaxFiles = DEFAULT_LOG_MAX_FILES;
+        this.logQueueSize = DEFAULT_LOG_QUEUE_SIZE;
+        this.logQueuePolicy = LogOverflow.DROP;
+        this.adminPort = DEFAULT_ADMIN_PORT;
+        this.adminBindAddress = DEFAULT_ADMIN_BIND_ADDRESS;
+        this.resumeGraceSeconds = DEFAULT_RESUME_GRACE_SECONDS;
+        this.resumeBufferFrames = DEFAULT_RESUME_BUFFER_FRAMES;
+        this.clusterPort = DEFAULT_CLUSTER_PORT;
+        this.clusterHost = DEFAULT_CLUSTER_HOST;
+        this.clusterSeeds = "";
+        this.clusterHeartbeatMs = DEFAULT_CLUSTER_HEARTBEAT_MS;
+        this.clusterSecret = "";
+        this.rateLimitEnabled = true;
+        this.rateChatPerSec = DEFAULT_RATE_CHAT_PER_SEC;
+        this.rateChatBurst = DEFAULT_RATE_CHAT_BURST;
+        this.rateWhisperPerSec = DEFAULT_RATE_WHISPER_PER_SEC;
+        this.rateWhisperBurst = DEFAULT_RATE_WHISPER_BURST;
+        this.rateQueryPerSec = DEFAULT_RATE_QUERY_PER_SEC;
+        this.rateQueryBurst = DEFAULT_RATE_QUERY_BURST;
+        this.rateAdminPerSec = DEFAULT_RATE_ADMIN_PER_SEC;
+        this.rateAdminBurst = DEFAULT_RATE_ADMIN_BURST;
+        this.rateLimitStrikes = DEFAULT_RATE_LIMIT_STRIKES;
+        this.acceptBacklog = DEFAULT_ACCEPT_BACKLOG;
+        this.acceptRatePerSec = DEFAULT_ACCEPT_RATE_PER_SEC;
+        this.maxConnectionsPerIp = DEFAULT_MAX_CONNECTIONS_PER_IP;
+        this.connectRatePerIp = DEFAULT_CONNECT_RATE_PER_IP;
+        this.helloTimeoutMs = DEFAULT_HELLO_TIMEOUT_MS;
+        this.loginTimeoutMs = DEFAULT_LOGIN_TIMEOUT_MS;
     }
     
     private void loadFromFile() {
-        try (FileInputStream fis = new FileInputStream("server.properties")) {
+        // -Dchat.config points at another file, e.g. for benchmarks that must not touch ./history.
+        try (FileInputStream fis = new FileInputStream(System.getProperty("chat.config", "server.properties"))) {
             Properties props = new Properties();
             props.load(fis);
             
             port = Integer.parseInt(props.getProperty("port", String.valueOf(DEFAULT_PORT)));
             maxClients = Integer.parseInt(props.getProperty("maxClients", String.valueOf(DEFAULT_MAX_CLIENTS)));
             maxRoomSize = Integer.parseInt(props.getProperty("maxRoomSize", String.valueOf(DEFAULT_MAX_ROOM_SIZE)));
+            maxRoomsPerSession = Integer.parseInt(props.getProperty("maxRoomsPerSession", String.valueOf(DEFAULT_MAX_ROOMS_PER_SESSION)));
             heartbeatInterval = Integer.parseInt(props.getProperty("heartbeatInterval", String.valueOf(DEFAULT_HEARTBEAT_INTERVAL)));
             messageHistorySize = Integer.parseInt(props.getProperty("messageHistorySize", String.valueOf(DEFAULT_MESSAGE_HISTORY_SIZE)));
             maxMessageLength = Integer.parseInt(props.getProperty("maxMessageLength", String.valueOf(DEFAULT_MAX_MESSAGE_LENGTH)));
@@ -64,6 +213,56 @@ public final class ServerConfig {
             minNickLength = Integer.parseInt(props.getProperty("minNickLength", String.valueOf(DEFAULT_MIN_NICK_LENGTH)));
             serverName = props.getProperty("serverName", "ChatServer");
             enableLogging = Boolean.parseBoolean(props.getProperty("enableLogging", "true"));
+            transport = props.getProperty("transport", DEFAULT_TRANSPORT).trim().toLowerCase();
+            ioThreads = Integer.parseInt(props.getProperty("ioThreads", String.valueOf(DEFAULT_IO_THREADS)));
+            threadMode = props.getProperty("threadMode", DEFAULT_THREAD_MODE).trim().toLowerCase();
+            writeBatchBytes = Integer.parseInt(props.getProperty("writeBatchBytes", String.valueOf(DEFAULT_WRITE_BATCH_BYTES)));
+            writeBatchDelayMicros = Integer.parseInt(props.getProperty("writeBatchDelayMicros", String.valueOf(DEFAULT_WRITE_BATCH_DELAY_MICROS)));
+            sendQueueMaxFrames = Integer.parseInt(props.getProperty("sendQueueMaxFrames", String.valueOf(DEFAULT_SEND_QUEUE_MAX_FRAMES)));
+            sendQueueMaxBytes = Long.parseLong(props.getProperty("sendQueueMaxBytes", String.valueOf(DEFAULT_SEND_QUEUE_MAX_BYTES)));
+            sendQueuePolicy = OverflowPolicy.fromString(props.getProperty("sendQueuePolicy", "drop_oldest"));
+            historyDir = props.getProperty("historyDir", DEFAULT_HISTORY_DIR).trim();
+            historySync = HistorySync.fromString(props.getProperty("historySync", "interval"));
+            historySyncIntervalMs = Integer.parseInt(props.getProperty("historySyncIntervalMs", String.valueOf(DEFAULT_HISTORY_SYNC_INTERVAL_MS)));
+            historySegmentBytes = Integer.parseInt(props.getProperty("historySegmentBytes", String.valueOf(DEFAULT_HISTORY_SEGMENT_BYTES)));
+            historyRetentionBytes = Long.parseLong(props.getProperty("historyRetentionBytes", String.valueOf(DEFAULT_HISTORY_RETENTION_BYTES)));
+            historyRetentionHours = Integer.parseInt(props.getProperty("historyRetentionHours", String.valueOf(DEFAULT_HISTORY_RETENTION_HOURS)));
+            historyMaxPage = Integer.parseInt(props.getProperty("historyMaxPage", String.valueOf(DEFAULT_HISTORY_MAX_PAGE)));
+            historyOpenLogs = Integer.parseInt(props.getProperty("historyOpenLogs", String.valueOf(DEFAULT_HISTORY_OPEN_LOGS)));
+            historyArenaMb = Integer.parseInt(props.getProperty("historyArenaMb", String.valueOf(DEFAULT_HISTORY_ARENA_MB)));
+            timerTickMs = Integer.parseInt(props.getProperty("timerTickMs", String.valueOf(DEFAULT_TIMER_TICK_MS)));
+            logLevel = props.getProperty("logLevel", DEFAULT_LOG_LEVEL).trim().toLowerCase();
+            logMode = props.getProperty("logMode", DEFAULT_LOG_MODE).trim().toLowerCase();
+            logFile = props.getProperty("logFile", "").trim();
+            logMaxBytes = Long.parseLong(props.getProperty("logMaxBytes", String.valueOf(DEFAULT_LOG_MAX_BYTES)));
+            logMaxFiles = Integer.parseInt(props.getProperty("logMaxFiles", String.valueOf(DEFAULT_LOG_MAX_FILES)));
+            logQueueSize = Integer.parseInt(props.getProperty("logQueueSize", String.valueOf(DEFAULT_LOG_QUEUE_SIZE)));
+            logQueuePolicy = LogOverflow.fromString(props.getProperty("logQueuePolicy", "drop"));
+            adminPort = Integer.parseInt(props.getProperty("adminPort", String.valueOf(DEFAULT_ADMIN_PORT)));
+            adminBindAddress = props.getProperty("adminBindAddress", DEFAULT_ADMIN_BIND_ADDRESS).trim();
+            resumeGraceSeconds = Integer.parseInt(props.getProperty("resumeGraceSeconds", String.valueOf(DEFAULT_RESUME_GRACE_SECONDS)));
+            resumeBufferFrames = Integer.parseInt(props.getProperty("resumeBufferFrames", String.valueOf(DEFAULT_RESUME_BUFFER_FRAMES)));
+            clusterPort = Integer.parseInt(props.getProperty("clusterPort", String.valueOf(DEFAULT_CLUSTER_PORT)));
+            clusterHost = props.getProperty("clusterHost", DEFAULT_CLUSTER_HOST).trim();
+            clusterSeeds = props.getProperty("clusterSeeds", "").trim();
+            clusterHeartbeatMs = Integer.parseInt(props.getProperty("clusterHeartbeatMs", String.valueOf(DEFAULT_CLUSTER_HEARTBEAT_MS)));
+            clusterSecret = props.getProperty("clusterSecret", "").trim();
+            rateLimitEnabled = Boolean.parseBoolean(props.getProperty("rateLimitEnabled", "true"));
+            rateChatPerSec = Integer.parseInt(props.getProperty("rateChatPerSec", String.valueOf(DEFAULT_RATE_CHAT_PER_SEC)));
+            rateChatBurst = Integer.parseInt(props.getProperty("rateChatBurst", String.valueOf(DEFAULT_RATE_CHAT_BURST)));
+            rateWhisperPerSec = Integer.parseInt(props.getProperty("rateWhisperPerSec", String.valueOf(DEFAULT_RATE_WHISPER_PER_SEC)));
+            rateWhisperBurst = Integer.parseInt(props.getProperty("rateWhisperBurst", String.valueOf(DEFAULT_RATE_WHISPER_BURST)));
+            rateQueryPerSec = Integer.parseInt(props.getProperty("rateQueryPerSec", String.valueOf(DEFAULT_RATE_QUERY_PER_SEC)));
+            rateQueryBurst = Integer.parseInt(props.getProperty("rateQueryBurst", String.valueOf(DEFAULT_RATE_QUERY_BURST)));
+            rateAdminPerSec = Integer.parseInt(props.getProperty("rateAdminPerSec", String.valueOf(DEFAULT_RATE_ADMIN_PER_SEC)));
+            rateAdminBurst = Integer.parseInt(props.getProperty("rateAdminBurst", String.valueOf(DEFAULT_RATE_ADMIN_BURST)));
+            rateLimitStrikes = Integer.parseInt(props.getProperty("rateLimitStrikes", String.valueOf(DEFAULT_RATE_LIMIT_STRIKES)));
+            acceptBacklog = Integer.parseInt(props.getProperty("acceptBacklog", String.valueOf(DEFAULT_ACCEPT_BACKLOG)));
+            acceptRatePerSec = Integer.parseInt(props.getProperty("acceptRatePerSec", String.valueOf(DEFAULT_ACCEPT_RATE_PER_SEC)));
+            maxConnectionsPerIp = Integer.parseInt(props.getProperty("maxConnectionsPerIp", String.valueOf(DEFAULT_MAX_CONNECTIONS_PER_IP)));
+            connectRatePerIp = Integer.parseInt(props.getProperty("connectRatePerIp", String.valueOf(DEFAULT_CONNECT_RATE_PER_IP)));
+            helloTimeoutMs = Integer.parseInt(props.getProperty("helloTimeoutMs", String.valueOf(DEFAULT_HELLO_TIMEOUT_MS)));
+            loginTimeoutMs = Integer.parseInt(props.getProperty("loginTimeoutMs", String.valueOf(DEFAULT_LOGIN_TIMEOUT_MS)));
         } catch (IOException e) {
           
         }
@@ -72,12 +271,99 @@ public final class ServerConfig {
     public int getPort() { return port; }
     public int getMaxClients() { return maxClients; }
     public int getMaxRoomSize() { return maxRoomSize; }
+    // Rooms one connection can be subscribed to at once (JOIN with keep=true).
+    public int getMaxRoomsPerSession() { return maxRoomsPerSession; }
     public int getHeartbeatInterval() { return heartbeatInterval; }
+    public long getIdleTimeoutMillis() { return heartbeatInterval * 3 * 1000L; }
     public int getMessageHistorySize() { return messageHistorySize; }
     public int getMaxMessageLength() { return maxMessageLength; }
     public int getMaxNickLength() { return maxNickLength; }
     public int getMinNickLength() { return minNickLength; }
     public String getServerName() { return serverName; }
     public boolean isLoggingEnabled() { return enableLogging; }
+    public String getTransport() { return transport; }
+    public boolean isNioTransport() { return "nio".equals(transport); }
+    public String getThreadMode() { return threadMode; }
+    public boolean isVirtualThreads() { return "virtual".equals(threadMode); }
+    // 0 disables coalescing: every frame is flushed on its own.
+    public int getWriteBatchBytes() { return writeBatchBytes; }
+    public int getWriteBatchDelayMicros() { return writeBatchDelayMicros; }
+    public int getSendQueueMaxFrames() { return sendQueueMaxFrames; }
+    public long getSendQueueMaxBytes() { return sendQueueMaxBytes; }
+    public OverflowPolicy getSendQueuePolicy() { return sendQueuePolicy; }
+    // Empty keeps history in memory only, as before.
+    public String getHistoryDir() { return historyDir; }
+    public boolean isHistoryPersistent() { return !historyDir.isEmpty(); }
+    public HistorySync getHistorySync() { return historySync; }
+    public int getHistorySyncIntervalMs() { return historySyncIntervalMs; }
+    public int getHistorySegmentBytes() { return historySegmentBytes; }
+    // Per room; 0 means unlimited for either bound.
+    public long getHistoryRetentionBytes() { return historyRetentionBytes; }
+    public int getHistoryRetentionHours() { return historyRetentionHours; }
+    // Largest page a single CHAT_HISTORY request may ask for.
+    public int getHistoryMaxPage() { return historyMaxPage; }
+    // Logs kept open for reading rooms nobody is in; a room with members always has its log open.
+    public int getHistoryOpenLogs() { return historyOpenLogs; }
+    // Off-heap space for the in-memory history of all rooms, reserved at startup; 0 keeps entries on the heap.
+    public int getHistoryArenaMb() { return historyArenaMb; }
+    public int getTimerTickMs() { return timerTickMs; }
+    public String getLogLevel() { return logLevel; }
+    public String getLogMode() { return logMode; }
+    public boolean isLogAsync() { return "async".equals(logMode); }
+    public String getLogFile() { return logFile; }
+    public long getLogMaxBytes() { return logMaxBytes; }
+    public int getLogMaxFiles() { return logMaxFiles; }
+    public int getLogQueueSize() { return logQueueSize; }
+    public LogOverflow getLogQueuePolicy() { return logQueuePolicy; }
+    // 0 disables the /metrics endpoint.
+    public int getAdminPort() { return adminPort; }
+    public String getAdminBindAddress() { return adminBindAddress; }
+    // How long a dropped session keeps its nick, room and outbound frames for RESUME; 0 disables resumption.
+    public int getResumeGraceSeconds() { return resumeGraceSeconds; }
+    public boolean isResumeEnabled() { return resumeGraceSeconds > 0; }
+    // Frames already written that a resume can still replay; anything older forces a fresh LOGIN.
+    public int getResumeBufferFrames() { return resumeBufferFrames; }
+    // 0 runs a standalone server. Otherwise other nodes dial clusterHost:clusterPort, which is also this
+    // node's id in the cluster, so it must be an address they can reach. A node that connects can relay
+    // messages and claim nicks as any user, so unless clusterSecret is set the port must be reachable only
+    // by trusted nodes; bind clusterHost to a private address, not 0.0.0.0.
+    public int getClusterPort() { return clusterPort; }
+    public boolean isClusterEnabled() { return clusterPort > 0; }
+    public String getClusterHost() { return clusterHost; }
+    public String getClusterNodeId() { return clusterHost + ":" + clusterPort; }
+    // Comma-separated host:port of other nodes; any one that is up is enough to find the rest.
+    public String getClusterSeeds() { return clusterSeeds; }
+    // A node is dropped from the cluster after three heartbeats without hearing from it.
+    public int getClusterHeartbeatMs() { return clusterHeartbeatMs; }
+    // Shared by every node and sent in NODE_HELLO; a connection with any other secret is refused. Empty
+    // accepts any node. It is sent in the clear, so it keeps strays out rather than an eavesdropper.
+    public String getClusterSecret() { return clusterSecret; }
+    // Per-session token buckets, see RateLimiter: frames per second and bucket size for each class of
+    // request; a rate of 0 leaves that class unlimited.
+    public boolean isRateLimitEnabled() { return rateLimitEnabled; }
+    public int getRateChatPerSec() { return rateChatPerSec; }
+    public int getRateChatBurst() { return rateChatBurst; }
+    public int getRateWhisperPerSec() { return rateWhisperPerSec; }
+    public int getRateWhisperBurst() { return rateWhisperBurst; }
+    public int getRateQueryPerSec() { return rateQueryPerSec; }
+    public int getRateQueryBurst() { return rateQueryBurst; }
+    public int getRateAdminPerSec() { return rateAdminPerSec; }
+    public int getRateAdminBurst() { return rateAdminBurst; }
+    // Rejected frames a session may pile up, one forgiven per second, before it is disconnected; 0 never disconnects.
+    public int getRateLimitStrikes() { return rateLimitStrikes; }
+    // Pending connections the kernel queues for the accept thread; it may cap this (net.core.somaxconn).
+    public int getAcceptBacklog() { return acceptBacklog; }
+    // Connections taken off the backlog per second, all sources together; 0 is unlimited. Above it the
+    // accept thread waits and the backlog absorbs the burst.
+    public int getAcceptRatePerSec() { return acceptRatePerSec; }
+    // Open connections and new connections per second from one address; 0 is unlimited.
+    public int getMaxConnectionsPerIp() { return maxConnectionsPerIp; }
+    public int getConnectRatePerIp() { return connectRatePerIp; }
+    // A connection that has not sent HELLO, or not logged in, by then is closed; 0 waits forever.
+    public int getHelloTimeoutMs() { return helloTimeoutMs; }
+    public int getLoginTimeoutMs() { return loginTimeoutMs; }
+    public int getIoThreads() {
+        return ioThreads > 0 ? ioThreads : Runtime.getRuntime().availableProcessors();
+    }
 }
 
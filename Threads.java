@@ -0,0 +1,69 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+// Virtual threads are looked up reflectively so the server still builds and runs on JDKs without them.
+public final class Threads {
+    private static final Logger logger = Logger.getLogger(Threads.class);
+
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_UNSTARTED;
+    private static final Method VIRTUAL_PER_TASK;
+
+    static {
+        Method ofVirtual = null, name = null, unstarted = null, perTask = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class);
+            unstarted = builder.getMethod("unstarted", Runnable.class);
+            perTask = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+
+            // Preview builds expose the methods but refuse to run them without --enable-preview.
+            unstarted.invoke(ofVirtual.invoke(null), (Runnable) () -> {});
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_UNSTARTED = unstarted;
+        VIRTUAL_PER_TASK = perTask;
+    }
+
+    private Threads() {}
+
+    public static boolean isVirtualAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    public static Thread newThread(Runnable r, String name, boolean virtual) {
+        if (virtual && OF_VIRTUAL != null) {
+            try {
+                Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name);
+                return (Thread) BUILDER_UNSTARTED.invoke(builder, r);
+            } catch (ReflectiveOperationException e) {
+                logger.warn("Virtual thread creation failed, using platform thread", e);
+            }
+        }
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    public static ExecutorService newTaskExecutor(boolean virtual) {
+        if (virtual && VIRTUAL_PER_TASK != null) {
+            try {
+                return (ExecutorService) VIRTUAL_PER_TASK.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                logger.warn("Virtual executor creation failed, using cached thread pool", e);
+            }
+        }
+        return Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
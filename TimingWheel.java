@@ -0,0 +1,175 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+
+// Hashed timing wheel: a deadline lands in bucket ceil(deadline / tick) % slots and carries the number of
+// full revolutions left before it is due. schedule() and cancel() only enqueue, so any thread may call them
+// without locking; one driver thread calls advance() every tick, which files the queued timeouts into their
+// buckets and visits just the buckets whose tick has passed. Each tick costs its own bucket rather than
+// every live timeout, and a task fires at most one tick after its deadline.
+// postpone() is a single volatile write: the timeout stays where it was filed and is moved, not fired,
+// when its old bucket comes up. That keeps frequently refreshed deadlines (idle timeouts) off the queues.
+public final class TimingWheel {
+    private static final Logger logger = Logger.getLogger(TimingWheel.class);
+
+    private static final int PENDING = 0;
+    private static final int EXPIRED = 1;
+    private static final int CANCELLED = 2;
+
+    private final long tickMillis;
+    private final int mask;
+    private final long origin;
+    private final Timeout[] heads;
+    private final Timeout[] tails;
+    private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    // Next tick to visit; owned by the advancing thread.
+    private long tick;
+
+    public static final class Timeout {
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private volatile long deadline;
+        private volatile int state = PENDING;
+
+        // Bucket linkage, touched only by the advancing thread.
+        private int bucket = -1;
+        private long rounds;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(TimingWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        // Returns false if the task already ran or was cancelled before.
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED)) return false;
+            wheel.pending.decrementAndGet();
+            wheel.cancelled.offer(this);
+            return true;
+        }
+
+        // Moves the deadline later; an earlier one is ignored. Safe from any thread.
+        public void postpone(long newDeadline) {
+            if (newDeadline > deadline) deadline = newDeadline;
+        }
+
+        public long deadline() {
+            return deadline;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+    }
+
+    // slots is rounded up to a power of two.
+    public TimingWheel(long tickMillis, int slots) {
+        this.tickMillis = Math.max(1, tickMillis);
+        int n = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        this.mask = n - 1;
+        this.heads = new Timeout[n];
+        this.tails = new Timeout[n];
+        this.origin = System.currentTimeMillis();
+    }
+
+    public Timeout schedule(long delayMillis, Runnable task) {
+        Timeout t = new Timeout(this, task, System.currentTimeMillis() + Math.max(0, delayMillis));
+        pending.incrementAndGet();
+        added.offer(t);
+        return t;
+    }
+
+    // Runs every task due by now on the calling thread and returns how many ran. Only one thread may
+    // advance a wheel; tasks that schedule more timeouts see them filed on the next call.
+    public int advance(long now) {
+        Timeout t;
+        while ((t = cancelled.poll()) != null) {
+            if (t.bucket >= 0) unlink(t);
+        }
+        while ((t = added.poll()) != null) {
+            if (t.state == PENDING) file(t, tick);
+        }
+
+        long target = (now - origin) / tickMillis;
+        int fired = 0;
+        for (; tick <= target; tick++) {
+            int b = (int) (tick & mask);
+            // Postponed timeouts may be refiled onto this same bucket; they are not due this pass, so their
+            // rounds count from the next tick, the first visit that can fire them.
+            Timeout last = tails[b];
+            Timeout e = heads[b];
+            while (e != null) {
+                Timeout next = (e == last) ? null : e.next;
+                if (e.rounds <= 0) {
+                    unlink(e);
+                    if (dueTick(e) > tick) {
+                        file(e, tick + 1);
+                    } else if (Timeout.STATE.compareAndSet(e, PENDING, EXPIRED)) {
+                        pending.decrementAndGet();
+                        fired++;
+                        run(e);
+                    }
+                } else {
+                    e.rounds--;
+                }
+                e = next;
+            }
+        }
+        return fired;
+    }
+
+    // Timeouts scheduled and neither run nor cancelled yet.
+    public int size() {
+        return pending.get();
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    private long dueTick(Timeout t) {
+        return (t.deadline - origin + tickMillis - 1) / tickMillis;
+    }
+
+    // Files t for its due tick, with rounds counting the visits to its bucket from tick `from` on.
+    private void file(Timeout t, long from) {
+        long due = Math.max(from, dueTick(t));
+        int b = (int) (due & mask);
+        t.rounds = (due - from) / heads.length;
+        t.bucket = b;
+        t.prev = tails[b];
+        t.next = null;
+        if (tails[b] == null) heads[b] = t; else tails[b].next = t;
+        tails[b] = t;
+    }
+
+    private void unlink(Timeout t) {
+        int b = t.bucket;
+        if (t.prev == null) heads[b] = t.next; else t.prev.next = t.next;
+        if (t.next == null) tails[b] = t.prev; else t.next.prev = t.prev;
+        t.prev = null;
+        t.next = null;
+        t.bucket = -1;
+    }
+
+    private static void run(Timeout t) {
+        try {
+            t.task.run();
+        } catch (Exception e) {
+            logger.error("Timer task failed", e);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// N logged-in clients multiplexed on one selector thread. Chat messages sent through send() carry
+// their send time, and every member that receives one records the end-to-end latency.
+public final class BenchClients implements AutoCloseable {
+    private static final byte[] MARKER = "msg=L".getBytes(StandardCharsets.US_ASCII);
+    private static final int CLIENTS_PER_ADDRESS = 20_000;
+
+    private final SocketChannel[] channels;
+    private final ByteBuffer[] buffers;
+    private final String[] rooms;
+    private final Selector selector;
+    private final Thread reader;
+    private volatile boolean running = true;
+
+    public final AtomicLong framesIn = new AtomicLong();
+    public final AtomicLong joined = new AtomicLong();
+    private volatile String lastStats;
+    private long[] latencies = new long[1 << 16];
+    private int latencyCount;
+
+    public BenchClients(int port, int n, int roomSize) throws IOException {
+        this.channels = new SocketChannel[n];
+        this.buffers = new ByteBuffer[n];
+        this.rooms = new String[n];
+        this.selector = Selector.open();
+
+        try {
+            connect(port, roomSize);
+        } catch (IOException e) {
+            closeChannels();
+            selector.close();
+            throw e;
+        }
+
+        this.reader = new Thread(this::readLoop, "BenchClients-reader");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    private void connect(int port, int roomSize) throws IOException {
+        int n = channels.length;
+        for (int i = 0; i < n; i++) {
+            // Spread across 127.0.0.x so large runs do not exhaust the ephemeral ports of one address.
+            String host = "127.0.0." + (1 + i / CLIENTS_PER_ADDRESS);
+            SocketChannel ch = SocketChannel.open(new InetSocketAddress(host, port));
+            ch.socket().setTcpNoDelay(true);
+            rooms[i] = "r" + (i / roomSize);
+            ByteBuffer hello = ByteBuffer.allocate(512);
+            hello.put(Frame.ofText(MsgType.HELLO, 1, Kvp.encode(Kvp.kv("client", "bench"))).encode());
+            hello.put(Frame.ofText(MsgType.LOGIN, 2, Kvp.encode(Kvp.kv("nick", "b" + i))).encode());
+            hello.put(Frame.ofText(MsgType.JOIN, 3, Kvp.encode(Kvp.kv("room", rooms[i]))).encode());
+            hello.flip();
+            while (hello.hasRemaining()) ch.write(hello);
+            ch.configureBlocking(false);
+            channels[i] = ch;
+            buffers[i] = ByteBuffer.allocate(4096);
+        }
+        for (int i = 0; i < n; i++) {
+            channels[i].register(selector, SelectionKey.OP_READ, i);
+        }
+    }
+
+    public int size() {
+        return channels.length;
+    }
+
+    public void awaitJoined(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (joined.get() < channels.length && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    public void send(int i) throws IOException {
+        ByteBuffer b = Frame.ofText(MsgType.CHAT, 0,
+                Kvp.encode(Kvp.kv("room", rooms[i], "msg", "L" + System.nanoTime()))).encode();
+        while (b.hasRemaining()) channels[i].write(b);
+    }
+
+    // STATS_RESP text as seen by client 0.
+    public String stats(long timeoutMs) throws IOException, InterruptedException {
+        lastStats = null;
+        ByteBuffer b = Frame.ofText(MsgType.STATS_REQUEST, 4, Kvp.encode(Kvp.kv())).encode();
+        while (b.hasRemaining()) channels[0].write(b);
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (lastStats == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        return lastStats;
+    }
+
+    // Value of one "Name: value" line from a stats() reply, or "n/a".
+    public static String statsLine(String stats, String name) {
+        if (stats == null) return "n/a";
+        for (String line : stats.split("\n")) {
+            if (line.startsWith(name + ": ")) return line.substring(name.length() + 2);
+        }
+        return "n/a";
+    }
+
+    private void readLoop() {
+        try {
+            while (running) {
+                selector.select(100);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    int i = (Integer) key.attachment();
+                    ByteBuffer buf = buffers[i];
+                    if (channels[i].read(buf) < 0) {
+                        key.cancel();
+                        continue;
+                    }
+                    buf.flip();
+                    Frame f;
+                    while ((f = Frame.decode(buf)) != null) {
+                        onFrame(f);
+                    }
+                    if (buf.remaining() > 0 && Frame.frameLength(buf) > buf.capacity()) {
+                        ByteBuffer bigger = ByteBuffer.allocate(Frame.frameLength(buf));
+                        bigger.put(buf);
+                        buffers[i] = bigger;
+                    } else {
+                        buf.compact();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (running) System.err.println("bench reader failed: " + e.getMessage());
+        }
+    }
+
+    private void onFrame(Frame f) {
+        framesIn.incrementAndGet();
+        if (f.type == MsgType.JOIN_OK) {
+            joined.incrementAndGet();
+        } else if (f.type == MsgType.STATS_RESP) {
+            lastStats = Kvp.decode(f).getOrDefault("data", "");
+        } else if (f.type == MsgType.CHAT) {
+            long sent = sendTime(f.payload);
+            if (sent > 0) recordLatency(System.nanoTime() - sent);
+        }
+    }
+
+    private static long sendTime(byte[] p) {
+        outer:
+        for (int i = 0; i + MARKER.length < p.length; i++) {
+            for (int j = 0; j < MARKER.length; j++) {
+                if (p[i + j] != MARKER[j]) continue outer;
+            }
+            long v = 0;
+            for (int k = i + MARKER.length; k < p.length && p[k] >= '0' && p[k] <= '9'; k++) {
+                v = v * 10 + (p[k] - '0');
+            }
+            return v;
+        }
+        return -1;
+    }
+
+    private void recordLatency(long nanos) {
+        if (latencyCount == latencies.length) latencies = Arrays.copyOf(latencies, latencyCount * 2);
+        latencies[latencyCount++] = nanos;
+    }
+
+    // Call after close(); latencies are owned by the reader thread until then.
+    public long[] sortedLatencies() {
+        long[] copy = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    public static double percentileMs(long[] sorted, double p) {
+        if (sorted.length == 0) return Double.NaN;
+        int idx = (int) Math.min(sorted.length - 1, Math.ceil(p / 100.0 * sorted.length) - 1);
+        return sorted[Math.max(0, idx)] / 1_000_000.0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            reader.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeChannels();
+        selector.close();
+    }
+
+    private void closeChannels() {
+        for (SocketChannel ch : channels) {
+            if (ch == null) continue;
+            try {
+                ch.close();
+            } catch (IOException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+
+// ChatServer in a child JVM with its own working directory, so every run gets a fresh server.properties.
+public final class BenchServer implements AutoCloseable {
+    private final Path dir;
+    private final Process process;
+    public final int port;
+
+    public BenchServer(int port, String... properties) throws Exception {
+        this.port = port;
+        this.dir = Files.createTempDirectory("chatbench");
+
+        List<String> lines = new ArrayList<>();
+        lines.add("port=" + port);
+        lines.add("enableLogging=false");
+        lines.add("heartbeatInterval=3600");
+        lines.add("historyDir=");
+        // The harnesses drive single sessions far harder than any person would, open connections faster
+        // and from fewer addresses than real clients, and may leave them idle before LOGIN.
+        lines.add("rateLimitEnabled=false");
+        lines.add("acceptRatePerSec=0");
+        lines.add("maxConnectionsPerIp=0");
+        lines.add("connectRatePerIp=0");
+        lines.add("loginTimeoutMs=0");
+        for (String p : properties) lines.add(p);
+        lines.add("");
+        Files.writeString(dir.resolve("server.properties"), String.join("\n", lines));
+
+        List<String> cmd = new ArrayList<>();
+        cmd.add(javaBin());
+        String heap = System.getProperty("bench.serverHeap");
+        if (heap != null) cmd.add("-Xmx" + heap);
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add("ChatServer");
+        ProcessBuilder pb = new ProcessBuilder(cmd).directory(dir.toFile()).inheritIO();
+        String output = System.getProperty("bench.serverOutput");
+        if (output != null) pb.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(output)));
+        this.process = pb.start();
+
+        awaitListening();
+    }
+
+    public long pid() {
+        return process.pid();
+    }
+
+    public String threads() throws IOException {
+        return procStatus("Threads:");
+    }
+
+    public String rssMb() throws IOException {
+        String kb = procStatus("VmRSS:");
+        if (kb.equals("n/a")) return kb;
+        return String.valueOf(Long.parseLong(kb.replace("kB", "").trim()) / 1024);
+    }
+
+    // Linux only; other platforms report n/a.
+    private String procStatus(String field) throws IOException {
+        Path status = Path.of("/proc", String.valueOf(process.pid()), "status");
+        if (!Files.exists(status)) return "n/a";
+        for (String line : Files.readAllLines(status)) {
+            if (line.startsWith(field)) return line.substring(field.length()).trim();
+        }
+        return "n/a";
+    }
+
+    private void awaitListening() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            try {
+                SocketChannel.open(new InetSocketAddress("127.0.0.1", port)).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        close();
+        throw new IOException("Server did not start on port " + port);
+    }
+
+    @Override
+    public void close() throws IOException {
+        process.destroy();
+        try {
+            process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Files.deleteIfExists(dir.resolve("server.properties"));
+        Files.deleteIfExists(dir);
+    }
+
+    private static String javaBin() {
+        return System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    }
+}
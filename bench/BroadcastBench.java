@@ -0,0 +1,98 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.time.Instant;
+
+
+// Fan-out cost of one room message across room sizes, in-process so only the writer side is measured.
+//   per-member: every recipient's writer serializes the shared Frame itself (Frame.ofText)
+//   encode-once: Frame.broadcast serializes once and writers copy out the shared wire bytes
+// Blocking rows write through the same DataOutputStream stack as ClientSession; NIO rows hand a
+// buffer to a channel that consumes it without copying.
+//
+//   java -cp out BroadcastBench [1,10,50,100,500] [seconds]
+public final class BroadcastBench {
+    private BroadcastBench() {}
+
+    public static void main(String[] args) throws Exception {
+        String[] sizes = ((args.length >= 1) ? args[0] : "1,10,50,100,500").split(",");
+        int seconds = (args.length >= 2) ? Integer.parseInt(args[1]) : 2;
+
+        String payload = Kvp.encode(Kvp.kv(
+                "room", "lobby",
+                "from", "alice",
+                "msg", "안녕하세요, this is a typical chat line with a bit of text in it.",
+                "time", Instant.now().toString()));
+
+        System.out.println(String.format("%-6s %-10s %16s %17s %8s", "room", "path", "per-member msg/s", "encode-once msg/s", "speedup"));
+        for (String s : sizes) {
+            int members = Integer.parseInt(s.trim());
+            DataOutputStream[] streams = new DataOutputStream[members];
+            for (int i = 0; i < members; i++) {
+                streams[i] = new DataOutputStream(new BufferedOutputStream(OutputStream.nullOutputStream()));
+            }
+            WritableByteChannel channel = new DiscardChannel();
+
+            // Warm up both paths before timing.
+            measure(() -> blocking(Frame.ofText(MsgType.CHAT, 0, payload), streams), 1);
+            measure(() -> blocking(Frame.broadcast(MsgType.CHAT, payload), streams), 1);
+            measure(() -> nio(Frame.ofText(MsgType.CHAT, 0, payload), members, channel, false), 1);
+            measure(() -> nio(Frame.broadcast(MsgType.CHAT, payload), members, channel, true), 1);
+
+            double blockingOld = measure(() -> blocking(Frame.ofText(MsgType.CHAT, 0, payload), streams), seconds);
+            double blockingNew = measure(() -> blocking(Frame.broadcast(MsgType.CHAT, payload), streams), seconds);
+            double nioOld = measure(() -> nio(Frame.ofText(MsgType.CHAT, 0, payload), members, channel, false), seconds);
+            double nioNew = measure(() -> nio(Frame.broadcast(MsgType.CHAT, payload), members, channel, true), seconds);
+
+            System.out.println(String.format("%-6d %-10s %16.0f %17.0f %7.2fx", members, "blocking", blockingOld, blockingNew, blockingNew / blockingOld));
+            System.out.println(String.format("%-6d %-10s %16.0f %17.0f %7.2fx", members, "nio", nioOld, nioNew, nioNew / nioOld));
+        }
+    }
+
+    private interface Op {
+        void run() throws IOException;
+    }
+
+    private static double measure(Op op, int seconds) throws IOException {
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        long start = System.nanoTime();
+        long ops = 0;
+        while (System.nanoTime() < end) {
+            op.run();
+            ops++;
+        }
+        return ops / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static void blocking(Frame f, DataOutputStream[] streams) throws IOException {
+        for (DataOutputStream out : streams) {
+            f.writeTo(out);
+        }
+    }
+
+    private static void nio(Frame f, int members, WritableByteChannel channel, boolean shared) throws IOException {
+        for (int i = 0; i < members; i++) {
+            channel.write(shared ? f.wire() : f.encode());
+        }
+    }
+
+    private static final class DiscardChannel implements WritableByteChannel {
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {}
+    }
+}
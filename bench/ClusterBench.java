@@ -0,0 +1,222 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+// Nick directory cost: a standalone server against three cluster nodes on localhost, each in its own JVM.
+//   login: LOGIN round trips per second from THREADS concurrent clients, spread over the nodes; in the
+//          cluster every LOGIN also claims its nick at the nick's directory owner. Each LOGIN also joins
+//          the lobby and is announced to everyone in it, which dominates as the user count grows
+//   whisper: sender-to-recipient latency between users on different nodes (the same node when
+//          standalone). The first whisper to each recipient misses the location cache and looks the nick
+//          up at its directory owner; the rest go straight to the recipient's node.
+//
+//   java -cp out ClusterBench [logins] [whispers] [port]
+public final class ClusterBench {
+    private static final int THREADS = 8;
+    private static final int PAIRS = 20;
+    private static final int HEARTBEAT_MS = 200;
+
+    private ClusterBench() {}
+
+    public static void main(String[] args) throws Exception {
+        int logins = (args.length >= 1) ? Integer.parseInt(args[0]) : 500;
+        int whispers = (args.length >= 2) ? Integer.parseInt(args[1]) : 100;
+        int port = (args.length >= 3) ? Integer.parseInt(args[2]) : 15700;
+
+        System.out.println(String.format("%-10s %10s %12s %12s %12s %12s",
+                "setup", "logins/s", "miss p50(ms)", "miss p99(ms)", "hit p50(ms)", "hit p99(ms)"));
+        run("standalone", new int[] {port}, false, logins, whispers);
+        run("3 nodes", new int[] {port + 10, port + 11, port + 12}, true, logins, whispers);
+    }
+
+    private static void run(String setup, int[] ports, boolean cluster, int logins, int whispers) throws Exception {
+        List<BenchServer> servers = new ArrayList<>();
+        try {
+            for (int p : ports) {
+                if (!cluster) {
+                    servers.add(new BenchServer(p, "maxClients=" + (logins + 1000)));
+                    continue;
+                }
+                servers.add(new BenchServer(p, "maxClients=" + (logins + 1000),
+                        "clusterPort=" + (p + 100),
+                        "clusterSeeds=127.0.0.1:" + (ports[0] + 100),
+                        "clusterHeartbeatMs=" + HEARTBEAT_MS));
+            }
+            // Long enough for every node to link to every other and agree on the members.
+            if (cluster) Thread.sleep(HEARTBEAT_MS * 10L);
+
+            double loginRate = loginPhase(ports, logins);
+            long[][] latency = whisperPhase(ports, whispers);
+            System.out.println(String.format("%-10s %10.0f %12.3f %12.3f %12.3f %12.3f", setup, loginRate,
+                    percentile(latency[0], 50), percentile(latency[0], 99),
+                    percentile(latency[1], 50), percentile(latency[1], 99)));
+        } finally {
+            for (BenchServer s : servers) s.close();
+        }
+    }
+
+    // Logged-in connections stay open (and unread) until the phase ends, so the nicks stay claimed.
+    private static double loginPhase(int[] ports, int logins) throws Exception {
+        List<Socket> open = new ArrayList<>();
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicReference<String> lastFailure = new AtomicReference<>();
+        Thread[] threads = new Thread[THREADS];
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < logins) {
+                    try {
+                        Socket s = new Socket("127.0.0.1", ports[i % ports.length]);
+                        s.setTcpNoDelay(true);
+                        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                        Frame.ofText(MsgType.HELLO, 1, Kvp.encode(Kvp.kv("client", "bench"))).writeTo(out);
+                        Frame.ofText(MsgType.LOGIN, 2, Kvp.encode(Kvp.kv("nick", "u" + i))).writeTo(out);
+                        Frame f;
+                        do {
+                            f = Frame.readFrom(in);
+                        } while (f.seq != 2);
+                        if (f.type != MsgType.LOGIN_OK) {
+                            failed.incrementAndGet();
+                            lastFailure.set(Kvp.decode(f).get("reason"));
+                        }
+                        synchronized (open) {
+                            open.add(s);
+                        }
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                        lastFailure.set(e.getMessage());
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+        double rate = logins / ((System.nanoTime() - start) / 1e9);
+        if (failed.get() > 0) System.out.println("  " + failed.get() + " login(s) failed, last: " + lastFailure.get());
+        for (Socket s : open) s.close();
+        return rate;
+    }
+
+    // PAIRS senders on node i whisper a recipient on node i+1, one whisper in flight per pair.
+    // Returns {cache-miss latencies, cache-hit latencies} in nanoseconds.
+    private static long[][] whisperPhase(int[] ports, int whispers) throws Exception {
+        Map<String, Long> sentAt = new ConcurrentHashMap<>();
+        long[] misses = new long[PAIRS];
+        long[] hits = new long[PAIRS * (whispers - 1)];
+        AtomicInteger hitCount = new AtomicInteger();
+        List<Client> clients = new ArrayList<>();
+        try {
+            Client[] senders = new Client[PAIRS];
+            for (int p = 0; p < PAIRS; p++) {
+                senders[p] = new Client(ports[p % ports.length], "ws" + p, null);
+                clients.add(senders[p]);
+            }
+            Client[] recipients = new Client[PAIRS];
+            for (int p = 0; p < PAIRS; p++) {
+                int pair = p;
+                recipients[p] = new Client(ports[(p + 1) % ports.length], "wr" + p, msg -> {
+                    long latency = System.nanoTime() - sentAt.remove(msg);
+                    if (msg.endsWith("#0")) misses[pair] = latency;
+                    else hits[hitCount.getAndIncrement()] = latency;
+                    senders[pair].whisperDone.release();
+                });
+                clients.add(recipients[p]);
+            }
+            Thread[] threads = new Thread[PAIRS];
+            for (int p = 0; p < PAIRS; p++) {
+                int pair = p;
+                threads[p] = new Thread(() -> {
+                    try {
+                        for (int w = 0; w < whispers; w++) {
+                            String msg = "p" + pair + "#" + w;
+                            sentAt.put(msg, System.nanoTime());
+                            senders[pair].send(MsgType.WHISPER, Kvp.kv("to", "wr" + pair, "msg", msg));
+                            if (!senders[pair].whisperDone.tryAcquire(5, TimeUnit.SECONDS)) {
+                                throw new IOException("whisper " + msg + " not delivered");
+                            }
+                        }
+                    } catch (Exception e) {
+                        System.out.println("  pair " + pair + ": " + e.getMessage());
+                    }
+                });
+                threads[p].start();
+            }
+            for (Thread t : threads) t.join();
+        } finally {
+            for (Client c : clients) c.close();
+        }
+        return new long[][] {misses, Arrays.copyOf(hits, hitCount.get())};
+    }
+
+    private static double percentile(long[] nanos, int p) {
+        if (nanos.length == 0) return Double.NaN;
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p / 100.0 * sorted.length) - 1)] / 1e6;
+    }
+
+    private interface WhisperListener {
+        void received(String msg);
+    }
+
+    private static final class Client implements AutoCloseable {
+        final Semaphore whisperDone = new Semaphore(0);
+        private final Socket socket;
+        private final DataOutputStream out;
+        private int seq;
+
+        Client(int port, String nick, WhisperListener listener) throws IOException {
+            socket = new Socket("127.0.0.1", port);
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            send(MsgType.HELLO, Kvp.kv("client", "bench"));
+            send(MsgType.LOGIN, Kvp.kv("nick", nick));
+            Frame f;
+            do {
+                f = Frame.readFrom(in);
+            } while (f.type != MsgType.LOGIN_OK && f.type != MsgType.LOGIN_FAIL);
+            if (f.type != MsgType.LOGIN_OK) throw new IOException(nick + ": " + Kvp.decode(f));
+
+            Thread reader = new Thread(() -> {
+                try {
+                    while (true) {
+                        Frame r = Frame.readFrom(in);
+                        if (r.type != MsgType.WHISPER || listener == null) continue;
+                        Map<String, String> kv = Kvp.decode(r);
+                        if (nick.equals(kv.get("to"))) listener.received(kv.get("msg"));
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            }, "ClusterBench-" + nick);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void send(byte type, Map<String, String> kv) throws IOException {
+            Frame.ofText(type, ++seq, Kvp.encode(kv)).writeTo(out);
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
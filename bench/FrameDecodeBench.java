@@ -0,0 +1,127 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+
+// Inbound decode cost per frame: time and allocated bytes per op, for the old allocating readers
+// (Frame.readFrom over DataInputStream, Frame.decode without a pool) against FrameReader and the
+// pooled Frame.decode. The byte stream is handed over in uneven chunks so most frames arrive split.
+//
+//   java -cp out FrameDecodeBench [128,4096,65536] [seconds]
+public final class FrameDecodeBench {
+    private static final int[] CHUNKS = {1460, 97, 3000, 512, 7, 8192, 1200};
+    private static volatile Object sink;
+
+    private FrameDecodeBench() {}
+
+    public static void main(String[] args) throws Exception {
+        String[] sizes = ((args.length >= 1) ? args[0] : "128,4096,65536").split(",");
+        int seconds = (args.length >= 2) ? Integer.parseInt(args[1]) : 2;
+
+        System.out.println(String.format("%-8s %-22s %12s %12s", "payload", "reader", "ns/op", "B/op"));
+        for (String s : sizes) {
+            int size = Integer.parseInt(s.trim());
+            byte[] stream = frames(size);
+            BufferPool pool = new BufferPool();
+
+            DataInputStream data = new DataInputStream(new BufferedInputStream(new ChunkedStream(stream)));
+            FrameReader reader = new FrameReader(new ChunkedStream(stream), pool, 8192);
+            ChunkedStream nioOld = new ChunkedStream(stream);
+            ChunkedStream nioNew = new ChunkedStream(stream);
+            ByteBuffer oldBuf = ByteBuffer.allocate(2 * 1024 * 1024).flip();
+            ByteBuffer newBuf = ByteBuffer.allocate(2 * 1024 * 1024).flip();
+
+            Op[] ops = {
+                () -> sink = Frame.readFrom(data),
+                () -> {
+                    Frame f = reader.read();
+                    sink = f;
+                    f.release();
+                },
+                () -> sink = nioDecode(nioOld, oldBuf, null),
+                () -> {
+                    Frame f = nioDecode(nioNew, newBuf, pool);
+                    sink = f;
+                    f.release();
+                },
+            };
+            String[] names = {"readFrom (old)", "FrameReader (pooled)", "decode (old)", "decode (pooled)"};
+
+            for (Op op : ops) measure(op, 1);
+            for (int i = 0; i < ops.length; i++) {
+                double[] r = measure(ops[i], seconds);
+                System.out.println(String.format("%-8d %-22s %12.0f %12.1f", size, names[i], r[0], r[1]));
+            }
+        }
+    }
+
+    // 64 frames back to back, so the chunk boundaries land at different offsets in each frame.
+    private static byte[] frames(int size) {
+        ByteBuffer all = ByteBuffer.allocate(64 * (Frame.HEADER_SIZE + size));
+        for (int i = 0; i < 64; i++) {
+            all.put(new Frame(MsgType.CHAT, (short) 0, i, new byte[size]).encode());
+        }
+        return all.array();
+    }
+
+    // Same loop as NioEventLoop.read, with the channel replaced by the chunked stream.
+    private static Frame nioDecode(ChunkedStream in, ByteBuffer buf, BufferPool pool) throws Exception {
+        while (true) {
+            Frame f = Frame.decode(buf, pool);
+            if (f != null) return f;
+            buf.compact();
+            int n = in.read(buf.array(), buf.position(), buf.remaining());
+            buf.position(buf.position() + n);
+            buf.flip();
+        }
+    }
+
+    private interface Op {
+        void run() throws Exception;
+    }
+
+    // Returns {ns/op, allocated bytes/op} for the calling thread.
+    private static double[] measure(Op op, int seconds) throws Exception {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        long allocStart = mx.getThreadAllocatedBytes(tid);
+        long start = System.nanoTime();
+        long ops = 0;
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < 100; i++) op.run();
+            ops += 100;
+        }
+        long elapsed = System.nanoTime() - start;
+        long alloc = mx.getThreadAllocatedBytes(tid) - allocStart;
+        return new double[] {(double) elapsed / ops, (double) alloc / ops};
+    }
+
+    // Endless repetition of data, returned in CHUNKS-sized pieces like a socket under load.
+    private static final class ChunkedStream extends InputStream {
+        private final byte[] data;
+        private int pos;
+        private int chunk;
+
+        ChunkedStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            int b = data[pos] & 0xFF;
+            pos = (pos + 1) % data.length;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int n = Math.min(len, Math.min(CHUNKS[chunk++ % CHUNKS.length], data.length - pos));
+            System.arraycopy(data, pos, b, off, n);
+            pos = (pos + n) % data.length;
+            return n;
+        }
+    }
+}
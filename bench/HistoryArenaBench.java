@@ -0,0 +1,110 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+
+// Heap-held against arena-held room history with a full backlog: ROOMS rooms of SIZE entries each are
+// filled, then one writer keeps appending round-robin while one reader pulls getRecent(20) from random
+// rooms. Reports the heap the backlog retains after a full GC and the collector's work during the churn.
+// Each mode runs in a child JVM with the same -Xmx so neither inherits the other's heap.
+//
+//   java -cp out HistoryArenaBench [rooms] [size] [seconds] [heap]
+public final class HistoryArenaBench {
+    private static volatile Object sink;
+
+    private HistoryArenaBench() {}
+
+    public static void main(String[] args) throws Exception {
+        int rooms = (args.length >= 1) ? Integer.parseInt(args[0]) : 1000;
+        int size = (args.length >= 2) ? Integer.parseInt(args[1]) : 1000;
+        int seconds = (args.length >= 3) ? Integer.parseInt(args[2]) : 10;
+        String heap = (args.length >= 4) ? args[3] : "2g";
+
+        if (args.length >= 5) {
+            run(args[4], rooms, size, seconds);
+            return;
+        }
+        System.out.println(String.format("%-6s %12s %10s %12s %8s %10s %12s", "mode", "retained MB", "adds/s",
+                "getRecent/s", "GCs", "GC ms", "arena MB"));
+        for (String mode : new String[] {"heap", "arena"}) {
+            List<String> cmd = new ArrayList<>();
+            cmd.add(ProcessHandle.current().info().command().orElse("java"));
+            cmd.add("-Xmx" + heap);
+            cmd.add("-XX:MaxDirectMemorySize=4g");
+            cmd.add("-cp");
+            cmd.add(System.getProperty("java.class.path"));
+            cmd.add(HistoryArenaBench.class.getName());
+            for (String a : new String[] {String.valueOf(rooms), String.valueOf(size), String.valueOf(seconds), heap, mode}) {
+                cmd.add(a);
+            }
+            new ProcessBuilder(cmd).inheritIO().start().waitFor();
+        }
+    }
+
+    private static void run(String mode, int rooms, int size, int seconds) throws Exception {
+        // Room for every record (~70 bytes here) with half a block of slack per room.
+        HistoryArena arena = mode.equals("arena")
+                ? new HistoryArena((long) rooms * size * 96 + (long) rooms * HistoryArena.BLOCK_BYTES) : null;
+        MessageHistory[] histories = new MessageHistory[rooms];
+        for (int r = 0; r < rooms; r++) histories[r] = new MessageHistory(size, null, arena, "room" + r);
+
+        long base = usedAfterGc();
+        long n = 0;
+        for (int i = 0; i < size; i++) {
+            for (int r = 0; r < rooms; r++) histories[r].add("user" + (n % 5000), "room" + r, message(n++));
+        }
+        long retained = usedAfterGc() - base;
+
+        LongAdder adds = new LongAdder();
+        LongAdder reads = new LongAdder();
+        long[] gc0 = gc();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        long start = n;
+        Thread writer = new Thread(() -> {
+            long m = start;
+            while (System.nanoTime() < end) {
+                for (int r = 0; r < rooms; r++) histories[r].add("user" + (m % 5000), "room" + r, message(m++));
+                adds.add(rooms);
+            }
+        });
+        Thread reader = new Thread(() -> {
+            while (System.nanoTime() < end) {
+                sink = histories[ThreadLocalRandom.current().nextInt(rooms)].getRecent(20);
+                reads.increment();
+            }
+        });
+        writer.start();
+        reader.start();
+        writer.join();
+        reader.join();
+        long[] gc1 = gc();
+
+        System.out.println(String.format("%-6s %12.1f %10.0f %12.0f %8d %10d %12s", mode, retained / 1048576.0,
+                adds.sum() / (double) seconds, reads.sum() / (double) seconds, gc1[0] - gc0[0], gc1[1] - gc0[1],
+                arena == null ? "-" : String.valueOf(arena.usedBytes() >> 20)));
+    }
+
+    private static String message(long n) {
+        return "message number " + n + " with a little text after it";
+    }
+
+    private static long usedAfterGc() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // {collections, milliseconds} over all collectors so far.
+    private static long[] gc() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean b : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, b.getCollectionCount());
+            millis += Math.max(0, b.getCollectionTime());
+        }
+        return new long[] {count, millis};
+    }
+}
@@ -0,0 +1,51 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+
+// Starts ChatServer in a child JVM per transport, parks N idle clients on it and reports the
+// server's thread count and resident memory.
+//
+//   javac -encoding UTF-8 -d out *.java bench/*.java
+//   java -cp out IdleConnectionBench [connections] [port] [blocking,nio]
+public final class IdleConnectionBench {
+    private IdleConnectionBench() {}
+
+    public static void main(String[] args) throws Exception {
+        int connections = (args.length >= 1) ? Integer.parseInt(args[0]) : 10_000;
+        int port = (args.length >= 2) ? Integer.parseInt(args[1]) : 15555;
+        String[] transports = (args.length >= 3) ? args[2].split(",") : new String[] {"blocking", "nio"};
+
+        System.out.println(String.format("%-10s %12s %10s %12s", "transport", "connections", "threads", "rss(MB)"));
+        for (String transport : transports) {
+            run(transport, connections, port);
+        }
+    }
+
+    private static void run(String transport, int connections, int port) throws Exception {
+        List<SocketChannel> clients = new ArrayList<>(connections);
+        try (BenchServer server = new BenchServer(port,
+                "maxClients=" + (connections + 100),
+                "transport=" + transport)) {
+            byte[] hello = Frame.ofText(MsgType.HELLO, 1, Kvp.encode(Kvp.kv("client", "bench"))).encode().array();
+            for (int i = 0; i < connections; i++) {
+                SocketChannel ch = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+                ch.write(ByteBuffer.wrap(hello));
+                clients.add(ch);
+            }
+
+            Thread.sleep(3000);
+            System.out.println(String.format("%-10s %12d %10s %12s", transport, clients.size(),
+                    server.threads(), server.rssMb()));
+        } finally {
+            for (SocketChannel ch : clients) {
+                try {
+                    ch.close();
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.time.Instant;
+import java.util.Map;
+
+
+// What interning nicks and room names buys.
+//   heap: retained size of ENTRIES history entries spread over ROOMS rooms and NICKS senders, built the way
+//         deliverRoom builds them from a decoded payload (so each name arrives as a String of its own),
+//         as MessageHistory.HistoryEntry and as the previous all-String layout (StringEntry below). Message
+//         text and timestamp are shared, so only the names are counted.
+//   lists: ROOM_INFO for a room of 1000 and USER_LIST for all users, round trips per second from one
+//          client against a server with `users` logged in.
+//
+//   java -Xmx2g -cp out InternBench [users] [requests] [port]
+public final class InternBench {
+    private static final int ENTRIES = 1_000_000;
+    private static final int ROOMS = 10_000;
+    private static final int NICKS = 10_000;
+    private static volatile Object sink;
+
+    private InternBench() {}
+
+    public static void main(String[] args) throws Exception {
+        int users = (args.length >= 1) ? Integer.parseInt(args[0]) : 2000;
+        int requests = (args.length >= 2) ? Integer.parseInt(args[1]) : 2000;
+        int port = (args.length >= 3) ? Integer.parseInt(args[2]) : 15800;
+
+        System.out.println(String.format("%-14s %12s %14s", "layout", "heap (MB)", "bytes/entry"));
+        for (int round = 0; round < 2; round++) {
+            heap("string fields", round == 1, i -> new StringEntry(i, name("u", i % NICKS), name("room", i % ROOMS),
+                    "hello", Instant.EPOCH));
+            heap("interned ids", round == 1, i -> new MessageHistory.HistoryEntry(i, name("u", i % NICKS),
+                    name("room", i % ROOMS), "hello", Instant.EPOCH));
+        }
+
+        BenchServer server = new BenchServer(port, "maxClients=" + (users + 100), "maxRoomSize=1000");
+        try (BenchClients clients = new BenchClients(port, users, 1000)) {
+            clients.awaitJoined(60_000);
+            try (Socket s = new Socket("127.0.0.1", port)) {
+                s.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                int[] seq = {0};
+                call(in, out, seq, MsgType.HELLO, Kvp.kv("client", "bench"));
+                call(in, out, seq, MsgType.LOGIN, Kvp.kv("nick", "lister"));
+
+                System.out.println();
+                System.out.println(String.format("%-10s %10s", "request", "req/s"));
+                for (int round = 0; round < 2; round++) {
+                    rate("ROOM_INFO", round == 1, requests, in, out, seq, MsgType.ROOM_INFO, Kvp.kv("room", "r0"));
+                    rate("USER_LIST", round == 1, requests, in, out, seq, MsgType.USER_LIST, Kvp.kv());
+                }
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    private interface EntryFactory {
+        Object create(int i);
+    }
+
+    private static void heap(String layout, boolean print, EntryFactory factory) {
+        long before = usedAfterGc();
+        Object[] entries = new Object[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) entries[i] = factory.create(i);
+        long after = usedAfterGc();
+        sink = entries;
+        if (print) {
+            long bytes = after - before - 16L - 4L * ENTRIES;
+            System.out.println(String.format("%-14s %12.1f %14.1f", layout, bytes / 1048576.0, bytes / (double) ENTRIES));
+        }
+        sink = null;
+    }
+
+    // A fresh String every time, as Kvp.decode would produce.
+    private static String name(String prefix, int i) {
+        return new StringBuilder(prefix).append(i).toString();
+    }
+
+    private static long usedAfterGc() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static void rate(String name, boolean print, int requests, DataInputStream in, DataOutputStream out,
+                             int[] seq, byte type, Map<String, String> kv) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) sink = call(in, out, seq, type, kv);
+        double perSecond = requests / ((System.nanoTime() - start) / 1e9);
+        if (print) System.out.println(String.format("%-10s %10.0f", name, perSecond));
+    }
+
+    private static Frame call(DataInputStream in, DataOutputStream out, int[] seq, byte type,
+                              Map<String, String> kv) throws Exception {
+        int s = ++seq[0];
+        Frame.ofText(type, s, Kvp.encode(kv)).writeTo(out);
+        Frame f;
+        do {
+            f = Frame.readFrom(in);
+        } while (f.seq != s);
+        return f;
+    }
+
+    // MessageHistory.HistoryEntry as it was before interning.
+    private static final class StringEntry {
+        final long seq;
+        final String from;
+        final String room;
+        final String message;
+        final Instant timestamp;
+
+        StringEntry(long seq, String from, String room, String message, Instant timestamp) {
+            this.seq = seq;
+            this.from = from;
+            this.room = room;
+            this.message = message;
+            this.timestamp = timestamp;
+        }
+    }
+}
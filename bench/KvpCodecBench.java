@@ -0,0 +1,89 @@
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+
+// Text (percent-escaped key=value lines) vs binary (varint length-prefixed) key/value payloads:
+// encode and decode time, allocated bytes per op and payload size, for a typical CHAT line and a
+// CHAT_HISTORY_RESP carrying a page of history.
+//
+//   java -cp out KvpCodecBench [seconds]
+public final class KvpCodecBench {
+    private static volatile Object sink;
+
+    private KvpCodecBench() {}
+
+    public static void main(String[] args) throws Exception {
+        int seconds = (args.length >= 1) ? Integer.parseInt(args[0]) : 2;
+
+        Map<String, String> chat = Kvp.kv(
+                "room", "lobby",
+                "from", "alice",
+                "msg", "안녕하세요, this is a typical chat line with a bit of text in it.",
+                "time", Instant.now().toString());
+
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            lines.add("user" + i + "|" + Instant.now() + "|message number " + i + " = 50% done, 반갑습니다");
+        }
+        Map<String, String> history = Kvp.kv(
+                "room", "lobby",
+                "messages", String.join("\n", lines),
+                "count", "20");
+
+        System.out.println(String.format("%-8s %-7s %6s %12s %12s %12s %12s",
+                "payload", "codec", "bytes", "enc(ns/op)", "enc(B/op)", "dec(ns/op)", "dec(B/op)"));
+        row("chat", chat, seconds);
+        row("history", history, seconds);
+    }
+
+    private static void row(String name, Map<String, String> kv, int seconds) throws Exception {
+        String text = Kvp.encode(kv);
+        Frame textFrame = Frame.ofKv(MsgType.CHAT, 0, kv, false);
+        Frame binaryFrame = Frame.ofKv(MsgType.CHAT, 0, kv, true);
+
+        // Warm up all four paths before timing.
+        for (int i = 0; i < 2; i++) {
+            measure(() -> sink = Frame.ofKv(MsgType.CHAT, 0, kv, false), 1);
+            measure(() -> sink = Frame.ofKv(MsgType.CHAT, 0, kv, true), 1);
+            measure(() -> sink = Kvp.decode(textFrame), 1);
+            measure(() -> sink = Kvp.decode(binaryFrame), 1);
+        }
+
+        double[] textEnc = measure(() -> sink = Frame.ofKv(MsgType.CHAT, 0, kv, false), seconds);
+        double[] textDec = measure(() -> sink = Kvp.decode(textFrame), seconds);
+        double[] binEnc = measure(() -> sink = Frame.ofKv(MsgType.CHAT, 0, kv, true), seconds);
+        double[] binDec = measure(() -> sink = Kvp.decode(binaryFrame), seconds);
+
+        System.out.println(String.format("%-8s %-7s %6d %12.0f %12.0f %12.0f %12.0f",
+                name, "text", textFrame.payload.length, textEnc[0], textEnc[1], textDec[0], textDec[1]));
+        System.out.println(String.format("%-8s %-7s %6d %12.0f %12.0f %12.0f %12.0f",
+                name, "binary", binaryFrame.payload.length, binEnc[0], binEnc[1], binDec[0], binDec[1]));
+        if (!Kvp.decode(binaryFrame).equals(Kvp.decode(text))) {
+            throw new IllegalStateException("binary round trip differs for " + name);
+        }
+    }
+
+    private interface Op {
+        void run() throws Exception;
+    }
+
+    // Returns {ns/op, allocated bytes/op} for the calling thread.
+    private static double[] measure(Op op, int seconds) throws Exception {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        long allocStart = mx.getThreadAllocatedBytes(tid);
+        long start = System.nanoTime();
+        long ops = 0;
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < 1000; i++) op.run();
+            ops += 1000;
+        }
+        long elapsed = System.nanoTime() - start;
+        long alloc = mx.getThreadAllocatedBytes(tid) - allocStart;
+        return new double[] {(double) elapsed / ops, (double) alloc / ops};
+    }
+}
@@ -0,0 +1,114 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+
+// CHAT fan-out latency while other clients churn through connect/login/join/leave/disconnect, each of
+// which logs on the server's I/O threads. Runs the server with logLevel=debug writing to a file, once
+// per logMode, so the only difference is whether session threads format and write the lines
+// themselves (sync, as the Logger always did) or hand them to the ring's writer thread (async).
+//
+//   java -cp out LoggerBench [clients] [msgsPerSec] [churnPerSec] [seconds] [port]
+public final class LoggerBench {
+    private static final int ROOM_SIZE = 20;
+
+    private LoggerBench() {}
+
+    public static void main(String[] args) throws Exception {
+        int clients = (args.length >= 1) ? Integer.parseInt(args[0]) : 200;
+        int rate = (args.length >= 2) ? Integer.parseInt(args[1]) : 500;
+        int churn = (args.length >= 3) ? Integer.parseInt(args[2]) : 300;
+        int seconds = (args.length >= 4) ? Integer.parseInt(args[3]) : 10;
+        int port = (args.length >= 5) ? Integer.parseInt(args[4]) : 15700;
+
+        System.out.println(String.format("%-6s %-10s %8s %10s %9s %9s %9s %10s",
+                "mode", "transport", "churned", "delivered", "p50(ms)", "p99(ms)", "max(ms)", "log lines"));
+        for (String transport : new String[] {"blocking", "nio"}) {
+            for (String mode : new String[] {"sync", "async"}) {
+                run(mode, transport, clients, rate, churn, seconds, port);
+            }
+        }
+    }
+
+    private static void run(String mode, String transport, int n, int rate, int churn, int seconds, int port)
+            throws Exception {
+        File log = File.createTempFile("loggerbench", ".log");
+        System.setProperty("bench.serverOutput", File.createTempFile("loggerbench", ".out").getPath());
+        BenchServer server = new BenchServer(port,
+                "enableLogging=true",
+                "logLevel=debug",
+                "logMode=" + mode,
+                "logFile=" + log.getPath(),
+                "logMaxBytes=0",
+                "transport=" + transport,
+                "maxRoomSize=" + ROOM_SIZE);
+        try {
+            BenchClients clients = new BenchClients(port, n, ROOM_SIZE);
+            AtomicLong churned = new AtomicLong();
+            long delivered;
+            try {
+                clients.awaitJoined(30_000);
+
+                long end = System.nanoTime() + seconds * 1_000_000_000L;
+                Thread churner = new Thread(() -> churn(port, churn, end, churned), "churn");
+                churner.start();
+
+                long before = clients.framesIn.get();
+                long intervalNanos = 1_000_000_000L / rate;
+                for (long next = System.nanoTime(); next < end; next += intervalNanos) {
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                    clients.send(ThreadLocalRandom.current().nextInt(n));
+                }
+                churner.join();
+                Thread.sleep(1000);
+                delivered = clients.framesIn.get() - before;
+            } finally {
+                // Stops the reader thread before its latencies are read.
+                clients.close();
+            }
+
+            long[] lat = clients.sortedLatencies();
+            long lines;
+            try (Stream<String> s = Files.lines(log.toPath())) {
+                lines = s.count();
+            }
+            System.out.println(String.format("%-6s %-10s %8d %10d %9.2f %9.2f %9.2f %10d",
+                    mode, transport, churned.get(), delivered,
+                    BenchClients.percentileMs(lat, 50), BenchClients.percentileMs(lat, 99),
+                    BenchClients.percentileMs(lat, 100), lines));
+        } finally {
+            server.close();
+            log.delete();
+        }
+    }
+
+    private static void churn(int port, int perSec, long end, AtomicLong churned) {
+        long intervalNanos = 1_000_000_000L / perSec;
+        int seq = 0;
+        for (long next = System.nanoTime(); next < end; next += intervalNanos) {
+            try {
+                long wait = next - System.nanoTime();
+                if (wait > 0) Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                try (Socket s = new Socket("127.0.0.1", port)) {
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                    String nick = "churn" + (seq++);
+                    Frame.ofText(MsgType.HELLO, 1, Kvp.encode(Kvp.kv("client", "churn"))).writeTo(out);
+                    Frame.ofText(MsgType.LOGIN, 2, Kvp.encode(Kvp.kv("nick", nick))).writeTo(out);
+                    Frame.ofText(MsgType.JOIN, 3, Kvp.encode(Kvp.kv("room", "churn"))).writeTo(out);
+                    Frame.ofText(MsgType.LEAVE, 4, Kvp.encode(Kvp.kv("room", "churn"))).writeTo(out);
+                    out.flush();
+                    s.getInputStream().read();
+                }
+                churned.incrementAndGet();
+            } catch (Exception e) {
+                // Server busy; try again on the next slot.
+            }
+        }
+    }
+}
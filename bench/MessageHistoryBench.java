@@ -0,0 +1,107 @@
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+
+// add/getRecent throughput of the ring-buffer MessageHistory against the previous queue-backed one
+// (kept below as QueueHistory), with WRITERS threads appending while one reader pulls the latest 20.
+//
+//   java -cp out MessageHistoryBench [100,1000,10000] [seconds]
+public final class MessageHistoryBench {
+    private static final int WRITERS = 8;
+    private static volatile Object sink;
+
+    private MessageHistoryBench() {}
+
+    private interface History {
+        void add(String from, String room, String message);
+        List<?> getRecent(int count);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] sizes = ((args.length >= 1) ? args[0] : "100,1000,10000").split(",");
+        int seconds = (args.length >= 2) ? Integer.parseInt(args[1]) : 3;
+
+        System.out.println(String.format("%-7s %-6s %14s %18s", "size", "impl", "add ops/s", "getRecent(20)/s"));
+        for (String s : sizes) {
+            int size = Integer.parseInt(s.trim());
+            for (int round = 0; round < 2; round++) {
+                boolean print = round == 1;
+                MessageHistory ring = new MessageHistory(size);
+                run("ring", size, new History() {
+                    public void add(String from, String room, String message) { ring.add(from, room, message); }
+                    public List<?> getRecent(int count) { return ring.getRecent(count); }
+                }, print ? seconds : 1, print);
+                QueueHistory queue = new QueueHistory(size);
+                run("queue", size, new History() {
+                    public void add(String from, String room, String message) { queue.add(from, room, message); }
+                    public List<?> getRecent(int count) { return queue.getRecent(count); }
+                }, print ? seconds : 1, print);
+            }
+        }
+    }
+
+    private static void run(String name, int size, History h, int seconds, boolean print) throws Exception {
+        LongAdder adds = new LongAdder();
+        LongAdder reads = new LongAdder();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        CountDownLatch done = new CountDownLatch(WRITERS + 1);
+
+        for (int w = 0; w < WRITERS; w++) {
+            String from = "user" + w;
+            new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    for (int i = 0; i < 100; i++) h.add(from, "lobby", "hello there");
+                    adds.add(100);
+                }
+                done.countDown();
+            }).start();
+        }
+        new Thread(() -> {
+            while (System.nanoTime() < end) {
+                sink = h.getRecent(20);
+                reads.increment();
+            }
+            done.countDown();
+        }).start();
+
+        done.await();
+        if (print) {
+            System.out.println(String.format("%-7d %-6s %14.0f %18.0f", size, name,
+                    adds.sum() / (double) seconds, reads.sum() / (double) seconds));
+        }
+    }
+
+    // MessageHistory as it was before the ring buffer.
+    private static final class QueueHistory {
+        private final ConcurrentLinkedQueue<Object[]> history = new ConcurrentLinkedQueue<>();
+        private final int maxSize;
+
+        QueueHistory(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        void add(String from, String room, String message) {
+            history.offer(new Object[] {from, room, message, Instant.now()});
+            while (history.size() > maxSize) {
+                history.poll();
+            }
+        }
+
+        List<Object[]> getRecent(int count) {
+            List<Object[]> result = new ArrayList<>();
+            List<Object[]> all = new ArrayList<>(history);
+            Collections.reverse(all);
+            for (Object[] entry : all) {
+                if (result.size() >= count) break;
+                result.add(entry);
+            }
+            Collections.reverse(result);
+            return result;
+        }
+    }
+}
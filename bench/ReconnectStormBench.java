@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+
+// Every client of a server reconnecting at once, as after a restart or a network blip: N clients spread
+// over ADDRESSES loopback source addresses all connect in the same instant and send HELLO and LOGIN. A
+// client that is refused, reset or sent LOGIN_FAIL retries after a jittered backoff (100 ms doubling to
+// 2 s), like ChatClient. Prints logins and failed attempts per second until everyone is in, once with the
+// ServerConfig admission defaults and once with admission control off.
+//
+//   java -cp out ReconnectStormBench [clients] [port] [defaults,off]
+public final class ReconnectStormBench {
+    private static final int ADDRESSES = 200;
+    private static final long GIVE_UP_MS = 120_000;
+
+    private static final class Client {
+        final int id;
+        SocketChannel ch;
+        final ByteBuffer in = ByteBuffer.allocate(4096);
+        int attempts;
+        long due;
+
+        Client(int id) {
+            this.id = id;
+        }
+    }
+
+    private ReconnectStormBench() {}
+
+    public static void main(String[] args) throws Exception {
+        int clients = (args.length >= 1) ? Integer.parseInt(args[0]) : 10_000;
+        int port = (args.length >= 2) ? Integer.parseInt(args[1]) : 15560;
+        String[] modes = (args.length >= 3) ? args[2].split(",") : new String[] {"defaults", "off"};
+
+        List<String> summary = new ArrayList<>();
+        for (String mode : modes) {
+            summary.add(run(mode, clients, port));
+        }
+        System.out.println();
+        System.out.println(String.format("%-9s %8s %10s %12s %10s %10s %9s", "mode", "clients", "all in(s)",
+                "peak login/s", "attempts", "failed", "threads"));
+        for (String line : summary) System.out.println(line);
+    }
+
+    private static String run(String mode, int n, int port) throws Exception {
+        // BenchServer turns admission control off; later properties win.
+        String[] admission = mode.equals("defaults")
+                ? new String[] {"acceptRatePerSec=1000", "maxConnectionsPerIp=100", "connectRatePerIp=10", "loginTimeoutMs=30000"}
+                : new String[0];
+        String[] props = new String[admission.length + 2];
+        props[0] = "maxClients=" + (n + 100);
+        props[1] = "transport=nio";
+        System.arraycopy(admission, 0, props, 2, admission.length);
+
+        try (BenchServer server = new BenchServer(port, props);
+             Selector selector = Selector.open()) {
+            PriorityQueue<Client> waiting = new PriorityQueue<>((a, b) -> Long.compare(a.due, b.due));
+            for (int i = 0; i < n; i++) waiting.add(new Client(i));
+
+            System.out.println(mode + ": " + n + " clients from " + Math.min(n, ADDRESSES) + " addresses");
+            System.out.println(String.format("%6s %10s %10s %10s", "sec", "logins", "failed", "in"));
+            long start = System.nanoTime();
+            int in = 0;
+            long attempts = 0;
+            long failed = 0;
+            int peak = 0;
+            int second = 1;
+            int loginsThisSecond = 0;
+            long failedThisSecond = 0;
+            long secondEnd = start + 1_000_000_000L;
+
+            while (in < n && System.nanoTime() - start < GIVE_UP_MS * 1_000_000L) {
+                long now = System.nanoTime();
+                while (!waiting.isEmpty() && waiting.peek().due <= now) {
+                    Client c = waiting.poll();
+                    attempts++;
+                    if (!open(c, selector, port)) {
+                        failed++;
+                        failedThisSecond++;
+                        retry(c, waiting, now);
+                    }
+                }
+
+                selector.select(10);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Client c = (Client) key.attachment();
+                    int r = step(c, key);
+                    if (r > 0) {
+                        in++;
+                        loginsThisSecond++;
+                    } else if (r < 0) {
+                        failed++;
+                        failedThisSecond++;
+                        retry(c, waiting, System.nanoTime());
+                    }
+                }
+                selector.selectedKeys().clear();
+
+                now = System.nanoTime();
+                if (now >= secondEnd || in == n) {
+                    System.out.println(String.format("%6d %10d %10d %10d", second, loginsThisSecond, failedThisSecond, in));
+                    peak = Math.max(peak, loginsThisSecond);
+                    loginsThisSecond = 0;
+                    failedThisSecond = 0;
+                    second++;
+                    secondEnd += 1_000_000_000L;
+                }
+            }
+            double took = (System.nanoTime() - start) / 1e9;
+            String threads = server.threads();
+            for (SelectionKey key : selector.keys()) key.channel().close();
+            return String.format("%-9s %8d %10s %12d %10d %10d %9s", mode, in,
+                    (in == n) ? String.format("%.1f", took) : "gave up", peak, attempts, failed, threads);
+        }
+    }
+
+    private static boolean open(Client c, Selector selector, int port) {
+        try {
+            c.ch = SocketChannel.open();
+            c.ch.configureBlocking(false);
+            c.ch.bind(new InetSocketAddress("127.1.0." + (1 + c.id % ADDRESSES), 0));
+            c.in.clear();
+            if (c.ch.connect(new InetSocketAddress("127.0.0.1", port))) {
+                sendHello(c);
+                c.ch.register(selector, SelectionKey.OP_READ, c);
+            } else {
+                c.ch.register(selector, SelectionKey.OP_CONNECT, c);
+            }
+            return true;
+        } catch (IOException e) {
+            close(c);
+            return false;
+        }
+    }
+
+    // 1 once the client is logged in, -1 if this attempt failed, 0 while it is still going.
+    private static int step(Client c, SelectionKey key) {
+        try {
+            if (key.isConnectable()) {
+                c.ch.finishConnect();
+                sendHello(c);
+                key.interestOps(SelectionKey.OP_READ);
+                return 0;
+            }
+            if (c.ch.read(c.in) < 0) {
+                close(c);
+                return -1;
+            }
+            c.in.flip();
+            try {
+                Frame f;
+                while ((f = Frame.decode(c.in)) != null) {
+                    if (f.type == MsgType.LOGIN_OK) {
+                        // Logged in; stays connected until the run ends.
+                        key.interestOps(0);
+                        return 1;
+                    }
+                    if (f.type == MsgType.LOGIN_FAIL) {
+                        close(c);
+                        return -1;
+                    }
+                }
+            } finally {
+                c.in.compact();
+            }
+            return 0;
+        } catch (IOException e) {
+            close(c);
+            return -1;
+        }
+    }
+
+    private static void sendHello(Client c) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(256);
+        b.put(Frame.ofText(MsgType.HELLO, 1, Kvp.encode(Kvp.kv("client", "bench"))).encode());
+        b.put(Frame.ofText(MsgType.LOGIN, 2, Kvp.encode(Kvp.kv("nick", "s" + c.id))).encode());
+        b.flip();
+        while (b.hasRemaining()) c.ch.write(b);
+    }
+
+    private static void retry(Client c, PriorityQueue<Client> waiting, long now) {
+        long backoffMs = Math.min(2000, 100L << Math.min(c.attempts++, 5));
+        c.due = now + ThreadLocalRandom.current().nextLong(backoffMs / 2, backoffMs + 1) * 1_000_000L;
+        waiting.add(c);
+    }
+
+    private static void close(Client c) {
+        try {
+            if (c.ch != null) c.ch.close();
+        } catch (IOException ignored) {}
+    }
+}
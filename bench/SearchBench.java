@@ -0,0 +1,94 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+// MSG_SEARCH cost over a room holding N messages of mixed English/Korean chat: the indexed
+// MessageHistory.search against the linear toLowerCase().contains scan it replaced. Also reports what
+// indexing adds to MessageHistory.add.
+//
+//   java -Xmx3g -Dsun.stdout.encoding=UTF-8 -cp out SearchBench [10000,100000,1000000] [queries]
+public final class SearchBench {
+    private static final String[] EN = {
+        "hello", "there", "meeting", "tomorrow", "deploy", "server", "lunch", "coffee", "release", "build",
+        "broken", "fixed", "review", "merge", "ticket", "weekend", "thanks", "question", "network", "database",
+    };
+    private static final String[] KO = {
+        "안녕하세요", "회의", "내일", "배포", "서버", "점심", "커피", "릴리즈", "빌드", "수정",
+        "리뷰", "주말", "감사합니다", "질문", "네트워크", "데이터베이스", "확인", "부탁드립니다", "오늘", "퇴근",
+    };
+    private static final String[] QUERIES = {"deploy", "데이터", "from:user7 coffee", "merge review", "회의 내일"};
+    private static volatile Object sink;
+
+    private SearchBench() {}
+
+    public static void main(String[] args) {
+        String[] sizes = ((args.length >= 1) ? args[0] : "10000,100000,1000000").split(",");
+        int queries = (args.length >= 2) ? Integer.parseInt(args[1]) : 50;
+
+        System.out.println(String.format("%-8s %-20s %-7s %10s %12s %8s", "size", "query", "impl", "ms/query",
+                "B/query", "hits"));
+        for (String s : sizes) {
+            int size = Integer.parseInt(s.trim());
+            MessageHistory history = new MessageHistory(size);
+            Random rnd = new Random(42);
+            long t0 = System.nanoTime();
+            for (int i = 0; i < size; i++) {
+                history.add("user" + rnd.nextInt(50), "lobby", message(rnd));
+            }
+            double addUs = (System.nanoTime() - t0) / 1000.0 / size;
+            System.out.println(String.format("%-8d add %.2f us/op (indexed)", size, addUs));
+
+            for (String q : QUERIES) {
+                int n = Math.max(3, queries * 10_000 / size);
+                measure(size, q, "index", n, () -> history.search(q, 50).total);
+                measure(size, q, "scan", n, () -> scan(history, q));
+            }
+        }
+    }
+
+    private static String message(Random rnd) {
+        StringBuilder sb = new StringBuilder();
+        int words = 3 + rnd.nextInt(8);
+        for (int w = 0; w < words; w++) {
+            if (w > 0) sb.append(' ');
+            sb.append(rnd.nextBoolean() ? EN[rnd.nextInt(EN.length)] : KO[rnd.nextInt(KO.length)]);
+        }
+        return sb.toString();
+    }
+
+    // The pre-index handleMessageSearch loop, keyword taken verbatim.
+    private static int scan(MessageHistory history, String keyword) {
+        List<MessageHistory.HistoryEntry> all = history.getAll();
+        List<String> results = new ArrayList<>();
+        for (MessageHistory.HistoryEntry entry : all) {
+            if (entry.message.toLowerCase().contains(keyword.toLowerCase()) ||
+                entry.from().toLowerCase().contains(keyword.toLowerCase())) {
+                results.add(String.format("%s|%s|%s|%s", entry.from(), entry.room(), entry.timestamp.toString(), entry.message));
+            }
+        }
+        return results.size();
+    }
+
+    private interface Query {
+        int run();
+    }
+
+    private static void measure(int size, String q, String impl, int n, Query query) {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        int hits = 0;
+        for (int i = 0; i < Math.max(1, n / 5); i++) hits = query.run();
+
+        long bytes = mx.getThreadAllocatedBytes(tid);
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            hits = query.run();
+        }
+        long ns = System.nanoTime() - start;
+        bytes = mx.getThreadAllocatedBytes(tid) - bytes;
+        sink = hits;
+        System.out.println(String.format("%-8d %-20s %-7s %10.3f %12d %8d", size, q, impl, ns / 1e6 / n, bytes / n, hits));
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+
+// Blocking transport with platform vs virtual session threads. For every connection count it starts a
+// fresh server, logs everyone in to rooms of ROOM_SIZE, sends chat at a fixed rate and reports the
+// server footprint together with end-to-end fan-out latency. Virtual mode needs the bench (and
+// therefore the child server) to run on JDK 21+.
+//
+//   java -cp out ThreadModeLoadTest [5000,20000,50000] [msgsPerSec] [seconds] [port]
+public final class ThreadModeLoadTest {
+    private static final int ROOM_SIZE = 20;
+
+    private ThreadModeLoadTest() {}
+
+    public static void main(String[] args) throws Exception {
+        String[] counts = ((args.length >= 1) ? args[0] : "5000,20000,50000").split(",");
+        int rate = (args.length >= 2) ? Integer.parseInt(args[1]) : 500;
+        int seconds = (args.length >= 3) ? Integer.parseInt(args[2]) : 10;
+        int port = (args.length >= 4) ? Integer.parseInt(args[3]) : 15600;
+
+        System.out.println(String.format("%-9s %8s %8s %8s %10s %10s %9s %9s %9s",
+                "mode", "conns", "threads", "rss(MB)", "sent", "delivered", "p50(ms)", "p99(ms)", "max(ms)"));
+        for (String c : counts) {
+            for (String mode : new String[] {"platform", "virtual"}) {
+                run(mode, Integer.parseInt(c.trim()), rate, seconds, port);
+            }
+        }
+    }
+
+    private static void run(String mode, int connections, int rate, int seconds, int port) throws Exception {
+        try (BenchServer server = new BenchServer(port,
+                "maxClients=" + (connections + 100),
+                "maxRoomSize=" + ROOM_SIZE,
+                "threadMode=" + mode)) {
+            BenchClients clients;
+            try {
+                clients = new BenchClients(port, connections, ROOM_SIZE);
+            } catch (Exception e) {
+                System.out.println(String.format("%-9s %8d  connect failed: %s", mode, connections, e.getMessage()));
+                return;
+            }
+
+            long sent = 0;
+            try (clients) {
+                clients.awaitJoined(120_000);
+                long before = clients.framesIn.get();
+                long intervalNanos = 1_000_000_000L / rate;
+                long start = System.nanoTime();
+                long end = start + seconds * 1_000_000_000L;
+                for (long next = start; next < end; next += intervalNanos) {
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                    clients.send(ThreadLocalRandom.current().nextInt(connections));
+                    sent++;
+                }
+                Thread.sleep(2000);
+                String threads = server.threads();
+                String rss = server.rssMb();
+                long delivered = clients.framesIn.get() - before;
+                clients.close();
+
+                long[] lat = clients.sortedLatencies();
+                System.out.println(String.format("%-9s %8d %8s %8s %10d %10d %9.2f %9.2f %9.2f",
+                        mode, connections, threads, rss, sent, delivered,
+                        BenchClients.percentileMs(lat, 50), BenchClients.percentileMs(lat, 99),
+                        BenchClients.percentileMs(lat, 100)));
+            }
+        }
+    }
+}
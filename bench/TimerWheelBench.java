@@ -0,0 +1,146 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// Idle-timeout bookkeeping for N sessions: the old full sweep over the session map against the
+// TimingWheel, over one timeout window in which IDLE_PERCENT of the sessions go quiet and the rest keep
+// talking. The sweep's cost is per pass (the server ran one every heartbeatInterval, three per window);
+// the wheel's is the time spent in advance() per window, which includes moving postponed timeouts.
+//
+//   java -cp out TimerWheelBench [sessions] [windowMillis] [tickMillis]
+public final class TimerWheelBench {
+    private static final int IDLE_PERCENT = 1;
+    private static volatile Object sink;
+
+    private TimerWheelBench() {}
+
+    private static final class Session {
+        final AtomicLong lastActivity = new AtomicLong(System.currentTimeMillis());
+        final boolean idle;
+        TimingWheel.Timeout timer;
+        volatile boolean expired;
+
+        Session(boolean idle) {
+            this.idle = idle;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int sessions = (args.length >= 1) ? Integer.parseInt(args[0]) : 100_000;
+        long window = (args.length >= 2) ? Long.parseLong(args[1]) : 3000;
+        long tick = (args.length >= 3) ? Long.parseLong(args[2]) : 10;
+
+        for (int round = 0; round < 3; round++) {
+            boolean print = round == 2;
+            sweep(sessions, window, print);
+            wheel(sessions, window, tick, print);
+        }
+    }
+
+    private static List<Session> sessions(int n) {
+        List<Session> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            list.add(new Session(i % 100 < IDLE_PERCENT));
+        }
+        return list;
+    }
+
+    private static void sweep(int n, long window, boolean print) {
+        ConcurrentHashMap<Integer, Session> map = new ConcurrentHashMap<>();
+        List<Session> list = sessions(n);
+        for (int i = 0; i < n; i++) {
+            Session s = list.get(i);
+            if (s.idle) s.lastActivity.set(System.currentTimeMillis() - window - 1);
+            map.put(i, s);
+        }
+
+        int passes = 20;
+        long start = System.nanoTime();
+        int timedOut = 0;
+        for (int p = 0; p < passes; p++) {
+            long now = System.currentTimeMillis();
+            List<Session> toRemove = new ArrayList<>();
+            for (Session s : map.values()) {
+                if (now - s.lastActivity.get() > window) toRemove.add(s);
+            }
+            timedOut = toRemove.size();
+            sink = toRemove;
+        }
+        double passMs = (System.nanoTime() - start) / 1e6 / passes;
+        if (print) {
+            System.out.println(String.format("sweep  sessions=%d  %.3f ms/pass  %.3f ms/window (3 passes)  timed out %d  lateness up to one heartbeatInterval",
+                n, passMs, passMs * 3, timedOut));
+        }
+    }
+
+    private static void wheel(int n, long window, long tick, boolean print) throws Exception {
+        TimingWheel wheel = new TimingWheel(tick, 512);
+        List<Session> list = sessions(n);
+        long[] maxLate = new long[1];
+        int[] rearms = new int[1];
+        int[] expired = new int[1];
+
+        long t0 = System.nanoTime();
+        for (Session s : list) {
+            arm(wheel, s, window, maxLate, rearms, expired);
+        }
+        double scheduleNs = (System.nanoTime() - t0) / (double) n;
+        t0 = System.nanoTime();
+        wheel.advance(System.currentTimeMillis());
+        double fileMs = (System.nanoTime() - t0) / 1e6;
+
+        // Busy sessions bump their timestamp twice per window, a slice of them every tick.
+        int share = (int) Math.max(1, 2L * n * tick / window);
+        long touchNs = 0;
+        long touches = 0;
+        long inAdvance = 0;
+        long worstTick = 0;
+        int ticks = 0;
+        int next = 0;
+        long end = System.currentTimeMillis() + 2 * window;
+        while (System.currentTimeMillis() < end) {
+            long b0 = System.nanoTime();
+            for (int i = 0; i < share; i++) {
+                Session s = list.get(next);
+                next = (next + 1) % n;
+                if (s.idle) continue;
+                long now = System.currentTimeMillis();
+                s.lastActivity.set(now);
+                s.timer.postpone(now + window);
+                touches++;
+            }
+            touchNs += System.nanoTime() - b0;
+
+            long a0 = System.nanoTime();
+            wheel.advance(System.currentTimeMillis());
+            long spent = System.nanoTime() - a0;
+            inAdvance += spent;
+            worstTick = Math.max(worstTick, spent);
+            ticks++;
+            Thread.sleep(tick);
+        }
+
+        if (print) {
+            System.out.println(String.format("wheel  sessions=%d  schedule %.0f ns/op  file %.1f ms once  touch %.0f ns/op  %.3f ms/window in advance()  worst tick %.3f ms  expired=%d rearmed=%d  max lateness %d ms (tick %d ms, %d ticks)",
+                n, scheduleNs, fileMs, touchNs / (double) Math.max(1, touches), inAdvance / 1e6 / 2, worstTick / 1e6,
+                expired[0], rearms[0], maxLate[0], tick, ticks));
+        }
+    }
+
+    private static void arm(TimingWheel wheel, Session s, long window, long[] maxLate, int[] rearms, int[] expired) {
+        long deadline = s.lastActivity.get() + window;
+        s.timer = wheel.schedule(deadline - System.currentTimeMillis(), () -> {
+            long now = System.currentTimeMillis();
+            if (now - s.lastActivity.get() >= window) {
+                maxLate[0] = Math.max(maxLate[0], now - deadline);
+                s.expired = true;
+                expired[0]++;
+            } else {
+                rearms[0]++;
+                arm(wheel, s, window, maxLate, rearms, expired);
+            }
+        });
+    }
+}
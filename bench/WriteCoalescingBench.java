@@ -0,0 +1,76 @@
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+
+// One room of ROOM_SIZE members receiving a steady chat rate (1k msg/s by default), run once per
+// writer configuration. Reports delivered frames, end-to-end latency and the server's frames per flush.
+//
+//   java -cp out WriteCoalescingBench [msgsPerSec] [seconds] [port]
+public final class WriteCoalescingBench {
+    private static final int ROOM_SIZE = 100;
+
+    private static final String[][] CONFIGS = {
+        {"blocking", "writeBatchBytes=0"},
+        {"blocking", "writeBatchBytes=8192"},
+        {"blocking", "writeBatchBytes=8192", "writeBatchDelayMicros=200"},
+        {"nio", "writeBatchBytes=0"},
+        {"nio", "writeBatchBytes=8192"},
+    };
+
+    private WriteCoalescingBench() {}
+
+    public static void main(String[] args) throws Exception {
+        int rate = (args.length >= 1) ? Integer.parseInt(args[0]) : 1000;
+        int seconds = (args.length >= 2) ? Integer.parseInt(args[1]) : 10;
+        int port = (args.length >= 3) ? Integer.parseInt(args[2]) : 15700;
+
+        System.out.println(String.format("%-9s %-46s %10s %10s %9s %9s %8s",
+                "transport", "config", "sent", "delivered", "p50(ms)", "p99(ms)", "fr/flush"));
+        for (String[] config : CONFIGS) {
+            run(config, rate, seconds, port);
+        }
+    }
+
+    private static void run(String[] config, int rate, int seconds, int port) throws Exception {
+        String[] props = new String[config.length + 1];
+        props[0] = "transport=" + config[0];
+        props[1] = "maxRoomSize=" + ROOM_SIZE;
+        System.arraycopy(config, 1, props, 2, config.length - 1);
+
+        // The reader thread must be stopped before the latencies are read, hence the explicit try/finally.
+        BenchServer server = new BenchServer(port, props);
+        try {
+            BenchClients clients = new BenchClients(port, ROOM_SIZE, ROOM_SIZE);
+            long sent = 0;
+            long delivered;
+            String framesPerFlush;
+            try {
+                clients.awaitJoined(60_000);
+                long before = clients.framesIn.get();
+
+                long intervalNanos = 1_000_000_000L / rate;
+                long start = System.nanoTime();
+                long end = start + seconds * 1_000_000_000L;
+                for (long next = start; next < end; next += intervalNanos) {
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                    clients.send(ThreadLocalRandom.current().nextInt(ROOM_SIZE));
+                    sent++;
+                }
+                Thread.sleep(2000);
+                delivered = clients.framesIn.get() - before;
+                framesPerFlush = BenchClients.statsLine(clients.stats(3000), "Frames Per Flush");
+            } finally {
+                clients.close();
+            }
+
+            long[] lat = clients.sortedLatencies();
+            System.out.println(String.format("%-9s %-46s %10d %10d %9.2f %9.2f %8s",
+                    config[0], String.join(" ", Arrays.copyOfRange(config, 1, config.length)),
+                    sent, delivered, BenchClients.percentileMs(lat, 50), BenchClients.percentileMs(lat, 99),
+                    framesPerFlush));
+        } finally {
+            server.close();
+        }
+    }
+}
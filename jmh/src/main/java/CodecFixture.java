@@ -0,0 +1,36 @@
+import chat.jmh.Workloads;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Map;
+
+
+// A CHAT payload through the text (Kvp) or binary (BinaryKvp) key/value codec.
+public final class CodecFixture implements Workloads.Codec {
+    private Map<String, String> map;
+    private boolean binary;
+    private String text;
+    private byte[] bytes;
+
+    @Override
+    public void setUp(String payload, boolean binary) {
+        this.map = Kvp.kv(
+                "room", "lobby",
+                "from", "alice",
+                "msg", payload,
+                "time", Instant.now().toString());
+        this.binary = binary;
+        this.text = Kvp.encode(map);
+        this.bytes = BinaryKvp.encode(map);
+    }
+
+    @Override
+    public Object encode() {
+        return binary ? BinaryKvp.encode(map) : Kvp.encode(map);
+    }
+
+    @Override
+    public Object decode() throws IOException {
+        return binary ? BinaryKvp.decode(bytes) : Kvp.decode(text);
+    }
+}
@@ -0,0 +1,45 @@
+import chat.jmh.Workloads;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+
+
+// One CHAT frame written to and read back from in-memory streams that are rewound on every call.
+public final class FrameFixture implements Workloads.Frames {
+    private Frame frame;
+    private ByteArrayOutputStream sink;
+    private DataOutputStream out;
+    private ByteArrayInputStream source;
+    private DataInputStream in;
+
+    @Override
+    public void setUp(String payload) throws IOException {
+        frame = Frame.ofKv(MsgType.CHAT, 1, Kvp.kv(
+                "room", "lobby",
+                "from", "alice",
+                "msg", payload,
+                "time", Instant.now().toString()), false);
+        sink = new ByteArrayOutputStream(frame.wireSize());
+        out = new DataOutputStream(sink);
+        frame.writeTo(out);
+        source = new ByteArrayInputStream(sink.toByteArray());
+        in = new DataInputStream(source);
+    }
+
+    @Override
+    public int writeTo() throws IOException {
+        sink.reset();
+        frame.writeTo(out);
+        return sink.size();
+    }
+
+    @Override
+    public Object readFrom() throws IOException {
+        source.reset();
+        return Frame.readFrom(in);
+    }
+}
@@ -0,0 +1,34 @@
+import chat.jmh.Workloads;
+
+
+// An in-memory MessageHistory, filled to capacity so add() always evicts and getRecent() reads a full ring.
+public final class HistoryFixture implements Workloads.History {
+    private static final String[] LINES = {
+        "the deploy finished and everything looks green",
+        "회의는 세 시에 시작합니다",
+        "can someone review the search index patch?",
+        "점심 뭐 먹을까요"
+    };
+
+    private static final String[] NICKS = {"alice", "bob", "carol", "dave", "erin", "frank", "grace", "heidi"};
+
+    private MessageHistory history;
+    private int next;
+
+    @Override
+    public void setUp(int capacity) {
+        history = new MessageHistory(capacity);
+        for (int i = 0; i < capacity; i++) add();
+    }
+
+    @Override
+    public Object add() {
+        int i = next++;
+        return history.add(NICKS[i & 7], "lobby", LINES[i & 3]);
+    }
+
+    @Override
+    public Object getRecent(int count) {
+        return history.getRecent(count);
+    }
+}
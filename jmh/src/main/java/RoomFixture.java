@@ -0,0 +1,125 @@
+import chat.jmh.Workloads;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+
+
+// A ChatServer that never binds a port, with blocking-transport sessions over sockets that go nowhere.
+// The sessions' threads are never started; instead each call drains every send queue into a discarding
+// stream, so a measured operation covers the handler, the fan-out and the writers' share of the work.
+public final class RoomFixture implements Workloads.Room {
+    private static final String[] LINES = {
+        "the deploy finished and everything looks green on the dashboard",
+        "can someone review the search index patch before the release?",
+        "오늘 배포는 세 시에 시작합니다, 회의실은 3층입니다",
+        "lunch at noon? the new place next to the station",
+        "점심 메뉴 추천 받습니다, 국수 아니면 비빔밥"
+    };
+
+    private ChatServer server;
+    private ClientSession[] sessions;
+    private Frame chat;
+    private Frame search;
+    private String searchKeyword;
+    private final DataOutputStream out = new DataOutputStream(OutputStream.nullOutputStream());
+
+    private static final class InMemorySocket extends Socket {
+        private final SocketAddress address;
+
+        InMemorySocket(int port) {
+            this.address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return OutputStream.nullOutputStream();
+        }
+
+        @Override
+        public SocketAddress getRemoteSocketAddress() {
+            return address;
+        }
+    }
+
+    @Override
+    public void setUp(int members, int history) throws IOException {
+        configure(members, history);
+        server = new ChatServer(0);
+        sessions = new ClientSession[members];
+        for (int i = 0; i < members; i++) {
+            sessions[i] = new ClientSession(server, new InMemorySocket(40000 + i));
+        }
+        for (int i = 0; i < members; i++) {
+            server.onFrame(sessions[i], Frame.ofKv(MsgType.LOGIN, 1, Kvp.kv("nick", "user" + i), false));
+            drain();
+        }
+        for (int i = 0; i < history; i++) {
+            server.onFrame(sessions[i % members], Frame.ofKv(MsgType.CHAT, 2, Kvp.kv(
+                    "room", "lobby", "msg", LINES[i % LINES.length] + " #" + i), false));
+            drain();
+        }
+        chat = Frame.ofKv(MsgType.CHAT, 3, Kvp.kv("room", "lobby", "msg", LINES[0]), false);
+    }
+
+    @Override
+    public int chat() throws IOException {
+        server.onFrame(sessions[0], chat);
+        return drain();
+    }
+
+    @Override
+    public int search(String keyword) throws IOException {
+        if (!keyword.equals(searchKeyword)) {
+            search = Frame.ofKv(MsgType.MSG_SEARCH, 4, Kvp.kv("room", "lobby", "keyword", keyword, "limit", "20"), false);
+            searchKeyword = keyword;
+        }
+        server.onFrame(sessions[0], search);
+        return drain();
+    }
+
+    private int drain() throws IOException {
+        int n = 0;
+        for (ClientSession s : sessions) {
+            SendQueue q = s.getSendQueue();
+            Frame f;
+            while ((f = q.poll()) != null) {
+                f.write(out);
+                n++;
+            }
+        }
+        return n;
+    }
+
+    // ServerConfig is read once per JVM, and JMH gives every benchmark and parameter set its own fork, so
+    // the first fixture in a fork decides: history in memory only, no logging, no rate limit, a room big
+    // enough for all.
+    private static void configure(int members, int history) throws IOException {
+        File props = File.createTempFile("chat-jmh", ".properties");
+        props.deleteOnExit();
+        try (Writer w = new FileWriter(props)) {
+            w.write("historyDir=\n");
+            w.write("enableLogging=false\n");
+            w.write("rateLimitEnabled=false\n");
+            w.write("maxRoomSize=" + members + "\n");
+            w.write("messageHistorySize=" + Math.max(1, history) + "\n");
+        }
+        System.setProperty("chat.config", props.getPath());
+        if (ServerConfig.getInstance().getMessageHistorySize() != Math.max(1, history)) {
+            throw new IllegalStateException("ServerConfig was loaded before this fixture; run with forks enabled");
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package chat.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+// MessageHistory.add on a full ring (so every add evicts and updates the search index) and getRecent.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HistoryBench {
+    @Param({"100", "10000"})
+    int capacity;
+
+    @Param({"20"})
+    int recent;
+
+    Workloads.History history;
+
+    @Setup
+    public void setUp() {
+        history = Workloads.load("HistoryFixture", Workloads.History.class);
+        history.setUp(capacity);
+    }
+
+    @Benchmark
+    public Object add() {
+        return history.add();
+    }
+
+    @Benchmark
+    public Object getRecent() {
+        return history.getRecent(recent);
+    }
+}
@@ -0,0 +1,77 @@
+package chat.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+
+// Wire format and key/value codecs for a single CHAT message.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBench {
+
+    @State(Scope.Thread)
+    public static class FrameState {
+        @Param({"ascii", "korean", "escaped"})
+        String payload;
+
+        Workloads.Frames frames;
+
+        @Setup
+        public void setUp() throws IOException {
+            frames = Workloads.load("FrameFixture", Workloads.Frames.class);
+            frames.setUp(Workloads.payload(payload));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class CodecState {
+        @Param({"ascii", "korean", "escaped"})
+        String payload;
+
+        @Param({"text", "binary"})
+        String codec;
+
+        Workloads.Codec kv;
+
+        @Setup
+        public void setUp() {
+            kv = Workloads.load("CodecFixture", Workloads.Codec.class);
+            kv.setUp(Workloads.payload(payload), "binary".equals(codec));
+        }
+    }
+
+    @Benchmark
+    public int frameWriteTo(FrameState s) throws IOException {
+        return s.frames.writeTo();
+    }
+
+    @Benchmark
+    public Object frameReadFrom(FrameState s) throws IOException {
+        return s.frames.readFrom();
+    }
+
+    @Benchmark
+    public Object kvpEncode(CodecState s) {
+        return s.kv.encode();
+    }
+
+    @Benchmark
+    public Object kvpDecode(CodecState s) throws IOException {
+        return s.kv.decode();
+    }
+}
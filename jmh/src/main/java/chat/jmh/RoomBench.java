@@ -0,0 +1,68 @@
+package chat.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+
+// Whole-request paths through ChatServer.onFrame: a CHAT fanned out to every member of the room, and a
+// MSG_SEARCH over a full room history. Each fixture configures the server for its fork (see RoomFixture).
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoomBench {
+
+    @State(Scope.Thread)
+    public static class FanOut {
+        @Param({"10", "100", "500"})
+        int members;
+
+        Workloads.Room room;
+
+        @Setup
+        public void setUp() throws IOException {
+            room = Workloads.load("RoomFixture", Workloads.Room.class);
+            room.setUp(members, 100);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Search {
+        @Param({"1000", "100000"})
+        int history;
+
+        @Param({"deploy", "배포", "re"})
+        String keyword;
+
+        Workloads.Room room;
+
+        @Setup
+        public void setUp() throws IOException {
+            room = Workloads.load("RoomFixture", Workloads.Room.class);
+            room.setUp(10, history);
+        }
+    }
+
+    @Benchmark
+    public int handleChat(FanOut s) throws IOException {
+        return s.room.chat();
+    }
+
+    @Benchmark
+    public int handleMessageSearch(Search s) throws IOException {
+        return s.room.search(s.keyword);
+    }
+}
@@ -0,0 +1,57 @@
+package chat.jmh;
+
+import java.io.IOException;
+
+
+// JMH refuses to generate code for benchmarks in the default package, and code in a named package cannot
+// refer to the server's default-package classes. So each benchmark here drives a fixture written in the
+// default package (src/main/java/*Fixture.java) through one of these interfaces. The fixture is
+// instantiated reflectively once per trial; the measured calls are plain interface calls on a single
+// receiver class, which the JIT inlines like a direct call.
+public final class Workloads {
+    private Workloads() {}
+
+    public interface Frames {
+        void setUp(String payload) throws IOException;
+        int writeTo() throws IOException;
+        Object readFrom() throws IOException;
+    }
+
+    public interface Codec {
+        void setUp(String payload, boolean binary);
+        Object encode();
+        Object decode() throws IOException;
+    }
+
+    public interface History {
+        void setUp(int capacity);
+        Object add();
+        Object getRecent(int count);
+    }
+
+    // A ChatServer with in-memory sessions logged in to one room. Both calls go through onFrame and return
+    // the number of frames the sessions' writers then took off their queues.
+    public interface Room {
+        void setUp(int members, int history) throws IOException;
+        int chat() throws IOException;
+        int search(String keyword) throws IOException;
+    }
+
+    static <T> T load(String fixture, Class<T> type) {
+        try {
+            return type.cast(Class.forName(fixture).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load fixture " + fixture, e);
+        }
+    }
+
+    // Sample chat lines: plain ASCII, Korean, and text full of the characters the text codec escapes.
+    static String payload(String kind) {
+        return switch (kind) {
+            case "ascii" -> "hey, the deploy finished and everything looks green on the dashboard";
+            case "korean" -> "안녕하세요, 오늘 배포는 세 시에 시작합니다. 회의실은 3층입니다";
+            case "escaped" -> "progress=50% done\nkey=value %0A literal\n100%=complete";
+            default -> throw new IllegalArgumentException("Unknown payload: " + kind);
+        };
+    }
+}
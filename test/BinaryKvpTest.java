@@ -0,0 +1,34 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+
+class BinaryKvpTest {
+    @Test
+    void roundTrips() throws IOException {
+        Map<String, String> kv = Kvp.kv("room", "lobby", "msg", "héllo", "x", "");
+        assertEquals(kv, BinaryKvp.decode(BinaryKvp.encode(kv)));
+    }
+
+    // A 5-byte varint of 0x7FFFFFFF must be rejected as a length, not overflow the bounds check.
+    @Test
+    void rejectsKeyLengthNearIntMax() {
+        byte[] p = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 'a'};
+        assertThrows(IOException.class, () -> BinaryKvp.decode(p));
+    }
+
+    @Test
+    void rejectsValueLengthNearIntMax() {
+        byte[] p = {1, 'k', (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 'v'};
+        assertThrows(IOException.class, () -> BinaryKvp.decode(p));
+    }
+
+    @Test
+    void rejectsTruncatedVarint() {
+        byte[] p = {1, 'k', (byte) 0x80};
+        assertThrows(IOException.class, () -> BinaryKvp.decode(p));
+    }
+}
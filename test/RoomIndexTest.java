@@ -0,0 +1,30 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+
+class RoomIndexTest {
+    // Enough rooms to need more chunks than the table starts with.
+    @Test
+    void growsPastInitialChunkTable() {
+        RoomIndex index = new RoomIndex();
+        int n = 40_000;
+        for (int i = 0; i < n; i++) assertTrue(index.create("grow-" + i));
+        assertEquals(n, index.roomCount());
+        assertTrue(index.exists("grow-" + (n - 1)));
+        assertFalse(index.create("grow-0"));
+    }
+
+    @Test
+    void namesListsOnlyLiveRooms() {
+        RoomIndex index = new RoomIndex();
+        index.create("live-a");
+        index.create("live-b");
+        index.removeRoom("live-a");
+        assertEquals(List.of("live-b"), index.names());
+        assertEquals(1, index.roomCount());
+    }
+}
@@ -0,0 +1,30 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+
+class SendQueueTest {
+    private static Frame chat(String room, String msg) {
+        return Frame.ofText(MsgType.CHAT, 0, Kvp.encode(Kvp.kv("room", room, "msg", msg)));
+    }
+
+    // Chats collapsed from two subscribed rooms must be reported against the room each was sent to.
+    @Test
+    void collapseNoticesEachRoom() {
+        SendQueue q = new SendQueue(3, 1 << 20, OverflowPolicy.COLLAPSE,
+            (room, n) -> Frame.ofText(MsgType.CHAT, 0, Kvp.encode(Kvp.kv("room", room, "missed", String.valueOf(n)))));
+        q.offer(chat("a", "1"));
+        q.offer(chat("b", "2"));
+        q.offer(chat("a", "3"));
+        assertEquals(SendQueue.Result.DROPPED, q.offer(chat("b", "4")));
+
+        List<Map<String, String>> out = new ArrayList<>();
+        Frame f;
+        while ((f = q.poll()) != null) out.add(Kvp.decode(f));
+        assertEquals(List.of(Kvp.kv("room", "a", "missed", "2"), Kvp.kv("room", "b", "missed", "2")), out);
+        assertEquals(4, q.getCollapsed());
+    }
+}
@@ -0,0 +1,58 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+
+// Drives the wheel with explicit clock values past each deadline rather than sleeping.
+class TimingWheelTest {
+    private static final long TICK = 10;
+    private static final int SLOTS = 8;
+
+    @Test
+    void firesWithinOneTickOfDeadline() {
+        TimingWheel wheel = new TimingWheel(TICK, SLOTS);
+        AtomicInteger ran = new AtomicInteger();
+        TimingWheel.Timeout t = wheel.schedule(35, ran::incrementAndGet);
+
+        wheel.advance(t.deadline() - TICK);
+        assertEquals(0, ran.get());
+        wheel.advance(t.deadline() + TICK);
+        assertEquals(1, ran.get());
+        assertTrue(t.isExpired());
+    }
+
+    // A timeout postponed by exactly one revolution is refiled onto the bucket being visited; it must
+    // come due on the next visit, not a revolution after that.
+    @Test
+    void postponedByOneRevolutionFiresOnTime() {
+        TimingWheel wheel = new TimingWheel(TICK, SLOTS);
+        AtomicInteger ran = new AtomicInteger();
+        TimingWheel.Timeout t = wheel.schedule(35, ran::incrementAndGet);
+        long first = t.deadline();
+        // Filed under the original deadline first, so the postponement is found when its bucket comes up.
+        wheel.advance(first - 2 * TICK);
+        long deadline = first + SLOTS * TICK;
+        t.postpone(deadline);
+
+        wheel.advance(first + TICK);
+        assertEquals(0, ran.get());
+        wheel.advance(deadline - TICK);
+        assertEquals(0, ran.get());
+        wheel.advance(deadline + TICK);
+        assertEquals(1, ran.get());
+    }
+
+    @Test
+    void cancelledNeverRuns() {
+        TimingWheel wheel = new TimingWheel(TICK, SLOTS);
+        AtomicInteger ran = new AtomicInteger();
+        TimingWheel.Timeout t = wheel.schedule(20, ran::incrementAndGet);
+        assertTrue(t.cancel());
+
+        wheel.advance(t.deadline() + SLOTS * TICK);
+        assertEquals(0, ran.get());
+        assertEquals(0, wheel.size());
+    }
+}